@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import hudson.model.Hudson;
+import hudson.model.Saveable;
+import hudson.util.DescribableList;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * End to end throughput of a backup and a restore of a synthetic Jenkins home directory. The backup is made by
+ * BackupExecutor with FullBackup and restored by RestoreExecutor, once with LocalDirectory and once with
+ * ObjectStoreLocation standing in for S3. Every run prints wall time, peak heap, the high-water mark of the temporary
+ * directory and the bytes read and written, so the same shape can be compared between changes and different
+ * shapes show how the plugin scales. The options are given as name=value:
+ *
+ *   jobs, builds (per job), logSize (bytes), depth (folders above the jobs), jobsPerFolder,
+ *   storage (zip, zipMultiVolume, tarGz, tarGzBlock, tarLz4, tarZstd or null), latency (milliseconds per object store request), seed
+ *
+ * e.g. mvn -P benchmark test-compile exec:exec -Dbenchmark.main=org.jenkinsci.plugins.periodicbackup.BackupRestoreHarness
+ *      -Dbenchmark.args="jobs=10000 builds=100 logSize=2048 storage=tarGz"
+ */
+public class BackupRestoreHarness {
+
+    private final static long MB = 1024 * 1024;
+    private final Map<String, String> options;
+
+    public BackupRestoreHarness(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = Maps.newHashMap();
+        for(String arg : args) {
+            int separator = arg.indexOf('=');
+            if(separator < 0) {
+                throw new IllegalArgumentException("Options are given as name=value, not " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        BenchmarkJenkins jenkins = new BenchmarkJenkins();
+        jenkins.start();
+        try {
+            new BackupRestoreHarness(options).run();
+        } finally {
+            jenkins.stop();
+        }
+    }
+
+    public void run() throws Exception {
+        File home = Hudson.getInstance().getRootDir();
+        File work = new File(home.getParentFile(), home.getName() + "-harness");
+        File temp = new File(work, "temp");
+        SyntheticJenkinsHome generator = new SyntheticJenkinsHome(option("jobs", 100), option("builds", 10), option("logSize", 4096),
+                option("depth", 0), option("jobsPerFolder", 100), option("seed", 42));
+        System.out.println("Generating " + generator.getExpectedFilesCount() + " files in " + home.getAbsolutePath());
+        generator.generate(home);
+        long homeFiles = countFiles(home);
+        long homeBytes = FileUtils.sizeOfDirectory(home);
+        System.out.println(homeFiles + " files, " + homeBytes / MB + " MB in the Jenkins home directory");
+
+        File localDirectory = new File(work, "local");
+        File objectStoreDirectory = new File(work, "objectstore");
+        emptyDirectory(localDirectory);
+        emptyDirectory(objectStoreDirectory);
+        List<Location> locations = Lists.newArrayList();
+        locations.add(new LocalDirectory(localDirectory, true));
+        locations.add(new ObjectStoreLocation(objectStoreDirectory, option("latency", 20)));
+
+        System.out.println(String.format("%-8s %-40s %10s %10s %10s %10s %10s %10s %10s",
+                "phase", "location", "wall ms", "MB/s", "files/s", "heap MB", "temp MB", "read MB", "write MB"));
+        try {
+            for(Location location : locations) {
+                emptyDirectory(temp);
+
+                DescribableList<Storage, StorageDescriptor> storages = new DescribableList<Storage, StorageDescriptor>(Saveable.NOOP);
+                storages.add(createStorage(options.containsKey("storage") ? options.get("storage") : "zip"));
+                DescribableList<Location, LocationDescriptor> backupLocations = new DescribableList<Location, LocationDescriptor>(Saveable.NOOP);
+                backupLocations.add(location);
+
+                ResourceMonitor backup = new ResourceMonitor(temp, 500);
+                backup.start();
+                new BackupExecutor().backup(new FullBackup(), storages, backupLocations, temp.getAbsolutePath(), 1000, 3650);
+                backup.stop();
+                print("backup", location, backup, homeBytes, homeFiles);
+
+                BackupObject backupObject = Iterables.getLast(location.getAvailableBackups());
+                ResourceMonitor restore = new ResourceMonitor(temp, 500);
+                restore.start();
+                new RestoreExecutor(backupObject, temp.getAbsolutePath()).run();
+                restore.stop();
+                print("restore", location, restore, homeBytes, homeFiles);
+
+                long restoredFiles = countFiles(home);
+                if(restoredFiles != homeFiles) {
+                    System.out.println("WARNING: " + restoredFiles + " files after the restore instead of " + homeFiles);
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(work);
+        }
+    }
+
+    private static Storage createStorage(String type) {
+        if("zip".equals(type)) {
+            return new ZipStorage(false, 0);
+        }
+        if("zipMultiVolume".equals(type)) {
+            return new ZipStorage(true, 256 * MB);
+        }
+        if("tarGz".equals(type)) {
+            return new TarGzStorage(false);
+        }
+        if("tarGzBlock".equals(type)) {
+            return new TarGzStorage(true);
+        }
+        if("tarLz4".equals(type)) {
+            return new TarStorage(TarCodec.LZ4, 0);
+        }
+        if("tarZstd".equals(type)) {
+            return new TarStorage(TarCodec.ZSTD, 0);
+        }
+        if("null".equals(type)) {
+            return new NullStorage();
+        }
+        throw new IllegalArgumentException("Unknown storage " + type);
+    }
+
+    private static void print(String phase, Location location, ResourceMonitor monitor, long bytes, long files) {
+        double seconds = Math.max(monitor.getWallTime(), 1) / 1000.0;
+        System.out.println(String.format("%-8s %-40s %10d %10.1f %10.0f %10d %10d %10s %10s",
+                phase, location.getDisplayName(), monitor.getWallTime(), bytes / (double) MB / seconds, files / seconds,
+                monitor.getPeakHeap() / MB, monitor.getTempHighWaterMark() / MB,
+                megabytes(monitor.getBytesRead()), megabytes(monitor.getBytesWritten())));
+    }
+
+    private static String megabytes(long bytes) {
+        return bytes < 0 ? "n/a" : String.valueOf(bytes / MB);
+    }
+
+    private int option(String name, int defaultValue) {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+    }
+
+    private static long countFiles(File directory) {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            return 0;
+        }
+        long count = 0;
+        for(File file : files) {
+            count += file.isDirectory() ? countFiles(file) : 1;
+        }
+        return count;
+    }
+
+    private static void emptyDirectory(File directory) throws IOException {
+        if(directory.exists()) {
+            FileUtils.deleteDirectory(directory);
+        }
+        if(!directory.mkdirs()) {
+            throw new IOException("Could not create " + directory.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Logger;
+
+/**
+ *
+ * ObjectStoreLocation is an in-process stand-in for S3: the backup is stored as objects with flat keys (an archive
+ * directory becomes one object per file, like "archive/path"), every object is put and got as a whole or by range,
+ * and every request waits for the given latency. The objects are kept as files named by their encoded keys.
+ */
+public class ObjectStoreLocation extends Location {
+
+    private static final Logger LOGGER = Logger.getLogger(ObjectStoreLocation.class.getName());
+    private static final LocationDescriptor DESCRIPTOR = new DescriptorImpl();
+    private final File storeDirectory;
+    private final long requestLatency;          // Milliseconds every request takes, like the round trip to S3
+
+    public ObjectStoreLocation(File storeDirectory, long requestLatency) {
+        super(true);
+        this.storeDirectory = storeDirectory;
+        this.requestLatency = requestLatency;
+    }
+
+    @Override
+    public Iterable<BackupObject> getAvailableBackups() {
+        List<BackupObject> backups = Lists.newArrayList();
+        try {
+            for(String key : listKeys()) {
+                if(key.endsWith("." + BackupObject.EXTENSION)) {
+                    backups.add(BackupObject.getFromString().apply(Files.toString(getObject(key), Charset.defaultCharset())));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Could not list the backups. " + e.getMessage());
+        }
+        Collections.sort(backups);
+        return backups;
+    }
+
+    @Override
+    public void storeBackupInLocation(Iterable<File> archives, File backupObjectFile) throws IOException {
+        for(File archive : archives) {
+            if(archive.isDirectory()) {
+                putDirectory(archive.getName(), archive);
+            }
+            else {
+                putObject(archive.getName(), archive);
+            }
+        }
+        putObject(backupObjectFile.getName(), backupObjectFile);
+    }
+
+    private void putDirectory(String prefix, File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            throw new IOException("Could not list " + directory.getAbsolutePath());
+        }
+        for(File file : files) {
+            if(file.isDirectory()) {
+                putDirectory(prefix + "/" + file.getName(), file);
+            }
+            else {
+                putObject(prefix + "/" + file.getName(), file);
+            }
+        }
+    }
+
+    @Override
+    public Iterable<File> retrieveBackupFromLocation(BackupObject backup, File tempDir) throws IOException, PeriodicBackupException {
+        List<File> retrieved = Lists.newArrayList();
+        Map<String, List<String>> archives = getArchiveKeys(backup);
+        for(String archive : archives.keySet()) {
+            retrieved.add(download(archive, archives.get(archive), tempDir));
+        }
+        return retrieved;
+    }
+
+    @Override
+    public void retrieveBackupFromLocation(BackupObject backup, File tempDir, Predicate<String> archiveFilter, BlockingQueue<File> retrieved) throws IOException, PeriodicBackupException, InterruptedException {
+        Map<String, List<String>> archives = getArchiveKeys(backup);
+        for(String archive : archives.keySet()) {
+            if(archiveFilter.apply(archive)) {
+                retrieved.put(download(archive, archives.get(archive), tempDir));
+            }
+        }
+    }
+
+    /**
+     * @param backup BackupObject related to the backup
+     * @return keys of the objects of every archive of the backup, the archives are in volume order
+     * @throws PeriodicBackupException if the backup has no archives
+     */
+    private Map<String, List<String>> getArchiveKeys(BackupObject backup) throws PeriodicBackupException {
+        String timestamp = Util.getFormattedDate(BackupObject.FILE_TIMESTAMP_PATTERN, backup.getTimestamp());
+        Map<String, List<String>> keysByArchive = Maps.newHashMap();
+        for(String key : listKeys()) {
+            if(key.contains(timestamp) && !key.endsWith(BackupObject.EXTENSION) && !key.endsWith(ArchiveIndex.EXTENSION)) {
+                String archive = key.contains("/") ? key.substring(0, key.indexOf('/')) : key;
+                if(!keysByArchive.containsKey(archive)) {
+                    keysByArchive.put(archive, Lists.<String>newArrayList());
+                }
+                keysByArchive.get(archive).add(key);
+            }
+        }
+        if(keysByArchive.isEmpty()) {
+            throw new PeriodicBackupException("Backup archives do not exist in " + getDisplayName());
+        }
+        List<File> archives = Lists.newArrayList();
+        for(String archive : keysByArchive.keySet()) {
+            archives.add(new File(archive));
+        }
+        Collections.sort(archives, Util.archiveVolumeOrder());
+        Map<String, List<String>> ordered = Maps.newLinkedHashMap();
+        for(File archive : archives) {
+            ordered.put(archive.getName(), keysByArchive.get(archive.getName()));
+        }
+        return ordered;
+    }
+
+    private File download(String archive, List<String> keys, File tempDir) throws IOException {
+        File destination = new File(tempDir, archive);
+        for(String key : keys) {
+            File file = key.equals(archive) ? destination : new File(tempDir, key);
+            request();
+            LOGGER.info("Downloading " + key + " to " + file.getAbsolutePath());
+            FileUtils.copyFile(getObject(key), file);
+        }
+        return destination;
+    }
+
+    @Override
+    public void storeArchiveIndexInLocation(File indexFile, BackupObject backup) throws IOException {
+        putObject(indexFile.getName(), indexFile);
+    }
+
+    @Override
+    public InputStream retrieveArchiveIndexFromLocation(BackupObject backup) throws IOException {
+        File index = getObject(Util.createFileName(Util.generateFileNameBase(backup.getTimestamp()), ArchiveIndex.EXTENSION));
+        if(!index.exists()) {
+            return null;
+        }
+        request();
+        return new FileInputStream(index);
+    }
+
+    @Override
+    public InputStream openArchiveRange(BackupObject backup, String archiveName, long offset, long length) throws IOException, PeriodicBackupException {
+        File object = getObject(archiveName);
+        if(!object.isFile()) {
+            throw new PeriodicBackupException("Object " + archiveName + " does not exist in " + getDisplayName());
+        }
+        request();
+        FileInputStream in = new FileInputStream(object);
+        in.getChannel().position(offset);
+        return Util.limitedInputStream(in, length);
+    }
+
+    @Override
+    public void deleteBackupFiles(BackupObject backupObject) {
+        String filenamePart = Util.generateFileNameBase(backupObject.getTimestamp());
+        for(String key : listKeys()) {
+            if(key.contains(filenamePart)) {
+                request();
+                if(!getObject(key).delete()) {
+                    LOGGER.warning("Could not delete object " + key);
+                }
+            }
+        }
+    }
+
+    private void putObject(String key, File file) throws IOException {
+        request();
+        LOGGER.info("Uploading " + file.getAbsolutePath() + " as " + key);
+        Files.copy(file, getObject(key));
+    }
+
+    private File getObject(String key) {
+        try {
+            return new File(storeDirectory, URLEncoder.encode(key, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private List<String> listKeys() {
+        request();
+        List<String> keys = Lists.newArrayList();
+        String[] names = storeDirectory.list();
+        if(names == null) {
+            return keys;
+        }
+        for(String name : names) {
+            try {
+                keys.add(URLDecoder.decode(name, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return keys;
+    }
+
+    private void request() {
+        if(requestLatency > 0) {
+            try {
+                Thread.sleep(requestLatency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public String getDisplayName() {
+        return "ObjectStore: " + storeDirectory;
+    }
+
+    @Override
+    public LocationDescriptor getDescriptor() {
+        // Not registered as an extension, it is only used by the benchmarks
+        return DESCRIPTOR;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof ObjectStoreLocation) {
+            ObjectStoreLocation that = (ObjectStoreLocation) o;
+            return Objects.equal(this.storeDirectory, that.storeDirectory);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(storeDirectory);
+    }
+
+    public static class DescriptorImpl extends LocationDescriptor {
+        public String getDisplayName() {
+            return "ObjectStore";
+        }
+    }
+}
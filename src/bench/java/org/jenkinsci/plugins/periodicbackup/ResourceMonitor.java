@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+
+/**
+ *
+ * ResourceMonitor measures what a single run of the harness costs: wall time, peak heap, the high-water mark
+ * of the temporary directory and the bytes read and written by the process. The temporary directory is sampled
+ * by a background thread, the IO counters come from /proc/self/io and are -1 where it does not exist.
+ */
+public class ResourceMonitor {
+
+    private final File tempDirectory;
+    private final long sampleInterval;
+    private volatile boolean running;
+    private volatile long tempHighWaterMark;
+    private Thread sampler;
+    private long startNanos;
+    private long startRead;
+    private long startWritten;
+
+    private long wallTime;
+    private long peakHeap;
+    private long bytesRead;
+    private long bytesWritten;
+
+    /**
+     * @param tempDirectory directory whose size is sampled
+     * @param sampleInterval milliseconds between the samples
+     */
+    public ResourceMonitor(File tempDirectory, long sampleInterval) {
+        this.tempDirectory = tempDirectory;
+        this.sampleInterval = sampleInterval;
+    }
+
+    public void start() {
+        System.gc();
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+        tempHighWaterMark = 0;
+        running = true;
+        sampler = new Thread(new Runnable() {
+            public void run() {
+                while(running) {
+                    tempHighWaterMark = Math.max(tempHighWaterMark, sizeOf(tempDirectory));
+                    try {
+                        Thread.sleep(sampleInterval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "Periodic Backup harness sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+        startRead = readIoCounter("rchar");
+        startWritten = readIoCounter("wchar");
+        startNanos = System.nanoTime();
+    }
+
+    public void stop() throws InterruptedException {
+        wallTime = (System.nanoTime() - startNanos) / 1000000;
+        long read = readIoCounter("rchar");
+        long written = readIoCounter("wchar");
+        bytesRead = read < 0 ? -1 : read - startRead;
+        bytesWritten = written < 0 ? -1 : written - startWritten;
+        running = false;
+        sampler.interrupt();
+        sampler.join();
+        peakHeap = 0;
+        // The sum of the pool peaks is an upper bound, the pools do not peak at the same time
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+    }
+
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    public long getPeakHeap() {
+        return peakHeap;
+    }
+
+    public long getTempHighWaterMark() {
+        return tempHighWaterMark;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     *
+     * Adds up the sizes of the files, the files may disappear while they are counted
+     *
+     * @param file file or directory
+     * @return size in bytes
+     */
+    private static long sizeOf(File file) {
+        File[] files = file.listFiles();
+        if(files == null) {
+            return file.length();
+        }
+        long size = 0;
+        for(File child : files) {
+            size += sizeOf(child);
+        }
+        return size;
+    }
+
+    /**
+     * @param name name of the counter in /proc/self/io
+     * @return value of the counter or -1 if it is not available
+     */
+    private static long readIoCounter(String name) {
+        File io = new File("/proc/self/io");
+        if(!io.exists()) {
+            return -1;
+        }
+        try {
+            for(String line : Files.readLines(io, Charset.defaultCharset())) {
+                if(line.startsWith(name + ":")) {
+                    return Long.parseLong(line.substring(name.length() + 1).trim());
+                }
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Lists;
+import hudson.model.Hudson;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ *
+ * Common state of the Storage benchmarks: a Jenkins instance, the synthetic files inside its home directory
+ * and the Storage under test. The files are created once per trial.
+ */
+@State(Scope.Benchmark)
+public abstract class StorageBenchmarkBase {
+
+    private final static long MB = 1024 * 1024;
+
+    @Param({"zip", "zipMultiVolume", "tarGz", "tarGzBlock", "tarLz4", "tarZstd", "null"})
+    public String storageType;
+
+    @Param({"smallXml", "largeLogs", "compressedArtifacts"})
+    public String content;
+
+    protected BenchmarkJenkins jenkins;
+    protected File workDirectory;
+    protected List<File> files;
+    protected long filesSize;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        jenkins = new BenchmarkJenkins();
+        jenkins.start();
+        File root = Hudson.getInstance().getRootDir();
+        workDirectory = new File(root.getParentFile(), root.getName() + "-benchmark");
+        SyntheticFiles generator = new SyntheticFiles(42);
+        File contentDirectory = new File(root, "jobs/" + content);
+        if("smallXml".equals(content)) {
+            files = generator.smallXmlFiles(contentDirectory, 5000);
+        }
+        else if("largeLogs".equals(content)) {
+            files = generator.largeLogs(contentDirectory, 8, 16 * MB);
+        }
+        else {
+            files = generator.compressedArtifacts(contentDirectory, 8, 16 * MB);
+        }
+        filesSize = 0;
+        for(File file : files) {
+            filesSize += file.length();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws Exception {
+        FileUtils.deleteDirectory(workDirectory);
+        jenkins.stop();
+    }
+
+    /**
+     * @return new instance of the Storage under test
+     */
+    protected Storage createStorage() {
+        if("zip".equals(storageType)) {
+            return new ZipStorage(false, 0);
+        }
+        if("zipMultiVolume".equals(storageType)) {
+            return new ZipStorage(true, 32 * MB);
+        }
+        if("tarGz".equals(storageType)) {
+            return new TarGzStorage(false);
+        }
+        if("tarGzBlock".equals(storageType)) {
+            return new TarGzStorage(true);
+        }
+        if("tarLz4".equals(storageType)) {
+            return new TarStorage(TarCodec.LZ4, 0);
+        }
+        if("tarZstd".equals(storageType)) {
+            return new TarStorage(TarCodec.ZSTD, 0);
+        }
+        return new NullStorage();
+    }
+
+    /**
+     *
+     * Creates the archives of all the files
+     *
+     * @param storage Storage creating the archives
+     * @param directory directory where the archives will be created
+     * @return created archives
+     * @throws PeriodicBackupException if the Storage fails
+     */
+    protected List<File> backup(Storage storage, File directory) throws PeriodicBackupException {
+        storage.backupStart(directory.getAbsolutePath(), "benchmark");
+        for(File file : files) {
+            storage.backupAddFile(file);
+        }
+        return Lists.newArrayList(storage.backupStop());
+    }
+
+    protected static void emptyDirectory(File directory) throws IOException {
+        if(directory.exists()) {
+            FileUtils.deleteDirectory(directory);
+        }
+        if(!directory.mkdirs()) {
+            throw new IOException("Could not create " + directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     *
+     * Bytes and files processed by the benchmark, JMH reports them per second next to the score,
+     * run with -prof gc to get the allocation rate as well
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Processed {
+        public long bytes;
+        public long files;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            files = 0;
+        }
+
+        void add(long bytes, long files) {
+            this.bytes += bytes;
+            this.files += files;
+        }
+    }
+}
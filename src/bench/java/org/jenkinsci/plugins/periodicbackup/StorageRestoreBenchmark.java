@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Measures extracting the archives with unarchiveFiles. The archives are created once per trial,
+ * the storages delete the extracted archives so a fresh copy is made before every invocation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StorageRestoreBenchmark extends StorageBenchmarkBase {
+
+    private Storage storage;
+    private List<File> preparedArchives;
+    private List<File> archives;
+    private File resultDirectory;
+
+    @Setup(Level.Trial)
+    public void prepareArchives() throws Exception {
+        File preparedDirectory = new File(workDirectory, "prepared");
+        emptyDirectory(preparedDirectory);
+        storage = createStorage();
+        preparedArchives = backup(storage, preparedDirectory);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws Exception {
+        File archiveDirectory = new File(workDirectory, "archives");
+        emptyDirectory(archiveDirectory);
+        archives = Lists.newArrayList();
+        for(File prepared : preparedArchives) {
+            File archive = new File(archiveDirectory, prepared.getName());
+            if(prepared.isDirectory()) {
+                FileUtils.copyDirectory(prepared, archive);
+            }
+            else {
+                FileUtils.copyFile(prepared, archive);
+            }
+            archives.add(archive);
+        }
+        resultDirectory = new File(workDirectory, "result");
+        emptyDirectory(resultDirectory);
+    }
+
+    @Benchmark
+    public File unarchive(Processed processed) throws Exception {
+        storage.unarchiveFiles(archives, resultDirectory);
+        processed.add(filesSize, files.size());
+        return resultDirectory;
+    }
+}
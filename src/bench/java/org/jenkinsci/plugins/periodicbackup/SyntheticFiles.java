@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Lists;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+
+/**
+ *
+ * SyntheticFiles creates the kinds of files found in a Jenkins home directory: many small xml files,
+ * large build logs which compress well and already compressed artifacts which do not compress at all.
+ * The content depends only on the seed, so every run of a benchmark works with the same data.
+ */
+public class SyntheticFiles {
+
+    private final Random random;
+
+    public SyntheticFiles(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     *
+     * Creates small configuration files, 1 to 4 kB each, spread over directories of 100 files
+     *
+     * @param directory directory where the files will be created
+     * @param count number of the files
+     * @return created files
+     * @throws IOException if a file cannot be written
+     */
+    public List<File> smallXmlFiles(File directory, int count) throws IOException {
+        List<File> files = Lists.newArrayList();
+        for(int i = 0; i < count; i++) {
+            File file = new File(directory, "job" + (i / 100) + "/config" + i + ".xml");
+            StringBuilder content = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n<project>\n");
+            int properties = 20 + random.nextInt(80);
+            for(int j = 0; j < properties; j++) {
+                content.append("  <property name=\"p").append(j).append("\">").append(Long.toHexString(random.nextLong())).append("</property>\n");
+            }
+            content.append("</project>\n");
+            files.add(write(file, content.toString().getBytes("UTF-8")));
+        }
+        return files;
+    }
+
+    /**
+     *
+     * Creates build logs, the lines repeat with varying numbers like in a real build
+     *
+     * @param directory directory where the files will be created
+     * @param count number of the files
+     * @param size size of every file in bytes
+     * @return created files
+     * @throws IOException if a file cannot be written
+     */
+    public List<File> largeLogs(File directory, int count, long size) throws IOException {
+        String[] templates = { "[INFO] Building module-%d 1.0-SNAPSHOT\n", "[INFO] Compiling %d source files to /var/lib/jenkins/workspace/target/classes\n",
+                "Tests run: %d, Failures: 0, Errors: 0, Skipped: 0\n", "[WARNING] File encoding has not been set, build is platform dependent (%d)\n" };
+        List<File> files = Lists.newArrayList();
+        for(int i = 0; i < count; i++) {
+            File file = new File(directory, "builds/" + i + "/log");
+            if(!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Could not create " + file.getParentFile().getAbsolutePath());
+            }
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                long written = 0;
+                while(written < size) {
+                    byte[] line = String.format(templates[random.nextInt(templates.length)], random.nextInt(1000)).getBytes("UTF-8");
+                    int length = (int) Math.min(line.length, size - written);
+                    out.write(line, 0, length);
+                    written += length;
+                }
+            } finally {
+                out.close();
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     *
+     * Creates artifacts with random content, which is what compressed files look like to a compressor
+     *
+     * @param directory directory where the files will be created
+     * @param count number of the files
+     * @param size size of every file in bytes
+     * @return created files
+     * @throws IOException if a file cannot be written
+     */
+    public List<File> compressedArtifacts(File directory, int count, long size) throws IOException {
+        List<File> files = Lists.newArrayList();
+        byte[] buffer = new byte[64 * 1024];
+        for(int i = 0; i < count; i++) {
+            File file = new File(directory, "archive/artifact" + i + ".jar");
+            if(!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Could not create " + file.getParentFile().getAbsolutePath());
+            }
+            OutputStream out = new FileOutputStream(file);
+            try {
+                long written = 0;
+                while(written < size) {
+                    random.nextBytes(buffer);
+                    int length = (int) Math.min(buffer.length, size - written);
+                    out.write(buffer, 0, length);
+                    written += length;
+                }
+            } finally {
+                out.close();
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static File write(File file, byte[] content) throws IOException {
+        if(!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Could not create " + file.getParentFile().getAbsolutePath());
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
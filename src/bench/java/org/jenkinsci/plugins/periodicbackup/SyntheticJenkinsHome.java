@@ -0,0 +1,230 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ *
+ * SyntheticJenkinsHome creates a Jenkins home directory of the given shape: global configuration, users, nodes,
+ * secrets and jobs with their builds (build.xml, changelog.xml and log). The jobs can be nested in folders the way
+ * the folders plugin stores them (jobs/folder/jobs/job). The content only depends on the seed, so the same shape
+ * always gives the same files, and it is written file by file so millions of files can be created.
+ */
+public class SyntheticJenkinsHome {
+
+    private final static String[] LOG_LINES = { "[INFO] Building module-%d 1.0-SNAPSHOT\n",
+            "[INFO] Compiling %d source files to /var/lib/jenkins/workspace/target/classes\n",
+            "Tests run: %d, Failures: 0, Errors: 0, Skipped: 0\n",
+            "[WARNING] File encoding has not been set, build is platform dependent (%d)\n" };
+    private final static long BUILD_INTERVAL = 3600 * 1000;
+
+    private final int jobs;
+    private final int buildsPerJob;
+    private final long logSize;
+    private final int folderDepth;
+    private final int jobsPerFolder;
+    private final long seed;
+    private final SimpleDateFormat buildIdFormat = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
+    private long filesCount;
+    private long bytesCount;
+
+    /**
+     * @param jobs number of the jobs
+     * @param buildsPerJob number of the builds kept for every job
+     * @param logSize size of every build log in bytes
+     * @param folderDepth number of the folders above every job, 0 puts all the jobs directly in jobs/
+     * @param jobsPerFolder number of the jobs or folders inside every folder
+     * @param seed seed of the generated content
+     */
+    public SyntheticJenkinsHome(int jobs, int buildsPerJob, long logSize, int folderDepth, int jobsPerFolder, long seed) {
+        this.jobs = jobs;
+        this.buildsPerJob = buildsPerJob;
+        this.logSize = logSize;
+        this.folderDepth = folderDepth;
+        this.jobsPerFolder = Math.max(1, jobsPerFolder);
+        this.seed = seed;
+        buildIdFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * @return number of the files the shape gives
+     */
+    public long getExpectedFilesCount() {
+        long folders = 0;
+        long level = jobs;
+        for(int i = 0; i < folderDepth; i++) {
+            level = (level + jobsPerFolder - 1) / jobsPerFolder;
+            folders += level;
+        }
+        // Global configuration, users, nodes and secrets: 6 files
+        return 6 + folders + jobs * (2L + 3L * buildsPerJob);
+    }
+
+    public long getFilesCount() {
+        return filesCount;
+    }
+
+    public long getBytesCount() {
+        return bytesCount;
+    }
+
+    /**
+     *
+     * Writes the whole Jenkins home directory
+     *
+     * @param home Jenkins home directory, existing files with the same names are overwritten
+     * @throws IOException if a file cannot be written
+     */
+    public void generate(File home) throws IOException {
+        filesCount = 0;
+        bytesCount = 0;
+        Random random = new Random(seed);
+        write(new File(home, "config.xml"), "<?xml version='1.0' encoding='UTF-8'?>\n<hudson>\n  <version>1.399</version>\n"
+                + "  <numExecutors>2</numExecutors>\n  <useSecurity>true</useSecurity>\n</hudson>\n");
+        write(new File(home, "hudson.tasks.Maven.xml"), "<?xml version='1.0' encoding='UTF-8'?>\n<hudson.tasks.Maven_-DescriptorImpl/>\n");
+        write(new File(home, "users/admin/config.xml"), "<?xml version='1.0' encoding='UTF-8'?>\n<user>\n  <fullName>admin</fullName>\n</user>\n");
+        write(new File(home, "nodes/slave1/config.xml"), "<?xml version='1.0' encoding='UTF-8'?>\n<slave>\n  <name>slave1</name>\n"
+                + "  <remoteFS>/var/lib/jenkins</remoteFS>\n  <numExecutors>1</numExecutors>\n</slave>\n");
+        write(new File(home, "secrets/master.key"), Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong()) + "\n");
+        write(new File(home, "secret.key"), Long.toHexString(random.nextLong()) + "\n");
+
+        for(int job = 0; job < jobs; job++) {
+            File jobDirectory = new File(home, jobPath(job));
+            // Every job gets its own generator, so the content of a job does not depend on the other jobs
+            generateJob(jobDirectory, job, new Random(seed * 31 + job));
+        }
+        generateFolders(home);
+    }
+
+    /**
+     * @param level depth of the folder, 1 is the folder directly in jobs/
+     * @return number of the jobs inside a folder at the given depth
+     */
+    private long jobsInFolder(int level) {
+        long count = 1;
+        for(int i = level; i <= folderDepth; i++) {
+            count *= jobsPerFolder;
+        }
+        return count;
+    }
+
+    /**
+     * @param job index of the job
+     * @return path of the job directory relative to the Jenkins home directory
+     */
+    private String jobPath(int job) {
+        StringBuilder path = new StringBuilder();
+        for(int level = 1; level <= folderDepth; level++) {
+            path.append("jobs/folder").append(level).append('-').append(job / jobsInFolder(level)).append('/');
+        }
+        return path.append("jobs/job").append(job).toString();
+    }
+
+    private void generateFolders(File home) throws IOException {
+        for(int level = 1; level <= folderDepth; level++) {
+            for(long first = 0; first < jobs; first += jobsInFolder(level)) {
+                // The folder is the beginning of the path of its first job
+                String path = jobPath((int) first);
+                int end = -1;
+                for(int i = 0; i < 2 * level; i++) {
+                    end = path.indexOf('/', end + 1);
+                }
+                File folder = new File(home, path.substring(0, end));
+                write(new File(folder, "config.xml"), "<?xml version='1.0' encoding='UTF-8'?>\n"
+                        + "<com.cloudbees.hudson.plugins.folder.Folder>\n  <description>" + folder.getName() + "</description>\n"
+                        + "</com.cloudbees.hudson.plugins.folder.Folder>\n");
+            }
+        }
+    }
+
+    private void generateJob(File jobDirectory, int job, Random random) throws IOException {
+        StringBuilder config = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n<project>\n  <description>Job ")
+                .append(job).append("</description>\n  <keepDependencies>false</keepDependencies>\n  <properties/>\n")
+                .append("  <scm class=\"hudson.scm.NullSCM\"/>\n  <canRoam>true</canRoam>\n  <disabled>false</disabled>\n")
+                .append("  <triggers class=\"vector\"/>\n  <builders>\n    <hudson.tasks.Shell>\n      <command>make -j")
+                .append(1 + random.nextInt(8)).append(" target").append(random.nextInt(100)).append("</command>\n")
+                .append("    </hudson.tasks.Shell>\n  </builders>\n  <publishers/>\n  <buildWrappers/>\n</project>\n");
+        write(new File(jobDirectory, "config.xml"), config.toString());
+        write(new File(jobDirectory, "nextBuildNumber"), (buildsPerJob + 1) + "\n");
+
+        long firstBuild = 1293840000000L + job * 60000L; // 2011-01-01 plus one minute per job
+        for(int build = 1; build <= buildsPerJob; build++) {
+            long timestamp = firstBuild + build * BUILD_INTERVAL;
+            File buildDirectory = new File(jobDirectory, "builds/" + buildIdFormat.format(new Date(timestamp)));
+            write(new File(buildDirectory, "build.xml"), "<?xml version='1.0' encoding='UTF-8'?>\n<build>\n  <actions/>\n"
+                    + "  <number>" + build + "</number>\n  <result>" + (random.nextInt(10) == 0 ? "FAILURE" : "SUCCESS") + "</result>\n"
+                    + "  <duration>" + random.nextInt(3600000) + "</duration>\n  <charset>UTF-8</charset>\n</build>\n");
+            write(new File(buildDirectory, "changelog.xml"), "<log/>\n");
+            writeLog(new File(buildDirectory, "log"), random);
+        }
+    }
+
+    private void writeLog(File file, Random random) throws IOException {
+        createParent(file);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            long written = 0;
+            while(written < logSize) {
+                byte[] line = String.format(LOG_LINES[random.nextInt(LOG_LINES.length)], random.nextInt(1000)).getBytes("UTF-8");
+                int length = (int) Math.min(line.length, logSize - written);
+                out.write(line, 0, length);
+                written += length;
+            }
+        } finally {
+            out.close();
+        }
+        filesCount++;
+        bytesCount += logSize;
+    }
+
+    private void write(File file, String content) throws IOException {
+        createParent(file);
+        byte[] bytes = content.getBytes("UTF-8");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        filesCount++;
+        bytesCount += bytes.length;
+    }
+
+    private static void createParent(File file) throws IOException {
+        File parent = file.getParentFile();
+        if(!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.List;
+
+/**
+ *
+ * ArchiveIndex is the table of contents of a backup, it is stored next to the archives in the location.
+ * For every backed up file it tells in which archive (volume) the file is and where in that archive its data is,
+ * so single files can be restored without retrieving the whole backup.
+ * The index is a text file with one tab separated line per entry.
+ */
+public class ArchiveIndex {
+
+    public final static String EXTENSION = "pbidx";
+    private final static String HEADER = "# periodicbackup archive index 1";
+
+    /**
+     *
+     * Location of a single file inside the backup archives. The meaning of the offset and length is defined
+     * by the Storage which created the archives, offset -1 means the archive has to be read from the beginning.
+     */
+    public static class Entry {
+        private final String path;
+        private final String archive;
+        private final long offset;
+        private final long length;
+        private final long size;
+        private final String encoding;
+
+        public Entry(String path, String archive, long offset, long length, long size, String encoding) {
+            this.path = path;
+            this.archive = archive;
+            this.offset = offset;
+            this.length = length;
+            this.size = size;
+            this.encoding = encoding;
+        }
+
+        /**
+         * @return path of the file relative to the Jenkins home directory
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return name of the archive containing the file
+         */
+        public String getArchive() {
+            return archive;
+        }
+
+        /**
+         * @return position of the stored data inside the archive
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return length of the stored data inside the archive
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return size of the file
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return how the stored data is encoded, defined by the Storage
+         */
+        public String getEncoding() {
+            return encoding;
+        }
+
+        public boolean isSeekable() {
+            return offset >= 0;
+        }
+    }
+
+    /**
+     *
+     * Writes the index entries to a file as they come
+     */
+    public static class Writer {
+        private final File file;
+        private final BufferedWriter out;
+        private int entriesCount = 0;
+
+        public Writer(File file) throws IOException {
+            this.file = file;
+            this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8));
+            out.write(HEADER);
+            out.newLine();
+        }
+
+        public void add(Entry entry) throws IOException {
+            out.write(escape(entry.path));
+            out.write('\t');
+            out.write(escape(entry.archive));
+            out.write('\t');
+            out.write(Long.toString(entry.offset));
+            out.write('\t');
+            out.write(Long.toString(entry.length));
+            out.write('\t');
+            out.write(Long.toString(entry.size));
+            out.write('\t');
+            out.write(entry.encoding);
+            out.newLine();
+            entriesCount++;
+        }
+
+        public int getEntriesCount() {
+            return entriesCount;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     *
+     * Reads the entries with matching paths from an index
+     *
+     * @param in stream with the content of the index file, it will be closed
+     * @param pathFilter Predicate deciding which paths will be returned
+     * @return index entries with matching paths in the order they were written
+     * @throws IOException if the index cannot be read or it is not an index
+     */
+    public static List<Entry> read(InputStream in, Predicate<String> pathFilter) throws IOException {
+        List<Entry> entries = Lists.newArrayList();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8));
+        try {
+            if(!HEADER.equals(reader.readLine())) {
+                throw new IOException("Not a backup archive index");
+            }
+            String line;
+            while((line = reader.readLine()) != null) {
+                // Most of the lines are skipped, so the path is checked before the whole line is parsed
+                int pathEnd = line.indexOf('\t');
+                String path = unescape(line.substring(0, pathEnd));
+                if(pathFilter.apply(path)) {
+                    String[] fields = line.substring(pathEnd + 1).split("\t");
+                    if(fields.length != 5) {
+                        throw new IOException("Corrupted backup archive index line: " + line);
+                    }
+                    entries.add(new Entry(path, unescape(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                            Long.parseLong(fields[3]), fields[4]));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    /**
+     *
+     * Creates a Predicate matching the given paths, a path ending with / matches the whole directory
+     *
+     * @param paths paths relative to the Jenkins home directory
+     * @return Predicate for read(InputStream, Predicate)
+     */
+    public static Predicate<String> pathsFilter(final Iterable<String> paths) {
+        return new Predicate<String>() {
+            public boolean apply(String path) {
+                for(String requested : paths) {
+                    if(requested.endsWith("/") ? path.startsWith(requested) : path.equals(requested)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    private static String escape(String s) {
+        if(s.indexOf('\\') < 0 && s.indexOf('\t') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            return s;
+        }
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String s) {
+        if(s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if(c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
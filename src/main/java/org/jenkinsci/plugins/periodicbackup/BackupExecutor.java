@@ -24,8 +24,10 @@
 
 package org.jenkinsci.plugins.periodicbackup;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
+import hudson.model.Hudson;
 import hudson.util.DescribableList;
 import org.apache.commons.io.FileUtils;
 import org.codehaus.plexus.archiver.ArchiverException;
@@ -33,27 +35,99 @@ import org.codehaus.plexus.archiver.ArchiverException;
 import java.io.File;
 import java.io.IOException;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.logging.Logger;
 
 public class BackupExecutor {
 
-    private final Set<File> filesToBackup = Sets.newHashSet();
+    private CompactPathStore criticalFiles;                 // Stored first, in their own volume if possible
+    private Map<FileType, CompactPathStore> otherFiles;     // Stored afterwards, grouped by their type
+    private final BackupStats stats = new BackupStats();
+    private final BackupProgress progress;
+    private HotFileReport hotFiles;
     private static final Logger LOGGER = Logger.getLogger(BackupExecutor.class.getName());
 
+    public BackupExecutor() {
+        this(new BackupProgress());
+    }
+
+    /**
+     * @param progress progress of the backup updated by this executor, it is used to cancel the backup
+     */
+    public BackupExecutor(BackupProgress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * @return duration, files and bytes of every phase of the backup
+     */
+    public BackupStats getStats() {
+        return stats;
+    }
+
     public void backup(FileManager fileManager,
                        DescribableList<Storage, StorageDescriptor> storages,
                        DescribableList<Location, LocationDescriptor> locations,
                        String tempDirectory,
                        int cycleQuantity,
                        int cycleDays) throws ArchiverException, PeriodicBackupException, IOException {
-        long start = System.currentTimeMillis(); // Measure the duration of the backup
+        boolean successful = false;
+        progress.start(BackupProgress.BACKUP);
+        try {
+            performBackup(fileManager, storages, locations, tempDirectory, cycleQuantity, cycleDays);
+            successful = true;
+        } finally {
+            stats.finish(successful);
+            progress.finish();
+        }
+        for (BackupStats.Phase phase : stats.getPhases()) {
+            LOGGER.info(phase.toString());
+        }
+        LOGGER.info("Backup finished successfully after " + stats.getDuration() + " ms" );
+    }
+
+    private void performBackup(FileManager fileManager,
+                               DescribableList<Storage, StorageDescriptor> storages,
+                               DescribableList<Location, LocationDescriptor> locations,
+                               String tempDirectory,
+                               int cycleQuantity,
+                               int cycleDays) throws ArchiverException, PeriodicBackupException, IOException {
         // Collecting files for backup
-        for(File f: fileManager.getFilesToBackup()) {
-            filesToBackup.add(f);
+        hotFiles = new HotFileReport(HotFileReport.DEFAULT_SIZE, Hudson.getInstance().getRootDir());
+        stats.setHotFiles(hotFiles);
+        BackupStats.Phase scan = stats.startPhase(BackupStats.SCAN, fileManager.getDisplayName());
+        progress.startPhase(BackupStats.SCAN, fileManager.getDisplayName(), 0, 0);
+        // The files are put in the group they are archived in right away, so the stores are iterated once
+        File rootDir = Hudson.getInstance().getRootDir();
+        criticalFiles = new CompactPathStore(rootDir);
+        otherFiles = Maps.newEnumMap(FileType.class);
+        for(FileType type : FileType.values()) {
+            otherFiles.put(type, new CompactPathStore(rootDir));
+        }
+        for(FileEntry entry : fileManager.getEntriesToBackup()) {
+            if(Util.isCriticalFile(entry.getPath())) {
+                criticalFiles.add(entry);
+            }
+            else {
+                otherFiles.get(FileType.of(entry.getPath())).add(entry);
+            }
         }
+        Iterable<FileEntry> filesToBackup = Iterables.concat(criticalFiles, Iterables.concat(otherFiles.values()));
+        int filesCount = criticalFiles.size();
+        long filesSize = criticalFiles.getTotalSize();
+        long pathBytes = criticalFiles.getPathBytes();
+        for(CompactPathStore files : otherFiles.values()) {
+            filesCount += files.size();
+            filesSize += files.getTotalSize();
+            pathBytes += files.getPathBytes();
+        }
+        LOGGER.info(filesCount + " files to back up, their paths take " + pathBytes + " bytes");
+        scan.finish(filesCount, filesSize);
+        progress.add(filesCount, filesSize);
+        progress.check();
 
         File backupObjectFile;
         Date timestamp;
@@ -69,25 +143,84 @@ public class BackupExecutor {
             timestamp = new Date(); // Timestamp for the BackupObject
             fileNameBase = Util.generateFileNameBase(timestamp);
 
-            storage.backupStart(tempDirectory, fileNameBase);
-            for (File fileToBackup : filesToBackup) {
-                storage.backupAddFile(fileToBackup);
+            BackupStats.Phase archive = stats.startPhase(BackupStats.ARCHIVE, storage.getDisplayName());
+            progress.startPhase(BackupStats.ARCHIVE, storage.getDisplayName(), filesCount, filesSize);
+            Iterable<File> archives;
+            File indexFile;
+            File lastCriticalArchive;
+            List<String> criticalArchives;
+            boolean archived = false;
+            try {
+                storage.backupPrepare(filesToBackup);
+                storage.backupStart(tempDirectory, fileNameBase);
+                // The critical configuration goes first, in its own volume if the storage supports it,
+                // so it can be restored before the rest of the backup
+                for (FileEntry fileToBackup : criticalFiles) {
+                    addFile(storage, fileToBackup);
+                }
+                lastCriticalArchive = criticalFiles.size() > 0 ? storage.backupCloseVolume() : null;
+                // The other files are grouped by their type, in the order of their paths within the type
+                for (CompactPathStore files : otherFiles.values()) {
+                    for (FileEntry fileToBackup : files) {
+                        addFile(storage, fileToBackup);
+                    }
+                }
+                archives = storage.backupStop();
+                criticalArchives = getCriticalArchives(archives, lastCriticalArchive);
+                indexFile = writeArchiveIndex(storage, archives, tempDirectory, fileNameBase);
+                archived = true;
+            } finally {
+                // Whatever has stopped the backup (cancel, I/O error, bug), the partial archives are not kept
+                if (!archived) {
+                    storage.backupAbort();
+                    discardBackup(tempDirectory, fileNameBase, Collections.<BackupObject>emptyList());
+                }
+            }
+            archive.finish(filesCount, filesSize);
+            int archivesCount = 0;
+            long archivesSize = 0;
+            for (File f : archives) {
+                archivesCount++;
+                archivesSize += f.isDirectory() ? FileUtils.sizeOfDirectory(f) : f.length();
             }
-            Iterable<File> archives = storage.backupStop();
+            stats.addArchiveBytes(archivesSize);
             for (Location location : locations) {
                 // Sends all the backup archives and backup files to all the active locations
                 if(location.enabled) {
-                    BackupObject backupObject = new BackupObject(fileManager, storage, location, timestamp);
-                    backupObjectFile = Util.createBackupObjectFile(backupObject, tempDirectory, fileNameBase);
-                    location.storeBackupInLocation(archives, backupObjectFile);
+                    BackupStats.Phase store = stats.startPhase(BackupStats.STORE, location.getDisplayName());
+                    progress.startPhase(BackupStats.STORE, location.getDisplayName(), archivesCount, archivesSize);
+                    BackupObject backupObject = new BackupObject(fileManager, storage, location, timestamp, criticalArchives);
+                    boolean stored = false;
+                    try {
+                        progress.check();
+                        backupObjectFile = Util.createBackupObjectFile(backupObject, tempDirectory, fileNameBase);
+                        // The location stops storing the archives when the backup is cancelled
+                        location.storeBackupInLocation(archives, backupObjectFile);
+                        progress.check();
+                        if(indexFile != null) {
+                            location.storeArchiveIndexInLocation(indexFile, backupObject);
+                        }
+                        stored = true;
+                    } finally {
+                        // Only the partial backup of this location is deleted, the previous locations have stored
+                        // the whole backup and their old backups have already been deleted by the retention
+                        if (!stored) {
+                            discardBackup(tempDirectory, fileNameBase, Collections.singletonList(backupObject));
+                        }
+                    }
+                    progress.add(archivesCount, archivesSize);
 
                     // Delete the temporary BackupObject file
                     LOGGER.info("Deleting the temporary file " + backupObjectFile.getAbsolutePath());
                     if (!backupObjectFile.delete()) {
                         LOGGER.warning("Could not delete " + backupObjectFile.getAbsolutePath());
                     }
+                    store.finish(archivesCount, archivesSize);
 
                     // Checking for redundant and old backups in the location
+                    BackupStats.Phase retention = stats.startPhase(BackupStats.RETENTION, location.getDisplayName());
+                    progress.startPhase(BackupStats.RETENTION, location.getDisplayName(), 0, 0);
+                    int deletedBackups = 0;
                     if (location.getAvailableBackups() != null) {
                         List<BackupObject> backupsInLocation = Lists.newArrayList(location.getAvailableBackups());
                         LOGGER.info("Checking for redundant and old backups in the location.");
@@ -106,9 +239,15 @@ public class BackupExecutor {
                         if (index1 != -1 || index2 != -1) {
                             for (int index = 0; index < Math.max(index1, index2); index++) {
                                 location.deleteBackupFiles(backupsInLocation.get(index));
+                                deletedBackups++;
                             }
                         }
+                        // The configuration journal is replayed on top of a backup, the changes before the oldest one are not needed
+                        if (deletedBackups < backupsInLocation.size()) {
+                            location.deleteJournalFromLocation(backupsInLocation.get(deletedBackups).getTimestamp().getTime());
+                        }
                     }
+                    retention.finish(deletedBackups, 0);
                 }
                 else {
                     LOGGER.info(location.getDisplayName() + " is disabled, ignoring.");
@@ -116,6 +255,8 @@ public class BackupExecutor {
             }
 
             // Delete the temporary archive files
+            BackupStats.Phase cleanup = stats.startPhase(BackupStats.CLEANUP, storage.getDisplayName());
+            progress.startPhase(BackupStats.CLEANUP, storage.getDisplayName(), archivesCount, archivesSize);
             for (File f : archives) {
                 if(f.isDirectory()) {
                     LOGGER.info("Deleting temporary archive directory " + f.getAbsolutePath());
@@ -129,7 +270,133 @@ public class BackupExecutor {
                 }
 
             }
+            if (indexFile != null && !indexFile.delete()) {
+                LOGGER.warning("Could not delete " + indexFile.getAbsolutePath());
+            }
+            cleanup.finish(archivesCount, archivesSize);
+        }
+    }
+
+    /**
+     *
+     * Adds the file to the archive of the given Storage unless the backup has been cancelled
+     *
+     * @param storage Storage creating the archive
+     * @param fileToBackup file to add
+     * @throws PeriodicBackupException if the file cannot be added or the backup has been cancelled
+     */
+    private void addFile(Storage storage, FileEntry fileToBackup) throws PeriodicBackupException {
+        progress.check();
+        long start = System.nanoTime();
+        storage.backupAddFile(fileToBackup);
+        long nanos = System.nanoTime() - start;
+        long bytes = fileToBackup.getSize();
+        hotFiles.add(storage.getDisplayName(), fileToBackup.getPath(), bytes, nanos);
+        progress.add(1, bytes);
+    }
+
+    /**
+     *
+     * Finds the volumes of the critical configuration, the storage may have started new volumes before the one
+     * closed after the critical files when they do not fit in a single volume
+     *
+     * @param archives archive files of the backup
+     * @param lastCriticalArchive volume closed after the critical files, null if there is none
+     * @return names of the volumes up to the last critical one in the order of the volumes
+     */
+    static List<String> getCriticalArchives(Iterable<File> archives, File lastCriticalArchive) {
+        List<String> criticalArchives = Lists.newArrayList();
+        if(lastCriticalArchive == null) {
+            return criticalArchives;
+        }
+        List<File> volumes = Lists.newArrayList(archives);
+        Collections.sort(volumes, Util.archiveVolumeOrder());
+        for(File volume : volumes) {
+            criticalArchives.add(volume.getName());
+            if(volume.equals(lastCriticalArchive)) {
+                return criticalArchives;
+            }
+        }
+        LOGGER.warning(lastCriticalArchive.getName() + " is not an archive of the backup, the critical configuration will not be restored first");
+        return Lists.newArrayList();
+    }
+
+    /**
+     *
+     * Deletes what has been created by the failed or cancelled backup: the files named after fileNameBase
+     * in the temporary directory (archives, BackupObject file, archive index) and the files stored in the given
+     * locations. The files which cannot be deleted are logged, the exception which stopped the backup is not masked.
+     *
+     * @param tempDirectory path to the temporary directory
+     * @param fileNameBase first part of the names of the files of the backup
+     * @param storedBackups BackupObjects of the locations where the backup has been partly stored
+     */
+    private void discardBackup(String tempDirectory, String fileNameBase, List<BackupObject> storedBackups) {
+        LOGGER.info("The backup has failed or has been cancelled, deleting the files of the backup " + fileNameBase);
+        File[] tempFiles = new File(tempDirectory).listFiles();
+        if(tempFiles != null) {
+            for(File f : tempFiles) {
+                if(!f.getName().startsWith(fileNameBase)) {
+                    continue;
+                }
+                if(f.isDirectory()) {
+                    try {
+                        FileUtils.deleteDirectory(f);
+                    } catch (IOException e) {
+                        LOGGER.warning("Could not delete " + f.getAbsolutePath() + " " + e.getMessage());
+                    }
+                }
+                else if(!f.delete()) {
+                    LOGGER.warning("Could not delete " + f.getAbsolutePath());
+                }
+            }
+        }
+        for(BackupObject backupObject : storedBackups) {
+            try {
+                backupObject.getLocation().deleteBackupFiles(backupObject);
+            } catch (RuntimeException e) {
+                LOGGER.warning("Could not delete the backup from " + backupObject.getLocation().getDisplayName() + " " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     *
+     * Creates the archive index of the given archives in the temporary directory
+     *
+     * @param storage Storage which created the archives
+     * @param archives archive files
+     * @param tempDirectory path to the temporary directory
+     * @param fileNameBase first part of the index filename
+     * @return archive index file or null if the Storage does not support the archive index
+     * @throws IOException if the index cannot be written
+     */
+    private File writeArchiveIndex(final Storage storage, Iterable<File> archives, String tempDirectory, String fileNameBase) throws IOException {
+        File indexFile = new File(tempDirectory, Util.createFileName(fileNameBase, ArchiveIndex.EXTENSION));
+        // The index tells the stored size of the files, the hot files report gets it on the way
+        ArchiveIndex.Writer index = new ArchiveIndex.Writer(indexFile) {
+            @Override
+            public void add(ArchiveIndex.Entry entry) throws IOException {
+                super.add(entry);
+                if(entry.getLength() >= 0) {
+                    hotFiles.setStoredBytes(storage.getDisplayName(), entry.getPath(), entry.getLength());
+                }
+            }
+        };
+        boolean written;
+        try {
+            written = storage.writeArchiveIndex(archives, index);
+        } finally {
+            index.close();
+        }
+        if(!written) {
+            LOGGER.info(storage.getDisplayName() + " does not support the archive index, single files of this backup cannot be restored.");
+            if(!indexFile.delete()) {
+                LOGGER.warning("Could not delete " + indexFile.getAbsolutePath());
+            }
+            return null;
         }
-        LOGGER.info("Backup finished successfully after " + (System.currentTimeMillis() - start) + " ms" );
+        LOGGER.info("Archive index with " + index.getEntriesCount() + " entries created in " + indexFile.getAbsolutePath());
+        return indexFile;
     }
 }
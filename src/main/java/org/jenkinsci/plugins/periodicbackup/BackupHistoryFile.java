@@ -0,0 +1,252 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ *
+ * BackupHistoryFile keeps a compact record of every finished backup in a text file, one line per backup, so the
+ * performance of the backups can be followed across restarts of Jenkins. The columns are separated by tabs:
+ * timestamp, successful, duration, input files, input bytes, archive bytes, the duration of every phase and peak heap.
+ */
+public class BackupHistoryFile {
+
+    private final static String HEADER = "#timestamp\tsuccessful\tduration\tinputFiles\tinputBytes\tarchiveBytes"
+            + "\tscan\tarchive\tstore\tretention\tcleanup\tpeakHeap";
+    private final static int COLUMNS = 12;
+
+    private final File file;
+
+    /**
+     * @param file text file holding the records, created on the first append
+     */
+    public BackupHistoryFile(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     *
+     * Adds the record of the given backup at the end of the file
+     *
+     * @param stats statistics of a finished backup
+     * @throws IOException If an IO problem occurs
+     */
+    public synchronized void append(BackupStats stats) throws IOException {
+        boolean newFile = !file.exists();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), Charsets.UTF_8);
+        try {
+            if(newFile) {
+                writer.write(HEADER + "\n");
+            }
+            writer.write(new Record(stats).toLine() + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     *
+     * Reads the records, the lines that can not be parsed are skipped
+     *
+     * @param max maximum number of the records returned
+     * @return the last max records, the oldest first
+     * @throws IOException If an IO problem occurs
+     */
+    public synchronized List<Record> read(int max) throws IOException {
+        LinkedList<Record> records = Lists.newLinkedList();
+        if(!file.exists()) {
+            return records;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+        try {
+            String line;
+            while((line = reader.readLine()) != null) {
+                Record record = Record.parse(line);
+                if(record != null) {
+                    records.add(record);
+                    if(records.size() > max) {
+                        records.removeFirst();
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return records;
+    }
+
+    /**
+     *
+     * Single line of the history
+     */
+    public static class Record {
+        private final long timestamp;
+        private final boolean successful;
+        private final long duration;
+        private final long inputFiles;
+        private final long inputBytes;
+        private final long archiveBytes;
+        private final long scanDuration;
+        private final long archiveDuration;
+        private final long storeDuration;
+        private final long retentionDuration;
+        private final long cleanupDuration;
+        private final long peakHeap;
+
+        public Record(BackupStats stats) {
+            this(stats.getTimestamp(), stats.isSuccessful(), stats.getDuration(), stats.getInputFiles(),
+                    stats.getInputBytes(), stats.getArchiveBytes(), stats.getPhaseDuration(BackupStats.SCAN),
+                    stats.getPhaseDuration(BackupStats.ARCHIVE), stats.getPhaseDuration(BackupStats.STORE),
+                    stats.getPhaseDuration(BackupStats.RETENTION), stats.getPhaseDuration(BackupStats.CLEANUP),
+                    stats.getPeakHeap());
+        }
+
+        public Record(long timestamp, boolean successful, long duration, long inputFiles, long inputBytes,
+                      long archiveBytes, long scanDuration, long archiveDuration, long storeDuration,
+                      long retentionDuration, long cleanupDuration, long peakHeap) {
+            this.timestamp = timestamp;
+            this.successful = successful;
+            this.duration = duration;
+            this.inputFiles = inputFiles;
+            this.inputBytes = inputBytes;
+            this.archiveBytes = archiveBytes;
+            this.scanDuration = scanDuration;
+            this.archiveDuration = archiveDuration;
+            this.storeDuration = storeDuration;
+            this.retentionDuration = retentionDuration;
+            this.cleanupDuration = cleanupDuration;
+            this.peakHeap = peakHeap;
+        }
+
+        /**
+         * @param line line of the history file
+         * @return the record or null if the line is the header or can not be parsed
+         */
+        static Record parse(String line) {
+            if(line.startsWith("#")) {
+                return null;
+            }
+            String[] columns = line.split("\t");
+            if(columns.length != COLUMNS) {
+                return null;
+            }
+            try {
+                long[] values = new long[COLUMNS];
+                for(int i = 0; i < COLUMNS; i++) {
+                    if(i != 1) {
+                        values[i] = Long.parseLong(columns[i]);
+                    }
+                }
+                return new Record(values[0], Boolean.parseBoolean(columns[1]), values[2], values[3], values[4],
+                        values[5], values[6], values[7], values[8], values[9], values[10], values[11]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        String toLine() {
+            return timestamp + "\t" + successful + "\t" + duration + "\t" + inputFiles + "\t" + inputBytes + "\t"
+                    + archiveBytes + "\t" + scanDuration + "\t" + archiveDuration + "\t" + storeDuration + "\t"
+                    + retentionDuration + "\t" + cleanupDuration + "\t" + peakHeap;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Date getDate() {
+            return new Date(timestamp);
+        }
+
+        public boolean isSuccessful() {
+            return successful;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public long getInputFiles() {
+            return inputFiles;
+        }
+
+        public long getInputBytes() {
+            return inputBytes;
+        }
+
+        public long getArchiveBytes() {
+            return archiveBytes;
+        }
+
+        /**
+         * @return size of the archives divided by the size of the input, 0 if there was no input
+         */
+        public double getCompressionRatio() {
+            return inputBytes > 0 ? (double) archiveBytes / inputBytes : 0;
+        }
+
+        public long getScanDuration() {
+            return scanDuration;
+        }
+
+        public long getArchiveDuration() {
+            return archiveDuration;
+        }
+
+        public long getStoreDuration() {
+            return storeDuration;
+        }
+
+        public long getRetentionDuration() {
+            return retentionDuration;
+        }
+
+        public long getCleanupDuration() {
+            return cleanupDuration;
+        }
+
+        public long getPeakHeap() {
+            return peakHeap;
+        }
+    }
+}
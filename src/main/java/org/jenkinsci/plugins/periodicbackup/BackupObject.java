@@ -26,13 +26,16 @@ package org.jenkinsci.plugins.periodicbackup;
 
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import hudson.model.Hudson;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 public class BackupObject implements Comparable {
 
@@ -40,15 +43,21 @@ public class BackupObject implements Comparable {
     private final Storage storage;
     private final Location location;
     private final Date timestamp;
+    private final List<String> criticalArchives;    // Names of the leading volumes with the critical configuration
 
     public final static String EXTENSION = "pbobj";
     public final static String FILE_TIMESTAMP_PATTERN = "yyyy_MM_dd_HH_mm_ss_SSS";
 
     public BackupObject(FileManager fileManager, Storage storage, Location location, Date timestamp) {
+        this(fileManager, storage, location, timestamp, Collections.<String>emptyList());
+    }
+
+    public BackupObject(FileManager fileManager, Storage storage, Location location, Date timestamp, List<String> criticalArchives) {
         this.fileManager = fileManager;
         this.storage = storage;
         this.location = location;
         this.timestamp = timestamp;
+        this.criticalArchives = Lists.newArrayList(criticalArchives);
     }
 
     @SuppressWarnings("unused")
@@ -102,6 +111,13 @@ public class BackupObject implements Comparable {
         };
     }
 
+    /**
+     * @return names of the volumes containing only the critical configuration, empty if the backup does not have them
+     */
+    public List<String> getCriticalArchives() {
+        return criticalArchives != null ? criticalArchives : Collections.<String>emptyList();
+    }
+
     @SuppressWarnings("unused")
     public Date getTimestamp() {
         return this.timestamp;
@@ -0,0 +1,232 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import net.sf.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * BackupProgress tells how far the running backup or restore is: the current phase, the files and bytes done
+ * out of the total of the phase and the estimated time until the phase is finished. The counters are updated
+ * by the worker thread after every file and read by the web page.
+ *
+ * It also carries the cancel request. The cancellation is cooperative, BackupExecutor, the Storages and
+ * the Locations call checkCancelled() between the files and the volumes. The progress is bound to the worker
+ * thread (and to the threads started by it) between start() and finish(), so the Storages and the Locations
+ * do not need a reference to it.
+ */
+public class BackupProgress {
+
+    public final static String BACKUP = "backup";
+    public final static String RESTORE = "restore";
+
+    private static final InheritableThreadLocal<BackupProgress> CURRENT = new InheritableThreadLocal<BackupProgress>();
+
+    private volatile String operation;          // BACKUP, RESTORE or null when nothing is running
+    private volatile String phase = "";
+    private volatile String target = "";        // Storage or Location of the phase
+    private volatile long start;
+    private volatile long phaseStart;
+    private volatile long filesTotal;           // 0 when the total of the phase is not known
+    private volatile long bytesTotal;
+    private final AtomicLong filesDone = new AtomicLong();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private volatile boolean cancelRequested;
+
+    /**
+     *
+     * Marks the start of a backup or restore and binds this progress to the calling thread
+     *
+     * @param operation BACKUP or RESTORE
+     */
+    public void start(String operation) {
+        cancelRequested = false;
+        start = System.currentTimeMillis();
+        startPhase("", "", 0, 0);
+        this.operation = operation;
+        CURRENT.set(this);
+    }
+
+    /**
+     *
+     * Marks the end of the backup or restore, successful or not
+     */
+    public void finish() {
+        operation = null;
+        CURRENT.remove();
+    }
+
+    /**
+     *
+     * Starts a new phase, the counters are set to zero
+     *
+     * @param phase name of the phase, e.g. one of the BackupStats constants
+     * @param target Storage or Location the phase works with, empty if it does not work with any
+     * @param filesTotal number of the files the phase will process, 0 if not known
+     * @param bytesTotal number of the bytes the phase will process, 0 if not known
+     */
+    public void startPhase(String phase, String target, long filesTotal, long bytesTotal) {
+        this.phase = phase;
+        this.target = target;
+        this.filesTotal = filesTotal;
+        this.bytesTotal = bytesTotal;
+        filesDone.set(0);
+        bytesDone.set(0);
+        phaseStart = System.currentTimeMillis();
+    }
+
+    /**
+     * @param files number of the files just processed
+     * @param bytes number of the bytes just processed
+     */
+    public void add(long files, long bytes) {
+        filesDone.addAndGet(files);
+        bytesDone.addAndGet(bytes);
+    }
+
+    public boolean isRunning() {
+        return operation != null;
+    }
+
+    /**
+     *
+     * Asks the running backup or restore to stop, it stops at the next check
+     */
+    public void cancel() {
+        if(isRunning()) {
+            cancelRequested = true;
+        }
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    /**
+     * @throws BackupCancelledException if the cancel has been requested
+     */
+    public void check() throws BackupCancelledException {
+        if(cancelRequested) {
+            throw new BackupCancelledException("The " + operation + " has been cancelled");
+        }
+    }
+
+    /**
+     *
+     * Checks the progress bound to the current thread, it does nothing if the thread is not running a backup or restore
+     *
+     * @throws BackupCancelledException if the cancel has been requested
+     */
+    public static void checkCancelled() throws BackupCancelledException {
+        BackupProgress progress = CURRENT.get();
+        if(progress != null) {
+            progress.check();
+        }
+    }
+
+    /**
+     *
+     * Tells if the backup or restore running in the current thread should stop, for the code which cannot throw
+     * BackupCancelledException. It has to stop without pretending success, the caller finds out about the cancel.
+     *
+     * @return true if the cancel has been requested
+     */
+    public static boolean isCancelled() {
+        BackupProgress progress = CURRENT.get();
+        return progress != null && progress.isCancelRequested();
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public long getFilesDone() {
+        return filesDone.get();
+    }
+
+    public long getFilesTotal() {
+        return filesTotal;
+    }
+
+    public long getBytesDone() {
+        return bytesDone.get();
+    }
+
+    public long getBytesTotal() {
+        return bytesTotal;
+    }
+
+    /**
+     * @return milliseconds since the start of the backup or restore
+     */
+    public long getElapsed() {
+        return isRunning() ? System.currentTimeMillis() - start : 0;
+    }
+
+    /**
+     *
+     * Estimates the remaining time of the current phase from its throughput so far, by the bytes if their total
+     * is known, otherwise by the files
+     *
+     * @return estimated milliseconds until the end of the phase, -1 if it cannot be estimated
+     */
+    public long getEta() {
+        long elapsed = System.currentTimeMillis() - phaseStart;
+        long bytes = bytesDone.get();
+        long files = filesDone.get();
+        if(bytesTotal > 0 && bytes > 0) {
+            return Math.max(0, (long) (elapsed * ((double) (bytesTotal - bytes) / bytes)));
+        }
+        if(filesTotal > 0 && files > 0) {
+            return Math.max(0, (long) (elapsed * ((double) (filesTotal - files) / files)));
+        }
+        return -1;
+    }
+
+    public JSONObject toJSON() {
+        return new JSONObject()
+                .element("running", isRunning())
+                .element("operation", operation != null ? operation : "")
+                .element("phase", phase)
+                .element("target", target)
+                .element("filesDone", getFilesDone())
+                .element("filesTotal", filesTotal)
+                .element("bytesDone", getBytesDone())
+                .element("bytesTotal", bytesTotal)
+                .element("elapsedMillis", getElapsed())
+                .element("etaMillis", isRunning() ? getEta() : -1)
+                .element("cancelRequested", cancelRequested);
+    }
+}
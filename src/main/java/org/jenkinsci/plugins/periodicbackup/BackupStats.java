@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Lists;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+
+/**
+ *
+ * BackupStats keeps the duration, the number of files and the number of bytes of every phase of a single backup:
+ * scanning the files, archiving them by each Storage, storing the archives in each Location, removing the old
+ * backups from each Location and cleaning the temporary files.
+ */
+public class BackupStats {
+
+    public final static String SCAN = "scan";
+    public final static String ARCHIVE = "archive";
+    public final static String STORE = "store";
+    public final static String RETENTION = "retention";
+    public final static String CLEANUP = "cleanup";
+
+    private final long timestamp = System.currentTimeMillis();
+    private final List<Phase> phases = Lists.newArrayList();
+    private long duration = -1;
+    private boolean successful = false;
+    private long archiveBytes = 0;      // Size of the archives created by all the Storages
+    private long peakHeap = -1;         // Peak heap usage of the JVM during the backup
+    private HotFileReport hotFiles;     // The most expensive files of the backup
+
+    public BackupStats() {
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     *
+     * Starts measuring a phase, the phase is measured until Phase.finish is called
+     *
+     * @param name name of the phase, one of the constants
+     * @param target Storage or Location the phase works with, empty if it does not work with any
+     * @return the started phase
+     */
+    public synchronized Phase startPhase(String name, String target) {
+        Phase phase = new Phase(name, target);
+        phases.add(phase);
+        return phase;
+    }
+
+    /**
+     *
+     * Marks the end of the backup
+     *
+     * @param successful true if the backup has been created and stored
+     */
+    public synchronized void finish(boolean successful) {
+        this.duration = System.currentTimeMillis() - timestamp;
+        this.successful = successful;
+        // The sum of the peaks of the heap pools, they do not necessarily peak at the same time
+        peakHeap = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+    }
+
+    /**
+     * @param bytes size of the archives created by a Storage
+     */
+    public synchronized void addArchiveBytes(long bytes) {
+        archiveBytes += bytes;
+    }
+
+    public synchronized long getArchiveBytes() {
+        return archiveBytes;
+    }
+
+    /**
+     * @return peak heap usage in bytes, -1 if the backup has not finished yet
+     */
+    public synchronized long getPeakHeap() {
+        return peakHeap;
+    }
+
+    /**
+     * @return number of the files to back up found by the scan
+     */
+    public synchronized long getInputFiles() {
+        for(Phase phase : phases) {
+            if(phase.getName().equals(SCAN)) {
+                return phase.getFiles();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return size of the files to back up found by the scan
+     */
+    public synchronized long getInputBytes() {
+        for(Phase phase : phases) {
+            if(phase.getName().equals(SCAN)) {
+                return phase.getBytes();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the largest and the slowest files of the backup, null if they were not recorded
+     */
+    public synchronized HotFileReport getHotFiles() {
+        return hotFiles;
+    }
+
+    public synchronized void setHotFiles(HotFileReport hotFiles) {
+        this.hotFiles = hotFiles;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return duration of the whole backup in milliseconds, -1 if the backup has not finished yet
+     */
+    public synchronized long getDuration() {
+        return duration;
+    }
+
+    public synchronized boolean isSuccessful() {
+        return successful;
+    }
+
+    public synchronized List<Phase> getPhases() {
+        return Lists.newArrayList(phases);
+    }
+
+    /**
+     *
+     * Adds up the given phase of all the Storages or Locations
+     *
+     * @param name name of the phase
+     * @return total duration of the phase in milliseconds
+     */
+    public synchronized long getPhaseDuration(String name) {
+        long total = 0;
+        for(Phase phase : phases) {
+            if(phase.getName().equals(name) && phase.getDuration() > 0) {
+                total += phase.getDuration();
+            }
+        }
+        return total;
+    }
+
+    public synchronized JSONObject toJSON() {
+        JSONArray phasesJSON = new JSONArray();
+        for(Phase phase : phases) {
+            phasesJSON.element(phase.toJSON());
+        }
+        JSONObject json = new JSONObject()
+                .element("timestamp", timestamp)
+                .element("durationMillis", duration)
+                .element("successful", successful)
+                .element("archiveBytes", archiveBytes)
+                .element("peakHeap", peakHeap)
+                .element("phases", phasesJSON);
+        if(hotFiles != null) {
+            json.element("hotFiles", hotFiles.toJSON());
+        }
+        return json;
+    }
+
+    /**
+     *
+     * Single phase of the backup
+     */
+    public static class Phase {
+        private final String name;
+        private final String target;
+        private final long start = System.currentTimeMillis();
+        private long duration = -1;
+        private long files;
+        private long bytes;
+
+        Phase(String name, String target) {
+            this.name = name;
+            this.target = target;
+        }
+
+        /**
+         *
+         * Marks the end of the phase
+         *
+         * @param files number of the files processed by the phase
+         * @param bytes number of the bytes processed by the phase
+         */
+        public synchronized void finish(long files, long bytes) {
+            this.duration = System.currentTimeMillis() - start;
+            this.files = files;
+            this.bytes = bytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        /**
+         * @return duration in milliseconds, -1 if the phase has not finished
+         */
+        public synchronized long getDuration() {
+            return duration;
+        }
+
+        public synchronized long getFiles() {
+            return files;
+        }
+
+        public synchronized long getBytes() {
+            return bytes;
+        }
+
+        public synchronized long getBytesPerSecond() {
+            return duration > 0 ? bytes * 1000 / duration : 0;
+        }
+
+        public synchronized JSONObject toJSON() {
+            return new JSONObject()
+                    .element("phase", name)
+                    .element("target", target)
+                    .element("durationMillis", duration)
+                    .element("files", files)
+                    .element("bytes", bytes)
+                    .element("bytesPerSecond", getBytesPerSecond());
+        }
+
+        @Override
+        public synchronized String toString() {
+            return name + (target.length() > 0 ? " " + target : "") + ": " + duration + " ms, " + files + " files, "
+                    + bytes + " bytes, " + getBytesPerSecond() + " bytes/s";
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Lists;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ *
+ * BackupStatsHistory keeps the BackupStats of the last backups in a ring buffer, the oldest ones are overwritten.
+ * It is available through JMX as org.jenkinsci.plugins.periodicbackup:type=BackupStatsHistory
+ */
+public class BackupStatsHistory implements BackupStatsHistoryMBean {
+
+    public final static String OBJECT_NAME = "org.jenkinsci.plugins.periodicbackup:type=BackupStatsHistory";
+    private static final Logger LOGGER = Logger.getLogger(BackupStatsHistory.class.getName());
+
+    private final BackupStats[] runs;
+    private int next = 0;       // Position where the next run will be written
+    private int count = 0;      // Number of the runs in the buffer
+
+    /**
+     * @param size maximum number of the runs kept
+     */
+    public BackupStatsHistory(int size) {
+        runs = new BackupStats[size];
+    }
+
+    public synchronized void add(BackupStats stats) {
+        runs[next] = stats;
+        next = (next + 1) % runs.length;
+        count = Math.min(count + 1, runs.length);
+    }
+
+    /**
+     * @return the runs in the history, the oldest first
+     */
+    public synchronized List<BackupStats> getRuns() {
+        List<BackupStats> result = Lists.newArrayList();
+        for(int i = 0; i < count; i++) {
+            result.add(runs[(next - count + i + runs.length) % runs.length]);
+        }
+        return result;
+    }
+
+    /**
+     * @return the last run or null if there was no backup yet
+     */
+    public synchronized BackupStats getLastRun() {
+        return count == 0 ? null : runs[(next - 1 + runs.length) % runs.length];
+    }
+
+    public JSONObject toJSON() {
+        JSONArray runsJSON = new JSONArray();
+        for(BackupStats run : getRuns()) {
+            runsJSON.element(run.toJSON());
+        }
+        return new JSONObject().element("runs", runsJSON);
+    }
+
+    /**
+     *
+     * Registers this history in the platform MBeanServer, an already registered history
+     * (e.g. of a previous instance of the plugin) is replaced
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            try {
+                server.registerMBean(this, name);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            LOGGER.warning("Could not register the backup statistics in JMX. " + e.getMessage());
+        }
+    }
+
+    public synchronized int getRunsCount() {
+        return count;
+    }
+
+    public long getLastBackupTimestamp() {
+        BackupStats last = getLastRun();
+        return last != null ? last.getTimestamp() : 0;
+    }
+
+    public long getLastBackupDuration() {
+        BackupStats last = getLastRun();
+        return last != null ? last.getDuration() : -1;
+    }
+
+    public boolean isLastBackupSuccessful() {
+        BackupStats last = getLastRun();
+        return last != null && last.isSuccessful();
+    }
+
+    public String[] getLastBackupPhases() {
+        BackupStats last = getLastRun();
+        if(last == null) {
+            return new String[0];
+        }
+        List<String> phases = Lists.newArrayList();
+        for(BackupStats.Phase phase : last.getPhases()) {
+            phases.add(phase.toString());
+        }
+        return phases.toArray(new String[phases.size()]);
+    }
+
+    public String getHistoryJSON() {
+        return toJSON().toString();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+/**
+ *
+ * JMX view of the BackupStats of the last backups
+ */
+public interface BackupStatsHistoryMBean {
+
+    /**
+     * @return number of the backups kept in the history
+     */
+    int getRunsCount();
+
+    /**
+     * @return start of the last backup in milliseconds since the epoch, 0 if there was no backup yet
+     */
+    long getLastBackupTimestamp();
+
+    /**
+     * @return duration of the last backup in milliseconds, -1 if there was no backup yet
+     */
+    long getLastBackupDuration();
+
+    boolean isLastBackupSuccessful();
+
+    /**
+     * @return every phase of the last backup with its duration, files, bytes and bytes/s
+     */
+    String[] getLastBackupPhases();
+
+    /**
+     * @return JSON of all the backups in the history, the same as the metrics page
+     */
+    String getHistoryJSON();
+}
@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import hudson.util.ChartUtil;
+import hudson.util.ColorPalette;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+import hudson.util.ShiftedCategoryAxis;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.CategoryAxis;
+import org.jfree.chart.axis.CategoryLabelPositions;
+import org.jfree.chart.axis.NumberAxis;
+import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.renderer.category.LineAndShapeRenderer;
+import org.jfree.data.category.CategoryDataset;
+import org.jfree.ui.RectangleInsets;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ *
+ * BackupTrendGraph draws one aspect of the successful backups from the BackupHistoryFile as a line chart, the kind
+ * of the chart is one of: duration (seconds per phase), size (MB of the input and of the archives), ratio (size of
+ * the archives in percent of the input), files (number of the input files) and memory (MB of the peak heap)
+ */
+public class BackupTrendGraph extends Graph {
+
+    public final static String[] KINDS = {"duration", "size", "ratio", "files", "memory"};
+    private final static double MB = 1024 * 1024;
+
+    private final String kind;
+    private final List<BackupHistoryFile.Record> records;
+
+    /**
+     * @param kind one of the KINDS
+     * @param records the records to draw, the oldest first
+     */
+    public BackupTrendGraph(String kind, List<BackupHistoryFile.Record> records) {
+        super(records.isEmpty() ? 0 : records.get(records.size() - 1).getTimestamp(), 500, 200);
+        this.kind = kind;
+        this.records = records;
+    }
+
+    public static boolean isKind(String kind) {
+        for(String k : KINDS) {
+            if(k.equals(kind)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected JFreeChart createGraph() {
+        CategoryDataset dataset = createDataset();
+        JFreeChart chart = ChartFactory.createLineChart(null, null, getUnit(), dataset, PlotOrientation.VERTICAL, true, true, false);
+        chart.setBackgroundPaint(Color.white);
+
+        CategoryPlot plot = chart.getCategoryPlot();
+        plot.setBackgroundPaint(Color.WHITE);
+        plot.setOutlinePaint(null);
+        plot.setRangeGridlinesVisible(true);
+        plot.setRangeGridlinePaint(Color.black);
+
+        CategoryAxis domainAxis = new ShiftedCategoryAxis(null);
+        plot.setDomainAxis(domainAxis);
+        domainAxis.setCategoryLabelPositions(CategoryLabelPositions.UP_90);
+        domainAxis.setLowerMargin(0.0);
+        domainAxis.setUpperMargin(0.0);
+        domainAxis.setCategoryMargin(0.0);
+
+        NumberAxis rangeAxis = (NumberAxis) plot.getRangeAxis();
+        ChartUtil.adjustChebyshev(dataset, rangeAxis);
+        rangeAxis.setStandardTickUnits(NumberAxis.createIntegerTickUnits());
+
+        LineAndShapeRenderer renderer = (LineAndShapeRenderer) plot.getRenderer();
+        renderer.setBaseStroke(new BasicStroke(2.0f));
+        ColorPalette.apply(renderer);
+
+        plot.setInsets(new RectangleInsets(5.0, 0, 0, 5.0));
+        return chart;
+    }
+
+    private String getUnit() {
+        if("duration".equals(kind)) {
+            return "seconds";
+        }
+        if("ratio".equals(kind)) {
+            return "%";
+        }
+        if("files".equals(kind)) {
+            return "files";
+        }
+        return "MB";
+    }
+
+    CategoryDataset createDataset() {
+        DataSetBuilder<String, Label> builder = new DataSetBuilder<String, Label>();
+        for(BackupHistoryFile.Record record : records) {
+            if(!record.isSuccessful()) {
+                continue;
+            }
+            Label label = new Label(record.getTimestamp());
+            if("duration".equals(kind)) {
+                builder.add(record.getDuration() / 1000.0, "total", label);
+                builder.add(record.getScanDuration() / 1000.0, BackupStats.SCAN, label);
+                builder.add(record.getArchiveDuration() / 1000.0, BackupStats.ARCHIVE, label);
+                builder.add(record.getStoreDuration() / 1000.0, BackupStats.STORE, label);
+                builder.add(record.getRetentionDuration() / 1000.0, BackupStats.RETENTION, label);
+                builder.add(record.getCleanupDuration() / 1000.0, BackupStats.CLEANUP, label);
+            } else if("size".equals(kind)) {
+                builder.add(record.getInputBytes() / MB, "input", label);
+                builder.add(record.getArchiveBytes() / MB, "archives", label);
+            } else if("ratio".equals(kind)) {
+                builder.add(record.getCompressionRatio() * 100, "archives/input", label);
+            } else if("files".equals(kind)) {
+                builder.add(record.getInputFiles(), "input files", label);
+            } else {
+                builder.add(record.getPeakHeap() / MB, "peak heap", label);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     *
+     * Column of the chart, the backups are ordered by their start
+     */
+    private static class Label implements Comparable<Label> {
+        private final long timestamp;
+
+        Label(long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        public int compareTo(Label other) {
+            return timestamp < other.timestamp ? -1 : (timestamp == other.timestamp ? 0 : 1);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Label && ((Label) o).timestamp == timestamp;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (timestamp ^ (timestamp >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT).format(new Date(timestamp));
+        }
+    }
+}
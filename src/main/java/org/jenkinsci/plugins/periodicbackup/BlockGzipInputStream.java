@@ -0,0 +1,233 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ *
+ * BlockGzipInputStream reads a stream written by BlockGzipOutputStream. The stream can start at any block, and
+ * when an ExecutorService is given the next blocks are decompressed concurrently while the current one is read.
+ */
+public class BlockGzipInputStream extends InputStream {
+
+    private final DataInputStream in;
+    private final ExecutorService executor;
+    private final int readAhead;
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+    private byte[] current = new byte[0];
+    private int position = 0;
+    private boolean endOfStream = false;
+
+    /**
+     * @param in compressed stream starting at a block
+     */
+    public BlockGzipInputStream(InputStream in) {
+        this(in, null, 1);
+    }
+
+    /**
+     * @param in compressed stream starting at a block
+     * @param executor ExecutorService decompressing the blocks, null to decompress them in the reading thread
+     * @param readAhead maximum number of blocks decompressed ahead of the one being read
+     */
+    public BlockGzipInputStream(InputStream in, ExecutorService executor, int readAhead) {
+        this.in = new DataInputStream(in);
+        this.executor = executor;
+        this.readAhead = Math.max(1, readAhead);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!nextBlockIfNeeded()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) {
+            return 0;
+        }
+        if(!nextBlockIfNeeded()) {
+            return -1;
+        }
+        int count = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while(skipped < n && nextBlockIfNeeded()) {
+            int count = (int) Math.min(n - skipped, current.length - position);
+            position += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for(Future<byte[]> block : pending) {
+            block.cancel(true);
+        }
+        pending.clear();
+        in.close();
+    }
+
+    /**
+     *
+     * Makes sure there is something left to read in the current block
+     *
+     * @return false at the end of the stream
+     * @throws IOException if a block cannot be read or decompressed
+     */
+    private boolean nextBlockIfNeeded() throws IOException {
+        while(position == current.length) {
+            while(!endOfStream && pending.size() < readAhead) {
+                byte[] block = readBlock();
+                if(block == null) {
+                    endOfStream = true;
+                }
+                else {
+                    FutureTask<byte[]> task = new FutureTask<byte[]>(new Inflation(block));
+                    if(executor == null) {
+                        task.run();
+                    }
+                    else {
+                        executor.execute(task);
+                    }
+                    pending.add(task);
+                }
+            }
+            if(pending.isEmpty()) {
+                return false;
+            }
+            try {
+                current = pending.removeFirst().get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while decompressing a block");
+            } catch (ExecutionException e) {
+                throw (IOException) new IOException("Could not decompress a block. " + e.getCause().getMessage()).initCause(e.getCause());
+            }
+            position = 0;
+        }
+        return true;
+    }
+
+    /**
+     *
+     * Reads the next compressed block
+     *
+     * @return the whole gzip member or null at the end of the stream
+     * @throws IOException if the stream is not block compressed
+     */
+    private byte[] readBlock() throws IOException {
+        byte[] header = new byte[BlockGzipOutputStream.HEADER_SIZE];
+        int first = in.read();
+        if(first < 0) {
+            return null;
+        }
+        header[0] = (byte) first;
+        try {
+            in.readFully(header, 1, header.length - 1);
+        } catch (EOFException e) {
+            throw new IOException("Truncated block header");
+        }
+        if((header[0] & 0xFF) != 31 || (header[1] & 0xFF) != 139 || (header[3] & 4) == 0
+                || header[10] != 6 || header[12] != 'B' || header[13] != 'C') {
+            throw new IOException("Not a block compressed gzip stream");
+        }
+        int blockSize = ((header[16] & 0xFF) | (header[17] & 0xFF) << 8) + 1;
+        byte[] block = new byte[blockSize];
+        System.arraycopy(header, 0, block, 0, header.length);
+        in.readFully(block, header.length, blockSize - header.length);
+        return block;
+    }
+
+    /**
+     *
+     * Decompresses a single block and checks its CRC
+     */
+    private static class Inflation implements Callable<byte[]> {
+        private final byte[] block;
+
+        Inflation(byte[] block) {
+            this.block = block;
+        }
+
+        public byte[] call() throws IOException, DataFormatException {
+            int footer = block.length - BlockGzipOutputStream.FOOTER_SIZE;
+            int size = (block[footer + 4] & 0xFF) | (block[footer + 5] & 0xFF) << 8 | (block[footer + 6] & 0xFF) << 16 | (block[footer + 7] & 0xFF) << 24;
+            long expectedCrc = ((block[footer] & 0xFF) | (block[footer + 1] & 0xFF) << 8 | (block[footer + 2] & 0xFF) << 16 | (long) (block[footer + 3] & 0xFF) << 24);
+            byte[] data = new byte[size];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(block, BlockGzipOutputStream.HEADER_SIZE, footer - BlockGzipOutputStream.HEADER_SIZE);
+                int count = 0;
+                while(count < size && !inflater.finished()) {
+                    int inflated = inflater.inflate(data, count, size - count);
+                    if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    count += inflated;
+                }
+                if(count != size) {
+                    throw new IOException("Corrupted block, " + count + " bytes instead of " + size);
+                }
+            } finally {
+                inflater.end();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if(crc.getValue() != expectedCrc) {
+                throw new IOException("Corrupted block, CRC does not match");
+            }
+            return data;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ *
+ * BlockGzipOutputStream writes a gzip stream made of independent gzip members (blocks) of bounded size, the same way
+ * BGZF does: every member has a "BC" extra field with its compressed size. Any gzip reader can read the whole stream,
+ * while BlockGzipInputStream can start reading at any block and decompress the blocks concurrently.
+ * The compressed and uncompressed offsets of every block are kept, so uncompressed positions can be mapped to blocks.
+ * A block whose data looks incompressible (IncompressibleContent) is stored without trying to deflate it.
+ */
+public class BlockGzipOutputStream extends FilterOutputStream {
+
+    public final static int MAX_BLOCK_SIZE = 0x10000;           // Maximum size of a whole member, BSIZE has 16 bits
+    final static int BLOCK_DATA_SIZE = 0xff00;                  // Uncompressed data in one block, it fits in a block even if stored
+    final static int HEADER_SIZE = 18;
+    final static int FOOTER_SIZE = 8;
+    // Empty block marking the end of the stream
+    private final static byte[] EOF_BLOCK = { 31, -117, 8, 4, 0, 0, 0, 0, 0, -1, 6, 0, 66, 67, 2, 0, 27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final byte[] buffer = new byte[BLOCK_DATA_SIZE];
+    private final byte[] compressed = new byte[MAX_BLOCK_SIZE];
+    private final Deflater deflater;
+    private final Deflater store = new Deflater(Deflater.NO_COMPRESSION, true);
+    private int storedBlocksCount = 0;
+    private final CRC32 crc = new CRC32();
+    private int buffered = 0;
+    private long compressedPosition = 0;
+    private long uncompressedPosition = 0;
+    private long[] blockCompressedOffsets = new long[1024];
+    private long[] blockUncompressedOffsets = new long[1024];
+    private int blocksCount = 0;
+    private boolean finished = false;
+
+    public BlockGzipOutputStream(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public BlockGzipOutputStream(OutputStream out, int level) {
+        super(out);
+        deflater = new Deflater(level, true);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer[buffered++] = (byte) b;
+        uncompressedPosition++;
+        if(buffered == buffer.length) {
+            writeBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while(len > 0) {
+            int count = Math.min(len, buffer.length - buffered);
+            System.arraycopy(b, off, buffer, buffered, count);
+            buffered += count;
+            uncompressedPosition += count;
+            off += count;
+            len -= count;
+            if(buffered == buffer.length) {
+                writeBlock();
+            }
+        }
+    }
+
+    /**
+     * @return number of the blocks stored without compression so far
+     */
+    public int getStoredBlocksCount() {
+        return storedBlocksCount;
+    }
+
+    /**
+     * @return number of uncompressed bytes written so far
+     */
+    public long getPosition() {
+        return uncompressedPosition;
+    }
+
+    /**
+     *
+     * Finds the block which contains the given uncompressed position, it can be used once the stream is closed
+     *
+     * @param uncompressedOffset position in the uncompressed data
+     * @return index of the block
+     */
+    public int getBlock(long uncompressedOffset) {
+        int block = Arrays.binarySearch(blockUncompressedOffsets, 0, blocksCount, uncompressedOffset);
+        return block >= 0 ? block : -block - 2;
+    }
+
+    /**
+     * @param block index of the block, the number of blocks gives the end of the last block
+     * @return position of the block in the compressed stream
+     */
+    public long getBlockCompressedOffset(int block) {
+        return block < blocksCount ? blockCompressedOffsets[block] : compressedPosition;
+    }
+
+    /**
+     * @param block index of the block
+     * @return position of the first byte of the block in the uncompressed data
+     */
+    public long getBlockUncompressedOffset(int block) {
+        return blockUncompressedOffsets[block];
+    }
+
+    /**
+     *
+     * Compresses the buffered data to a new gzip member
+     *
+     * @throws IOException if the member cannot be written
+     */
+    private void writeBlock() throws IOException {
+        if(buffered == 0) {
+            return;
+        }
+        int dataSize = MAX_BLOCK_SIZE - HEADER_SIZE - FOOTER_SIZE;
+        int compressedSize = 0;
+        boolean stored = IncompressibleContent.isIncompressible(buffer, 0, buffered);
+        if(!stored) {
+            deflater.reset();
+            deflater.setInput(buffer, 0, buffered);
+            deflater.finish();
+            compressedSize = deflater.deflate(compressed, HEADER_SIZE, dataSize);
+            // The data does not compress, storing it always fits into the block
+            stored = !deflater.finished();
+        }
+        if(stored) {
+            store.reset();
+            store.setInput(buffer, 0, buffered);
+            store.finish();
+            compressedSize = store.deflate(compressed, HEADER_SIZE, dataSize);
+            storedBlocksCount++;
+        }
+        crc.reset();
+        crc.update(buffer, 0, buffered);
+        int blockSize = HEADER_SIZE + compressedSize + FOOTER_SIZE;
+        writeHeader(compressed, blockSize);
+        writeInt(compressed, HEADER_SIZE + compressedSize, crc.getValue());
+        writeInt(compressed, HEADER_SIZE + compressedSize + 4, buffered);
+        out.write(compressed, 0, blockSize);
+
+        if(blocksCount == blockCompressedOffsets.length) {
+            blockCompressedOffsets = Arrays.copyOf(blockCompressedOffsets, blocksCount * 2);
+            blockUncompressedOffsets = Arrays.copyOf(blockUncompressedOffsets, blocksCount * 2);
+        }
+        blockCompressedOffsets[blocksCount] = compressedPosition;
+        blockUncompressedOffsets[blocksCount] = uncompressedPosition - buffered;
+        blocksCount++;
+        compressedPosition += blockSize;
+        buffered = 0;
+    }
+
+    private static void writeHeader(byte[] b, int blockSize) {
+        b[0] = 31;                  // ID1
+        b[1] = (byte) 139;          // ID2
+        b[2] = 8;                   // CM deflate
+        b[3] = 4;                   // FLG FEXTRA
+        b[4] = b[5] = b[6] = b[7] = 0; // MTIME
+        b[8] = 0;                   // XFL
+        b[9] = (byte) 255;          // OS unknown
+        b[10] = 6;                  // XLEN
+        b[11] = 0;
+        b[12] = 'B';                // SI1
+        b[13] = 'C';                // SI2
+        b[14] = 2;                  // SLEN
+        b[15] = 0;
+        b[16] = (byte) (blockSize - 1);         // BSIZE
+        b[17] = (byte) ((blockSize - 1) >> 8);
+    }
+
+    private static void writeInt(byte[] b, int offset, long value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >> 8);
+        b[offset + 2] = (byte) (value >> 16);
+        b[offset + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     *
+     * Writes the buffered data and the end of stream block, the underlying stream stays open
+     *
+     * @throws IOException if the data cannot be written
+     */
+    public void finish() throws IOException {
+        if(!finished) {
+            writeBlock();
+            out.write(EOF_BLOCK);
+            deflater.end();
+            store.end();
+            finished = true;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Flushing would create short blocks, the data is written block by block
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+}
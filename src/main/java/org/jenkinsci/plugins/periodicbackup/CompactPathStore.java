@@ -0,0 +1,386 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Charsets;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ *
+ * CompactPathStore keeps the files to back up in primitive arrays instead of File objects. The paths are appended
+ * as UTF-8 bytes while the files are added. When the store is sealed they are sorted, duplicates are removed
+ * and the paths are prefix compressed: every path keeps only the bytes that differ from the previous one, every
+ * RESTART_INTERVAL-th path is stored whole so a path can be looked up by a binary search. The paths of a Jenkins
+ * homedir share long prefixes (jobs/name/builds/number/), so a path takes a few bytes besides its attributes.
+ * The FileEntries are created again while the store is iterated, in the order of the paths.
+ */
+public class CompactPathStore implements Iterable<FileEntry> {
+
+    private final static int RESTART_INTERVAL = 16;
+    private final static int INITIAL_CAPACITY = 1024;
+
+    private final File rootDir;
+
+    // Paths appended while the files are added, replaced by the prefix compressed paths when sealed
+    private byte[] data = new byte[INITIAL_CAPACITY * 32];
+    private int dataLength = 0;
+    private int[] offsets = new int[INITIAL_CAPACITY + 1];
+    private int[] restarts;                 // Offsets of the paths stored whole, set when sealed
+
+    private long[] sizes = new long[INITIAL_CAPACITY];
+    private long[] lastModified = new long[INITIAL_CAPACITY];
+    private int[] modes = new int[INITIAL_CAPACITY];
+    private BitSet symlinks = new BitSet();
+    private int count = 0;
+    private long totalSize = 0;
+    private boolean sealed = false;
+
+    /**
+     * @param rootDir the paths are relative to this directory, the Jenkins homedir
+     */
+    public CompactPathStore(File rootDir) {
+        this.rootDir = rootDir;
+    }
+
+    /**
+     *
+     * Adds a file to the store, a file added more than once is kept once
+     *
+     * @param entry file with its attributes
+     * @throws IllegalStateException if the store has been sealed already
+     */
+    public void add(FileEntry entry) {
+        if(sealed) {
+            throw new IllegalStateException("Files cannot be added after the store has been sealed");
+        }
+        byte[] path = entry.getPath().getBytes(Charsets.UTF_8);
+        if(count == sizes.length) {
+            int capacity = count * 2;
+            offsets = Arrays.copyOf(offsets, capacity + 1);
+            sizes = Arrays.copyOf(sizes, capacity);
+            lastModified = Arrays.copyOf(lastModified, capacity);
+            modes = Arrays.copyOf(modes, capacity);
+        }
+        ensureData(dataLength + path.length);
+        System.arraycopy(path, 0, data, dataLength, path.length);
+        offsets[count] = dataLength;
+        dataLength += path.length;
+        offsets[count + 1] = dataLength;
+        sizes[count] = entry.getSize();
+        lastModified[count] = entry.getLastModified();
+        modes[count] = entry.getMode();
+        symlinks.set(count, entry.isSymlink());
+        count++;
+    }
+
+    /**
+     *
+     * Sorts the paths, removes the duplicates and compresses the paths. It is called by the first lookup
+     * or iteration, the store cannot be changed afterwards.
+     */
+    public void seal() {
+        if(sealed) {
+            return;
+        }
+        sealed = true;
+        int[] order = new int[count];
+        for(int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        sort(order, new int[count], 0, count);
+
+        byte[] compressed = new byte[Math.max(16, dataLength / 2)];
+        int compressedLength = 0;
+        restarts = new int[count / RESTART_INTERVAL + 1];
+        long[] sortedSizes = new long[count];
+        long[] sortedLastModified = new long[count];
+        int[] sortedModes = new int[count];
+        BitSet sortedSymlinks = new BitSet();
+        int unique = 0;
+        int previous = -1;
+        for(int index : order) {
+            if(previous >= 0 && compare(previous, index) == 0) {
+                continue;   // The sort is stable, the first added one is kept
+            }
+            int start = offsets[index];
+            int length = offsets[index + 1] - start;
+            int shared = 0;
+            if(unique % RESTART_INTERVAL == 0) {
+                restarts[unique / RESTART_INTERVAL] = compressedLength;
+            }
+            else {
+                int previousStart = offsets[previous];
+                int limit = Math.min(length, offsets[previous + 1] - previousStart);
+                while(shared < limit && data[start + shared] == data[previousStart + shared]) {
+                    shared++;
+                }
+            }
+            if(compressed.length < compressedLength + 10 + length - shared) {
+                compressed = Arrays.copyOf(compressed, Math.max(compressed.length * 2, compressedLength + 10 + length - shared));
+            }
+            compressedLength = writeVarInt(compressed, compressedLength, shared);
+            compressedLength = writeVarInt(compressed, compressedLength, length - shared);
+            System.arraycopy(data, start + shared, compressed, compressedLength, length - shared);
+            compressedLength += length - shared;
+            sortedSizes[unique] = sizes[index];
+            sortedLastModified[unique] = lastModified[index];
+            sortedModes[unique] = modes[index];
+            sortedSymlinks.set(unique, symlinks.get(index));
+            totalSize += sizes[index];
+            unique++;
+            previous = index;
+        }
+        data = Arrays.copyOf(compressed, compressedLength);
+        dataLength = compressedLength;
+        restarts = Arrays.copyOf(restarts, (unique + RESTART_INTERVAL - 1) / RESTART_INTERVAL);
+        offsets = null;
+        sizes = Arrays.copyOf(sortedSizes, unique);
+        lastModified = Arrays.copyOf(sortedLastModified, unique);
+        modes = Arrays.copyOf(sortedModes, unique);
+        symlinks = sortedSymlinks;
+        count = unique;
+    }
+
+    /**
+     * @param path path relative to the Jenkins homedir, separated by /
+     * @return true if the file has been added to the store
+     */
+    public boolean contains(String path) {
+        seal();
+        byte[] key = path.getBytes(Charsets.UTF_8);
+        // The last restart whose path is not greater than the key
+        int low = 0;
+        int high = restarts.length - 1;
+        int block = -1;
+        Cursor cursor = new Cursor();
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            cursor.seek(middle);
+            cursor.next();
+            if(compare(cursor.path, cursor.pathLength, key, key.length) <= 0) {
+                block = middle;
+                low = middle + 1;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        if(block < 0) {
+            return false;
+        }
+        cursor.seek(block);
+        for(int i = 0; i < RESTART_INTERVAL && cursor.hasNext(); i++) {
+            cursor.next();
+            int comparison = compare(cursor.path, cursor.pathLength, key, key.length);
+            if(comparison == 0) {
+                return true;
+            }
+            if(comparison > 0) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of the different files in the store
+     */
+    public int size() {
+        seal();
+        return count;
+    }
+
+    /**
+     * @return total size of the different files in the store
+     */
+    public long getTotalSize() {
+        seal();
+        return totalSize;
+    }
+
+    /**
+     * @return number of the bytes taken by the paths
+     */
+    public long getPathBytes() {
+        seal();
+        return dataLength + restarts.length * 4L;
+    }
+
+    /**
+     * @return the files in the order of their paths
+     */
+    public Iterator<FileEntry> iterator() {
+        seal();
+        final Cursor cursor = new Cursor();
+        return new Iterator<FileEntry>() {
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            public FileEntry next() {
+                if(!cursor.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int index = cursor.next();
+                String path = new String(cursor.path, 0, cursor.pathLength, Charsets.UTF_8);
+                return new FileEntry(new File(rootDir, path), path, sizes[index], lastModified[index], modes[index],
+                        symlinks.get(index));
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     *
+     * Reads the prefix compressed paths one after another
+     */
+    private class Cursor {
+        private byte[] path = new byte[256];
+        private int pathLength = 0;
+        private int position = 0;
+        private int index = 0;
+
+        void seek(int restart) {
+            position = restarts[restart];
+            index = restart * RESTART_INTERVAL;
+            pathLength = 0;
+        }
+
+        boolean hasNext() {
+            return index < count;
+        }
+
+        /**
+         * @return index of the path which has been read into path
+         */
+        int next() {
+            int shared = readVarInt();
+            int suffix = readVarInt();
+            if(path.length < shared + suffix) {
+                path = Arrays.copyOf(path, Math.max(path.length * 2, shared + suffix));
+            }
+            System.arraycopy(data, position, path, shared, suffix);
+            position += suffix;
+            pathLength = shared + suffix;
+            return index++;
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while((b & 0x80) != 0);
+            return value;
+        }
+    }
+
+    private void ensureData(int capacity) {
+        if(data.length < capacity) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, capacity));
+        }
+    }
+
+    private static int writeVarInt(byte[] buffer, int position, int value) {
+        while((value & ~0x7f) != 0) {
+            buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     *
+     * Merge sort of the indexes of the appended paths, it is stable and does not box the indexes
+     */
+    private void sort(int[] order, int[] temp, int from, int to) {
+        if(to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(order, temp, from, middle);
+        sort(order, temp, middle, to);
+        if(compare(order[middle - 1], order[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, temp, from, to - from);
+        int left = from;
+        int right = middle;
+        for(int i = from; i < to; i++) {
+            if(right >= to || (left < middle && compare(temp[left], temp[right]) <= 0)) {
+                order[i] = temp[left++];
+            }
+            else {
+                order[i] = temp[right++];
+            }
+        }
+    }
+
+    /**
+     *
+     * Compares two appended paths
+     */
+    private int compare(int first, int second) {
+        int firstStart = offsets[first];
+        int secondStart = offsets[second];
+        int firstLength = offsets[first + 1] - firstStart;
+        int secondLength = offsets[second + 1] - secondStart;
+        int limit = Math.min(firstLength, secondLength);
+        for(int i = 0; i < limit; i++) {
+            int difference = (data[firstStart + i] & 0xff) - (data[secondStart + i] & 0xff);
+            if(difference != 0) {
+                return difference;
+            }
+        }
+        return firstLength - secondLength;
+    }
+
+    /**
+     *
+     * Compares UTF-8 paths byte by byte, it is the same as comparing their code points
+     */
+    private static int compare(byte[] first, int firstLength, byte[] second, int secondLength) {
+        int limit = Math.min(firstLength, secondLength);
+        for(int i = 0; i < limit; i++) {
+            int difference = (first[i] & 0xff) - (second[i] & 0xff);
+            if(difference != 0) {
+                return difference;
+            }
+        }
+        return firstLength - secondLength;
+    }
+}
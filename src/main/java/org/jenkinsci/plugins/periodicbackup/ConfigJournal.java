@@ -0,0 +1,417 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *
+ * ConfigJournal records every change of the configuration between the backups: the content of each saved
+ * configuration file (compressed) and the deleted and renamed items. The changes are appended to the current
+ * segment in the local journal directory, the segment is closed by roll() and stored in the Locations, so the
+ * configuration at any point in time can be restored as the last backup before it followed by replay() of the
+ * journal. The cost depends only on the number of the changes, nothing is scanned.
+ *
+ * A segment is a sequence of entries: timestamp, operation, path relative to the Jenkins homedir, new path
+ * (rename only) and the gzipped content (save only). The closed segments are named journal_first_last.pbjournal
+ * after the timestamps of their first and last entry.
+ */
+public class ConfigJournal {
+
+    public final static String EXTENSION = "pbjournal";
+    public final static String SAVE = "save";
+    public final static String DELETE = "delete";
+    public final static String RENAME = "rename";
+    private final static String CURRENT_SEGMENT = "current." + EXTENSION;
+    private final static String SEGMENT_PREFIX = "journal_";
+    private final static long MAX_FILE_SIZE = 10 * 1024 * 1024;     // Larger files are not configuration
+    private static final Logger LOGGER = Logger.getLogger(ConfigJournal.class.getName());
+
+    private final File rootDir;
+    private final File journalDir;
+    private long firstTimestamp = -1;   // Timestamp of the first entry of the current segment
+    private long lastTimestamp = -1;    // Timestamp of the last entry written to any segment
+
+    /**
+     * @param rootDir the Jenkins homedir, the recorded paths are relative to it
+     * @param journalDir directory of the local segments
+     */
+    public ConfigJournal(File rootDir, File journalDir) {
+        this.rootDir = rootDir;
+        this.journalDir = journalDir;
+    }
+
+    /**
+     *
+     * Records the current content of a configuration file, the files of the builds and the workspaces are ignored
+     *
+     * @param file saved file
+     * @throws IOException if the journal can not be written
+     */
+    public void recordSave(File file) throws IOException {
+        String path = relativePath(file);
+        if(path == null || !file.isFile()) {
+            return;
+        }
+        if(file.length() > MAX_FILE_SIZE) {
+            LOGGER.warning(file.getAbsolutePath() + " is too large for the configuration journal, skipping");
+            return;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(compressed);
+        try {
+            Files.copy(file, out);
+        } finally {
+            out.close();
+        }
+        append(SAVE, path, "", compressed.toByteArray());
+    }
+
+    /**
+     * @param file deleted file or directory
+     * @throws IOException if the journal can not be written
+     */
+    public void recordDelete(File file) throws IOException {
+        String path = relativePath(file);
+        if(path != null) {
+            append(DELETE, path, "", new byte[0]);
+        }
+    }
+
+    /**
+     * @param from file or directory before the rename
+     * @param to file or directory after the rename
+     * @throws IOException if the journal can not be written
+     */
+    public void recordRename(File from, File to) throws IOException {
+        String fromPath = relativePath(from);
+        String toPath = relativePath(to);
+        if(fromPath != null && toPath != null) {
+            append(RENAME, fromPath, toPath, new byte[0]);
+        }
+    }
+
+    private synchronized void append(String operation, String path, String newPath, byte[] content) throws IOException {
+        if(!journalDir.isDirectory() && !journalDir.mkdirs()) {
+            throw new IOException("Could not create " + journalDir.getAbsolutePath());
+        }
+        File current = new File(journalDir, CURRENT_SEGMENT);
+        // The timestamps are unique and increasing, so the entries can be ordered across the segments
+        long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp + 1);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(current, true)));
+        try {
+            out.writeLong(timestamp);
+            out.writeUTF(operation);
+            out.writeUTF(path);
+            out.writeUTF(newPath);
+            out.writeInt(content.length);
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        if(firstTimestamp < 0) {
+            firstTimestamp = timestamp;
+        }
+        lastTimestamp = timestamp;
+    }
+
+    /**
+     *
+     * Closes the current segment, the next change starts a new one
+     *
+     * @return the closed segments waiting to be stored in the Locations, the oldest first
+     * @throws IOException if the current segment can not be closed
+     */
+    public synchronized List<File> roll() throws IOException {
+        File current = new File(journalDir, CURRENT_SEGMENT);
+        if(current.exists()) {
+            if(firstTimestamp < 0) {
+                // Left from before a restart, the timestamps are read from the entries
+                List<Entry> entries = read(current);
+                if(entries.isEmpty()) {
+                    if(!current.delete()) {
+                        throw new IOException("Could not delete " + current.getAbsolutePath());
+                    }
+                    return getClosedSegments();
+                }
+                firstTimestamp = entries.get(0).getTimestamp();
+                lastTimestamp = Math.max(lastTimestamp, entries.get(entries.size() - 1).getTimestamp());
+            }
+            File closed = new File(journalDir, SEGMENT_PREFIX + firstTimestamp + "_" + lastTimestamp + "." + EXTENSION);
+            if(!current.renameTo(closed)) {
+                throw new IOException("Could not rename " + current.getAbsolutePath() + " to " + closed.getName());
+            }
+            firstTimestamp = -1;
+        }
+        return getClosedSegments();
+    }
+
+    /**
+     * @return the closed segments in the journal directory, the oldest first
+     */
+    public List<File> getClosedSegments() {
+        List<File> segments = Lists.newArrayList();
+        File[] files = journalDir.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                if(isSegment(file.getName())) {
+                    segments.add(file);
+                }
+            }
+        }
+        Collections.sort(segments, SEGMENT_ORDER);
+        return segments;
+    }
+
+    /**
+     *
+     * Applies the changes recorded in the segments to a restored Jenkins homedir
+     *
+     * @param segments journal segments, in any order
+     * @param targetDir the restored Jenkins homedir
+     * @param from only the changes after this time are applied, usually the timestamp of the restored backup
+     * @param until only the changes until this time are applied
+     * @return number of the applied changes
+     * @throws IOException if a segment can not be read or a change can not be applied
+     */
+    public static int replay(Iterable<File> segments, File targetDir, long from, long until) throws IOException {
+        List<File> sorted = Lists.newArrayList(segments);
+        Collections.sort(sorted, SEGMENT_ORDER);
+        int applied = 0;
+        for(File segment : sorted) {
+            for(Entry entry : read(segment)) {
+                if(entry.getTimestamp() > from && entry.getTimestamp() <= until) {
+                    entry.apply(targetDir);
+                    applied++;
+                }
+            }
+        }
+        return applied;
+    }
+
+    /**
+     *
+     * Reads the entries of a segment, an incomplete last entry (e.g. after a crash) is ignored
+     *
+     * @param segment journal segment
+     * @return the entries in the order they were recorded
+     * @throws IOException if the segment can not be read
+     */
+    public static List<Entry> read(File segment) throws IOException {
+        List<Entry> entries = Lists.newArrayList();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+        try {
+            while(true) {
+                long timestamp;
+                try {
+                    timestamp = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    String operation = in.readUTF();
+                    String path = in.readUTF();
+                    String newPath = in.readUTF();
+                    byte[] content = new byte[in.readInt()];
+                    in.readFully(content);
+                    entries.add(new Entry(timestamp, operation, path, newPath, content));
+                } catch (EOFException e) {
+                    LOGGER.warning("Incomplete entry at the end of " + segment.getAbsolutePath() + ", ignoring it");
+                    break;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return entries;
+    }
+
+    /**
+     * @param name file name
+     * @return true if it is the name of a closed segment
+     */
+    public static boolean isSegment(String name) {
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith("." + EXTENSION) && getTimestamps(name) != null;
+    }
+
+    /**
+     * @param name name of a closed segment
+     * @return timestamps of the first and the last entry of the segment or null if it is not a segment name
+     */
+    public static long[] getTimestamps(String name) {
+        String[] parts = name.substring(0, name.length() - EXTENSION.length() - 1).split("_");
+        if(parts.length != 3) {
+            return null;
+        }
+        try {
+            return new long[] {Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private final static Comparator<File> SEGMENT_ORDER = new Comparator<File>() {
+        public int compare(File f1, File f2) {
+            long t1 = getTimestamps(f1.getName())[0];
+            long t2 = getTimestamps(f2.getName())[0];
+            return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+        }
+    };
+
+    /**
+     * @param file file under the Jenkins homedir
+     * @return path relative to the Jenkins homedir or null if the file is not part of the configuration
+     */
+    private String relativePath(File file) {
+        String root = rootDir.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        if(!path.startsWith(root)) {
+            return null;
+        }
+        path = path.substring(root.length()).replace(File.separatorChar, '/');
+        if(path.contains("/builds/") || path.startsWith("workspace/") || path.contains("/workspace/")) {
+            return null;
+        }
+        return path;
+    }
+
+    /**
+     *
+     * Single recorded change
+     */
+    public static class Entry {
+        private final long timestamp;
+        private final String operation;
+        private final String path;
+        private final String newPath;
+        private final byte[] content;
+
+        Entry(long timestamp, String operation, String path, String newPath, byte[] content) {
+            this.timestamp = timestamp;
+            this.operation = operation;
+            this.path = path;
+            this.newPath = newPath;
+            this.content = content;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getNewPath() {
+            return newPath;
+        }
+
+        void apply(File targetDir) throws IOException {
+            File file = resolve(targetDir, path);
+            if(SAVE.equals(operation)) {
+                Files.createParentDirs(file);
+                GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(content));
+                try {
+                    Files.write(ByteStreams.toByteArray(in), file);
+                } finally {
+                    in.close();
+                }
+            }
+            else if(DELETE.equals(operation)) {
+                if(file.isDirectory()) {
+                    FileUtils.deleteDirectory(file);
+                }
+                else if(file.exists() && !file.delete()) {
+                    throw new IOException("Could not delete " + file.getAbsolutePath());
+                }
+            }
+            else if(RENAME.equals(operation)) {
+                File destination = resolve(targetDir, newPath);
+                if(file.exists()) {
+                    if(destination.isDirectory()) {
+                        FileUtils.deleteDirectory(destination);
+                    }
+                    Files.createParentDirs(destination);
+                    if(!file.renameTo(destination)) {
+                        throw new IOException("Could not rename " + file.getAbsolutePath() + " to " + destination.getAbsolutePath());
+                    }
+                }
+            }
+            else {
+                LOGGER.warning("Unknown journal operation " + operation + ", ignoring it");
+            }
+        }
+
+        /**
+         *
+         * The segments come from the Locations, a corrupted or forged path must not write outside the target
+         *
+         * @param targetDir directory the journal is replayed into
+         * @param path recorded path relative to it
+         * @return the file of the path
+         * @throws IOException if the path contains .. or leaves targetDir otherwise (e.g. through a symbolic link)
+         */
+        private static File resolve(File targetDir, String path) throws IOException {
+            if(path == null) {
+                throw new IOException("Journal entry without path");
+            }
+            for(String segment : path.split("[/\\\\]")) {
+                if(segment.equals("..")) {
+                    throw new IOException("Journal entry path " + path + " contains ..");
+                }
+            }
+            File file = new File(targetDir, path);
+            if(!file.getCanonicalPath().startsWith(targetDir.getCanonicalPath() + File.separator)) {
+                throw new IOException("Journal entry path " + path + " is outside of " + targetDir.getAbsolutePath());
+            }
+            return file;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ *
+ * This SaveableListener records every saved configuration file in the ConfigJournal, the deleted and renamed items
+ * are recorded by the ItemListener. Nothing is recorded while the journal is disabled.
+ */
+@Extension
+public class ConfigJournalListener extends SaveableListener {
+
+    private static final Logger LOGGER = Logger.getLogger(ConfigJournalListener.class.getName());
+
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+        ConfigJournal journal = getJournal();
+        if(journal != null) {
+            try {
+                journal.recordSave(file.getFile());
+            } catch (IOException e) {
+                LOGGER.warning("Could not record " + file.getFile().getAbsolutePath() + " in the configuration journal. " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the configuration journal or null if it is disabled or the plugin is not loaded yet
+     */
+    static ConfigJournal getJournal() {
+        PeriodicBackupLink link = PeriodicBackupLink.get();
+        return link != null ? link.getConfigJournal() : null;
+    }
+
+    @SuppressWarnings("unused")
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+
+        @Override
+        public void onDeleted(Item item) {
+            ConfigJournal journal = getJournal();
+            if(journal != null) {
+                try {
+                    journal.recordDelete(item.getRootDir());
+                } catch (IOException e) {
+                    LOGGER.warning("Could not record the deletion of " + item.getFullName() + " in the configuration journal. " + e.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public void onRenamed(Item item, String oldName, String newName) {
+            ConfigJournal journal = getJournal();
+            if(journal != null) {
+                File rootDir = item.getRootDir();
+                try {
+                    journal.recordRename(new File(rootDir.getParentFile(), oldName), rootDir);
+                } catch (IOException e) {
+                    LOGGER.warning("Could not record the rename of " + item.getFullName() + " in the configuration journal. " + e.getMessage());
+                }
+            }
+        }
+    }
+}
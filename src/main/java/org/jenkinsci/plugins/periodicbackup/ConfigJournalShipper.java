@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ *
+ * Every minute the current segment of the ConfigJournal is closed and the closed segments are stored in all the
+ * enabled Locations. A segment is deleted locally when all the Locations have it, otherwise it is stored again
+ * next time.
+ */
+@Extension
+public class ConfigJournalShipper extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(ConfigJournalShipper.class.getName());
+
+    public ConfigJournalShipper() {
+        super("PeriodicBackup configuration journal");
+    }
+
+    @Override
+    protected void execute(TaskListener taskListener) {
+        PeriodicBackupLink link = PeriodicBackupLink.get();
+        // The plugin may not be loaded yet
+        ConfigJournal journal = link != null ? link.getConfigJournal() : null;
+        if(journal == null) {
+            return;
+        }
+        try {
+            for(File segment : journal.roll()) {
+                boolean stored = true;
+                for(Location location : link.getLocations()) {
+                    if(location.enabled) {
+                        try {
+                            location.storeJournalInLocation(segment);
+                        } catch (IOException e) {
+                            LOGGER.warning("Could not store " + segment.getName() + " in " + location.getDisplayName() + ". " + e.getMessage());
+                            stored = false;
+                        }
+                    }
+                }
+                if(stored && !segment.delete()) {
+                    LOGGER.warning("Could not delete " + segment.getAbsolutePath());
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Could not close the configuration journal segment. " + e.getMessage());
+        }
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import hudson.Extension;
+import hudson.model.Hudson;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ *
+ * This implementation of FileManager selects the configuration of the whole Jenkins instance: the .xml files
+ * and the secret keys from the Jenkins homedir, the users, nodes and secrets directories and the configuration
+ * of every job, including the jobs in folders, the multibranch projects, the matrix configurations and the maven
+ * modules. The job tree is scanned by several threads, one task per directory, and the builds and workspace
+ * directories are never entered.
+ * During restore it will try to overwrite the existing files.
+ */
+public class ConfigTree extends FileManager {
+
+    private static final Logger LOGGER = Logger.getLogger(ConfigTree.class.getName());
+
+    // Directories of the job tree which do not contain any configuration (the last* ones are links to the builds)
+    private final static Set<String> SKIPPED_DIRECTORIES = ImmutableSet.of("builds", "workspace", "lastStable",
+            "lastSuccessful", "lastFailed", "lastUnstable", "lastUnsuccessful");
+    // Directories of the homedir which are backed up with all their files
+    private final static Set<String> CONFIG_DIRECTORIES = ImmutableSet.of("users", "nodes", "secrets");
+    private final static int SCANNING_THREADS = Math.min(8, Runtime.getRuntime().availableProcessors() * 2);
+
+    @DataBoundConstructor
+    public ConfigTree() {
+        super();
+        this.restorePolicy = new OverwriteRestorePolicy();
+    }
+
+    public String getDisplayName() {
+        return "ConfigTree";
+    }
+
+    @Override
+    public Iterable<File> getFilesToBackup() throws PeriodicBackupException {
+        File rootDir = Hudson.getInstance().getRootDir();
+        DirectoryScanCache cache = DirectoryScanCache.load(rootDir);
+        List<File> files = getFilesToBackup(rootDir, cache, SCANNING_THREADS);
+        cache.save();
+        return files;
+    }
+
+    /**
+     * @param rootDir the Jenkins home directory
+     * @param cache listings of the directories
+     * @param threads number of the threads scanning the directories
+     * @return the configuration files sorted by their paths
+     * @throws PeriodicBackupException if the scan fails or is interrupted
+     */
+    List<File> getFilesToBackup(File rootDir, DirectoryScanCache cache, int threads) throws PeriodicBackupException {
+        List<DirectoryScanCache.Entry> children = cache.list(rootDir);
+        if(children == null) {
+            throw new PeriodicBackupException("Could not list " + rootDir.getAbsolutePath());
+        }
+        Scan scan = new Scan(cache, threads);
+        for(DirectoryScanCache.Entry child : children) {
+            String name = child.getName();
+            if(child.isDirectory()) {
+                if(CONFIG_DIRECTORIES.contains(name)) {
+                    scan.submit(child.getFile(), false);
+                }
+                else if(name.equals("jobs")) {
+                    scan.submit(child.getFile(), true);
+                }
+            }
+            else if(name.endsWith(".xml") || name.startsWith("secret.key") || name.startsWith("identity.key")) {
+                scan.files.add(child.getFile());
+            }
+        }
+        List<File> files = scan.await();
+        BackupProgress.checkCancelled();
+        // The order of the files does not depend on the scheduling of the threads
+        Collections.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                return f1.getPath().compareTo(f2.getPath());
+            }
+        });
+        return files;
+    }
+
+    /**
+     *
+     * Parallel scan of the directories, every directory is listed by a separate task
+     */
+    private static class Scan {
+        private final Queue<File> files = new ConcurrentLinkedQueue<File>();
+        private final AtomicInteger pending = new AtomicInteger(1);     // The caller submitting the first directories
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+        private final DirectoryScanCache cache;
+        private final ExecutorService executor;
+
+        Scan(DirectoryScanCache cache, int threads) {
+            this.cache = cache;
+            executor = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Periodic Backup config scan");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        /**
+         * @param directory directory to scan
+         * @param jobTree true if only the configuration of the jobs is selected, false if all the files are
+         */
+        void submit(final File directory, final boolean jobTree) {
+            pending.incrementAndGet();
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        if(failure.get() == null && !BackupProgress.isCancelled()) {
+                            scan(directory, jobTree);
+                        }
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        release();
+                    }
+                }
+            });
+        }
+
+        private void scan(File directory, boolean jobTree) {
+            List<DirectoryScanCache.Entry> children = cache.list(directory);
+            if(children == null) {
+                LOGGER.warning("Could not list " + directory.getAbsolutePath());
+                return;
+            }
+            for(DirectoryScanCache.Entry child : children) {
+                String name = child.getName();
+                if(child.isDirectory()) {
+                    if(!jobTree || !(SKIPPED_DIRECTORIES.contains(name) || name.startsWith("workspace@"))) {
+                        submit(child.getFile(), jobTree);
+                    }
+                }
+                else if(!jobTree || name.endsWith(".xml") || name.equals("nextBuildNumber")) {
+                    files.add(child.getFile());
+                }
+            }
+        }
+
+        private void release() {
+            if(pending.decrementAndGet() == 0) {
+                done.countDown();
+            }
+        }
+
+        /**
+         *
+         * Waits until all the submitted directories and their subdirectories are scanned
+         *
+         * @return the selected files
+         * @throws PeriodicBackupException if a directory could not be scanned or the wait has been interrupted
+         */
+        List<File> await() throws PeriodicBackupException {
+            release();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PeriodicBackupException("The scan of the configuration files has been interrupted");
+            } finally {
+                executor.shutdownNow();
+            }
+            if(failure.get() != null) {
+                throw new PeriodicBackupException("Could not scan the configuration files. " + failure.get().getMessage());
+            }
+            return Lists.newArrayList(files);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof ConfigTree) {
+            ConfigTree that = (ConfigTree) o;
+            return Objects.equal(this.restorePolicy, that.restorePolicy);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return 89;
+    }
+
+    @SuppressWarnings("unused")
+    @Extension
+    public static class DescriptorImpl extends FileManagerDescriptor {
+        public String getDisplayName() {
+            return "ConfigTree";
+        }
+    }
+}
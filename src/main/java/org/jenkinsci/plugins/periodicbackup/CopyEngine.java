@@ -0,0 +1,274 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import hudson.os.PosixAPI;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ *
+ * CopyEngine copies the files of NullStorage with several threads, a single copy at a time leaves most of the
+ * throughput of a fast disk unused. The data is copied by FileChannel.transferTo, so it is not copied through
+ * the Java heap (sendfile). Optionally the files are hard linked instead of being copied when the source
+ * and the destination are on the same filesystem. A linked file shares its data with the original,
+ * so it changes when the original is written in place.
+ * At most QUEUE_DEPTH_PER_THREAD copies per thread are queued, copy() blocks until there is room.
+ * Besides NullStorage, LocalDirectory copies the directory archives (of NullStorage) with it, never linked.
+ */
+public class CopyEngine {
+
+    public final static int DEFAULT_THREADS = 4;
+    private final static int QUEUE_DEPTH_PER_THREAD = 4;
+
+    private static final Logger LOGGER = Logger.getLogger(CopyEngine.class.getName());
+
+    private final ExecutorService copiers;
+    private final Semaphore queue;
+    private final int queueDepth;
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile boolean hardLinks;
+
+    /**
+     * @param threads number of the parallel copies
+     * @param hardLinks true to link the files instead of copying them, the caller tells if the filesystems allow it
+     */
+    public CopyEngine(int threads, boolean hardLinks) {
+        // The threads do not keep the JVM alive if the engine is not closed
+        this.copiers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Periodic Backup file copy");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.queueDepth = threads * QUEUE_DEPTH_PER_THREAD;
+        this.queue = new Semaphore(queueDepth);
+        this.hardLinks = hardLinks;
+    }
+
+    /**
+     *
+     * Queues the copy of the file, the missing directories of the destination are created
+     *
+     * @param source file to copy
+     * @param destination file to create
+     * @param linkAllowed false if the file must be copied even if the hard links are used (e.g. symlinks)
+     * @throws PeriodicBackupException if interrupted while waiting for the queue
+     */
+    public void copy(final File source, final File destination, final boolean linkAllowed) throws PeriodicBackupException {
+        try {
+            queue.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PeriodicBackupException("Interrupted while waiting for the copies");
+        }
+        copiers.execute(new Runnable() {
+            public void run() {
+                try {
+                    copyFile(source, destination, linkAllowed);
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                    LOGGER.warning("Could not copy " + source.getAbsolutePath() + " to " + destination.getAbsolutePath() + " " + e.getMessage());
+                } finally {
+                    queue.release();
+                }
+            }
+        });
+    }
+
+    /**
+     *
+     * Queues the copies of all the files of the directory, the directories are created right away
+     * so the empty ones are copied too
+     *
+     * @param directory directory to copy
+     * @param destination directory to create
+     * @throws IOException if a directory cannot be listed or created
+     * @throws PeriodicBackupException if interrupted while waiting for the queue
+     */
+    public void copyDirectory(File directory, File destination) throws IOException, PeriodicBackupException {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            throw new IOException("Could not list " + directory.getAbsolutePath());
+        }
+        if(!destination.mkdirs() && !destination.isDirectory()) {
+            throw new IOException("Could not create directory " + destination.getAbsolutePath());
+        }
+        for(File file : files) {
+            if(file.isDirectory()) {
+                copyDirectory(file, new File(destination, file.getName()));
+            }
+            else {
+                copy(file, new File(destination, file.getName()), true);
+            }
+        }
+    }
+
+    /**
+     *
+     * Copies the directory with DEFAULT_THREADS threads, the files are never linked
+     *
+     * @param directory directory to copy
+     * @param destination directory to create
+     * @throws IOException if any file cannot be copied
+     */
+    public static void copyDirectoryInParallel(File directory, File destination) throws IOException {
+        CopyEngine engine = new CopyEngine(DEFAULT_THREADS, false);
+        try {
+            engine.copyDirectory(directory, destination);
+            int failures = engine.await();
+            if(failures > 0) {
+                throw new IOException(failures + " file(s) could not be copied to " + destination.getAbsolutePath());
+            }
+        } catch (PeriodicBackupException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            engine.close();
+        }
+    }
+
+    /**
+     *
+     * Waits until all the queued copies are finished
+     *
+     * @return number of the files which could not be copied since the previous call
+     * @throws PeriodicBackupException if interrupted while waiting
+     */
+    public int await() throws PeriodicBackupException {
+        try {
+            queue.acquire(queueDepth);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PeriodicBackupException("Interrupted while waiting for the copies");
+        }
+        queue.release(queueDepth);
+        return failures.getAndSet(0);
+    }
+
+    /**
+     *
+     * Stops the threads, the copies which have not started yet are dropped
+     */
+    public void close() {
+        copiers.shutdownNow();
+    }
+
+    private void copyFile(File source, File destination, boolean linkAllowed) throws IOException {
+        File parent = destination.getParentFile();
+        // Another thread may create the same directory meanwhile
+        if(!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create directory " + parent.getAbsolutePath());
+        }
+        if(hardLinks && linkAllowed && link(source, destination)) {
+            return;
+        }
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(destination);
+            try {
+                FileChannel inChannel = in.getChannel();
+                FileChannel outChannel = out.getChannel();
+                long size = inChannel.size();
+                long position = 0;
+                while(position < size) {
+                    // transferTo may transfer less than asked for, nothing when the file has been truncated meanwhile
+                    long transferred = inChannel.transferTo(position, size - position, outChannel);
+                    if(transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        if(!destination.setLastModified(source.lastModified())) {
+            LOGGER.warning("Could not set modification time of " + destination.getAbsolutePath());
+        }
+    }
+
+    /**
+     *
+     * Links the file, the hard links are given up for the next files only when they cannot work at all: the API is
+     * missing or the files are on different filesystems. Any other failure (e.g. the destination exists or the file
+     * cannot be linked) only concerns this file.
+     *
+     * @return true if the file has been linked, false if it has to be copied
+     */
+    private boolean link(File source, File destination) {
+        try {
+            if(PosixAPI.get().link(source.getPath(), destination.getPath()) == 0) {
+                return true;
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warning("Hard links are not supported, copying the files instead " + e.getMessage());
+            hardLinks = false;
+            return false;
+        } catch (LinkageError e) {
+            LOGGER.warning("Hard links are not supported, copying the files instead " + e.getMessage());
+            hardLinks = false;
+            return false;
+        }
+        if(!isSameFileSystem(source.getParentFile(), destination.getParentFile())) {
+            LOGGER.warning(source.getParent() + " and " + destination.getParent() + " are not on the same filesystem, copying the files instead");
+            hardLinks = false;
+        }
+        else {
+            LOGGER.warning("Could not link " + source.getAbsolutePath() + " to " + destination.getAbsolutePath() + ", copying it instead");
+        }
+        return false;
+    }
+
+    /**
+     *
+     * Tells if the hard links can be created between the two directories
+     *
+     * @param first existing directory
+     * @param second existing directory
+     * @return true if both directories are on the same filesystem, false if it is not known
+     */
+    public static boolean isSameFileSystem(File first, File second) {
+        try {
+            return PosixAPI.get().stat(first.getPath()).dev() == PosixAPI.get().stat(second.getPath()).dev();
+        } catch (RuntimeException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *
+ * DirectoryScanCache remembers the listing of every scanned directory together with the modification time
+ * of the directory, similar to the index of git. The modification time of a directory changes whenever an entry
+ * is added, removed or renamed in it, so when it is unchanged the cached names and types of the entries are used
+ * and the directory is neither listed nor are its entries stat-ed, a scan of an unchanged tree costs one stat
+ * per directory. A directory modified shortly before it was listed is not cached, its later changes could have
+ * the same modification time.
+ *
+ * The cache is kept in a gzipped text file in the Jenkins homedir, one line per directory: modification time,
+ * path relative to the homedir and the entries separated by /, every entry prefixed by d (directory) or f (file).
+ * Only the directories listed in the current scan are saved, the cache file itself is never listed.
+ * The cache can be used by several scanning threads at once.
+ */
+public class DirectoryScanCache {
+
+    public final static String FILE_NAME = "periodicBackup-scancache.gz";
+    private final static String HEADER = "# periodicbackup scan cache 1";
+    // Directories modified less than this before they were listed are not cached
+    private final static long MTIME_GRANULARITY = 2000;
+    private static final Logger LOGGER = Logger.getLogger(DirectoryScanCache.class.getName());
+
+    private final File rootDir;
+    private final File cacheFile;
+    private final Map<String, Listing> previous = new ConcurrentHashMap<String, Listing>();
+    private final Map<String, Listing> current = new ConcurrentHashMap<String, Listing>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile DirtyDirectoryTracker.Snapshot changes;    // Directories changed by Jenkins, null to check every directory
+
+    /**
+     * @param rootDir directory whose subdirectories are cached, the paths in the cache are relative to it
+     * @param cacheFile file the cache is loaded from and saved to, null for a cache kept only in memory
+     */
+    public DirectoryScanCache(File rootDir, File cacheFile) {
+        this.rootDir = rootDir;
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     *
+     * Loads the cache of the given Jenkins homedir, the cache is empty if the file does not exist or can not be read
+     *
+     * @param rootDir the Jenkins homedir
+     * @return the loaded cache
+     */
+    public static DirectoryScanCache load(File rootDir) {
+        DirectoryScanCache cache = new DirectoryScanCache(rootDir, new File(rootDir, FILE_NAME));
+        try {
+            cache.read();
+        } catch (IOException e) {
+            LOGGER.warning("Could not read the scan cache, all the directories will be listed. " + e.getMessage());
+            cache.previous.clear();
+        }
+        return cache;
+    }
+
+    /**
+     *
+     * From now on the cached listings of the directories which are clean in the snapshot are used without checking
+     * their modification time. Only the directories of the jobs and the users are trusted, Jenkins writes elsewhere
+     * without any event (fingerprints, plugins, userContent), the workspaces are not trusted either.
+     *
+     * @param changes directories changed since the cache was saved
+     */
+    public void trust(DirtyDirectoryTracker.Snapshot changes) {
+        this.changes = changes;
+    }
+
+    /**
+     *
+     * Lists the directory, the cached listing is used if the directory has not been modified since it was cached
+     *
+     * @param directory directory under the root directory
+     * @return entries of the directory or null if it can not be listed
+     */
+    public List<Entry> list(File directory) {
+        String key = keyOf(directory);
+        Listing cached = previous.remove(key);
+        DirtyDirectoryTracker.Snapshot trusted = changes;
+        if(cached != null && trusted != null && isTrackedByJenkins(key) && trusted.isClean(directory)) {
+            hits.incrementAndGet();
+            current.put(key, cached);
+            return cached.toEntries(directory);
+        }
+        long lastModified = directory.lastModified();
+        if(cached != null && cached.lastModified == lastModified && lastModified != 0) {
+            hits.incrementAndGet();
+            current.put(key, cached);
+            return cached.toEntries(directory);
+        }
+        misses.incrementAndGet();
+        long listed = System.currentTimeMillis();
+        File[] children = directory.listFiles();
+        if(children == null) {
+            return null;
+        }
+        List<Entry> entries = Lists.newArrayListWithCapacity(children.length);
+        boolean cacheable = lastModified != 0 && lastModified < listed - MTIME_GRANULARITY;
+        for(File child : children) {
+            if(cacheFile != null && child.equals(cacheFile)) {
+                continue;
+            }
+            entries.add(new Entry(child, child.isDirectory()));
+            cacheable &= isCacheable(child.getName());
+        }
+        if(cacheable) {
+            current.put(key, Listing.of(lastModified, entries));
+        }
+        return entries;
+    }
+
+    /**
+     * @return number of the directories whose cached listing has been used
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of the directories which have been listed
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     *
+     * Saves the directories listed since the cache was loaded, a failure is only logged as the next scan
+     * just lists the directories again
+     */
+    public void save() {
+        if(cacheFile == null) {
+            return;
+        }
+        File tempFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tempFile)), Charsets.UTF_8));
+            try {
+                writer.write(HEADER + "\n");
+                for(Map.Entry<String, Listing> entry : current.entrySet()) {
+                    writer.write(entry.getValue().lastModified + "\t" + entry.getKey() + "\t" + entry.getValue().entries + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            if((cacheFile.exists() && !cacheFile.delete()) || !tempFile.renameTo(cacheFile)) {
+                throw new IOException("Could not replace " + cacheFile.getAbsolutePath());
+            }
+            LOGGER.info("Scan cache saved, " + hits.get() + " directories taken from the cache and "
+                    + misses.get() + " listed");
+        } catch (IOException e) {
+            LOGGER.warning("Could not save the scan cache. " + e.getMessage());
+            if(tempFile.exists() && !tempFile.delete()) {
+                LOGGER.warning("Could not delete " + tempFile.getAbsolutePath());
+            }
+        }
+    }
+
+    private void read() throws IOException {
+        if(cacheFile == null || !cacheFile.exists()) {
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(cacheFile)), Charsets.UTF_8));
+        try {
+            if(!HEADER.equals(reader.readLine())) {
+                LOGGER.info("Unknown format of " + cacheFile.getAbsolutePath() + ", the scan cache is ignored");
+                return;
+            }
+            String line;
+            while((line = reader.readLine()) != null) {
+                int first = line.indexOf('\t');
+                int second = line.indexOf('\t', first + 1);
+                if(first < 0 || second < 0) {
+                    continue;
+                }
+                try {
+                    previous.put(line.substring(first + 1, second),
+                            new Listing(Long.parseLong(line.substring(0, first)), line.substring(second + 1)));
+                } catch (NumberFormatException e) {
+                    // skip the damaged line
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private String keyOf(File directory) {
+        String path = directory.getPath();
+        String root = rootDir.getPath();
+        return path.startsWith(root) ? path.substring(root.length()) : path;
+    }
+
+    /**
+     * @param key path of the directory relative to the root directory
+     * @return true if Jenkins reports the changes of the directory to the DirtyDirectoryTracker
+     */
+    static boolean isTrackedByJenkins(String key) {
+        String path = key.replace(File.separatorChar, '/');
+        while(path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if(!path.equals("jobs") && !path.startsWith("jobs/") && !path.equals("users") && !path.startsWith("users/")) {
+            return false;
+        }
+        // The workspaces on the master are written by the builds file by file
+        return !path.endsWith("/workspace") && !path.contains("/workspace/");
+    }
+
+    private static boolean isCacheable(String name) {
+        return name.indexOf('\t') < 0 && name.indexOf('\n') < 0 && name.indexOf('\r') < 0;
+    }
+
+    /**
+     *
+     * Cached listing of a directory, the entries are kept as a single string to save memory
+     */
+    private static class Listing {
+        private final long lastModified;
+        private final String entries;
+
+        Listing(long lastModified, String entries) {
+            this.lastModified = lastModified;
+            this.entries = entries;
+        }
+
+        static Listing of(long lastModified, List<Entry> entries) {
+            StringBuilder builder = new StringBuilder();
+            for(Entry entry : entries) {
+                if(builder.length() > 0) {
+                    builder.append('/');
+                }
+                builder.append(entry.isDirectory() ? 'd' : 'f').append(entry.getName());
+            }
+            return new Listing(lastModified, builder.toString());
+        }
+
+        List<Entry> toEntries(File directory) {
+            List<Entry> result = Lists.newArrayList();
+            int start = 0;
+            while(start < entries.length()) {
+                int end = entries.indexOf('/', start);
+                if(end < 0) {
+                    end = entries.length();
+                }
+                result.add(new Entry(new File(directory, entries.substring(start + 1, end)), entries.charAt(start) == 'd'));
+                start = end + 1;
+            }
+            return result;
+        }
+    }
+
+    /**
+     *
+     * Single entry of a directory
+     */
+    public static class Entry {
+        private final File file;
+        private final boolean directory;
+
+        public Entry(File file, boolean directory) {
+            this.file = file;
+            this.directory = directory;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public String getName() {
+            return file.getName();
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+    }
+}
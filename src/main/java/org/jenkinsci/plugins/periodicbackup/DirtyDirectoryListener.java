@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.listeners.SaveableListener;
+
+import java.io.File;
+
+/**
+ *
+ * Feeds the DirtyDirectoryTracker with the changes made by Jenkins: the saved files, the items and the builds.
+ */
+@Extension
+public class DirtyDirectoryListener extends SaveableListener {
+
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+        DirtyDirectoryTracker tracker = getTracker();
+        if(tracker != null) {
+            tracker.markFileDirty(file.getFile());
+        }
+    }
+
+    /**
+     * @return the tracker or null if the plugin is not loaded yet
+     */
+    static DirtyDirectoryTracker getTracker() {
+        PeriodicBackupLink link = PeriodicBackupLink.get();
+        return link != null ? link.getDirtyDirectoryTracker() : null;
+    }
+
+    /**
+     *
+     * The whole directory of the item has changed and so has the directory containing it
+     */
+    private static void markItemDirty(File itemDir) {
+        DirtyDirectoryTracker tracker = getTracker();
+        if(tracker != null) {
+            tracker.markDirty(itemDir, true);
+            tracker.markFileDirty(itemDir);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+
+        @Override
+        public void onCreated(Item item) {
+            markItemDirty(item.getRootDir());
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            markItemDirty(item.getRootDir());
+        }
+
+        @Override
+        public void onRenamed(Item item, String oldName, String newName) {
+            markItemDirty(new File(item.getRootDir().getParentFile(), oldName));
+            markItemDirty(item.getRootDir());
+        }
+    }
+
+    /**
+     *
+     * A build writes its own directory and the builds directory and the job directory get new entries
+     * (the build, the links to it, nextBuildNumber)
+     */
+    @SuppressWarnings("unused")
+    @Extension
+    public static class RunListenerImpl extends RunListener<Run> {
+
+        public RunListenerImpl() {
+            super(Run.class);
+        }
+
+        @Override
+        public void onStarted(Run run, TaskListener listener) {
+            markRunDirty(run);
+        }
+
+        @Override
+        public void onCompleted(Run run, TaskListener listener) {
+            markRunDirty(run);
+        }
+
+        @Override
+        public void onDeleted(Run run) {
+            markRunDirty(run);
+        }
+
+        private void markRunDirty(Run run) {
+            DirtyDirectoryTracker tracker = getTracker();
+            if(tracker != null) {
+                File buildDir = run.getRootDir();
+                tracker.markDirty(buildDir, true);
+                tracker.markFileDirty(buildDir);
+                tracker.markFileDirty(buildDir.getParentFile());
+            }
+        }
+    }
+}
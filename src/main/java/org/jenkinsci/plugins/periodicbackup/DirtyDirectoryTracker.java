@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import java.io.File;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ *
+ * DirtyDirectoryTracker collects the directories changed by Jenkins between two backups. It is fed by the events
+ * of Jenkins (saved configuration, created, renamed and deleted items, started, completed and deleted builds),
+ * a directory is marked either alone or together with its whole subtree. At the start of a scan the collected
+ * directories are taken as a Snapshot and the tracker starts over, the DirectoryScanCache trusts its listings
+ * of the directories which are clean in the snapshot without even checking their modification time. Only
+ * the directories of the jobs and the users (but not the workspaces) are trusted, Jenkins writes the others
+ * (fingerprints, plugins, userContent) without any event.
+ *
+ * Only the changes made by Jenkins are seen, so the snapshot is not trusted (every directory is checked) when
+ * the tracker has not been running since the previous scan, after more than MAX_PATHS changed directories
+ * and once every VERIFY_INTERVAL to pick up the files written by other processes.
+ */
+public class DirtyDirectoryTracker {
+
+    private final static int MAX_PATHS = 10000;     // Bounds the memory, a larger change is a full rescan anyway
+    private final static long VERIFY_INTERVAL = 24 * 60 * 60 * 1000L;
+    private static final Logger LOGGER = Logger.getLogger(DirtyDirectoryTracker.class.getName());
+
+    private Set<String> directories = Sets.newHashSet();
+    private Set<String> trees = Sets.newHashSet();
+    private boolean overflowed = true;      // Nothing is known about the changes before the tracker was created
+    private long lastVerified = -1;         // Start of the last scan checking every directory
+
+    /**
+     *
+     * Marks a directory as changed
+     *
+     * @param directory changed directory
+     * @param recursive true if the subdirectories could have changed as well
+     */
+    public synchronized void markDirty(File directory, boolean recursive) {
+        if(overflowed) {
+            return;
+        }
+        (recursive ? trees : directories).add(directory.getAbsolutePath());
+        if(directories.size() + trees.size() > MAX_PATHS) {
+            LOGGER.info("More than " + MAX_PATHS + " directories changed since the last backup, the next backup checks all the directories");
+            overflow();
+        }
+    }
+
+    /**
+     *
+     * Marks the directory of a changed file
+     *
+     * @param file changed, created or deleted file or directory
+     */
+    public void markFileDirty(File file) {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if(parent != null) {
+            markDirty(parent, false);
+        }
+    }
+
+    /**
+     *
+     * Forgets the collected directories, the next snapshot is not trusted
+     */
+    public synchronized void overflow() {
+        overflowed = true;
+        directories = Sets.newHashSet();
+        trees = Sets.newHashSet();
+    }
+
+    /**
+     *
+     * Takes the directories changed since the last snapshot and starts collecting the next changes
+     *
+     * @return the changed directories
+     */
+    public synchronized Snapshot takeSnapshot() {
+        long now = System.currentTimeMillis();
+        boolean verify = overflowed || now - lastVerified > VERIFY_INTERVAL;
+        Snapshot snapshot = new Snapshot(verify, ImmutableSet.copyOf(directories), ImmutableSet.copyOf(trees));
+        if(verify) {
+            lastVerified = now;
+        }
+        overflowed = false;
+        directories = Sets.newHashSet();
+        trees = Sets.newHashSet();
+        return snapshot;
+    }
+
+    /**
+     *
+     * Directories changed between two scans
+     */
+    public static class Snapshot {
+        private final boolean verify;
+        private final Set<String> directories;
+        private final Set<String> trees;
+
+        Snapshot(boolean verify, Set<String> directories, Set<String> trees) {
+            this.verify = verify;
+            this.directories = directories;
+            this.trees = trees;
+        }
+
+        /**
+         * @return true if every directory has to be checked
+         */
+        public boolean isVerify() {
+            return verify;
+        }
+
+        /**
+         * @param directory scanned directory
+         * @return true if Jenkins has not changed the directory, its cached listing can be used without checking it
+         */
+        public boolean isClean(File directory) {
+            if(verify) {
+                return false;
+            }
+            String path = directory.getAbsolutePath();
+            if(directories.contains(path)) {
+                return false;
+            }
+            for(File dir = directory.getAbsoluteFile(); dir != null; dir = dir.getParentFile()) {
+                if(trees.contains(dir.getPath())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import hudson.os.PosixAPI;
+import org.jruby.ext.posix.FileStat;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+/**
+ *
+ * FileEntry is a file to back up together with its attributes: the path relative to the Jenkins homedir, size,
+ * modification time, mode and whether it is a symbolic link. The attributes are read once with a single lstat
+ * when the entry is created, so the Storages do not have to ask the filesystem for them again.
+ * The symbolic links are followed by the Storages, the size and the modification time are those of the target.
+ */
+public class FileEntry {
+
+    public final static int UNKNOWN_MODE = -1;
+    private static final Logger LOGGER = Logger.getLogger(FileEntry.class.getName());
+    private static volatile boolean posixAvailable = true;     // Cleared when the native lstat fails
+
+    private final File file;
+    private final String path;
+    private final long size;
+    private final long lastModified;
+    private final int mode;
+    private final boolean symlink;
+
+    public FileEntry(File file, String path, long size, long lastModified, int mode, boolean symlink) {
+        this.file = file;
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.mode = mode;
+        this.symlink = symlink;
+    }
+
+    /**
+     *
+     * Reads the attributes of the file
+     *
+     * @param file file to back up
+     * @param path path of the file relative to the Jenkins homedir, separated by /
+     * @return the entry of the file
+     */
+    public static FileEntry of(File file, String path) {
+        if(posixAvailable) {
+            try {
+                FileStat stat = PosixAPI.get().lstat(file.getPath());
+                if(!stat.isSymlink()) {
+                    return new FileEntry(file, path, stat.st_size(), stat.mtime() * 1000, stat.mode(), false);
+                }
+                return new FileEntry(file, path, file.length(), file.lastModified(), stat.mode(), true);
+            } catch (RuntimeException e) {
+                fallback(e);
+            } catch (LinkageError e) {
+                fallback(e);
+            }
+        }
+        return new FileEntry(file, path, file.length(), file.lastModified(), UNKNOWN_MODE, false);
+    }
+
+    /**
+     * @param file file to back up
+     * @param rootDir the Jenkins homedir
+     * @return the entry of the file
+     */
+    public static FileEntry of(File file, File rootDir) {
+        return of(file, relativePath(file, rootDir));
+    }
+
+    /**
+     *
+     * The paths of the scanned files start with the path of the homedir, so only the rest is taken
+     *
+     * @param file file under rootDir
+     * @param rootDir the Jenkins homedir
+     * @return path of the file relative to rootDir, separated by /
+     */
+    static String relativePath(File file, File rootDir) {
+        String filePath = file.getPath();
+        String rootPath = rootDir.getPath();
+        if(filePath.length() > rootPath.length() + 1 && filePath.startsWith(rootPath)
+                && filePath.charAt(rootPath.length()) == File.separatorChar) {
+            String path = filePath.substring(rootPath.length() + 1);
+            return File.separatorChar == '/' ? path : path.replace(File.separatorChar, '/');
+        }
+        return Util.getRelativePath(file, rootDir);
+    }
+
+    private static void fallback(Throwable e) {
+        posixAvailable = false;
+        LOGGER.warning("Could not read the file attributes with lstat, using java.io instead. " + e.getMessage());
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return path relative to the Jenkins homedir, separated by /
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return modification time in milliseconds
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return unix mode (type and permissions) or UNKNOWN_MODE
+     */
+    public int getMode() {
+        return mode;
+    }
+
+    public boolean isSymlink() {
+        return symlink;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
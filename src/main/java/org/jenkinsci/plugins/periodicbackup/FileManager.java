@@ -24,7 +24,9 @@
 
 package org.jenkinsci.plugins.periodicbackup;
 
+import com.google.common.base.Function;
 import com.google.common.base.Objects;
+import com.google.common.collect.Iterables;
 import hudson.DescriptorExtensionList;
 import hudson.model.AbstractModelObject;
 import hudson.model.Describable;
@@ -50,6 +52,25 @@ public abstract class FileManager extends AbstractModelObject implements Describ
      */
     public abstract Iterable<File> getFilesToBackup() throws PeriodicBackupException;
 
+    /**
+     *
+     * Determines the files for Storage together with their attributes, each file is examined once here
+     * and the Storages use the attributes instead of asking the filesystem again
+     *
+     * @return Files to be included in the backup with their path, size and modification time
+     * @throws PeriodicBackupException if anything bad happens
+     */
+    public Iterable<FileEntry> getEntriesToBackup() throws PeriodicBackupException {
+        final File rootDir = Hudson.getInstance().getRootDir();
+        // The entries are created while they are iterated, they are not all kept in memory
+        // unless getFilesToBackup returns a list (FullBackup walks the directories lazily)
+        return Iterables.transform(getFilesToBackup(), new Function<File, FileEntry>() {
+            public FileEntry apply(File file) {
+                return FileEntry.of(file, rootDir);
+            }
+        });
+    }
+
     /**
      *
      * This will restore files to their right place in the HUDSON directory
@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+
+/**
+ *
+ * FileType groups the files of the backup by their content, so the Storages get the similar files one after
+ * another: the XML configuration, the build logs and other text, the binaries and the already compressed files.
+ * A solid archive (tar.gz, tar.zst) compresses long runs of similar data better and faster, and the order of the
+ * files in the archive depends on the files only, so the archives of two backups differ where the files differ.
+ * The constants are in the order in which the files are archived.
+ */
+public enum FileType {
+
+    XML,
+    TEXT,
+    BINARY,
+    COMPRESSED;
+
+    private final static Set<String> TEXT_EXTENSIONS = ImmutableSet.of(
+            "log", "txt", "properties", "json", "html", "htm", "css", "js", "csv", "md",
+            "sh", "bat", "groovy", "java", "yml", "yaml", "ini", "cfg", "conf", "key", "pem");
+
+    /**
+     * @param path path of the file relative to the Jenkins homedir, with / as separator
+     * @return the type of the file decided by its name
+     */
+    public static FileType of(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        if(dot < 0) {
+            // log, nextBuildNumber, secrets and the like
+            return TEXT;
+        }
+        String extension = name.substring(dot + 1).toLowerCase();
+        if("xml".equals(extension)) {
+            return XML;
+        }
+        if(TEXT_EXTENSIONS.contains(extension)) {
+            return TEXT;
+        }
+        if(IncompressibleContent.hasCompressedExtension(name)) {
+            return COMPRESSED;
+        }
+        return BINARY;
+    }
+}
@@ -25,27 +25,62 @@
 package org.jenkinsci.plugins.periodicbackup;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Lists;
 import hudson.Extension;
 import hudson.model.Hudson;
-import org.apache.tools.ant.DirectoryScanner;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.logging.Logger;
 
 /**
  *
  * FullBackup will choose all the files in the Jenkins homedir during the backup.
  * During the restore it will delete all the deletable files in the Jenkins homedir
  * and then it will write with files in the selected backup.
+ * If swapRestore is set the restored tree will be swapped with the content of the Jenkins homedir instead.
+ * The listings of the unchanged directories are taken from the DirectoryScanCache.
+ * If trackChanges is set only the directories of the jobs and the users changed by Jenkins since the last backup
+ * are checked besides all the other directories, see DirtyDirectoryTracker.
  */
 public class FullBackup extends FileManager {
 
+    private static final Logger LOGGER = Logger.getLogger(FullBackup.class.getName());
+
+    private boolean trackChanges;
+
     @DataBoundConstructor
-    public FullBackup() {
+    public FullBackup(boolean swapRestore, boolean trackChanges) {
+        this(swapRestore);
+        this.trackChanges = trackChanges;
+    }
+
+    public FullBackup(boolean swapRestore) {
         super();
-        this.restorePolicy = new ReplaceRestorePolicy();
+        if(swapRestore) {
+            this.restorePolicy = new SwapRestorePolicy();
+        }
+        else {
+            this.restorePolicy = new ReplaceRestorePolicy();
+        }
+    }
+
+    public FullBackup() {
+        this(false);
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isSwapRestore() {
+        return restorePolicy instanceof SwapRestorePolicy;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isTrackChanges() {
+        return trackChanges;
     }
 
     public String getDisplayName() {
@@ -54,21 +89,69 @@ public class FullBackup extends FileManager {
 
     @Override
     public Iterable<File> getFilesToBackup() {
-        DirectoryScanner directoryScanner = new DirectoryScanner(); // It will scan all files inside the root directory
-        directoryScanner.setBasedir(Hudson.getInstance().getRootDir());
-        directoryScanner.scan();
-        List<File> files = Lists.newArrayList();
-        for(String s: directoryScanner.getIncludedFiles()) {
-            files.add(new File(directoryScanner.getBasedir(), s));
+        File rootDir = Hudson.getInstance().getRootDir();
+        DirectoryScanCache cache = DirectoryScanCache.load(rootDir);
+        if(trackChanges) {
+            cache.trust(PeriodicBackupLink.get().getDirtyDirectoryTracker().takeSnapshot());
+        }
+        return getFilesToBackup(rootDir, cache);
+    }
+
+    /**
+     *
+     * Walks the directories while the files are iterated, nothing but the directories being walked is kept in memory,
+     * so the caller can store the files compactly as they come. The cache is saved when the walk is finished.
+     *
+     * @param rootDir the Jenkins home directory
+     * @param cache listings of the directories
+     * @return all the files under rootDir
+     */
+    Iterable<File> getFilesToBackup(final File rootDir, final DirectoryScanCache cache) {
+        final File swapDir = new File(rootDir, SwapRestorePolicy.SWAP_DIRECTORY);
+        return new Iterable<File>() {
+            public Iterator<File> iterator() {
+                final LinkedList<Iterator<DirectoryScanCache.Entry>> directories = Lists.newLinkedList();
+                push(directories, rootDir, cache);
+                return new AbstractIterator<File>() {
+                    @Override
+                    protected File computeNext() {
+                        while(!directories.isEmpty()) {
+                            Iterator<DirectoryScanCache.Entry> children = directories.getFirst();
+                            if(!children.hasNext()) {
+                                directories.removeFirst();
+                                continue;
+                            }
+                            DirectoryScanCache.Entry child = children.next();
+                            if(!child.isDirectory()) {
+                                return child.getFile();
+                            }
+                            // The staging and rollback directories of the swap restore are not backed up
+                            if(!child.getFile().equals(swapDir)) {
+                                push(directories, child.getFile(), cache);
+                            }
+                        }
+                        cache.save();
+                        return endOfData();
+                    }
+                };
+            }
+        };
+    }
+
+    private static void push(LinkedList<Iterator<DirectoryScanCache.Entry>> directories, File directory, DirectoryScanCache cache) {
+        List<DirectoryScanCache.Entry> children = cache.list(directory);
+        if(children == null) {
+            LOGGER.warning("Could not list " + directory.getAbsolutePath());
+            return;
         }
-        return files;
+        directories.addFirst(children.iterator());
     }
 
     @Override
     public boolean equals(Object o) {
         if (o instanceof FullBackup) {
             FullBackup that = (FullBackup) o;
-            return Objects.equal(this.restorePolicy, that.restorePolicy);
+            return Objects.equal(this.restorePolicy, that.restorePolicy) && this.trackChanges == that.trackChanges;
         }
         return false;
 
@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ *
+ * GlobMatcher matches paths relative to the Jenkins home directory against a list of glob patterns.
+ * All the patterns are compiled into a single regular expression, so a path is checked only once however many
+ * patterns there are. The patterns use / as separator and the Ant syntax: * matches any characters in a file
+ * or directory name, ? matches a single character in a name and ** matches any number of directories.
+ *
+ * A pattern without / matches the name at any depth, e.g. *.log.gz matches the compressed logs in every directory.
+ * A pattern ending with / or with /** matches the directory itself and everything inside it.
+ */
+public class GlobMatcher {
+
+    private final List<String> patterns;
+    private final Pattern regex;    // null when there are no patterns
+
+    public GlobMatcher(Iterable<String> patterns) {
+        this.patterns = Lists.newArrayList(patterns);
+        if(this.patterns.isEmpty()) {
+            regex = null;
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for(String pattern : this.patterns) {
+            sb.append(sb.length() == 0 ? "(?:" : "|(?:").append(toRegex(pattern)).append(')');
+        }
+        regex = Pattern.compile(sb.toString());
+    }
+
+    /**
+     *
+     * Splits the patterns entered in the configuration, empty lines and lines starting with # are ignored
+     *
+     * @param patterns patterns separated by new lines or commas, can be null
+     * @return GlobMatcher of the patterns
+     */
+    public static GlobMatcher parse(String patterns) {
+        List<String> result = Lists.newArrayList();
+        if(patterns != null) {
+            for(String pattern : patterns.split("[\\r\\n,]+")) {
+                pattern = pattern.trim().replace('\\', '/');
+                if(pattern.length() > 0 && !pattern.startsWith("#")) {
+                    result.add(pattern);
+                }
+            }
+        }
+        return new GlobMatcher(result);
+    }
+
+    public boolean isEmpty() {
+        return regex == null;
+    }
+
+    public List<String> getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * @param relativePath path of a file or directory relative to the Jenkins home directory, separated by /
+     * @return true if any of the patterns matches the path
+     */
+    public boolean matches(String relativePath) {
+        return regex != null && regex.matcher(relativePath).matches();
+    }
+
+    static String toRegex(String pattern) {
+        while(pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        }
+        if(pattern.endsWith("/")) {
+            pattern = pattern + "**";
+        }
+        if(pattern.indexOf('/') < 0 && !pattern.equals("**")) {
+            pattern = "**/" + pattern;
+        }
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while(i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if(pattern.startsWith("**/", i)) {
+                // Zero or more directories
+                sb.append("(?:.*/)?");
+                i += 3;
+            }
+            else if(pattern.startsWith("/**", i) && i + 3 == pattern.length()) {
+                // The directory itself and everything inside it
+                sb.append("(?:/.*)?");
+                i += 3;
+            }
+            else if(pattern.startsWith("**", i)) {
+                sb.append(".*");
+                i += 2;
+            }
+            else if(c == '*') {
+                sb.append("[^/]*");
+                i++;
+            }
+            else if(c == '?') {
+                sb.append("[^/]");
+                i++;
+            }
+            else {
+                int next = i;
+                while(next < pattern.length() && "*?".indexOf(pattern.charAt(next)) < 0
+                        && !(pattern.startsWith("/**", next) && next + 3 == pattern.length())) {
+                    next++;
+                }
+                sb.append(Pattern.quote(pattern.substring(i, next)));
+                i = next;
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return patterns.toString();
+    }
+}
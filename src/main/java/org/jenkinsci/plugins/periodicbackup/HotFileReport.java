@@ -0,0 +1,282 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ *
+ * HotFileReport keeps the most expensive files of a backup: the K largest ones and the K ones which took the longest
+ * to be added to the archives. Only 2K files are kept at any time, each in a heap with the cheapest of them on top.
+ *
+ * The time is measured around Storage.backupAddFile, so it is the compression time only for the Storages which
+ * compress the file when it is added. The stored (compressed) size is taken from the archive index where
+ * the Storage provides it.
+ */
+public class HotFileReport {
+
+    public final static int DEFAULT_SIZE = 20;
+
+    private final int size;
+    private final File rootDirectory;
+    private final PriorityQueue<FileCost> largest;
+    private final PriorityQueue<FileCost> slowest;
+    private long totalBytes = 0;
+    private long totalNanos = 0;
+    private Map<String, FileCost> byPath;                 // Files in the heaps by storage and path, built when needed
+
+    /**
+     * @param size number of the files kept in each list
+     * @param rootDirectory the backed up files are shown relative to this directory
+     */
+    public HotFileReport(int size, File rootDirectory) {
+        this.size = size;
+        this.rootDirectory = rootDirectory;
+        largest = new PriorityQueue<FileCost>(size + 1, BY_BYTES);
+        slowest = new PriorityQueue<FileCost>(size + 1, BY_NANOS);
+    }
+
+    /**
+     *
+     * Records a file added to the archive of a Storage
+     *
+     * @param storage display name of the Storage
+     * @param file the added file
+     * @param bytes size of the file
+     * @param nanos time spent adding the file
+     */
+    public void add(String storage, File file, long bytes, long nanos) {
+        add(storage, Util.getRelativePath(file, rootDirectory), bytes, nanos);
+    }
+
+    /**
+     *
+     * Records a file added to the archive of a Storage
+     *
+     * @param storage display name of the Storage
+     * @param path path of the added file relative to the root directory
+     * @param bytes size of the file
+     * @param nanos time spent adding the file
+     */
+    public synchronized void add(String storage, String path, long bytes, long nanos) {
+        totalBytes += bytes;
+        totalNanos += nanos;
+        // Most files are cheaper than the top of both heaps and are not kept at all
+        boolean large = largest.size() < size || bytes > largest.peek().bytes;
+        boolean slow = slowest.size() < size || nanos > slowest.peek().nanos;
+        if(!large && !slow) {
+            return;
+        }
+        FileCost cost = new FileCost(storage, path, bytes, nanos);
+        if(large) {
+            offer(largest, cost);
+        }
+        if(slow) {
+            offer(slowest, cost);
+        }
+        byPath = null;
+    }
+
+    private void offer(PriorityQueue<FileCost> heap, FileCost cost) {
+        heap.add(cost);
+        if(heap.size() > size) {
+            heap.poll();
+        }
+    }
+
+    /**
+     *
+     * Sets the stored size of a file if it is in the report
+     *
+     * @param storage display name of the Storage
+     * @param path path of the file relative to the root directory
+     * @param storedBytes size of the file in the archive
+     */
+    public synchronized void setStoredBytes(String storage, String path, long storedBytes) {
+        if(byPath == null) {
+            byPath = Maps.newHashMap();
+            for(FileCost cost : largest) {
+                byPath.put(cost.storage + "\t" + cost.path, cost);
+            }
+            for(FileCost cost : slowest) {
+                byPath.put(cost.storage + "\t" + cost.path, cost);
+            }
+        }
+        FileCost cost = byPath.get(storage + "\t" + path);
+        if(cost != null) {
+            cost.storedBytes = storedBytes;
+        }
+    }
+
+    /**
+     * @return the largest files, the largest first
+     */
+    public synchronized List<FileCost> getLargest() {
+        return sorted(largest, BY_BYTES);
+    }
+
+    /**
+     * @return the files which took the longest to be added, the slowest first
+     */
+    public synchronized List<FileCost> getSlowest() {
+        return sorted(slowest, BY_NANOS);
+    }
+
+    private static List<FileCost> sorted(PriorityQueue<FileCost> heap, Comparator<FileCost> order) {
+        List<FileCost> result = Lists.newArrayList(heap);
+        Collections.sort(result, Collections.reverseOrder(order));
+        return result;
+    }
+
+    /**
+     * @return size of all the added files
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return time spent adding all the files in nanoseconds
+     */
+    public synchronized long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return size of the file in percent of all the added files
+     */
+    public synchronized double getBytesShare(FileCost cost) {
+        return share(cost.bytes, totalBytes);
+    }
+
+    /**
+     * @return time of the file in percent of the time spent adding all the files
+     */
+    public synchronized double getTimeShare(FileCost cost) {
+        return share(cost.nanos, totalNanos);
+    }
+
+    public synchronized JSONObject toJSON() {
+        return new JSONObject()
+                .element("totalBytes", totalBytes)
+                .element("totalMillis", totalNanos / 1000000)
+                .element("largest", toJSON(getLargest()))
+                .element("slowest", toJSON(getSlowest()));
+    }
+
+    private JSONArray toJSON(List<FileCost> costs) {
+        JSONArray array = new JSONArray();
+        for(FileCost cost : costs) {
+            array.element(new JSONObject()
+                    .element("storage", cost.storage)
+                    .element("path", cost.path)
+                    .element("bytes", cost.bytes)
+                    .element("millis", cost.getMillis())
+                    .element("storedBytes", cost.storedBytes)
+                    .element("bytesShare", getBytesShare(cost))
+                    .element("timeShare", getTimeShare(cost)));
+        }
+        return array;
+    }
+
+    private static double share(long value, long total) {
+        return total > 0 ? 100.0 * value / total : 0;
+    }
+
+    private final static Comparator<FileCost> BY_BYTES = new Comparator<FileCost>() {
+        public int compare(FileCost c1, FileCost c2) {
+            return c1.bytes < c2.bytes ? -1 : (c1.bytes == c2.bytes ? 0 : 1);
+        }
+    };
+
+    private final static Comparator<FileCost> BY_NANOS = new Comparator<FileCost>() {
+        public int compare(FileCost c1, FileCost c2) {
+            return c1.nanos < c2.nanos ? -1 : (c1.nanos == c2.nanos ? 0 : 1);
+        }
+    };
+
+    /**
+     *
+     * Cost of a single file in a single Storage
+     */
+    public static class FileCost {
+        private final String storage;
+        private final String path;
+        private final long bytes;
+        private final long nanos;
+        private long storedBytes = -1;
+
+        FileCost(String storage, String path, long bytes, long nanos) {
+            this.storage = storage;
+            this.path = path;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        public String getStorage() {
+            return storage;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getMillis() {
+            return nanos / 1000000;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return size of the file in the archive, -1 if the Storage does not tell
+         */
+        public long getStoredBytes() {
+            return storedBytes;
+        }
+
+        /**
+         * @return stored size divided by the size of the file, -1 if not known
+         */
+        public double getCompressionRatio() {
+            return storedBytes >= 0 && bytes > 0 ? (double) storedBytes / bytes : -1;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+/**
+ *
+ * IncompressibleContent tells which data would not get smaller by deflating it, so the Storages can store it as it is.
+ * The files are recognized by the extension of the compressed formats (build logs compressed by Jenkins, artifacts,
+ * images) or by the entropy of a sample of their first bytes. Random or compressed data has almost 8 bits of entropy
+ * per byte, text and XML have about 5.
+ */
+public class IncompressibleContent {
+
+    public final static int SAMPLE_SIZE = 4096;
+    private final static double ENTROPY_THRESHOLD = 7.5;   // Bits per byte above which deflating does not pay off
+
+    private final static Set<String> COMPRESSED_EXTENSIONS = ImmutableSet.of(
+            "gz", "tgz", "bz2", "xz", "lz4", "zst", "z", "7z", "rar",
+            "zip", "jar", "war", "ear", "hpi", "jpi", "apk", "nupkg", "whl",
+            "png", "jpg", "jpeg", "gif", "webp", "mp3", "mp4", "avi", "mov", "pdf");
+
+    private IncompressibleContent() {
+    }
+
+    /**
+     * @param path path or name of the file
+     * @return true if the extension belongs to a compressed format
+     */
+    public static boolean hasCompressedExtension(String path) {
+        int dot = path.lastIndexOf('.');
+        if(dot < 0 || dot < path.lastIndexOf('/')) {
+            return false;
+        }
+        return COMPRESSED_EXTENSIONS.contains(path.substring(dot + 1).toLowerCase());
+    }
+
+    /**
+     *
+     * Decides if the file should be stored without compression, the first SAMPLE_SIZE bytes are read
+     * unless the extension tells already. The files smaller than the sample are always compressed.
+     *
+     * @param entry file to add to the archive
+     * @param buffer buffer of at least SAMPLE_SIZE bytes to read the sample into
+     * @return true if the file should be stored
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isIncompressible(FileEntry entry, byte[] buffer) throws IOException {
+        if(hasCompressedExtension(entry.getPath())) {
+            return true;
+        }
+        if(entry.getSize() < SAMPLE_SIZE) {
+            return false;
+        }
+        InputStream in = new FileInputStream(entry.getFile());
+        try {
+            int sampled = 0;
+            int read;
+            while(sampled < SAMPLE_SIZE && (read = in.read(buffer, sampled, SAMPLE_SIZE - sampled)) > 0) {
+                sampled += read;
+            }
+            return isIncompressible(buffer, 0, sampled);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     *
+     * Estimates the entropy of up to SAMPLE_SIZE bytes from the given offset
+     *
+     * @param data data to examine
+     * @param offset start of the data
+     * @param length length of the data
+     * @return true if the sample has too much entropy to be compressed
+     */
+    public static boolean isIncompressible(byte[] data, int offset, int length) {
+        int sampled = Math.min(length, SAMPLE_SIZE);
+        if(sampled < 256) {
+            return false;
+        }
+        int[] counts = new int[256];
+        for(int i = offset; i < offset + sampled; i++) {
+            counts[data[i] & 0xff]++;
+        }
+        double entropy = 0;
+        for(int count : counts) {
+            if(count > 0) {
+                double p = (double) count / sampled;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2) > ENTROPY_THRESHOLD;
+    }
+}
@@ -25,6 +25,7 @@
 package org.jenkinsci.plugins.periodicbackup;
 
 import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -37,10 +38,13 @@ import org.kohsuke.stapler.QueryParameter;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Logger;
 
 /**
@@ -79,9 +83,14 @@ public class LocalDirectory extends Location {
     public void storeBackupInLocation(Iterable<File> archives, File backupObjectFile) throws IOException {
         if (this.enabled && path.exists()) {
             for (File archive : archives) {
+                if(BackupProgress.isCancelled()) {
+                    LOGGER.info("The backup has been cancelled, not storing the rest of the archives in " + path.getAbsolutePath());
+                    return;
+                }
                 File destination = new File(path, archive.getName());
                 if(archive.isDirectory()) {
-                    FileUtils.copyDirectory(archive, destination);
+                    // A NullStorage archive holds every file of the backup, they are copied in parallel
+                    CopyEngine.copyDirectoryInParallel(archive, destination);
                 }
                 else {
                     Files.copy(archive, destination);
@@ -99,43 +108,170 @@ public class LocalDirectory extends Location {
 
     @Override
     public Iterable<File> retrieveBackupFromLocation(final BackupObject backup, File tempDir) throws IOException, PeriodicBackupException {
-        // Get the list of archive files related to the given BackupObject
+        Set<File> archivesInTemp = Sets.newHashSet();
+
+        // Copy every archive to the temp dir
+        for(File file : getArchiveFiles(backup)) {
+            archivesInTemp.add(copyToTemp(file, tempDir));
+        }
+        return archivesInTemp;
+    }
+
+    @Override
+    public void retrieveBackupFromLocation(BackupObject backup, File tempDir, Predicate<String> archiveFilter, BlockingQueue<File> retrieved) throws IOException, PeriodicBackupException, InterruptedException {
+        // Every archive is handed over as soon as it is copied, the volumes are copied in order
+        for(File file : getArchiveFiles(backup)) {
+            BackupProgress.checkCancelled();
+            if(archiveFilter.apply(file.getName())) {
+                retrieved.put(copyToTemp(file, tempDir));
+            }
+        }
+    }
+
+    /**
+     *
+     * Lists the archive files related to the given BackupObject in volume order
+     *
+     * @param backup BackupObject related to the backup
+     * @return archive files in this location
+     * @throws PeriodicBackupException if there are no archives for the given BackupObject
+     */
+    private List<File> getArchiveFiles(final BackupObject backup) throws PeriodicBackupException {
         File[] files = path.listFiles(new FileFilter() {
             public boolean accept(File pathname) {
                 return (pathname.getName().contains( Util.getFormattedDate(BackupObject.FILE_TIMESTAMP_PATTERN, backup.getTimestamp())) &&
-                        !pathname.getName().endsWith(BackupObject.EXTENSION));
+                        !pathname.getName().endsWith(BackupObject.EXTENSION) &&
+                        !pathname.getName().endsWith(ArchiveIndex.EXTENSION));
             }
         });
         if(files.length <= 0) {
             throw new PeriodicBackupException("Backup archives do not exist in " + path.getAbsolutePath());
         }
-        Set<File> archivesInTemp = Sets.newHashSet();
+        List<File> archives = Lists.newArrayList(files);
+        Collections.sort(archives, Util.archiveVolumeOrder());
+        return archives;
+    }
 
-        // Copy every archive to the temp dir
-        for(File file : files) {
-            File copiedFile = new File(tempDir, file.getName());
-            if(copiedFile.exists()) {
-                LOGGER.warning(copiedFile.getAbsolutePath() + " already exists, deleting... ");
-                if(copiedFile.isDirectory()) {
-                    FileUtils.deleteDirectory(copiedFile);
-                }
-                else {
-                    if(!copiedFile.delete()) {
-                        throw new PeriodicBackupException("Could not delete " + copiedFile.getAbsolutePath());
-                    }
+    /**
+     *
+     * Copies the given archive file or directory to the temporary directory
+     *
+     * @param file archive file or directory in this location
+     * @param tempDir temporary directory
+     * @return the copy of the archive in the temporary directory
+     * @throws IOException if anything goes wrong with IO
+     * @throws PeriodicBackupException if an old copy cannot be deleted
+     */
+    private File copyToTemp(File file, File tempDir) throws IOException, PeriodicBackupException {
+        File copiedFile = new File(tempDir, file.getName());
+        if(copiedFile.exists()) {
+            LOGGER.warning(copiedFile.getAbsolutePath() + " already exists, deleting... ");
+            if(copiedFile.isDirectory()) {
+                FileUtils.deleteDirectory(copiedFile);
+            }
+            else {
+                if(!copiedFile.delete()) {
+                    throw new PeriodicBackupException("Could not delete " + copiedFile.getAbsolutePath());
                 }
             }
-            LOGGER.info("Copying " + file.getAbsolutePath() + " to " + copiedFile.getAbsolutePath());
-            if(file.isDirectory()) {
-                FileUtils.copyDirectory(file, copiedFile);
+        }
+        LOGGER.info("Copying " + file.getAbsolutePath() + " to " + copiedFile.getAbsolutePath());
+        if(file.isDirectory()) {
+            CopyEngine.copyDirectoryInParallel(file, copiedFile);
+        }
+        else {
+            FileUtils.copyFile(file, copiedFile);
+        }
+        LOGGER.info("Archive " + file.getAbsolutePath() + " copied to " + copiedFile.getAbsolutePath());
+        return copiedFile;
+    }
+
+    @Override
+    public void storeArchiveIndexInLocation(File indexFile, BackupObject backup) throws IOException {
+        if (this.enabled && path.exists()) {
+            File destination = new File(path, indexFile.getName());
+            Files.copy(indexFile, destination);
+            LOGGER.info(indexFile.getName() + " copied to " + destination.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public InputStream retrieveArchiveIndexFromLocation(BackupObject backup) throws IOException {
+        File indexFile = new File(path, Util.createFileName(Util.generateFileNameBase(backup.getTimestamp()), ArchiveIndex.EXTENSION));
+        if(!indexFile.exists()) {
+            return null;
+        }
+        return new FileInputStream(indexFile);
+    }
+
+    @Override
+    public InputStream openArchiveRange(BackupObject backup, String archiveName, long offset, long length) throws IOException, PeriodicBackupException {
+        File archive = new File(path, archiveName);
+        if(!archive.isFile()) {
+            throw new PeriodicBackupException("Backup archive " + archive.getAbsolutePath() + " does not exist");
+        }
+        // Positional read, nothing before the offset is read from the disk
+        FileInputStream in = new FileInputStream(archive);
+        in.getChannel().position(offset);
+        return Util.limitedInputStream(in, length);
+    }
+
+    @Override
+    public void storeJournalInLocation(File segment) throws IOException {
+        if (this.enabled && path.exists()) {
+            File destination = new File(getJournalDirectory(), segment.getName());
+            Files.createParentDirs(destination);
+            Files.copy(segment, destination);
+            LOGGER.info(segment.getName() + " copied to " + destination.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public Iterable<File> retrieveJournalFromLocation(File tempDir, long since) throws IOException {
+        List<File> segments = Lists.newArrayList();
+        for(File segment : getJournalSegments()) {
+            if(ConfigJournal.getTimestamps(segment.getName())[1] > since) {
+                File copiedSegment = new File(tempDir, segment.getName());
+                Files.copy(segment, copiedSegment);
+                segments.add(copiedSegment);
             }
-            else {
-                FileUtils.copyFile(file, copiedFile);
+        }
+        return segments;
+    }
+
+    @Override
+    public void deleteJournalFromLocation(long before) {
+        for(File segment : getJournalSegments()) {
+            if(ConfigJournal.getTimestamps(segment.getName())[1] < before) {
+                LOGGER.info("Deleting old journal segment " + segment.getAbsolutePath());
+                if(!segment.delete()) {
+                    LOGGER.warning("Could not delete file " + segment.getAbsolutePath());
+                }
             }
-            LOGGER.info("Archive " + file.getAbsolutePath() + " copied to " + copiedFile.getAbsolutePath());
-            archivesInTemp.add(copiedFile);
         }
-        return archivesInTemp;
+    }
+
+    /**
+     *
+     * The ConfigJournal segments are kept in a subdirectory, apart from the backups
+     *
+     * @return directory of the journal segments in this location
+     */
+    private File getJournalDirectory() {
+        return new File(path, "journal");
+    }
+
+    private List<File> getJournalSegments() {
+        List<File> segments = Lists.newArrayList();
+        File[] files = getJournalDirectory().listFiles();
+        if(files != null) {
+            for(File file : files) {
+                if(ConfigJournal.isSegment(file.getName())) {
+                    segments.add(file);
+                }
+            }
+        }
+        return segments;
     }
 
     @Override
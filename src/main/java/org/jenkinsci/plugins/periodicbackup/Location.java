@@ -24,14 +24,19 @@
 
 package org.jenkinsci.plugins.periodicbackup;
 
+import com.google.common.base.Predicate;
 import hudson.DescriptorExtensionList;
 import hudson.model.AbstractModelObject;
 import hudson.model.Describable;
 import hudson.model.Hudson;
+import org.apache.commons.io.FileUtils;
 import org.jets3t.service.S3ServiceException;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
 
 /**
  *
@@ -55,7 +60,8 @@ public abstract class Location extends AbstractModelObject implements Describabl
 
     /**
      *
-     * This method puts archived backup file(s) in location
+     * This method puts archived backup file(s) in location.
+     * It should stop between the archives when BackupProgress.isCancelled(), the caller deletes what has been stored.
      *
      * @param archives archive file(s)
      * @param backupObjectFile File with serialized backupObject
@@ -75,6 +81,108 @@ public abstract class Location extends AbstractModelObject implements Describabl
      */
     public abstract Iterable<File>retrieveBackupFromLocation(BackupObject backup, File tempDir) throws IOException, PeriodicBackupException;
 
+    /**
+     *
+     * Retrieves backup archive files from this location and puts each of them in the given queue
+     * as soon as it is available in the temporary directory, so it can be extracted while the next one is retrieved.
+     * The default implementation retrieves all the archives before putting them in the queue.
+     *
+     * @param backup BackupObject related to the backup
+     * @param tempDir temporary directory to store archived backup file(s)
+     * @param archiveFilter Predicate deciding by the archive name which archives will be retrieved
+     * @param retrieved queue receiving the backup archive(s) in temporary location
+     * @throws java.io.IOException if anything goes wrong with IO
+     * @throws PeriodicBackupException if anything else goes wrong
+     * @throws InterruptedException if interrupted while waiting for space in the queue
+     */
+    public void retrieveBackupFromLocation(BackupObject backup, File tempDir, Predicate<String> archiveFilter, BlockingQueue<File> retrieved) throws IOException, PeriodicBackupException, InterruptedException {
+        for(File archive : retrieveBackupFromLocation(backup, tempDir)) {
+            if(archiveFilter.apply(archive.getName()) && !BackupProgress.isCancelled()) {
+                retrieved.put(archive);
+            }
+            else if(archive.isDirectory()) {
+                FileUtils.deleteDirectory(archive);
+            }
+            else if(!archive.delete()) {
+                throw new PeriodicBackupException("Could not delete " + archive.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     *
+     * Puts the archive index of a backup in this location, next to its archives.
+     * The default implementation ignores the index, restoring single files will not be possible.
+     *
+     * @param indexFile archive index file
+     * @param backup BackupObject related to the backup
+     * @throws IOException IO error
+     */
+    public void storeArchiveIndexInLocation(File indexFile, BackupObject backup) throws IOException {
+    }
+
+    /**
+     *
+     * Opens the archive index of the given backup
+     *
+     * @param backup BackupObject related to the backup
+     * @return stream with the content of the archive index or null if there is no index for the backup
+     * @throws IOException if anything goes wrong with IO
+     * @throws PeriodicBackupException if anything else goes wrong
+     */
+    public InputStream retrieveArchiveIndexFromLocation(BackupObject backup) throws IOException, PeriodicBackupException {
+        return null;
+    }
+
+    /**
+     *
+     * Reads a part of a backup archive without retrieving the whole archive
+     *
+     * @param backup BackupObject related to the backup
+     * @param archiveName name of the archive, it can be a path inside an archive directory
+     * @param offset position of the first byte to read
+     * @param length number of bytes to read, negative to read until the end of the archive
+     * @return stream with the requested part of the archive
+     * @throws IOException if anything goes wrong with IO
+     * @throws PeriodicBackupException if this location does not support reading parts of the archives
+     */
+    public InputStream openArchiveRange(BackupObject backup, String archiveName, long offset, long length) throws IOException, PeriodicBackupException {
+        throw new PeriodicBackupException(getDisplayName() + " does not support reading parts of the archives.");
+    }
+
+    /**
+     *
+     * Puts a closed segment of the ConfigJournal in this location.
+     * The default implementation ignores the journal, only the backups can be restored from this location.
+     *
+     * @param segment journal segment
+     * @throws IOException IO error
+     */
+    public void storeJournalInLocation(File segment) throws IOException {
+    }
+
+    /**
+     *
+     * Retrieves the ConfigJournal segments containing changes made after the given time
+     *
+     * @param tempDir temporary directory to store the segments
+     * @param since time of the restored backup
+     * @return Iterable of journal segment(s) in temporary location
+     * @throws IOException if anything goes wrong with IO
+     */
+    public Iterable<File> retrieveJournalFromLocation(File tempDir, long since) throws IOException {
+        return Collections.emptyList();
+    }
+
+    /**
+     *
+     * Deletes the ConfigJournal segments whose changes were all made before the given time
+     *
+     * @param before time of the oldest backup kept in this location
+     */
+    public void deleteJournalFromLocation(long before) {
+    }
+
     /**
      * This method deletes all files related to given BackupObject
      * @param backupObject the backupObject of the backup we want to delete
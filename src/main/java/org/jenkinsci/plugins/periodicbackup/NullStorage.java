@@ -32,23 +32,79 @@ import org.kohsuke.stapler.DataBoundConstructor;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.Logger;
 
+/**
+ *
+ * NullStorage keeps the files as they are in a directory. The files are copied by CopyEngine with several threads
+ * (copyThreads) or hard linked when the user allows it and the temporary directory is on the filesystem of Jenkins.
+ */
 public class NullStorage extends Storage {
 
+    private int copyThreads;                                // Number of the parallel copies, 0 for the default
+    private boolean hardLinks;                              // Determines if the files are linked instead of copied when possible
+    private transient CopyEngine copyEngine;
     private transient File destinationDirectory;
+    private transient File tempDirectory;
+    private transient String archiveFilenameBase;
+    private transient List<File> archives;                  // Finished volumes
+    private transient int currentVolumeFilesCount;
+    private final static String ENCODING_FILE = "file";
 
     private static final Logger LOGGER = Logger.getLogger(NullStorage.class.getName());
 
-    @DataBoundConstructor
     public NullStorage() {
+        this(0, false);
+    }
+
+    @DataBoundConstructor
+    public NullStorage(int copyThreads, boolean hardLinks) {
         super();
+        this.copyThreads = copyThreads;
+        this.hardLinks = hardLinks;
+    }
+
+    @SuppressWarnings("unused")
+    public int getCopyThreads() {
+        return copyThreads;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isHardLinks() {
+        return hardLinks;
     }
 
     @Override
     public void backupStart(String tempDirectoryPath, String archiveFilenameBase) throws PeriodicBackupException {
-        File tempDir = new File(tempDirectoryPath);
-        destinationDirectory = new File(tempDir, archiveFilenameBase + ".null");
+        this.tempDirectory = new File(tempDirectoryPath);
+        this.archiveFilenameBase = archiveFilenameBase;
+        archives = Lists.newArrayList();
+        copyEngine = createCopyEngine(Hudson.getInstance().getRootDir(), tempDirectory);
+        startVolume();
+    }
+
+    /**
+     * @param source directory the files are backed up from
+     * @param destination directory the files are backed up to
+     * @return copy engine linking the files if it is allowed and possible
+     */
+    private CopyEngine createCopyEngine(File source, File destination) {
+        boolean link = hardLinks && CopyEngine.isSameFileSystem(source, destination);
+        if(hardLinks && !link) {
+            LOGGER.info(source.getAbsolutePath() + " and " + destination.getAbsolutePath() + " are not on the same filesystem, the files will be copied");
+        }
+        return new CopyEngine(copyThreads > 0 ? copyThreads : CopyEngine.DEFAULT_THREADS, link);
+    }
+
+    /**
+     *
+     * Starts a new archive directory, the first one is named after the base name only, the next ones get a number
+     */
+    private void startVolume() {
+        String fileNameBase = archives.isEmpty() ? archiveFilenameBase : archiveFilenameBase + "_" + (archives.size() + 1);
+        destinationDirectory = new File(tempDirectory, fileNameBase + ".null");
+        currentVolumeFilesCount = 0;
         if(destinationDirectory.exists()) {
             LOGGER.info("Destination directory " + destinationDirectory.getAbsolutePath() + " exists. Deleting...");
             try {
@@ -61,34 +117,144 @@ public class NullStorage extends Storage {
 
     @Override
     public void backupAddFile(File fileToStore) throws PeriodicBackupException {
-        try {
-            FileUtils.copyFile(fileToStore, new File(destinationDirectory,
-                    Util.getRelativePath(fileToStore, Hudson.getInstance().getRootDir())));
-        } catch (IOException e) {
-            LOGGER.warning("Could not copy " + fileToStore.getAbsolutePath() + " to " + destinationDirectory);
+        backupAddFile(FileEntry.of(fileToStore, Hudson.getInstance().getRootDir()));
+    }
+
+    /**
+     *
+     * Queues the copy of the file, the copies which fail are logged and the backup goes on
+     *
+     * @param entry file that will be added to the archive
+     * @throws PeriodicBackupException if interrupted while waiting for the queue of the copies
+     */
+    @Override
+    public void backupAddFile(FileEntry entry) throws PeriodicBackupException {
+        // The symlinks are copied as the files they point to, a hard link would link the symlink itself
+        copyEngine.copy(entry.getFile(), new File(destinationDirectory, entry.getPath()), !entry.isSymlink());
+        currentVolumeFilesCount++;
+    }
+
+    @Override
+    public File backupCloseVolume() throws PeriodicBackupException {
+        if(currentVolumeFilesCount == 0) {
+            return null;
         }
+        awaitCopies();
+        File closedVolume = destinationDirectory;
+        archives.add(closedVolume);
+        startVolume();
+        return closedVolume;
     }
 
     @Override
     public Iterable<File> backupStop() throws PeriodicBackupException {
-        return Lists.newArrayList(destinationDirectory);
+        try {
+            awaitCopies();
+        } finally {
+            copyEngine.close();
+            copyEngine = null;
+        }
+        // An empty volume is only kept when it is the only one
+        if(archives.isEmpty() || currentVolumeFilesCount > 0) {
+            archives.add(destinationDirectory);
+        }
+        return archives;
+    }
+
+    @Override
+    public void backupAbort() {
+        if(copyEngine != null) {
+            copyEngine.close();
+            copyEngine = null;
+        }
+    }
+
+    /**
+     *
+     * Waits until the files of the current volume are copied
+     *
+     * @throws PeriodicBackupException if interrupted while waiting
+     */
+    private void awaitCopies() throws PeriodicBackupException {
+        int failures = copyEngine.await();
+        if(failures > 0) {
+            LOGGER.warning(failures + " file(s) could not be copied to " + destinationDirectory.getAbsolutePath());
+        }
     }
 
     @Override
     public void unarchiveFiles(Iterable<File> archives, File finalResultDir) {
         // There will be just one File object (archive directory)
         for (File archive : archives) {
-            try {
-                LOGGER.info("Copying " + archive.getAbsolutePath() + " to " + finalResultDir.getAbsolutePath());
-                if(archive.isDirectory()) {
-                    FileUtils.copyDirectory(archive, finalResultDir);
+            unarchiveFile(archive, finalResultDir);
+        }
+    }
+
+    @Override
+    public void unarchiveFile(File archive, File finalResultDir) {
+        try {
+            LOGGER.info("Copying " + archive.getAbsolutePath() + " to " + finalResultDir.getAbsolutePath());
+            if(archive.isDirectory()) {
+                if(!finalResultDir.isDirectory() && !finalResultDir.mkdirs()) {
+                    throw new IOException("Could not create directory " + finalResultDir.getAbsolutePath());
                 }
-                else {
-                    FileUtils.copyFile(archive, new File(finalResultDir, archive.getName()));
+                // The restored files are always copied, Jenkins would write through a hard link into the backup
+                CopyEngine engine = new CopyEngine(copyThreads > 0 ? copyThreads : CopyEngine.DEFAULT_THREADS, false);
+                try {
+                    engine.copyDirectory(archive, finalResultDir);
+                    int failures = engine.await();
+                    if(failures > 0) {
+                        LOGGER.warning(failures + " file(s) could not be copied to " + finalResultDir.getAbsolutePath());
+                    }
+                } finally {
+                    engine.close();
                 }
-            } catch (IOException e) {
-                LOGGER.warning("Error during copying " + archive.getAbsolutePath() + " to " + finalResultDir.getAbsolutePath());
             }
+            else {
+                FileUtils.copyFile(archive, new File(finalResultDir, archive.getName()));
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Error during copying " + archive.getAbsolutePath() + " to " + finalResultDir.getAbsolutePath());
+        } catch (PeriodicBackupException e) {
+            LOGGER.warning("Error during copying " + archive.getAbsolutePath() + " to " + finalResultDir.getAbsolutePath() + " " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isConcurrentExtractionSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean writeArchiveIndex(Iterable<File> archives, ArchiveIndex.Writer index) throws IOException {
+        // Every file is kept as it is, so the index only needs to tell which archive directory contains it
+        for(File archive : archives) {
+            indexDirectory(archive, archive, index);
+        }
+        return true;
+    }
+
+    private void indexDirectory(File archive, File directory, ArchiveIndex.Writer index) throws IOException {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            throw new IOException("Could not list " + directory.getAbsolutePath());
+        }
+        for(File file : files) {
+            if(file.isDirectory()) {
+                indexDirectory(archive, file, index);
+            }
+            else {
+                index.add(new ArchiveIndex.Entry(Util.getRelativePath(file, archive), archive.getName(), 0, file.length(), file.length(), ENCODING_FILE));
+            }
+        }
+    }
+
+    @Override
+    public void extractEntries(Location location, BackupObject backup, List<ArchiveIndex.Entry> entries, File finalResultDir) throws IOException, PeriodicBackupException {
+        for(ArchiveIndex.Entry entry : entries) {
+            LOGGER.info("Copying " + entry.getPath() + " from " + entry.getArchive());
+            Util.writeToFile(location.openArchiveRange(backup, entry.getArchive() + "/" + entry.getPath(), 0, entry.getLength()),
+                    new File(finalResultDir, entry.getPath()));
         }
     }
 
@@ -98,7 +264,7 @@ public class NullStorage extends Storage {
 
     @Override
     public boolean equals(Object o) {
-        return o instanceof NullStorage;
+        return o instanceof NullStorage && ((NullStorage) o).hardLinks == hardLinks;
     }
 
     @Override
@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import hudson.Extension;
+import hudson.model.Hudson;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.File;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ *
+ * PatternBackup chooses the files in the Jenkins homedir by include and exclude patterns (see GlobMatcher).
+ * A file is backed up if it matches an include pattern (or there are no include patterns) and no exclude pattern.
+ * The excluded directories are not scanned at all, so excluding big directories like workspace/ saves their scan too.
+ * During the restore it will try to overwrite the existing files, like ConfigOnly.
+ */
+public class PatternBackup extends FileManager {
+
+    private static final Logger LOGGER = Logger.getLogger(PatternBackup.class.getName());
+
+    private final String includes;
+    private final String excludes;
+    private transient GlobMatcher includeMatcher;
+    private transient GlobMatcher excludeMatcher;
+
+    /**
+     * @param includes patterns of the files to back up separated by new lines or commas, empty for all the files
+     * @param excludes patterns of the files and directories not to back up separated by new lines or commas
+     */
+    @DataBoundConstructor
+    public PatternBackup(String includes, String excludes) {
+        super();
+        this.includes = includes;
+        this.excludes = excludes;
+        this.restorePolicy = new OverwriteRestorePolicy();
+    }
+
+    public String getDisplayName() {
+        return "PatternBackup";
+    }
+
+    @SuppressWarnings("unused")
+    public String getIncludes() {
+        return includes;
+    }
+
+    @SuppressWarnings("unused")
+    public String getExcludes() {
+        return excludes;
+    }
+
+    @Override
+    public Iterable<File> getFilesToBackup() throws PeriodicBackupException {
+        File rootDir = Hudson.getInstance().getRootDir();
+        DirectoryScanCache cache = DirectoryScanCache.load(rootDir);
+        List<File> files = getFilesToBackup(rootDir, cache);
+        cache.save();
+        return files;
+    }
+
+    /**
+     * @param rootDir the Jenkins home directory
+     * @param cache listings of the directories
+     * @return files under rootDir matching the patterns
+     * @throws PeriodicBackupException if rootDir cannot be read
+     */
+    List<File> getFilesToBackup(File rootDir, DirectoryScanCache cache) throws PeriodicBackupException {
+        if(includeMatcher == null || excludeMatcher == null) {
+            includeMatcher = GlobMatcher.parse(includes);
+            excludeMatcher = GlobMatcher.parse(excludes);
+        }
+        if(!rootDir.isDirectory()) {
+            throw new PeriodicBackupException(rootDir.getAbsolutePath() + " is not a directory");
+        }
+        List<File> files = Lists.newArrayList();
+        scan(rootDir, "", cache, files);
+        return files;
+    }
+
+    /**
+     *
+     * Adds the matching files of the directory and of its subdirectories, the excluded subdirectories are skipped
+     *
+     * @param directory directory to scan
+     * @param relativePath path of the directory relative to the Jenkins homedir followed by /, empty for the homedir
+     * @param cache listings of the directories
+     * @param files list receiving the matching files
+     */
+    private void scan(File directory, String relativePath, DirectoryScanCache cache, List<File> files) {
+        List<DirectoryScanCache.Entry> children = cache.list(directory);
+        if(children == null) {
+            LOGGER.warning("Could not list " + directory.getAbsolutePath());
+            return;
+        }
+        for(DirectoryScanCache.Entry child : children) {
+            String path = relativePath + child.getName();
+            if(excludeMatcher.matches(path)) {
+                continue;
+            }
+            if(child.isDirectory()) {
+                scan(child.getFile(), path + "/", cache, files);
+            }
+            else if(includeMatcher.isEmpty() || includeMatcher.matches(path)) {
+                files.add(child.getFile());
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof PatternBackup) {
+            PatternBackup that = (PatternBackup) o;
+            return Objects.equal(this.restorePolicy, that.restorePolicy)
+                    && Objects.equal(this.includes, that.includes)
+                    && Objects.equal(this.excludes, that.excludes);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(includes, excludes);
+    }
+
+    @SuppressWarnings("unused")
+    @Extension
+    public static class DescriptorImpl extends FileManagerDescriptor {
+        public String getDisplayName() {
+            return "PatternBackup";
+        }
+    }
+}
@@ -59,9 +59,11 @@ public class PeriodicBackup extends AsyncPeriodicWork {
                 long currentTime = System.currentTimeMillis();
                 if ((cronTab.ceil(currentTime).getTimeInMillis() - currentTime) == 0 || link.isBackupNow()) {
                     link.setBackupNow(false);
-                    BackupExecutor executor = new BackupExecutor();
+                    BackupExecutor executor = new BackupExecutor(link.getProgress());
                     try {
                         executor.backup(link.getFileManagerPlugin(), link.getStorages(), link.getLocations(), link.getTempDirectory(), link.getCycleQuantity(), link.getCycleDays());
+                    } catch (BackupCancelledException e) {
+                        LOGGER.info("Backup cancelled, the partial backup has been deleted");
                     } catch (PeriodicBackupException e) {
                         LOGGER.warning("Backup failure " + e.getMessage());
                     } catch (IOException e) {
@@ -69,6 +71,7 @@ public class PeriodicBackup extends AsyncPeriodicWork {
                     } catch (ArchiverException e) {
                         LOGGER.warning("Backup failure " + e.getMessage());
                     } finally {
+                        link.recordStats(executor.getStats());
                         // Setting message to an empty String will make the "Creating backup..." message disappear in the UI
                         link.setMessage("");
                     }
@@ -26,6 +26,7 @@
 package org.jenkinsci.plugins.periodicbackup;
 
 import antlr.ANTLRException;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import hudson.BulkChange;
 import hudson.Extension;
@@ -42,8 +43,12 @@ import org.kohsuke.stapler.StaplerResponse;
 import javax.servlet.ServletException;
 import java.io.File;
 import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.logging.Logger;
 
 /**
  *
@@ -66,9 +71,87 @@ public class PeriodicBackupLink extends ManagementLink implements Describable<Pe
     private String cron;                // Backup schedule (cron like)
     private int cycleQuantity;          // Maximum amount of backups allowed
     private int cycleDays;              // Maximum number of days to keep the backup for
+    private boolean journalEnabled;     // Record the configuration changes between the backups
+    private transient BackupStatsHistory statsHistory;  // Statistics of the last backups
+    private transient BackupHistoryFile historyFile;    // Records of all the backups, kept across restarts
+    private transient BackupProgress progress;          // Progress of the running backup or restore
+    private transient ConfigJournal configJournal;      // Configuration changes not stored in the locations yet
+    private transient DirtyDirectoryTracker dirtyDirectoryTracker;  // Directories changed by Jenkins since the last scan
+    private final static int STATS_HISTORY_SIZE = 30;
+    private final static int TREND_SIZE = 100;  // Number of the last backups shown on the trend page
+
+    private static final Logger LOGGER = Logger.getLogger(PeriodicBackupLink.class.getName());
 
     public PeriodicBackupLink() throws IOException {
         load();
+        statsHistory = new BackupStatsHistory(STATS_HISTORY_SIZE);
+        statsHistory.registerMBean();
+        historyFile = new BackupHistoryFile(new File(Hudson.getInstance().getRootDir(), "periodicBackup-history.txt"));
+        progress = new BackupProgress();
+        File rootDir = Hudson.getInstance().getRootDir();
+        configJournal = new ConfigJournal(rootDir, new File(rootDir, "periodicBackup-journal"));
+        dirtyDirectoryTracker = new DirtyDirectoryTracker();
+    }
+
+    public DirtyDirectoryTracker getDirtyDirectoryTracker() {
+        return dirtyDirectoryTracker;
+    }
+
+    /**
+     * @return the configuration journal or null if the journal is disabled
+     */
+    public ConfigJournal getConfigJournal() {
+        return journalEnabled ? configJournal : null;
+    }
+
+    public BackupProgress getProgress() {
+        return progress;
+    }
+
+    public BackupStatsHistory getStatsHistory() {
+        return statsHistory;
+    }
+
+    /**
+     *
+     * Keeps the statistics of a finished backup in the JMX history and in the history file
+     *
+     * @param stats statistics of the backup
+     */
+    public void recordStats(BackupStats stats) {
+        statsHistory.add(stats);
+        try {
+            historyFile.append(stats);
+        } catch (IOException e) {
+            LOGGER.warning("Could not write the backup history to " + historyFile.getFile().getAbsolutePath() + ". " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return records of the last backups, the newest first
+     * @throws IOException If an IO problem occurs
+     */
+    @SuppressWarnings("unused")
+    public List<BackupHistoryFile.Record> getHistoryRecords() throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        return Lists.reverse(historyFile.read(TREND_SIZE));
+    }
+
+    /**
+     *
+     * Chart of the trend page, bound to trendGraph/<kind>/png
+     *
+     * @param kind kind of the chart, one of BackupTrendGraph.KINDS
+     * @return the chart or null if the kind is unknown
+     * @throws IOException If an IO problem occurs
+     */
+    @SuppressWarnings("unused")
+    public BackupTrendGraph getTrendGraph(String kind) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        if(!BackupTrendGraph.isKind(kind)) {
+            return null;
+        }
+        return new BackupTrendGraph(kind, historyFile.read(TREND_SIZE));
     }
 
     @SuppressWarnings("unused")
@@ -119,6 +202,15 @@ public class PeriodicBackupLink extends ManagementLink implements Describable<Pe
         this.cycleDays = cycleDays;
     }
 
+    public boolean isJournalEnabled() {
+        return journalEnabled;
+    }
+
+    @SuppressWarnings("unused")
+    public void setJournalEnabled(boolean journalEnabled) {
+        this.journalEnabled = journalEnabled;
+    }
+
 
     public String getDisplayName() {
         return Messages.displayName();
@@ -132,6 +224,54 @@ public class PeriodicBackupLink extends ManagementLink implements Describable<Pe
         rsp.sendRedirect(".");
     }
 
+    /**
+     *
+     * Sends the duration, files, bytes and bytes/s of every phase of the last backups as JSON
+     *
+     * @param req StaplerRequest
+     * @param rsp StaplerResponse
+     * @throws IOException If an IO problem occurs
+     */
+    @SuppressWarnings("unused")
+    public void doMetrics(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        rsp.setContentType("application/json;charset=UTF-8");
+        statsHistory.toJSON().write(rsp.getWriter());
+    }
+
+    /**
+     *
+     * Sends the progress of the running backup or restore as JSON, meant to be polled by the web page
+     *
+     * @param req StaplerRequest
+     * @param rsp StaplerResponse
+     * @throws IOException If an IO problem occurs
+     */
+    @SuppressWarnings("unused")
+    public void doProgress(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        rsp.setContentType("application/json;charset=UTF-8");
+        progress.toJSON().write(rsp.getWriter());
+    }
+
+    /**
+     *
+     * Cancels the running backup or restore, it stops at the next file or archive and deletes its partial archives
+     *
+     * @param req StaplerRequest
+     * @param rsp StaplerResponse
+     * @throws IOException If an IO problem occurs
+     */
+    @SuppressWarnings("unused")
+    public void doCancel(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        if(progress.isRunning()) {
+            progress.cancel();
+            message = "Cancelling...";
+        }
+        rsp.sendRedirect(".");
+    }
+
     /**
      *
      * Performing restore when triggered form restore web page, backupHash of selected backup is passed to determine which backup in this location should be chosen
@@ -139,11 +279,12 @@ public class PeriodicBackupLink extends ManagementLink implements Describable<Pe
      * @param req StaplerRequest
      * @param rsp StaplerResponse
      * @param backupHash hash code of the selected BackupObject set to be restored
+     * @param paths optional list of files/directories (one per line) to restore instead of the whole backup
      * @throws IOException If an IO problem occurs
      * @throws PeriodicBackupException If other problem occurs
      */
     @SuppressWarnings("unused")
-    public void doRestore(StaplerRequest req, StaplerResponse rsp, @QueryParameter("backupHash") int backupHash) throws IOException, PeriodicBackupException {
+    public void doRestore(StaplerRequest req, StaplerResponse rsp, @QueryParameter("backupHash") int backupHash, @QueryParameter("paths") String paths) throws IOException, PeriodicBackupException {
         Map<Integer, BackupObject> backupObjectMap = Maps.newHashMap();
         // Populate the map with key=hashcode of value
         for (Location location : locationPlugins) {
@@ -156,14 +297,64 @@ public class PeriodicBackupLink extends ManagementLink implements Describable<Pe
         if(!backupObjectMap.keySet().contains(backupHash)) {
             throw new PeriodicBackupException("The provided hash code was not found in the map");
         }
+        List<String> pathsToRestore = parsePaths(paths);
+        if(!pathsToRestore.isEmpty()) {
+            // Restore only the given files of the matching BackupObject
+            Thread t = new Thread(new SelectiveRestoreExecutor(backupObjectMap.get(backupHash), tempDirectory, pathsToRestore));
+            t.start();
+            message = "Restoring selected files...";
+            rsp.sendRedirect(".");
+            return;
+        }
         // Perform the restore of the matching BackupObject
-        RestoreExecutor restoreExecutor = new RestoreExecutor(backupObjectMap.get(backupHash), tempDirectory);
+        long journalUntil = "on".equals(req.getParameter("replayJournal")) ? parseJournalUntil(req.getParameter("journalUntil")) : -1;
+        RestoreExecutor restoreExecutor = new RestoreExecutor(backupObjectMap.get(backupHash), tempDirectory, "on".equals(req.getParameter("tiered")), progress, journalUntil);
         Thread t = new Thread(restoreExecutor);
         t.start();
         message = "Restoring backup...";
         rsp.sendRedirect(".");
     }
 
+    /**
+     *
+     * Splits the paths entered on the restore web page, the paths are relative to the Jenkins home directory
+     *
+     * @param paths paths separated by new lines or commas, can be null
+     * @return List of the paths without the leading slashes
+     */
+    static List<String> parsePaths(String paths) {
+        List<String> result = Lists.newArrayList();
+        if(paths == null) {
+            return result;
+        }
+        for(String path : paths.split("[\\r\\n,]+")) {
+            path = path.trim().replace('\\', '/');
+            while(path.startsWith("/")) {
+                path = path.substring(1);
+            }
+            if(path.length() > 0) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param journalUntil date and time in the format yyyy-MM-dd HH:mm, empty for now
+     * @return time until which the configuration journal is replayed
+     * @throws PeriodicBackupException if the date can not be parsed
+     */
+    static long parseJournalUntil(String journalUntil) throws PeriodicBackupException {
+        if(journalUntil == null || journalUntil.trim().length() == 0) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm").parse(journalUntil.trim()).getTime();
+        } catch (ParseException e) {
+            throw new PeriodicBackupException(journalUntil + " is not a date in the format yyyy-MM-dd HH:mm");
+        }
+    }
+
     @Override
     public String getUrlName() {
         return "periodicbackup";
@@ -213,6 +404,7 @@ public class PeriodicBackupLink extends ManagementLink implements Describable<Pe
             cron = form.getString("cron");
             cycleQuantity = form.getInt("cycleQuantity");
             cycleDays = form.getInt("cycleDays");
+            journalEnabled = form.optBoolean("journalEnabled");
             locationPlugins.rebuildHetero(req, form, getLocationDescriptors(), "Location");
             storagePlugins.rebuildHetero(req, form, getStorageDescriptors(), "Storage");
 
@@ -0,0 +1,254 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import hudson.Extension;
+import hudson.model.Hudson;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ *
+ * RecentBuildsBackup chooses all the files in the Jenkins homedir except the old builds. In every builds directory
+ * under jobs (jobs in folders and matrix configurations included) only the newest buildsToKeep builds
+ * not older than daysToKeep days are backed up, like the Jenkins log rotator, 0 means no limit.
+ *
+ * The builds are ordered by their directory names, the build number or the timestamp of the build, so the files
+ * of the skipped builds are never listed. In the layout with timestamp named build directories the numbered
+ * entries are links to them and are skipped, Jenkins reads the build number from build.xml.
+ * During the restore it will try to overwrite the existing files, the builds which are not in the backup are kept.
+ */
+public class RecentBuildsBackup extends FileManager {
+
+    private static final Logger LOGGER = Logger.getLogger(RecentBuildsBackup.class.getName());
+    private final static Pattern BUILD_NUMBER = Pattern.compile("\\d+");
+    private final static Pattern BUILD_TIMESTAMP = Pattern.compile("\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}-\\d{2}");
+    private final static String BUILD_TIMESTAMP_FORMAT = "yyyy-MM-dd_HH-mm-ss";
+    private final static long DAY = 24 * 60 * 60 * 1000L;
+
+    private final int buildsToKeep;
+    private final int daysToKeep;
+
+    /**
+     * @param buildsToKeep number of the newest builds of every job to back up, 0 for all
+     * @param daysToKeep maximum age of the builds to back up in days, 0 for any age
+     */
+    @DataBoundConstructor
+    public RecentBuildsBackup(int buildsToKeep, int daysToKeep) {
+        super();
+        this.buildsToKeep = buildsToKeep;
+        this.daysToKeep = daysToKeep;
+        this.restorePolicy = new OverwriteRestorePolicy();
+    }
+
+    public String getDisplayName() {
+        return "RecentBuildsBackup";
+    }
+
+    @SuppressWarnings("unused")
+    public int getBuildsToKeep() {
+        return buildsToKeep;
+    }
+
+    @SuppressWarnings("unused")
+    public int getDaysToKeep() {
+        return daysToKeep;
+    }
+
+    @Override
+    public Iterable<File> getFilesToBackup() throws PeriodicBackupException {
+        File rootDir = Hudson.getInstance().getRootDir();
+        DirectoryScanCache cache = DirectoryScanCache.load(rootDir);
+        List<File> files = getFilesToBackup(rootDir, cache, System.currentTimeMillis());
+        cache.save();
+        return files;
+    }
+
+    /**
+     * @param rootDir the Jenkins home directory
+     * @param cache listings of the directories
+     * @param now current time, the age of the builds is measured from it
+     * @return files under rootDir without the old builds
+     * @throws PeriodicBackupException if rootDir cannot be read
+     */
+    List<File> getFilesToBackup(File rootDir, DirectoryScanCache cache, long now) throws PeriodicBackupException {
+        if(!rootDir.isDirectory()) {
+            throw new PeriodicBackupException(rootDir.getAbsolutePath() + " is not a directory");
+        }
+        List<File> files = Lists.newArrayList();
+        scan(rootDir, "", cache, now, files);
+        return files;
+    }
+
+    private void scan(File directory, String relativePath, DirectoryScanCache cache, long now, List<File> files) {
+        List<DirectoryScanCache.Entry> children = cache.list(directory);
+        if(children == null) {
+            LOGGER.warning("Could not list " + directory.getAbsolutePath());
+            return;
+        }
+        for(DirectoryScanCache.Entry child : children) {
+            String path = relativePath + child.getName();
+            if(!child.isDirectory()) {
+                files.add(child.getFile());
+            }
+            else if(child.getName().equals("builds") && path.startsWith("jobs/")) {
+                scanBuilds(child.getFile(), path + "/", cache, now, files);
+            }
+            else {
+                scan(child.getFile(), path + "/", cache, now, files);
+            }
+        }
+    }
+
+    /**
+     *
+     * Adds the files of the builds directory of a job, only the recent builds are scanned
+     */
+    private void scanBuilds(File buildsDirectory, String relativePath, DirectoryScanCache cache, long now, List<File> files) {
+        List<DirectoryScanCache.Entry> children = cache.list(buildsDirectory);
+        if(children == null) {
+            LOGGER.warning("Could not list " + buildsDirectory.getAbsolutePath());
+            return;
+        }
+        List<Build> numbered = Lists.newArrayList();
+        List<Build> timestamped = Lists.newArrayList();
+        for(DirectoryScanCache.Entry child : children) {
+            String name = child.getName();
+            if(BUILD_NUMBER.matcher(name).matches()) {
+                numbered.add(new Build(child, Long.parseLong(name)));
+            }
+            else if(BUILD_TIMESTAMP.matcher(name).matches()) {
+                try {
+                    timestamped.add(new Build(child, new SimpleDateFormat(BUILD_TIMESTAMP_FORMAT).parse(name).getTime()));
+                } catch (ParseException e) {
+                    LOGGER.warning("Unexpected build directory " + child.getFile().getAbsolutePath());
+                }
+            }
+            else if(!child.isDirectory()) {
+                // e.g. legacyIds or permalinks, the other directories are links to the builds (lastSuccessfulBuild etc.)
+                files.add(child.getFile());
+            }
+        }
+        if(!timestamped.isEmpty()) {
+            // The numbered entries are links to the timestamped directories
+            for(Build build : recent(timestamped, now, true)) {
+                scan(build.entry.getFile(), relativePath + build.entry.getName() + "/", cache, now, files);
+            }
+        }
+        else {
+            for(Build build : recent(numbered, now, false)) {
+                if(build.entry.isDirectory()) {
+                    scan(build.entry.getFile(), relativePath + build.entry.getName() + "/", cache, now, files);
+                }
+                else {
+                    files.add(build.entry.getFile());
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * Chooses the builds to back up
+     *
+     * @param builds builds of a job
+     * @param now current time
+     * @param keyIsTimestamp true if the builds are ordered by their timestamp, otherwise by their number
+     * @return the newest buildsToKeep builds not older than daysToKeep
+     */
+    private List<Build> recent(List<Build> builds, long now, boolean keyIsTimestamp) {
+        Collections.sort(builds, NEWEST_FIRST);
+        if(buildsToKeep > 0 && builds.size() > buildsToKeep) {
+            builds = builds.subList(0, buildsToKeep);
+        }
+        if(daysToKeep <= 0) {
+            return builds;
+        }
+        long threshold = now - daysToKeep * DAY;
+        List<Build> result = Lists.newArrayList();
+        for(Build build : builds) {
+            // Only the numbered builds need the modification time of their directory
+            long time = keyIsTimestamp ? build.key : build.entry.getFile().lastModified();
+            if(time >= threshold) {
+                result.add(build);
+            }
+        }
+        return result;
+    }
+
+    private final static Comparator<Build> NEWEST_FIRST = new Comparator<Build>() {
+        public int compare(Build b1, Build b2) {
+            return b1.key > b2.key ? -1 : (b1.key == b2.key ? 0 : 1);
+        }
+    };
+
+    /**
+     *
+     * Build directory with its number or timestamp
+     */
+    private static class Build {
+        private final DirectoryScanCache.Entry entry;
+        private final long key;
+
+        Build(DirectoryScanCache.Entry entry, long key) {
+            this.entry = entry;
+            this.key = key;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof RecentBuildsBackup) {
+            RecentBuildsBackup that = (RecentBuildsBackup) o;
+            return Objects.equal(this.restorePolicy, that.restorePolicy)
+                    && this.buildsToKeep == that.buildsToKeep
+                    && this.daysToKeep == that.daysToKeep;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(buildsToKeep, daysToKeep);
+    }
+
+    @SuppressWarnings("unused")
+    @Extension
+    public static class DescriptorImpl extends FileManagerDescriptor {
+        public String getDisplayName() {
+            return "RecentBuildsBackup";
+        }
+    }
+}
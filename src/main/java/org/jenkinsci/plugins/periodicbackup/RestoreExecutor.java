@@ -24,29 +24,75 @@
 
 package org.jenkinsci.plugins.periodicbackup;
 
+import com.google.common.base.Predicates;
+import com.google.common.collect.Lists;
 import hudson.model.Hudson;
 import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.Logger;
 
 public class RestoreExecutor implements Runnable {
 
     private static final Logger LOGGER = Logger.getLogger(RestoreExecutor.class.getName());
+    private final static String PHASE_EXTRACT = "extract";     // Retrieving and extracting the archives
+    private final static String PHASE_APPLY = "apply";         // Restoring the extracted files in the Jenkins home directory
     private final BackupObject backupObject;
     private final String tempDirectoryPath;
+    private final boolean tiered;   // Restore the critical configuration first and the build history afterwards
+    private final BackupProgress progress;
+    private final long journalUntil;    // Time until which the configuration journal is replayed, -1 not to replay it
 
     public RestoreExecutor(BackupObject backupObject, String tempDirectoryPath) {
+        this(backupObject, tempDirectoryPath, false);
+    }
+
+    public RestoreExecutor(BackupObject backupObject, String tempDirectoryPath, boolean tiered) {
+        this(backupObject, tempDirectoryPath, tiered, new BackupProgress());
+    }
+
+    /**
+     * @param backupObject BackupObject of the backup to restore
+     * @param tempDirectoryPath path to the temporary directory
+     * @param tiered restore the critical configuration first and the build history afterwards
+     * @param progress progress of the restore, the restore can be cancelled until the archives are extracted,
+     * the files in the Jenkins home directory are not touched by then
+     */
+    public RestoreExecutor(BackupObject backupObject, String tempDirectoryPath, boolean tiered, BackupProgress progress) {
+        this(backupObject, tempDirectoryPath, tiered, progress, -1);
+    }
+
+    /**
+     * @param backupObject BackupObject of the backup to restore
+     * @param tempDirectoryPath path to the temporary directory
+     * @param tiered restore the critical configuration first and the build history afterwards
+     * @param progress progress of the restore
+     * @param journalUntil the configuration changes recorded after the backup until this time are applied
+     * on top of it, -1 to restore only the backup
+     */
+    public RestoreExecutor(BackupObject backupObject, String tempDirectoryPath, boolean tiered, BackupProgress progress, long journalUntil) {
         this.backupObject = backupObject;
         this.tempDirectoryPath = tempDirectoryPath;
+        this.tiered = tiered;
+        this.progress = progress;
+        this.journalUntil = journalUntil;
     }
 
     public void run() {
         // RestoreExecutor thread is not handled by Jenkins therefore we need to be sure that the safeRestart will not be performed during the restore execution
         PeriodicBackupRestartListener restartListener = PeriodicBackupRestartListener.get();
         restartListener.notReady();
+        progress.start(BackupProgress.RESTORE);
+        try {
+            restore(restartListener);
+        } finally {
+            progress.finish();
+        }
+    }
 
+    private void restore(PeriodicBackupRestartListener restartListener) {
         long start = System.currentTimeMillis(); // Measure the duration of the restore
         File tempDir = new File(tempDirectoryPath);
         if(!Util.isWritableDirectory(tempDir)) {
@@ -79,18 +125,38 @@ public class RestoreExecutor implements Runnable {
             }
         }
 
-        // Retrieving archive files related to the given BackupObject
-        Iterable<File> archives = null;
+        if(tiered) {
+            if(!backupObject.getCriticalArchives().isEmpty()) {
+                restoreTiered(tempDir, finalResultDir, start);
+                // Setting message to an empty String will make the "Restoring build history..." message disappear in the UI
+                PeriodicBackupLink.get().setMessage("");
+                restartListener.ready();
+                return;
+            }
+            LOGGER.info("The backup " + backupObject.getDisplayName() + " has no separate critical configuration, restoring the whole backup at once");
+        }
+
+        // Retrieving archive files related to the given BackupObject and extracting them to the final result directory,
+        // every archive is extracted while the next one is being retrieved
+        progress.startPhase(PHASE_EXTRACT, backupObject.getLocation().getDisplayName(), 0, 0);
         try {
-            archives = backupObject.getLocation().retrieveBackupFromLocation(backupObject, tempDir);
+            new RestorePipeline(backupObject, progress).run(tempDir, finalResultDir);
+        } catch (BackupCancelledException e) {
+            LOGGER.info("The restore has been cancelled, nothing has been restored");
+            deleteDirectory(finalResultDir);
+            PeriodicBackupLink.get().setMessage("");
+            restartListener.ready();
+            return;
         } catch (Exception e) {
-            LOGGER.warning("Could not retrieve backup from location. " + e.getMessage());
-            e.printStackTrace();
+            LOGGER.warning("Restoration Failure! " + e.getMessage());
+            // Setting message to an empty String will make the "Creating backup..." message disappear in the UI
+            PeriodicBackupLink.get().setMessage("");
+            restartListener.ready();
+            return;
         }
-
-        // Extracting the backup archives to the final result directory
-        backupObject.getStorage().unarchiveFiles(archives, finalResultDir);
         // At this point in the /finalResult directory should be only the extracted backup archives
+        replayJournal(tempDir, finalResultDir);
+        progress.startPhase(PHASE_APPLY, backupObject.getFileManager().getDisplayName(), 0, 0);
         try {
             backupObject.getFileManager().restoreFiles(finalResultDir);
         } catch (Exception e) {
@@ -107,4 +173,110 @@ public class RestoreExecutor implements Runnable {
         PeriodicBackupLink.get().setMessage("");
         restartListener.ready();
     }
+
+    /**
+     *
+     * Restores the critical configuration (the leading volumes of the backup) over the existing files and reloads
+     * Jenkins, so it is back in service as soon as possible. Nothing is deleted yet, the critical volumes alone are
+     * not the whole backup. The whole backup (mostly the build history) is extracted afterwards at low priority and
+     * only then restored with the FileManager's RestorePolicy, so a failed or cancelled restore of the build history
+     * leaves the existing files of the home directory in place.
+     *
+     * @param tempDir temporary directory
+     * @param finalResultDir directory for the rest of the backup
+     * @param start time when the restore started
+     */
+    private void restoreTiered(File tempDir, File finalResultDir, long start) {
+        final List<String> criticalArchives = backupObject.getCriticalArchives();
+        File criticalResultDir = new File(tempDir, "criticalResult");
+        try {
+            if(criticalResultDir.exists()) {
+                FileUtils.deleteDirectory(criticalResultDir);
+            }
+            if(!criticalResultDir.mkdir()) {
+                throw new PeriodicBackupException("Could not create " + criticalResultDir.getAbsolutePath());
+            }
+            progress.startPhase(PHASE_EXTRACT, backupObject.getLocation().getDisplayName(), 0, 0);
+            new RestorePipeline(backupObject, progress).run(tempDir, criticalResultDir, Predicates.in(criticalArchives));
+            replayJournal(tempDir, criticalResultDir);
+            progress.startPhase(PHASE_APPLY, "", 0, 0);
+            new OverwriteRestorePolicy().restore(criticalResultDir);
+            LOGGER.info("Reloading configuration...");
+            Hudson.getInstance().doReload();
+            LOGGER.info("Critical configuration restored after " + (System.currentTimeMillis() - start) + " ms");
+        } catch (BackupCancelledException e) {
+            LOGGER.info("The restore has been cancelled, nothing has been restored");
+            return;
+        } catch (Exception e) {
+            LOGGER.warning("Restoration Failure! " + e.getMessage());
+            return;
+        } finally {
+            try {
+                FileUtils.deleteDirectory(criticalResultDir);
+            } catch (IOException e) {
+                LOGGER.warning("Could not delete " + criticalResultDir.getAbsolutePath() + " " + e.getMessage());
+            }
+        }
+
+        PeriodicBackupLink.get().setMessage("Restoring build history...");
+        // Jenkins is already serving requests, the build history should not slow it down
+        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+        try {
+            progress.startPhase(PHASE_EXTRACT, backupObject.getLocation().getDisplayName(), 0, 0);
+            // The critical volumes are extracted again, the journal is replayed on the backup as it was stored
+            new RestorePipeline(backupObject, progress).run(tempDir, finalResultDir);
+            replayJournal(tempDir, finalResultDir);
+            progress.startPhase(PHASE_APPLY, backupObject.getFileManager().getDisplayName(), 0, 0);
+            backupObject.getFileManager().restoreFiles(finalResultDir);
+            LOGGER.info("Reloading configuration...");
+            Hudson.getInstance().doReload();
+            LOGGER.info("Restoration finished successfully after " + (System.currentTimeMillis() - start) + " ms");
+        } catch (BackupCancelledException e) {
+            LOGGER.info("The restore of the build history has been cancelled, only the critical configuration has been restored");
+            deleteDirectory(finalResultDir);
+        } catch (Exception e) {
+            LOGGER.warning("Restoration of the build history failed, only the critical configuration has been restored! " + e.getMessage());
+            deleteDirectory(finalResultDir);
+        }
+    }
+
+    /**
+     *
+     * Applies the configuration changes recorded after the backup to the extracted files, the segments not stored
+     * in the location yet are taken from the local journal
+     *
+     * @param tempDir temporary directory
+     * @param resultDir directory with the extracted backup
+     */
+    private void replayJournal(File tempDir, File resultDir) {
+        if(journalUntil < 0) {
+            return;
+        }
+        long backupTime = backupObject.getTimestamp().getTime();
+        File journalDir = new File(tempDir, "journal");
+        try {
+            if(!journalDir.isDirectory() && !journalDir.mkdirs()) {
+                throw new IOException("Could not create " + journalDir.getAbsolutePath());
+            }
+            List<File> segments = Lists.newArrayList(backupObject.getLocation().retrieveJournalFromLocation(journalDir, backupTime));
+            ConfigJournal localJournal = PeriodicBackupLink.get().getConfigJournal();
+            if(localJournal != null) {
+                segments.addAll(localJournal.roll());
+            }
+            int applied = ConfigJournal.replay(segments, resultDir, backupTime, journalUntil);
+            LOGGER.info(applied + " configuration change(s) from the journal applied to the backup " + backupObject.getDisplayName());
+        } catch (IOException e) {
+            LOGGER.warning("Could not replay the configuration journal, only the backup is restored. " + e.getMessage());
+        } finally {
+            deleteDirectory(journalDir);
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        try {
+            FileUtils.deleteDirectory(directory);
+        } catch (IOException e) {
+            LOGGER.warning("Could not delete " + directory.getAbsolutePath() + " " + e.getMessage());
+        }
+    }
 }
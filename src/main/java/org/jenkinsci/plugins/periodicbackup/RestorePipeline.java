@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ *
+ * RestorePipeline retrieves the archives of a backup from its location and extracts them at the same time.
+ * While an archive is being extracted the next one is retrieved, and if the Storage allows it
+ * several archives are extracted by separate threads.
+ */
+public class RestorePipeline {
+
+    private static final Logger LOGGER = Logger.getLogger(RestorePipeline.class.getName());
+    private static final File END_OF_ARCHIVES = new File("");   // Put in the queue after the last retrieved archive
+    private static final int CANCEL_POLL_SECONDS = 1;           // Interval of checking if the retriever is still alive when cancelling
+
+    private final BackupObject backupObject;
+    private final int prefetchedArchives;                       // Maximum number of retrieved archives waiting for extraction
+    private final int extractingThreads;                        // Maximum number of archives extracted at the same time
+    private final BackupProgress progress;                      // Counts the extracted archives, it can cancel the pipeline
+
+    public RestorePipeline(BackupObject backupObject) {
+        this(backupObject, new BackupProgress());
+    }
+
+    public RestorePipeline(BackupObject backupObject, BackupProgress progress) {
+        this(backupObject, 2, Math.min(4, Runtime.getRuntime().availableProcessors()), progress);
+    }
+
+    public RestorePipeline(BackupObject backupObject, int prefetchedArchives, int extractingThreads) {
+        this(backupObject, prefetchedArchives, extractingThreads, new BackupProgress());
+    }
+
+    public RestorePipeline(BackupObject backupObject, int prefetchedArchives, int extractingThreads, BackupProgress progress) {
+        this.backupObject = backupObject;
+        this.prefetchedArchives = Math.max(1, prefetchedArchives);
+        this.extractingThreads = Math.max(1, extractingThreads);
+        this.progress = progress;
+    }
+
+    /**
+     *
+     * Retrieves and extracts all the archives of the backup, returns when all of them are extracted
+     *
+     * @param tempDir temporary directory to store the retrieved archives
+     * @param finalResultDir Directory where the files will be extracted to
+     * @throws PeriodicBackupException if the archives could not be retrieved or extracted
+     * @throws InterruptedException if interrupted while waiting for the archives
+     */
+    public void run(File tempDir, File finalResultDir) throws PeriodicBackupException, InterruptedException {
+        run(tempDir, finalResultDir, Predicates.<String>alwaysTrue());
+    }
+
+    /**
+     *
+     * Retrieves and extracts the archives of the backup accepted by the filter, returns when all of them are extracted.
+     * The threads of the pipeline run with the priority of the calling thread.
+     *
+     * @param tempDir temporary directory to store the retrieved archives
+     * @param finalResultDir Directory where the files will be extracted to
+     * @param archiveFilter Predicate deciding by the archive name which archives will be restored
+     * @throws PeriodicBackupException if the archives could not be retrieved or extracted, the archives not extracted
+     * yet are not retrieved after the first failed extraction
+     * @throws BackupCancelledException if the restore has been cancelled, the retrieved archives are deleted
+     * @throws InterruptedException if interrupted while waiting for the archives
+     */
+    public void run(final File tempDir, final File finalResultDir, final Predicate<String> archiveFilter) throws PeriodicBackupException, InterruptedException {
+        final Location location = backupObject.getLocation();
+        final Storage storage = backupObject.getStorage();
+        final BlockingQueue<File> retrieved = new ArrayBlockingQueue<File>(prefetchedArchives);
+        final AtomicReference<Exception> retrievalFailure = new AtomicReference<Exception>();
+        final AtomicReference<RuntimeException> extractionFailure = new AtomicReference<RuntimeException>();
+
+        Thread retriever = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    location.retrieveBackupFromLocation(backupObject, tempDir, archiveFilter, retrieved);
+                } catch (Exception e) {
+                    retrievalFailure.set(e);
+                } finally {
+                    // The interrupt of a cancelled restore may still be pending, cancel() waits for the end marker
+                    Thread.interrupted();
+                    try {
+                        retrieved.put(END_OF_ARCHIVES);
+                    } catch (InterruptedException e) {
+                        LOGGER.warning("Retrieval of the archives has been interrupted.");
+                    }
+                }
+            }
+        }, "Periodic Backup archive retrieval");
+        // Nobody takes the end marker when the restore thread is interrupted, the blocked retriever must not keep the JVM alive
+        retriever.setDaemon(true);
+
+        int threads = storage.isConcurrentExtractionSupported() ? extractingThreads : 1;
+        final int priority = Thread.currentThread().getPriority();
+        ExecutorService extractors = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Periodic Backup archive extraction");
+                t.setPriority(priority);
+                return t;
+            }
+        });
+        // The next archive is taken from the queue only when there is a thread to extract it,
+        // so the location stops retrieving when the extraction is behind
+        final Semaphore idleExtractors = new Semaphore(threads);
+        int archivesCount = 0;
+        retriever.start();
+        try {
+            File archive;
+            while((archive = retrieved.take()) != END_OF_ARCHIVES) {
+                idleExtractors.acquire();
+                if(progress.isCancelRequested() || extractionFailure.get() != null) {
+                    // The restore cannot succeed any more after a failed extraction, the rest is not retrieved
+                    deleteArchive(archive);
+                    cancel(retriever, extractors, retrieved);
+                    progress.check();
+                    break;
+                }
+                final File archiveToExtract = archive;
+                archivesCount++;
+                extractors.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            long size = archiveToExtract.length();
+                            storage.unarchiveFile(archiveToExtract, finalResultDir);
+                            progress.add(1, size);
+                        } catch (RuntimeException e) {
+                            LOGGER.warning("Could not extract " + archiveToExtract.getName() + " " + e);
+                            extractionFailure.compareAndSet(null, e);
+                        } finally {
+                            idleExtractors.release();
+                        }
+                    }
+                });
+            }
+            extractors.shutdown();
+            extractors.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            retriever.interrupt();
+            extractors.shutdownNow();
+            throw e;
+        }
+        // The retrieval stops by itself when it is cancelled
+        progress.check();
+        // The extracted files are incomplete, they must not be restored
+        if(extractionFailure.get() != null) {
+            throw new PeriodicBackupException("Could not extract the backup. " + extractionFailure.get());
+        }
+        if(retrievalFailure.get() != null) {
+            throw new PeriodicBackupException("Could not retrieve backup from location. " + retrievalFailure.get().getMessage());
+        }
+        LOGGER.info(archivesCount + " archive(s) extracted to " + finalResultDir.getAbsolutePath() + " using " + threads + " thread(s)");
+    }
+
+    /**
+     *
+     * Stops the retrieval, waits for the archives being extracted and deletes the retrieved archives left in the queue.
+     * The queue is polled until the end marker arrives or the retriever has ended without it.
+     */
+    private void cancel(Thread retriever, ExecutorService extractors, BlockingQueue<File> retrieved) throws InterruptedException {
+        LOGGER.info("The restore has been cancelled, stopping the retrieval of the archives");
+        retriever.interrupt();
+        extractors.shutdown();
+        extractors.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        while(true) {
+            File archive = retrieved.poll(CANCEL_POLL_SECONDS, TimeUnit.SECONDS);
+            if(archive == END_OF_ARCHIVES) {
+                return;
+            }
+            if(archive != null) {
+                deleteArchive(archive);
+            }
+            else if(!retriever.isAlive()) {
+                while((archive = retrieved.poll()) != null) {
+                    if(archive != END_OF_ARCHIVES) {
+                        deleteArchive(archive);
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private void deleteArchive(File archive) {
+        try {
+            if(archive.isDirectory()) {
+                FileUtils.deleteDirectory(archive);
+            }
+            else if(archive.exists() && !archive.delete()) {
+                LOGGER.warning("Could not delete " + archive.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Could not delete " + archive.getAbsolutePath() + " " + e.getMessage());
+        }
+    }
+}
@@ -2,11 +2,11 @@ package org.jenkinsci.plugins.periodicbackup;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
 import com.google.common.collect.Sets;
 import hudson.Extension;
 import hudson.model.Hudson;
 import hudson.util.FormValidation;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.jets3t.service.S3Service;
 import org.jets3t.service.S3ServiceException;
@@ -20,6 +20,7 @@ import org.kohsuke.stapler.QueryParameter;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Logger;
 
 /**
@@ -39,6 +40,8 @@ public class S3Location extends Location {
     private static final String S3META_ISJENKINSBACKUPARCHIVE = "jenkinsbackuparchive";
     // S3 Metadata flag where true means the file represents a BackupObject xml file
     private static final String S3META_ISJENKINSBACKUPOBJECT = "jenkinsbackupobject";
+    // S3 Metadata flag where true means the file is the archive index of a backup
+    private static final String S3META_ISJENKINSBACKUPINDEX = "jenkinsbackupindex";
 
     @DataBoundConstructor
     public S3Location(String bucket, String accessSecret, String accessKey, boolean enabled) {
@@ -110,6 +113,10 @@ public class S3Location extends Location {
             logger.info("Creating archive files in S3/" + bucket + "...");
 
             for (File file : archives) {
+                if (BackupProgress.isCancelled()) {
+                    logger.info("The backup has been cancelled, not storing the rest of the archives in S3/" + bucket);
+                    return;
+                }
                 // mark the archive file as jenkinsbackuparchive=true and jenkinsbackupobject=false
                 // so that the file can be identified as an archive later.
                 S3Object obj = new S3Object(file);
@@ -128,42 +135,126 @@ public class S3Location extends Location {
 
     @Override
     public Iterable<File> retrieveBackupFromLocation(BackupObject backup, File tempDir) throws IOException, PeriodicBackupException {
-        AWSCredentials auth = new AWSCredentials(accessKey, accessSecret);
-        S3Service s3Service;
+        List<File> backupsToRestore = new ArrayList<File>();
         try {
             logger.info("Logging into aws");
-            s3Service = new RestS3Service(auth);
-
-            S3Object[] s3Objects = s3Service.listObjects(bucket);
-            List<File> backupsToRestore = new ArrayList<File>();
+            S3Service s3Service = new RestS3Service(new AWSCredentials(accessKey, accessSecret));
+            for (File backupFile : getArchiveFiles(s3Service, backup, tempDir)) {
+                backupsToRestore.add(download(s3Service, backupFile));
+            }
+        } catch (S3ServiceException e) {
+            throw new PeriodicBackupException("An unhandled exception occurred while connecting to Amazon S3. " + e.getMessage());
+        } catch (ServiceException e) {
+            throw new PeriodicBackupException("An unhandled exception occurred while connecting to Amazon S3. " + e.getMessage());
+        }
+        return backupsToRestore;
+    }
 
-            for (S3Object s : s3Objects) {
-                // make a second call to get the object because listObjects doesn't include
-                // custom metadata. it doesn't appear there's a nice way to do this in bulk.
-                S3Object objectWithMetadata = s3Service.getObject(bucket, s.getKey());
-                logger.info(objectWithMetadata.toString());
-
-                // if the object is a backup and the timestamp is equal, then add it to the list of backups to restore
-                if (objectWithMetadata.containsMetadata(S3META_ISJENKINSBACKUPARCHIVE)
-                    && objectWithMetadata.getMetadata(S3META_ISJENKINSBACKUPARCHIVE).equals("true")
-                    && objectWithMetadata.containsMetadata(S3META_BACKUPTIMESTAMP)
-                    && objectWithMetadata.getMetadata(S3META_BACKUPTIMESTAMP).toString().equals(
-                        Util.getFormattedDate(BackupObject.FILE_TIMESTAMP_PATTERN, backup.getTimestamp()))) {
-                    logger.info("Found backup: " + objectWithMetadata.toString());
-
-                    String backupFileName = objectWithMetadata.getMetadata(S3META_BACKUPTIMESTAMP).toString()
-                            + "." + backup.getStorage().getDescriptor().getArchiveFileExtension();
-                    File backupFile = new File(tempDir, backupFileName);
-
-                    // synchronously pull down the file and write it to the provided temp directory
-                    // TODO: create an async option to download the restore in the background
-                    FileUtils.writeByteArrayToFile(backupFile,
-                            IOUtils.toByteArray(objectWithMetadata.getDataInputStream()));
-                    backupsToRestore.add(backupFile);
+    @Override
+    public void retrieveBackupFromLocation(BackupObject backup, File tempDir, Predicate<String> archiveFilter, BlockingQueue<File> retrieved) throws IOException, PeriodicBackupException, InterruptedException {
+        try {
+            logger.info("Logging into aws");
+            S3Service s3Service = new RestS3Service(new AWSCredentials(accessKey, accessSecret));
+            // Every archive is handed over as soon as it is downloaded, the volumes are downloaded in order
+            for (File backupFile : getArchiveFiles(s3Service, backup, tempDir)) {
+                BackupProgress.checkCancelled();
+                if (archiveFilter.apply(backupFile.getName())) {
+                    retrieved.put(download(s3Service, backupFile));
                 }
             }
-            Collections.sort(backupsToRestore);
-            return backupsToRestore;
+        } catch (S3ServiceException e) {
+            throw new PeriodicBackupException("An unhandled exception occurred while connecting to Amazon S3. " + e.getMessage());
+        } catch (ServiceException e) {
+            throw new PeriodicBackupException("An unhandled exception occurred while connecting to Amazon S3. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finds the archives of the given backup in the bucket. Each archive is returned as the file
+     * it will be downloaded to, named after its key, and the files are sorted in volume order.
+     */
+    private List<File> getArchiveFiles(S3Service s3Service, BackupObject backup, File tempDir) throws ServiceException {
+        S3Object[] s3Objects = s3Service.listObjects(bucket);
+        List<File> backupFiles = new ArrayList<File>();
+
+        for (S3Object s : s3Objects) {
+            // make a second call to get the object details because listObjects doesn't include
+            // custom metadata. it doesn't appear there's a nice way to do this in bulk.
+            S3Object objectWithMetadata = s3Service.getObjectDetails(bucket, s.getKey());
+            logger.info(objectWithMetadata.toString());
+
+            // if the object is a backup and the timestamp is equal, then add it to the list of backups to restore
+            if (objectWithMetadata.containsMetadata(S3META_ISJENKINSBACKUPARCHIVE)
+                && objectWithMetadata.getMetadata(S3META_ISJENKINSBACKUPARCHIVE).equals("true")
+                && objectWithMetadata.containsMetadata(S3META_BACKUPTIMESTAMP)
+                && objectWithMetadata.getMetadata(S3META_BACKUPTIMESTAMP).toString().equals(
+                    Util.getFormattedDate(BackupObject.FILE_TIMESTAMP_PATTERN, backup.getTimestamp()))) {
+                logger.info("Found backup: " + objectWithMetadata.toString());
+                // the key is the name of the archive file, so the volumes do not overwrite each other
+                backupFiles.add(new File(tempDir, s.getKey()));
+            }
+        }
+        Collections.sort(backupFiles, Util.archiveVolumeOrder());
+        return backupFiles;
+    }
+
+    /**
+     * Pulls down the object with the name of the given file and writes it to that file
+     */
+    private File download(S3Service s3Service, File backupFile) throws ServiceException, IOException {
+        S3Object object = s3Service.getObject(bucket, backupFile.getName());
+        InputStream in = object.getDataInputStream();
+        OutputStream out = new FileOutputStream(backupFile);
+        try {
+            IOUtils.copy(in, out);
+        } finally {
+            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(in);
+        }
+        return backupFile;
+    }
+
+    @Override
+    public void storeArchiveIndexInLocation(File indexFile, BackupObject backup) throws IOException {
+        try {
+            S3Service s3Service = new RestS3Service(new AWSCredentials(accessKey, accessSecret));
+            // mark the index as jenkinsbackuparchive=false so that it is not retrieved with the archives
+            S3Object index = new S3Object(indexFile);
+            index.addMetadata(S3META_BACKUPTIMESTAMP, Util.getFormattedDate(BackupObject.FILE_TIMESTAMP_PATTERN, backup.getTimestamp()));
+            index.addMetadata(S3META_ISJENKINSBACKUPARCHIVE, "false");
+            index.addMetadata(S3META_ISJENKINSBACKUPOBJECT, "false");
+            index.addMetadata(S3META_ISJENKINSBACKUPINDEX, "true");
+            s3Service.putObject(s3Service.getBucket(bucket), index);
+            logger.info("Archive index " + indexFile.getName() + " created in S3/" + bucket);
+        } catch (Exception e) {
+            logger.severe("An unhandled exception occurred while connecting to Amazon S3. " + e.getMessage());
+        }
+    }
+
+    @Override
+    public InputStream retrieveArchiveIndexFromLocation(BackupObject backup) throws IOException, PeriodicBackupException {
+        String key = Util.createFileName(Util.generateFileNameBase(backup.getTimestamp()), ArchiveIndex.EXTENSION);
+        try {
+            S3Service s3Service = new RestS3Service(new AWSCredentials(accessKey, accessSecret));
+            return s3Service.getObject(bucket, key).getDataInputStream();
+        } catch (S3ServiceException e) {
+            // backups created before the archive index was introduced do not have one
+            if (e.getResponseCode() == 404) {
+                return null;
+            }
+            throw new PeriodicBackupException("An unhandled exception occurred while connecting to Amazon S3. " + e.getMessage());
+        } catch (ServiceException e) {
+            throw new PeriodicBackupException("An unhandled exception occurred while connecting to Amazon S3. " + e.getMessage());
+        }
+    }
+
+    @Override
+    public InputStream openArchiveRange(BackupObject backup, String archiveName, long offset, long length) throws IOException, PeriodicBackupException {
+        try {
+            S3Service s3Service = new RestS3Service(new AWSCredentials(accessKey, accessSecret));
+            // Ranged GET, only the requested bytes are transferred
+            Long rangeEnd = length < 0 ? null : Long.valueOf(offset + length - 1);
+            return s3Service.getObject(bucket, archiveName, null, null, null, null, offset, rangeEnd).getDataInputStream();
         } catch (S3ServiceException e) {
             throw new PeriodicBackupException("An unhandled exception occurred while connecting to Amazon S3. " + e.getMessage());
         } catch (ServiceException e) {
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import hudson.model.Hudson;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ *
+ * SelectiveRestoreExecutor restores only the given files or directories of a backup (e.g. the config.xml of one job).
+ * The files are found in the archive index of the backup and only the needed parts of the archives are read
+ * from the location. The restored files overwrite the existing ones, other files are not touched.
+ */
+public class SelectiveRestoreExecutor implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(SelectiveRestoreExecutor.class.getName());
+    private final BackupObject backupObject;
+    private final String tempDirectoryPath;
+    private final List<String> paths;
+
+    /**
+     * @param backupObject BackupObject of the backup to restore from
+     * @param tempDirectoryPath path to the temporary directory
+     * @param paths paths relative to the Jenkins home directory, a path ending with / restores the whole directory
+     */
+    public SelectiveRestoreExecutor(BackupObject backupObject, String tempDirectoryPath, List<String> paths) {
+        this.backupObject = backupObject;
+        this.tempDirectoryPath = tempDirectoryPath;
+        this.paths = paths;
+    }
+
+    public void run() {
+        // SelectiveRestoreExecutor thread is not handled by Jenkins therefore we need to be sure that the safeRestart will not be performed during the restore execution
+        PeriodicBackupRestartListener restartListener = PeriodicBackupRestartListener.get();
+        restartListener.notReady();
+        long start = System.currentTimeMillis(); // Measure the duration of the restore
+        File resultDir = new File(tempDirectoryPath, "selectiveResult");
+        try {
+            restore(resultDir);
+            LOGGER.info("Reloading configuration...");
+            Hudson.getInstance().doReload();
+            LOGGER.info("Restoration of " + paths + " finished successfully after " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            LOGGER.warning("Restoration Failure! " + e.getMessage());
+        } finally {
+            try {
+                FileUtils.deleteDirectory(resultDir);
+            } catch (IOException e) {
+                LOGGER.warning("Could not delete " + resultDir.getAbsolutePath() + " " + e.getMessage());
+            }
+            // Setting message to an empty String will make the "Restoring selected files..." message disappear in the UI
+            PeriodicBackupLink.get().setMessage("");
+            restartListener.ready();
+        }
+    }
+
+    private void restore(File resultDir) throws IOException, PeriodicBackupException {
+        if(!Util.isWritableDirectory(resultDir.getParentFile())) {
+            throw new PeriodicBackupException("The temporary folder " + resultDir.getParentFile().getAbsolutePath() + " is not writable.");
+        }
+        if(resultDir.exists()) {
+            FileUtils.deleteDirectory(resultDir);
+        }
+        Location location = backupObject.getLocation();
+        InputStream index = location.retrieveArchiveIndexFromLocation(backupObject);
+        if(index == null) {
+            throw new PeriodicBackupException("The backup " + backupObject.getDisplayName() + " has no archive index, only the whole backup can be restored.");
+        }
+        List<ArchiveIndex.Entry> entries = ArchiveIndex.read(index, ArchiveIndex.pathsFilter(paths));
+        if(entries.isEmpty()) {
+            throw new PeriodicBackupException("None of " + paths + " is in the backup " + backupObject.getDisplayName());
+        }
+        LOGGER.info("Restoring " + entries.size() + " file(s) from " + backupObject.getDisplayName());
+        backupObject.getStorage().extractEntries(location, backupObject, entries, resultDir);
+        new OverwriteRestorePolicy().restore(resultDir);
+    }
+}
@@ -27,9 +27,13 @@ package org.jenkinsci.plugins.periodicbackup;
 import hudson.DescriptorExtensionList;
 import hudson.model.AbstractModelObject;
 import hudson.model.Describable;
+import com.google.common.collect.Lists;
 import hudson.model.Hudson;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.Deflater;
 
 /**
  *
@@ -47,6 +51,17 @@ public abstract class Storage extends AbstractModelObject implements Describable
      */
     public abstract void backupStart(String tempDirectoryPath, String archiveFilenameBase) throws PeriodicBackupException;
 
+    /**
+     *
+     * Shows all the files of the backup to the Storage before backupStart, so it can learn from them,
+     * e.g. train a compression dictionary. The default implementation does nothing.
+     *
+     * @param filesToBackup The files that will be added to the archive(s)
+     * @throws PeriodicBackupException if something goes wrong
+     */
+    public void backupPrepare(Iterable<FileEntry> filesToBackup) throws PeriodicBackupException {
+    }
+
     /**
      *
      * Adds a file to an archive.
@@ -56,6 +71,18 @@ public abstract class Storage extends AbstractModelObject implements Describable
      */
     public abstract void backupAddFile(File fileToStore) throws PeriodicBackupException;
 
+    /**
+     *
+     * Adds a file with its attributes already read by the scan to an archive.
+     * The default implementation adds the file only.
+     *
+     * @param entry The file that will be added to the archive with its path, size and modification time
+     * @throws PeriodicBackupException if something goes wrong
+     */
+    public void backupAddFile(FileEntry entry) throws PeriodicBackupException {
+        backupAddFile(entry.getFile());
+    }
+
     /**
      *
      * Finalizes the archiving process
@@ -65,6 +92,27 @@ public abstract class Storage extends AbstractModelObject implements Describable
      */
     public abstract Iterable<File> backupStop() throws PeriodicBackupException;
 
+    /**
+     *
+     * Finishes the current archive, the following files will be added to a new archive (volume).
+     * It is used to keep the critical configuration in its own leading volume.
+     * The default implementation does not support it and keeps adding the files to the same archive.
+     *
+     * @return the finished archive or null if this Storage does not support it or the archive is empty
+     * @throws PeriodicBackupException if something goes wrong
+     */
+    public File backupCloseVolume() throws PeriodicBackupException {
+        return null;
+    }
+
+    /**
+     *
+     * Abandons the archiving process when the backup has failed or has been cancelled, the archive being created
+     * should be released. The archive files in the temporary directory are deleted by the caller afterwards.
+     */
+    public void backupAbort() {
+    }
+
     /**
      *
      * Extracts backup files from given archives into the temporary directory
@@ -75,10 +123,75 @@ public abstract class Storage extends AbstractModelObject implements Describable
      */
     public abstract void unarchiveFiles(Iterable<File> archives, File finalResultDir);
 
+    /**
+     *
+     * Extracts backup files from a single archive into the temporary directory,
+     * after successful extraction the archive will be deleted
+     *
+     * @param archive backup archive
+     * @param finalResultDir Directory where the files will be extracted to
+     */
+    public void unarchiveFile(File archive, File finalResultDir) {
+        unarchiveFiles(Lists.newArrayList(archive), finalResultDir);
+    }
+
+    /**
+     *
+     * Tells if the archives of one backup can be extracted at the same time,
+     * i.e. every archive can be extracted on its own and no two archives contain the same file
+     *
+     * @return true if the archives can be extracted concurrently
+     */
+    public boolean isConcurrentExtractionSupported() {
+        return false;
+    }
+
+    /**
+     *
+     * Writes the entries of the given archives to the archive index, so single files can be restored later
+     * without retrieving the whole backup. The default implementation does not support the archive index.
+     *
+     * @param archives Archive files created by backupStop()
+     * @param index Writer of the archive index
+     * @return true if the entries have been written to the index, false if this Storage does not support it
+     * @throws IOException if the archives cannot be read or the index cannot be written
+     */
+    public boolean writeArchiveIndex(Iterable<File> archives, ArchiveIndex.Writer index) throws IOException {
+        return false;
+    }
+
+    /**
+     *
+     * Extracts the given archive index entries reading only the needed parts of the archives from the location
+     *
+     * @param location Location where the backup archives are stored
+     * @param backup BackupObject related to the backup
+     * @param entries entries of the archive index written by this Storage
+     * @param finalResultDir Directory where the files will be extracted to
+     * @throws IOException if anything goes wrong with IO
+     * @throws PeriodicBackupException if this Storage does not support the archive index
+     */
+    public void extractEntries(Location location, BackupObject backup, List<ArchiveIndex.Entry> entries, File finalResultDir) throws IOException, PeriodicBackupException {
+        throw new PeriodicBackupException(getDisplayName() + " does not support restoring single files.");
+    }
+
     public StorageDescriptor getDescriptor() {
         return (StorageDescriptor) Hudson.getInstance().getDescriptor(getClass());
     }
 
+    /**
+     *
+     * The compression level of the Storages is 1 (fastest) to 9 (smallest), 0 is the default level,
+     * so the Storages configured before the level existed keep the default
+     *
+     * @param compressionLevel configured compression level
+     * @return level for the Deflater
+     */
+    static int deflaterLevel(int compressionLevel) {
+        return compressionLevel >= Deflater.BEST_SPEED && compressionLevel <= Deflater.BEST_COMPRESSION
+                ? compressionLevel : Deflater.DEFAULT_COMPRESSION;
+    }
+
     public String getSearchUrl() {
         return "Storage";
     }
@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Lists;
+import hudson.model.Hudson;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ *
+ * This RestorePolicy builds the restored tree in a staging directory inside the Jenkins home directory
+ * and then swaps the top level entries of the home directory which are in the backup (jobs, users, nodes, ...)
+ * with renames. The entries which are not in the backup are left as they are. The replaced content is moved
+ * to a rollback directory, the last ROLLBACKS_KEPT rollback directories are kept. Both directories are in
+ * SWAP_DIRECTORY, so the renames stay on the filesystem of the home directory and only the home directory
+ * has to be writable. FullBackup does not back up SWAP_DIRECTORY.
+ */
+public class SwapRestorePolicy implements RestorePolicy {
+
+    public final static String SWAP_DIRECTORY = "periodicBackup-swap";
+    private final static String STAGING_PREFIX = "restore_";
+    private final static String ROLLBACK_PREFIX = "before_restore_";
+    private final static int ROLLBACKS_KEPT = 2;
+
+    private static final Logger LOGGER = Logger.getLogger(SwapRestorePolicy.class.getName());
+
+    public void restore(File finalResultDir) throws IOException, PeriodicBackupException {
+        File hudsonRoot = Hudson.getInstance().getRootDir();
+        if(hudsonRoot == null) {
+            throw new PeriodicBackupException("HOME directory is unidentified.");
+        }
+        restore(finalResultDir, hudsonRoot);
+    }
+
+    /**
+     *
+     * Swaps the entries of the home directory with the restored ones
+     *
+     * @param finalResultDir directory with the restored files
+     * @param hudsonRoot Jenkins home directory
+     * @throws IOException If an IO problem occurs
+     * @throws PeriodicBackupException if the swap has failed, the home directory has been rolled back
+     */
+    void restore(File finalResultDir, File hudsonRoot) throws IOException, PeriodicBackupException {
+        String timestamp = Util.getFormattedDate(BackupObject.FILE_TIMESTAMP_PATTERN, new Date());
+        File swapDir = new File(hudsonRoot, SWAP_DIRECTORY);
+        File stagingDir = new File(swapDir, STAGING_PREFIX + timestamp);
+        File rollbackDir = new File(swapDir, ROLLBACK_PREFIX + timestamp);
+        if(!swapDir.isDirectory() && !swapDir.mkdir()) {
+            throw new PeriodicBackupException("Could not create directory " + swapDir.getAbsolutePath());
+        }
+
+        // The staging directory has to be on the same filesystem as the home directory, otherwise renames are not atomic
+        LOGGER.info("Moving " + finalResultDir.getAbsolutePath() + " to the staging directory " + stagingDir.getAbsolutePath());
+        if(!finalResultDir.renameTo(stagingDir)) {
+            LOGGER.info(finalResultDir.getAbsolutePath() + " is on a different filesystem, copying...");
+            FileUtils.copyDirectory(finalResultDir, stagingDir);
+        }
+        if(!rollbackDir.mkdir()) {
+            throw new PeriodicBackupException("Could not create the rollback directory " + rollbackDir.getAbsolutePath());
+        }
+
+        List<String> swapped = Lists.newArrayList();
+        long start = System.currentTimeMillis();
+        try {
+            // Only the entries of the backup are swapped, the others (e.g. plugins, war, logs when they
+            // are not backed up) are not touched
+            for(File staged : stagingDir.listFiles()) {
+                if(staged.getName().equals(SWAP_DIRECTORY)) {
+                    continue;
+                }
+                File live = new File(hudsonRoot, staged.getName());
+                if(live.exists()) {
+                    move(live, new File(rollbackDir, staged.getName()));
+                }
+                swapped.add(staged.getName());
+                move(staged, live);
+            }
+        } catch (PeriodicBackupException e) {
+            LOGGER.warning("Swapping failed, rolling back. " + e.getMessage());
+            rollback(hudsonRoot, stagingDir, rollbackDir, swapped);
+            throw e;
+        }
+        LOGGER.info(swapped.size() + " entries of " + hudsonRoot.getAbsolutePath() + " have been swapped in "
+                + (System.currentTimeMillis() - start) + " ms.\nThe previous content has been kept in " + rollbackDir.getAbsolutePath());
+        FileUtils.deleteDirectory(stagingDir);
+        pruneRollbacks(swapDir);
+    }
+
+    /**
+     *
+     * Puts the home directory back in the state it was before the swap
+     *
+     * @param hudsonRoot Jenkins home directory
+     * @param stagingDir directory with the restored entries
+     * @param rollbackDir directory with the entries moved aside from the home directory
+     * @param swapped names of the entries whose swap has been started
+     */
+    private void rollback(File hudsonRoot, File stagingDir, File rollbackDir, List<String> swapped) {
+        for(int i = swapped.size() - 1; i >= 0; i--) {
+            File live = new File(hudsonRoot, swapped.get(i));
+            File staged = new File(stagingDir, swapped.get(i));
+            try {
+                // The restored entry is in the home directory unless its own move has failed
+                if(!staged.exists() && live.exists()) {
+                    move(live, staged);
+                }
+                File old = new File(rollbackDir, swapped.get(i));
+                if(old.exists()) {
+                    move(old, live);
+                }
+            } catch (PeriodicBackupException e) {
+                LOGGER.warning(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     *
+     * Deletes the oldest rollback directories, the timestamps in their names sort them by time
+     *
+     * @param swapDir directory with the rollback directories
+     */
+    private void pruneRollbacks(File swapDir) {
+        List<String> rollbacks = Lists.newArrayList();
+        for(String name : swapDir.list()) {
+            if(name.startsWith(ROLLBACK_PREFIX)) {
+                rollbacks.add(name);
+            }
+        }
+        String[] sorted = rollbacks.toArray(new String[rollbacks.size()]);
+        Arrays.sort(sorted);
+        for(int i = 0; i < sorted.length - ROLLBACKS_KEPT; i++) {
+            File old = new File(swapDir, sorted[i]);
+            LOGGER.info("Deleting the old rollback directory " + old.getAbsolutePath());
+            try {
+                FileUtils.deleteDirectory(old);
+            } catch (IOException e) {
+                LOGGER.warning("Could not delete " + old.getAbsolutePath() + " " + e.getMessage());
+            }
+        }
+    }
+
+    private void move(File from, File to) throws PeriodicBackupException {
+        if(!rename(from, to)) {
+            throw new PeriodicBackupException("Could not move " + from.getAbsolutePath() + " to " + to.getAbsolutePath());
+        }
+    }
+
+    boolean rename(File from, File to) {
+        return from.renameTo(to);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SwapRestorePolicy;
+    }
+
+    @Override
+    public int hashCode() {
+        return 79;
+    }
+}
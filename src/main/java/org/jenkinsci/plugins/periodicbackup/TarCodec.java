@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *
+ * TarCodec compresses the tar stream of TarStorage. The codec is a field of TarStorage, so it is saved
+ * in the BackupObject with the Storage and the restore decompresses the archives with the codec they were
+ * created with. The archives are in the standard formats of the codecs, they can be extracted with
+ * tar and gzip, lz4 or zstd. The level is in the range of the codec, 0 means its default level.
+ */
+public enum TarCodec {
+
+    GZIP("gz", "gzip (deflate)") {
+        @Override
+        public OutputStream compress(OutputStream out, int level, int threads) throws IOException {
+            final int deflaterLevel = Storage.deflaterLevel(level);
+            return new GZIPOutputStream(out, Util.COPY_BUFFER_SIZE) {
+                {
+                    def.setLevel(deflaterLevel);
+                }
+            };
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in, Util.COPY_BUFFER_SIZE);
+        }
+    },
+
+    LZ4("lz4", "LZ4 (fastest)") {
+        @Override
+        public OutputStream compress(OutputStream out, int level, int threads) throws IOException {
+            // The levels above 0 use the high compression mode, it is slower but still decompresses as fast
+            LZ4Factory factory = LZ4Factory.fastestInstance();
+            return new LZ4FrameOutputStream(out, LZ4FrameOutputStream.BLOCKSIZE.SIZE_4MB, -1L,
+                    level > 0 ? factory.highCompressor(Math.min(level, 17)) : factory.fastCompressor(),
+                    XXHashFactory.fastestInstance().hash32(), LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new LZ4FrameInputStream(in);
+        }
+    },
+
+    ZSTD("zst", "Zstandard") {
+        @Override
+        public OutputStream compress(OutputStream out, int level, int threads) throws IOException {
+            ZstdOutputStream zstd = new ZstdOutputStream(out, zstdLevel(level));
+            if(threads > 1) {
+                // The frame is compressed by several workers, it is still a single ordinary zstd frame
+                zstd.setWorkers(threads);
+            }
+            return zstd;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new ZstdInputStream(in);
+        }
+    };
+
+    private final static int ZSTD_DEFAULT_LEVEL = 3;
+    private final static int ZSTD_MAX_LEVEL = 19;
+
+    private final String extension;
+    private final String displayName;
+
+    TarCodec(String extension, String displayName) {
+        this.extension = extension;
+        this.displayName = displayName;
+    }
+
+    /**
+     * @return extension of the compressed tar archives following "tar."
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @param level configured level, 0 for the default one
+     * @return Zstandard level from 1 to 19
+     */
+    static int zstdLevel(int level) {
+        return level > 0 ? Math.min(level, ZSTD_MAX_LEVEL) : ZSTD_DEFAULT_LEVEL;
+    }
+
+    /**
+     *
+     * Wraps the stream of the archive file with the compressing stream of the codec, closing it finishes the archive
+     *
+     * @param out stream of the archive file
+     * @param level compression level, 0 for the default level of the codec
+     * @param threads number of the threads compressing the data, the codecs without multithreading ignore it
+     * @return stream the tar records are written to
+     * @throws IOException if the stream cannot be created
+     */
+    public abstract OutputStream compress(OutputStream out, int level, int threads) throws IOException;
+
+    /**
+     * @param in stream of the archive file
+     * @return the uncompressed tar stream
+     * @throws IOException if the stream cannot be read
+     */
+    public abstract InputStream decompress(InputStream in) throws IOException;
+}
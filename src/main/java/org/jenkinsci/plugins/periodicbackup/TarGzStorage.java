@@ -25,90 +25,412 @@
 package org.jenkinsci.plugins.periodicbackup;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import hudson.Extension;
 import hudson.model.Hudson;
+import org.apache.commons.io.IOUtils;
+import org.apache.tools.tar.TarEntry;
+import org.apache.tools.tar.TarInputStream;
 import org.codehaus.plexus.archiver.ArchiverException;
-import org.codehaus.plexus.archiver.tar.TarArchiver;
 import org.codehaus.plexus.archiver.tar.TarGZipUnArchiver;
 import org.codehaus.plexus.logging.console.ConsoleLogger;
 import org.kohsuke.stapler.DataBoundConstructor;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class TarGzStorage extends Storage {
 
-    private transient TarArchiver archiver;
+    private boolean blockCompressed;                            // Determines if the archive is compressed in independent blocks
+    private int compressionLevel;                               // 1 (fastest) to 9 (smallest), 0 for the default level
+    private transient File destination;                         // Archive file being created
+    private transient OutputStream tarOut;                      // Compressed tar stream of the archive, the entries are written as they are added
+    private transient BlockGzipOutputStream blockOut;           // The same stream when blockCompressed, it knows the positions of the blocks
+    private transient LevelGZIPOutputStream gzipOut;            // The same stream otherwise, the already compressed files are stored
+    private transient TarWriter tarWriter;                      // Writes the tar records to tarOut
+    private transient byte[] copyBuffer;                        // Reused for all the files of the backup
+    private transient List<ArchiveIndex.Entry> indexEntries;    // Entries of the archive index, the offsets are uncompressed until the volume is finished
+    private transient File tempDirectory;
+    private transient String archiveFilenameBase;
+    private transient List<File> archives;                      // Finished volumes
+    private transient int volumeFirstEntry;                     // Index of the first entry of the current volume in indexEntries
+    private final static String ENCODING_TAR_GZ = "tar.gz";
+    private final static String ENCODING_BLOCK = "bgzf";
 
     private static final Logger LOGGER = Logger.getLogger(TarGzStorage.class.getName());
 
-    @DataBoundConstructor
     public TarGzStorage() {
+        this(false);
+    }
+
+    public TarGzStorage(boolean blockCompressed) {
+        this(blockCompressed, 0);
+    }
+
+    @DataBoundConstructor
+    public TarGzStorage(boolean blockCompressed, int compressionLevel) {
         super();
+        this.blockCompressed = blockCompressed;
+        this.compressionLevel = compressionLevel;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isBlockCompressed() {
+        return blockCompressed;
+    }
+
+    @SuppressWarnings("unused")
+    public int getCompressionLevel() {
+        return compressionLevel;
     }
 
     @Override
     public void backupStart(String tempDirectoryPath, String archiveFilenameBase) throws PeriodicBackupException {
-        // Create a new archiver
-        archiver = new TarArchiver();
-        // Set the destination file
-        File destination = new File(new File(tempDirectoryPath), Util.createFileName(archiveFilenameBase, this.getDescriptor().getArchiveFileExtension()));
-        archiver.setDestFile(destination);
-
-        // Set the compression method
-        TarArchiver.TarCompressionMethod compression = new TarArchiver.TarCompressionMethod();
+        this.tempDirectory = new File(tempDirectoryPath);
+        this.archiveFilenameBase = archiveFilenameBase;
+        indexEntries = Lists.newArrayList();
+        archives = Lists.newArrayList();
+        copyBuffer = new byte[Util.COPY_BUFFER_SIZE];
+        startVolume();
+    }
+
+    /**
+     *
+     * Starts a new archive, the first one is named after the base name only, the next ones get a number
+     *
+     * @throws PeriodicBackupException if the archive cannot be created
+     */
+    private void startVolume() throws PeriodicBackupException {
+        String fileNameBase = archives.isEmpty() ? archiveFilenameBase : archiveFilenameBase + "_" + (archives.size() + 1);
+        destination = new File(tempDirectory, Util.createFileName(fileNameBase, this.getDescriptor().getArchiveFileExtension()));
+        volumeFirstEntry = indexEntries.size();
         try {
-            compression.setValue("gzip");
-        } catch (org.codehaus.plexus.archiver.ArchiverException e) {
-            LOGGER.warning("Cannot set compression value " + e.getMessage());
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(destination), Util.COPY_BUFFER_SIZE);
+            if(blockCompressed) {
+                blockOut = new BlockGzipOutputStream(out, deflaterLevel(compressionLevel));
+                tarOut = blockOut;
+            }
+            else {
+                gzipOut = new LevelGZIPOutputStream(out, deflaterLevel(compressionLevel));
+                tarOut = gzipOut;
+            }
+            tarWriter = new TarWriter(tarOut);
+        } catch (IOException e) {
+            throw new PeriodicBackupException("Could not create archive " + destination.getAbsolutePath() + " " + e.getMessage());
         }
-
-        archiver.setCompression(compression);
     }
 
     @Override
     public void backupAddFile(File fileToStore) throws PeriodicBackupException {
+        backupAddFile(FileEntry.of(fileToStore, Hudson.getInstance().getRootDir()));
+    }
+
+    /**
+     *
+     * Writes the file to the compressed tar stream right away, nothing is kept in memory but the index entry.
+     * In block compressed mode the uncompressed position of its data is remembered as well. The tar records
+     * are written directly by TarWriter (TarOutputStream buffers them), so the position of the data is exact.
+     * The data of already compressed files is stored, the blocks decide it for themselves in block compressed mode.
+     *
+     * @param entry file that will be added to the archive
+     * @throws PeriodicBackupException if the file cannot be written, the archive would be corrupted
+     */
+    @Override
+    public void backupAddFile(FileEntry entry) throws PeriodicBackupException {
         try {
-            archiver.addFile(fileToStore, Util.getRelativePath(fileToStore, Hudson.getInstance().getRootDir()));
-        } catch (ArchiverException e) {
-            LOGGER.warning("Could not add file to the archive. " + e.getMessage());
+            tarWriter.writeHeader(entry);
+            if(!blockCompressed) {
+                gzipOut.setLevel(IncompressibleContent.isIncompressible(entry, copyBuffer)
+                        ? Deflater.NO_COMPRESSION : deflaterLevel(compressionLevel));
+            }
+            long dataOffset = blockCompressed ? blockOut.getPosition() : -1;
+            tarWriter.writeData(entry, copyBuffer);
+            if(blockCompressed) {
+                indexEntries.add(new ArchiveIndex.Entry(entry.getPath(), destination.getName(), dataOffset, entry.getSize(), entry.getSize(), ENCODING_BLOCK));
+            }
+            else {
+                indexEntries.add(new ArchiveIndex.Entry(entry.getPath(), destination.getName(), -1, -1, entry.getSize(), ENCODING_TAR_GZ));
+            }
+        } catch (IOException e) {
+            throw new PeriodicBackupException("Could not add " + entry.getFile().getAbsolutePath() + " to the archive " + destination.getAbsolutePath() + " " + e.getMessage());
         }
     }
 
-    @Override
-    public Iterable<File> backupStop() throws PeriodicBackupException {
+    /**
+     *
+     * Finishes the current archive, in block compressed mode the index entries of the archive get their block offsets
+     *
+     * @throws PeriodicBackupException if the archive cannot be written
+     */
+    private void finishVolume() throws PeriodicBackupException {
+        BackupProgress.checkCancelled();
         try {
-            archiver.createArchive();
-        } catch (ArchiverException e) {
-            LOGGER.warning("Could not create archive " + archiver.getDestFile() + " " + e.getMessage());
+            tarWriter.finish();
+            tarOut.close();
         } catch (IOException e) {
-            LOGGER.warning("Could not create archive " + archiver.getDestFile() + " " + e.getMessage());
+            throw new PeriodicBackupException("Could not create archive " + destination.getAbsolutePath() + " " + e.getMessage());
+        }
+        if(blockCompressed) {
+            for(int i = volumeFirstEntry; i < indexEntries.size(); i++) {
+                indexEntries.set(i, toBlockEntry(indexEntries.get(i)));
+            }
+        }
+        tarOut = null;
+        tarWriter = null;
+        blockOut = null;
+        gzipOut = null;
+        archives.add(destination);
+    }
+
+    @Override
+    public File backupCloseVolume() throws PeriodicBackupException {
+        if(volumeFirstEntry == indexEntries.size()) {
+            return null;
+        }
+        finishVolume();
+        File closedArchive = destination;
+        startVolume();
+        return closedArchive;
+    }
+
+    @Override
+    public Iterable<File> backupStop() throws PeriodicBackupException {
+        // An empty volume is only kept when it is the only one
+        if(archives.isEmpty() || volumeFirstEntry < indexEntries.size()) {
+            finishVolume();
+        }
+        else {
+            discardVolume();
+        }
+        return archives;
+    }
+
+    @Override
+    public void backupAbort() {
+        if(destination != null && !archives.contains(destination)) {
+            discardVolume();
+        }
+    }
+
+    /**
+     *
+     * Drops the current archive which has no files
+     */
+    private void discardVolume() {
+        if(tarOut != null) {
+            try {
+                tarOut.close();
+            } catch (IOException e) {
+                LOGGER.warning("Could not close archive " + destination.getAbsolutePath() + " " + e.getMessage());
+            }
+            tarOut = null;
+            tarWriter = null;
+            blockOut = null;
+            gzipOut = null;
+        }
+        if(destination.exists() && !destination.delete()) {
+            LOGGER.warning("Could not delete " + destination.getAbsolutePath());
         }
-        return Lists.newArrayList(archiver.getDestFile());
     }
 
     @Override
     public void unarchiveFiles(Iterable<File> archives, File tempDir) {
-        // Setting up unArchiver
+        // Extracting each archive to the temporary directory
+        for(File archive : archives) {
+            unarchiveFile(archive, tempDir);
+        }
+    }
+
+    @Override
+    public void unarchiveFile(File archive, File tempDir) {
+        if(blockCompressed) {
+            unarchiveBlockCompressedFile(archive, tempDir);
+            return;
+        }
+        // Setting up unArchiver, every archive gets its own so they can be extracted by separate threads
         TarGZipUnArchiver unArchiver = new TarGZipUnArchiver();
         unArchiver.setDestDirectory(tempDir);
         unArchiver.enableLogging(new ConsoleLogger(org.codehaus.plexus.logging.Logger.LEVEL_INFO, "UnArchiver"));
+        unArchiver.setSourceFile(archive);
+        LOGGER.info("Extracting files from " + archive.getAbsolutePath() + " to " + tempDir.getAbsolutePath());
+        try {
+            unArchiver.extract();
+        } catch (ArchiverException e) {
+            LOGGER.warning("Could not extract from " + archive.getAbsolutePath() + e.getMessage());
+        }
 
-        // Extracting each archive to the temporary directory
-        for(File archive : archives) {
-            unArchiver.setSourceFile(archive);
-            LOGGER.info("Extracting files from " + archive.getAbsolutePath() + " to " + tempDir.getAbsolutePath());
-            try {
-                unArchiver.extract();
-            } catch (ArchiverException e) {
-                LOGGER.warning("Could not extract from " + archive.getAbsolutePath() + e.getMessage());
+        // Deleting the archive file
+        LOGGER.info("Deleting " + archive.getAbsolutePath());
+        if(!archive.delete()) {
+            LOGGER.warning("Could not delete " + archive.getAbsolutePath());
+        }
+    }
+
+    /**
+     *
+     * Extracts a block compressed archive, the blocks are decompressed concurrently
+     *
+     * @param archive block compressed tar.gz archive
+     * @param tempDir Directory where the files will be extracted to
+     */
+    private void unarchiveBlockCompressedFile(File archive, File tempDir) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService inflaters = Executors.newFixedThreadPool(threads);
+        LOGGER.info("Extracting files from " + archive.getAbsolutePath() + " to " + tempDir.getAbsolutePath() + " using " + threads + " thread(s)");
+        try {
+            extractTar(new BlockGzipInputStream(new BufferedInputStream(new FileInputStream(archive)), inflaters, threads * 2), tempDir);
+        } catch (IOException e) {
+            LOGGER.warning("Could not extract from " + archive.getAbsolutePath() + " " + e.getMessage());
+        } finally {
+            inflaters.shutdownNow();
+        }
+
+        // Deleting the archive file
+        LOGGER.info("Deleting " + archive.getAbsolutePath());
+        if(!archive.delete()) {
+            LOGGER.warning("Could not delete " + archive.getAbsolutePath());
+        }
+    }
+
+    /**
+     *
+     * Extracts all the entries of the uncompressed tar stream
+     *
+     * @param in uncompressed tar stream, it will be closed
+     * @param tempDir Directory where the files will be extracted to
+     * @throws IOException if anything goes wrong with IO
+     */
+    static void extractTar(InputStream in, File tempDir) throws IOException {
+        TarInputStream tar = new TarInputStream(in);
+        try {
+            TarEntry tarEntry;
+            while((tarEntry = tar.getNextEntry()) != null) {
+                File destination = new File(tempDir, tarEntry.getName());
+                if(tarEntry.isDirectory()) {
+                    if(!destination.isDirectory() && !destination.mkdirs()) {
+                        throw new IOException("Could not create directory " + destination.getAbsolutePath());
+                    }
+                }
+                else {
+                    extractTarEntry(tar, destination);
+                    if(!destination.setLastModified(tarEntry.getModTime().getTime())) {
+                        LOGGER.warning("Could not set modification time of " + destination.getAbsolutePath());
+                    }
+                }
             }
+        } finally {
+            tar.close();
+        }
+    }
+
+    /**
+     *
+     * Writes the current entry of the tar stream to the given file
+     *
+     * @param tar tar stream positioned at the entry
+     * @param destination file to write to
+     * @throws IOException if anything goes wrong with IO
+     */
+    static void extractTarEntry(TarInputStream tar, File destination) throws IOException {
+        if(!destination.getParentFile().isDirectory() && !destination.getParentFile().mkdirs()) {
+            throw new IOException("Could not create directory " + destination.getParentFile().getAbsolutePath());
+        }
+        // TarInputStream ends at the end of the current entry
+        OutputStream out = new FileOutputStream(destination);
+        try {
+            IOUtils.copy(tar, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public boolean isConcurrentExtractionSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean writeArchiveIndex(Iterable<File> archives, ArchiveIndex.Writer index) throws IOException {
+        // The block offsets were already set when the volumes were finished
+        for(ArchiveIndex.Entry entry : indexEntries) {
+            index.add(entry);
+        }
+        indexEntries = null;
+        return true;
+    }
+
+    /**
+     *
+     * Maps the uncompressed position of the data of an entry to the blocks of the archive.
+     * The offset becomes a virtual offset like in BGZF: the position of the first block in the archive
+     * shifted 16 bits left plus the position of the data inside that block,
+     * the length covers all the blocks up to the one containing the last byte of the data.
+     *
+     * @param entry entry with the uncompressed position of the data
+     * @return entry for the archive index
+     */
+    private ArchiveIndex.Entry toBlockEntry(ArchiveIndex.Entry entry) {
+        long dataOffset = entry.getOffset();
+        int firstBlock = blockOut.getBlock(dataOffset);
+        int lastBlock = entry.getSize() > 0 ? blockOut.getBlock(dataOffset + entry.getSize() - 1) : firstBlock;
+        long blockOffset = blockOut.getBlockCompressedOffset(firstBlock);
+        long virtualOffset = blockOffset << 16 | (dataOffset - blockOut.getBlockUncompressedOffset(firstBlock));
+        long length = blockOut.getBlockCompressedOffset(lastBlock + 1) - blockOffset;
+        return new ArchiveIndex.Entry(entry.getPath(), entry.getArchive(), virtualOffset, length, entry.getSize(), ENCODING_BLOCK);
+    }
 
-            // Deleting the archive file
-            LOGGER.info("Deleting " + archive.getAbsolutePath());
-            if(!archive.delete()) {
-                LOGGER.warning("Could not delete " + archive.getAbsolutePath());
+    @Override
+    public void extractEntries(Location location, BackupObject backup, List<ArchiveIndex.Entry> entries, File finalResultDir) throws IOException, PeriodicBackupException {
+        Map<String, List<String>> pathsByArchive = Maps.newHashMap();
+        for(ArchiveIndex.Entry entry : entries) {
+            if(ENCODING_BLOCK.equals(entry.getEncoding())) {
+                // Only the blocks containing the file are read
+                LOGGER.info("Extracting " + entry.getPath() + " from " + entry.getArchive());
+                InputStream blocks = new BlockGzipInputStream(location.openArchiveRange(backup, entry.getArchive(), entry.getOffset() >>> 16, entry.getLength()));
+                if(blocks.skip(entry.getOffset() & 0xFFFF) != (entry.getOffset() & 0xFFFF)) {
+                    blocks.close();
+                    throw new IOException("Corrupted archive index entry of " + entry.getPath());
+                }
+                Util.writeToFile(Util.limitedInputStream(blocks, entry.getSize()), new File(finalResultDir, entry.getPath()));
+                continue;
+            }
+            if(!pathsByArchive.containsKey(entry.getArchive())) {
+                pathsByArchive.put(entry.getArchive(), Lists.<String>newArrayList());
+            }
+            pathsByArchive.get(entry.getArchive()).add(entry.getPath());
+        }
+        for(Map.Entry<String, List<String>> archive : pathsByArchive.entrySet()) {
+            // The gzip stream cannot be seeked, the archive is streamed from the location
+            // and the reading stops after the last requested file
+            List<String> remaining = archive.getValue();
+            TarInputStream tar = new TarInputStream(new GZIPInputStream(location.openArchiveRange(backup, archive.getKey(), 0, -1)));
+            try {
+                TarEntry tarEntry;
+                while(!remaining.isEmpty() && (tarEntry = tar.getNextEntry()) != null) {
+                    if(remaining.remove(tarEntry.getName())) {
+                        LOGGER.info("Extracting " + tarEntry.getName() + " from " + archive.getKey());
+                        extractTarEntry(tar, new File(finalResultDir, tarEntry.getName()));
+                    }
+                }
+            } finally {
+                tar.close();
+            }
+            if(!remaining.isEmpty()) {
+                throw new PeriodicBackupException(remaining.size() + " file(s) not found in " + archive.getKey());
             }
         }
     }
@@ -119,7 +441,7 @@ public class TarGzStorage extends Storage {
 
     @Override
     public boolean equals(Object o) {
-        return o instanceof TarGzStorage;
+        return o instanceof TarGzStorage && ((TarGzStorage) o).blockCompressed == blockCompressed;
     }
 
     @Override
@@ -127,6 +449,28 @@ public class TarGzStorage extends Storage {
         return 89;
     }
 
+    /**
+     *
+     * GZIPOutputStream whose compression level can change between the entries of the archive,
+     * the data written before the change is compressed with the previous level
+     */
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+        private int level;
+
+        LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, Util.COPY_BUFFER_SIZE);
+            this.level = Deflater.DEFAULT_COMPRESSION;
+            setLevel(level);
+        }
+
+        void setLevel(int level) {
+            if(this.level != level) {
+                def.setLevel(level);
+                this.level = level;
+            }
+        }
+    }
+
     @SuppressWarnings("unused")
     @Extension
     public static class DescriptorImpl extends StorageDescriptor {
@@ -0,0 +1,431 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import hudson.Extension;
+import hudson.model.Hudson;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.tools.tar.TarEntry;
+import org.apache.tools.tar.TarInputStream;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ *
+ * TarStorage creates tar archives compressed by a selectable codec, LZ4 when the backup has to be fast,
+ * Zstandard when the archive has to be small. The codec is a field of the Storage, so it is saved
+ * in the BackupObject and the restore uses the same codec without being told.
+ * With a dictionary (Zstandard only) every file is compressed into a zstd frame of its own, the small files
+ * with a dictionary trained on the backup, so single files can be restored by reading their frame only.
+ * Such an archive is decompressed by the zstd command line only with the dictionary passed with -D,
+ * the dictionary is the skippable frame at the beginning of the archive (see ZstdDictionary).
+ */
+public class TarStorage extends Storage {
+
+    private TarCodec codec;                                     // Compresses the tar stream
+    private int compressionLevel;                               // In the range of the codec, 0 for its default level
+    private boolean dictionary;                                 // Determines if the small files are compressed with a trained dictionary
+    private transient File destination;                         // Archive file being created
+    private transient OutputStream tarOut;                      // Compressed tar stream of the archive
+    private transient TarWriter tarWriter;                      // Writes the tar records to tarOut
+    private transient byte[] copyBuffer;                        // Reused for all the files of the backup
+    private transient List<ArchiveIndex.Entry> indexEntries;
+    private transient File tempDirectory;
+    private transient String archiveFilenameBase;
+    private transient List<File> archives;                      // Finished volumes
+    private transient int volumeFirstEntry;                     // Index of the first entry of the current volume in indexEntries
+    private transient ZstdDictionary zstdDictionary;            // Dictionary of this backup, null if the stream is compressed as a whole
+    private transient CountingOutputStream archiveOut;          // Archive file when zstdDictionary is used, it tells the positions of the frames
+    private transient ByteArrayOutputStream record;             // Tar record of a small file before it is compressed
+    private transient TarWriter recordWriter;                   // Writes the tar records to record
+    private final static String ENCODING_ZSTD_DICTIONARY = "zstd-dict";
+
+    private static final Logger LOGGER = Logger.getLogger(TarStorage.class.getName());
+
+    public TarStorage() {
+        this(TarCodec.ZSTD, 0);
+    }
+
+    public TarStorage(TarCodec codec, int compressionLevel) {
+        this(codec, compressionLevel, false);
+    }
+
+    @DataBoundConstructor
+    public TarStorage(TarCodec codec, int compressionLevel, boolean dictionary) {
+        super();
+        this.codec = codec != null ? codec : TarCodec.ZSTD;
+        this.compressionLevel = compressionLevel;
+        this.dictionary = dictionary;
+    }
+
+    @SuppressWarnings("unused")
+    public TarCodec getCodec() {
+        return codec;
+    }
+
+    @SuppressWarnings("unused")
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isDictionary() {
+        return dictionary;
+    }
+
+    /**
+     *
+     * Trains the dictionary on the small files of this backup
+     *
+     * @param filesToBackup The files that will be added to the archive(s)
+     */
+    @Override
+    public void backupPrepare(Iterable<FileEntry> filesToBackup) {
+        zstdDictionary = null;
+        if(dictionary) {
+            if(codec == TarCodec.ZSTD) {
+                zstdDictionary = ZstdDictionary.train(filesToBackup, new byte[Util.COPY_BUFFER_SIZE]);
+            }
+            else {
+                LOGGER.warning("The dictionary is supported by Zstandard only, " + codec.getDisplayName() + " compresses without it");
+            }
+        }
+    }
+
+    @Override
+    public void backupStart(String tempDirectoryPath, String archiveFilenameBase) throws PeriodicBackupException {
+        this.tempDirectory = new File(tempDirectoryPath);
+        this.archiveFilenameBase = archiveFilenameBase;
+        indexEntries = Lists.newArrayList();
+        archives = Lists.newArrayList();
+        copyBuffer = new byte[Util.COPY_BUFFER_SIZE];
+        record = new ByteArrayOutputStream(ZstdDictionary.SMALL_FILE_SIZE * 2);
+        recordWriter = new TarWriter(record);
+        startVolume();
+    }
+
+    /**
+     *
+     * Starts a new archive, the first one is named after the base name only, the next ones get a number
+     *
+     * @throws PeriodicBackupException if the archive cannot be created
+     */
+    private void startVolume() throws PeriodicBackupException {
+        String fileNameBase = archives.isEmpty() ? archiveFilenameBase : archiveFilenameBase + "_" + (archives.size() + 1);
+        destination = new File(tempDirectory, Util.createFileName(fileNameBase, getDescriptor().getArchiveFileExtension() + "." + codec.getExtension()));
+        volumeFirstEntry = indexEntries.size();
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(destination), Util.COPY_BUFFER_SIZE);
+            if(zstdDictionary != null) {
+                // The frames are written directly to the archive, the dictionary is the first one
+                archiveOut = new CountingOutputStream(out);
+                zstdDictionary.write(archiveOut);
+                tarOut = archiveOut;
+            }
+            else {
+                tarOut = codec.compress(out, compressionLevel, Runtime.getRuntime().availableProcessors());
+                tarWriter = new TarWriter(tarOut);
+            }
+        } catch (IOException e) {
+            throw new PeriodicBackupException("Could not create archive " + destination.getAbsolutePath() + " " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void backupAddFile(File fileToStore) throws PeriodicBackupException {
+        backupAddFile(FileEntry.of(fileToStore, Hudson.getInstance().getRootDir()));
+    }
+
+    @Override
+    public void backupAddFile(FileEntry entry) throws PeriodicBackupException {
+        try {
+            if(zstdDictionary != null) {
+                addFrame(entry);
+                return;
+            }
+            tarWriter.writeHeader(entry);
+            tarWriter.writeData(entry, copyBuffer);
+            indexEntries.add(new ArchiveIndex.Entry(entry.getPath(), destination.getName(), -1, -1, entry.getSize(), codec.name()));
+        } catch (IOException e) {
+            throw new PeriodicBackupException("Could not add " + entry.getFile().getAbsolutePath() + " to the archive " + destination.getAbsolutePath() + " " + e.getMessage());
+        }
+    }
+
+    /**
+     *
+     * Writes the tar record of the file as a zstd frame of its own, the small files are compressed with the dictionary
+     *
+     * @param entry file that will be added to the archive
+     * @throws IOException if the file cannot be written
+     */
+    private void addFrame(FileEntry entry) throws IOException {
+        long frameOffset = archiveOut.getByteCount();
+        if(entry.getSize() <= ZstdDictionary.SMALL_FILE_SIZE) {
+            record.reset();
+            recordWriter.writeHeader(entry);
+            recordWriter.writeData(entry, copyBuffer);
+            archiveOut.write(zstdDictionary.compress(record.toByteArray(), TarCodec.zstdLevel(compressionLevel)));
+        }
+        else {
+            // The dictionary would not help, the file is big enough to be compressed by several threads
+            OutputStream frame = codec.compress(new CloseShieldOutputStream(archiveOut), compressionLevel, Runtime.getRuntime().availableProcessors());
+            TarWriter frameWriter = new TarWriter(frame);
+            frameWriter.writeHeader(entry);
+            frameWriter.writeData(entry, copyBuffer);
+            frame.close();
+        }
+        indexEntries.add(new ArchiveIndex.Entry(entry.getPath(), destination.getName(), frameOffset,
+                archiveOut.getByteCount() - frameOffset, entry.getSize(), ENCODING_ZSTD_DICTIONARY));
+    }
+
+    private void finishVolume() throws PeriodicBackupException {
+        BackupProgress.checkCancelled();
+        try {
+            if(zstdDictionary != null) {
+                record.reset();
+                recordWriter.finish();
+                archiveOut.write(zstdDictionary.compress(record.toByteArray(), TarCodec.zstdLevel(compressionLevel)));
+            }
+            else {
+                tarWriter.finish();
+            }
+            tarOut.close();
+        } catch (IOException e) {
+            throw new PeriodicBackupException("Could not create archive " + destination.getAbsolutePath() + " " + e.getMessage());
+        }
+        tarOut = null;
+        tarWriter = null;
+        archiveOut = null;
+        archives.add(destination);
+    }
+
+    @Override
+    public File backupCloseVolume() throws PeriodicBackupException {
+        if(volumeFirstEntry == indexEntries.size()) {
+            return null;
+        }
+        finishVolume();
+        File closedArchive = destination;
+        startVolume();
+        return closedArchive;
+    }
+
+    @Override
+    public Iterable<File> backupStop() throws PeriodicBackupException {
+        // An empty volume is only kept when it is the only one
+        if(archives.isEmpty() || volumeFirstEntry < indexEntries.size()) {
+            finishVolume();
+        }
+        else {
+            discardVolume();
+        }
+        return archives;
+    }
+
+    @Override
+    public void backupAbort() {
+        if(destination != null && !archives.contains(destination)) {
+            discardVolume();
+        }
+    }
+
+    /**
+     *
+     * Drops the current archive which has no files
+     */
+    private void discardVolume() {
+        if(tarOut != null) {
+            try {
+                tarOut.close();
+            } catch (IOException e) {
+                LOGGER.warning("Could not close archive " + destination.getAbsolutePath() + " " + e.getMessage());
+            }
+            tarOut = null;
+            tarWriter = null;
+            archiveOut = null;
+        }
+        if(destination.exists() && !destination.delete()) {
+            LOGGER.warning("Could not delete " + destination.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public void unarchiveFiles(Iterable<File> archives, File tempDir) {
+        // Extracting each archive to the temporary directory
+        for(File archive : archives) {
+            unarchiveFile(archive, tempDir);
+        }
+    }
+
+    @Override
+    public void unarchiveFile(File archive, File tempDir) {
+        LOGGER.info("Extracting files from " + archive.getAbsolutePath() + " to " + tempDir.getAbsolutePath() + " (" + codec.getDisplayName() + ")");
+        try {
+            TarGzStorage.extractTar(decompress(new BufferedInputStream(new FileInputStream(archive), Util.COPY_BUFFER_SIZE)), tempDir);
+        } catch (IOException e) {
+            LOGGER.warning("Could not extract from " + archive.getAbsolutePath() + " " + e.getMessage());
+        }
+
+        // Deleting the archive file
+        LOGGER.info("Deleting " + archive.getAbsolutePath());
+        if(!archive.delete()) {
+            LOGGER.warning("Could not delete " + archive.getAbsolutePath());
+        }
+    }
+
+    /**
+     *
+     * Decompresses a whole archive, a Zstandard archive starting with a dictionary is decompressed with it
+     *
+     * @param in stream of the archive supporting mark
+     * @return the uncompressed tar stream
+     * @throws IOException if the stream cannot be read
+     */
+    private InputStream decompress(InputStream in) throws IOException {
+        if(codec == TarCodec.ZSTD) {
+            ZstdDictionary archiveDictionary = ZstdDictionary.read(in);
+            if(archiveDictionary != null) {
+                return archiveDictionary.decompress(in);
+            }
+        }
+        return codec.decompress(in);
+    }
+
+    @Override
+    public boolean isConcurrentExtractionSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean writeArchiveIndex(Iterable<File> archives, ArchiveIndex.Writer index) throws IOException {
+        for(ArchiveIndex.Entry entry : indexEntries) {
+            index.add(entry);
+        }
+        indexEntries = null;
+        return true;
+    }
+
+    @Override
+    public void extractEntries(Location location, BackupObject backup, List<ArchiveIndex.Entry> entries, File finalResultDir) throws IOException, PeriodicBackupException {
+        Map<String, List<String>> pathsByArchive = Maps.newHashMap();
+        Map<String, ZstdDictionary> dictionaries = Maps.newHashMap();
+        for(ArchiveIndex.Entry entry : entries) {
+            if(ENCODING_ZSTD_DICTIONARY.equals(entry.getEncoding())) {
+                // Only the dictionary and the frame of the file are read
+                ZstdDictionary archiveDictionary = dictionaries.get(entry.getArchive());
+                if(archiveDictionary == null) {
+                    InputStream in = new BufferedInputStream(location.openArchiveRange(backup, entry.getArchive(), 0, ZstdDictionary.MAX_FRAME_SIZE));
+                    try {
+                        archiveDictionary = ZstdDictionary.read(in);
+                    } finally {
+                        in.close();
+                    }
+                    if(archiveDictionary == null) {
+                        throw new IOException("No dictionary found in " + entry.getArchive());
+                    }
+                    dictionaries.put(entry.getArchive(), archiveDictionary);
+                }
+                LOGGER.info("Extracting " + entry.getPath() + " from " + entry.getArchive());
+                TarInputStream tar = new TarInputStream(archiveDictionary.decompress(location.openArchiveRange(backup, entry.getArchive(), entry.getOffset(), entry.getLength())));
+                try {
+                    if(tar.getNextEntry() == null) {
+                        throw new IOException("Corrupted archive index entry of " + entry.getPath());
+                    }
+                    TarGzStorage.extractTarEntry(tar, new File(finalResultDir, entry.getPath()));
+                } finally {
+                    tar.close();
+                }
+                continue;
+            }
+            if(!pathsByArchive.containsKey(entry.getArchive())) {
+                pathsByArchive.put(entry.getArchive(), Lists.<String>newArrayList());
+            }
+            pathsByArchive.get(entry.getArchive()).add(entry.getPath());
+        }
+        for(Map.Entry<String, List<String>> archive : pathsByArchive.entrySet()) {
+            // The compressed stream cannot be seeked, the archive is streamed from the location
+            // and the reading stops after the last requested file
+            List<String> remaining = archive.getValue();
+            TarInputStream tar = new TarInputStream(codec.decompress(location.openArchiveRange(backup, archive.getKey(), 0, -1)));
+            try {
+                TarEntry tarEntry;
+                while(!remaining.isEmpty() && (tarEntry = tar.getNextEntry()) != null) {
+                    if(remaining.remove(tarEntry.getName())) {
+                        LOGGER.info("Extracting " + tarEntry.getName() + " from " + archive.getKey());
+                        TarGzStorage.extractTarEntry(tar, new File(finalResultDir, tarEntry.getName()));
+                    }
+                }
+            } finally {
+                tar.close();
+            }
+            if(!remaining.isEmpty()) {
+                throw new PeriodicBackupException(remaining.size() + " file(s) not found in " + archive.getKey());
+            }
+        }
+    }
+
+    public String getDisplayName() {
+        return "Tar (" + codec.getDisplayName() + ")";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TarStorage && ((TarStorage) o).codec == codec && ((TarStorage) o).dictionary == dictionary;
+    }
+
+    @Override
+    public int hashCode() {
+        return 97 + codec.hashCode();
+    }
+
+    @SuppressWarnings("unused")
+    @Extension
+    public static class DescriptorImpl extends StorageDescriptor {
+        public String getDisplayName() {
+            return "TarStorage";
+        }
+
+        @Override
+        public String getArchiveFileExtension() {
+            return "tar";
+        }
+
+    }
+}
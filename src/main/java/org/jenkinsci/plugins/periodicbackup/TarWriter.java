@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import org.apache.tools.tar.TarConstants;
+import org.apache.tools.tar.TarEntry;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Logger;
+
+/**
+ *
+ * TarWriter writes the tar records of the files directly to a (compressed) stream, nothing is buffered,
+ * so the Storages know the exact position of the data of every file in the uncompressed stream.
+ * The names longer than the tar header allows or not in ASCII are written as GNU long names.
+ */
+public class TarWriter {
+
+    private final static int RECORD_SIZE = 512;
+    private final static byte[] PADDING = new byte[RECORD_SIZE];
+
+    private static final Logger LOGGER = Logger.getLogger(TarWriter.class.getName());
+
+    private final OutputStream out;
+
+    /**
+     * @param out stream the tar records are written to
+     */
+    public TarWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     *
+     * Writes the header of the file, the data follows right after it
+     *
+     * @param entry file that will be added to the archive
+     * @throws IOException if the header cannot be written
+     */
+    public void writeHeader(FileEntry entry) throws IOException {
+        String path = entry.getPath();
+        TarEntry tarEntry = new TarEntry(path);
+        tarEntry.setSize(entry.getSize());
+        tarEntry.setModTime(entry.getLastModified());
+        if(entry.getMode() != FileEntry.UNKNOWN_MODE) {
+            tarEntry.setMode(entry.getMode() & 07777);
+        }
+        byte[] name = path.getBytes("UTF-8");
+        if(name.length >= TarConstants.NAMELEN || name.length != path.length()) {
+            // GNU long name, the whole name is stored in an extra entry preceding the header
+            TarEntry longName = new TarEntry(TarConstants.GNU_LONGLINK, TarConstants.LF_GNUTYPE_LONGNAME);
+            longName.setSize(name.length + 1);
+            writeRecord(longName);
+            out.write(name);
+            out.write(0);
+            pad(name.length + 1);
+        }
+        writeRecord(tarEntry);
+    }
+
+    /**
+     *
+     * Copies the data of the file after its header. Exactly the size written in the header is copied, so the archive
+     * stays valid when the file has changed since the scan: the data of a grown file is cut, a shrunk file
+     * is padded with zeros.
+     *
+     * @param entry file whose header has been written
+     * @param buffer buffer to copy the data through
+     * @throws IOException if the file cannot be read or the data cannot be written
+     */
+    public void writeData(FileEntry entry, byte[] buffer) throws IOException {
+        long size = entry.getSize();
+        long copied = 0;
+        InputStream in = new FileInputStream(entry.getFile());
+        try {
+            int count;
+            while(copied < size && (count = in.read(buffer, 0, (int) Math.min(buffer.length, size - copied))) > 0) {
+                out.write(buffer, 0, count);
+                copied += count;
+            }
+            if(copied == size && in.read() >= 0) {
+                LOGGER.warning("The file " + entry.getPath() + " has grown while it was being archived, it is truncated to " + size + " bytes");
+            }
+        } finally {
+            in.close();
+        }
+        if(copied < size) {
+            LOGGER.warning("The file " + entry.getPath() + " has shrunk while it was being archived, it is padded with zeros to " + size + " bytes");
+            long missing = size - copied;
+            while(missing > 0) {
+                int count = (int) Math.min(PADDING.length, missing);
+                out.write(PADDING, 0, count);
+                missing -= count;
+            }
+        }
+        pad(size);
+    }
+
+    /**
+     *
+     * Writes the end of the archive, the stream is not closed
+     *
+     * @throws IOException if the records cannot be written
+     */
+    public void finish() throws IOException {
+        // Two empty records mark the end of the tar archive
+        out.write(PADDING);
+        out.write(PADDING);
+    }
+
+    private void writeRecord(TarEntry tarEntry) throws IOException {
+        byte[] header = new byte[RECORD_SIZE];
+        tarEntry.writeEntryHeader(header);
+        out.write(header);
+    }
+
+    private void pad(long written) throws IOException {
+        int remainder = (int) (written % RECORD_SIZE);
+        if(remainder > 0) {
+            out.write(PADDING, 0, RECORD_SIZE - remainder);
+        }
+    }
+}
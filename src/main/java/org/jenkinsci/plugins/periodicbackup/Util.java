@@ -27,13 +27,24 @@ package org.jenkinsci.plugins.periodicbackup;
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 
+import org.apache.commons.io.IOUtils;
+
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
+import java.util.Comparator;
 import java.util.Date;
 
 public class Util {
+
+    public final static int COPY_BUFFER_SIZE = 64 * 1024;       // Size of the buffers the Storages copy the files through
+
     /**
      *
      * This returns relative path of given file with respect to given base directory
@@ -157,5 +168,186 @@ public class Util {
     public static boolean isWritableDirectory(File directory) {
         return (directory.exists() && directory.isDirectory() && directory.canWrite());
     }
-}
 
+    /**
+     *
+     * Orders archive files by their names, comparing the numbers inside the names by value
+     * so that the volume backup_..._2.zip comes before backup_..._10.zip
+     *
+     * @return Comparator of archive files
+     */
+    public static Comparator<File> archiveVolumeOrder() {
+        return new Comparator<File>() {
+            public int compare(File file1, File file2) {
+                String s1 = file1.getName();
+                String s2 = file2.getName();
+                int i1 = 0, i2 = 0;
+                while(i1 < s1.length() && i2 < s2.length()) {
+                    char c1 = s1.charAt(i1);
+                    char c2 = s2.charAt(i2);
+                    if(Character.isDigit(c1) && Character.isDigit(c2)) {
+                        int end1 = i1, end2 = i2;
+                        while(end1 < s1.length() && Character.isDigit(s1.charAt(end1))) end1++;
+                        while(end2 < s2.length() && Character.isDigit(s2.charAt(end2))) end2++;
+                        // Longer number is bigger once the leading zeros are gone
+                        String n1 = s1.substring(i1, end1).replaceFirst("^0+(?=.)", "");
+                        String n2 = s2.substring(i2, end2).replaceFirst("^0+(?=.)", "");
+                        int result = n1.length() != n2.length() ? n1.length() - n2.length() : n1.compareTo(n2);
+                        if(result != 0) {
+                            return result;
+                        }
+                        i1 = end1;
+                        i2 = end2;
+                    }
+                    else {
+                        if(c1 != c2) {
+                            return c1 - c2;
+                        }
+                        i1++;
+                        i2++;
+                    }
+                }
+                return (s1.length() - i1) - (s2.length() - i2);
+            }
+        };
+    }
+
+    /**
+     *
+     * Tells if the file belongs to the critical configuration which Jenkins needs to come back into service:
+     * the xml files in the root directory, config.xml and nextBuildNumber of the jobs, users, nodes and secrets.
+     * The critical files are stored in the leading volume of a backup and restored first.
+     *
+     * @param relativePath path of the file relative to the Jenkins home directory, with / as separator
+     * @return true if the file is critical
+     */
+    public static boolean isCriticalFile(String relativePath) {
+        if(relativePath.startsWith("users/") || relativePath.startsWith("nodes/") || relativePath.startsWith("secrets/")) {
+            return true;
+        }
+        int firstSlash = relativePath.indexOf('/');
+        if(firstSlash < 0) {
+            return relativePath.endsWith(".xml");
+        }
+        // jobs/<name>/config.xml and jobs/<name>/nextBuildNumber, without the latter the next build would reuse
+        // the numbers of the build history restored afterwards
+        if(!relativePath.startsWith("jobs/")) {
+            return false;
+        }
+        int secondSlash = relativePath.indexOf('/', firstSlash + 1);
+        if(secondSlash < 0 || relativePath.indexOf('/', secondSlash + 1) >= 0) {
+            return false;
+        }
+        String name = relativePath.substring(secondSlash + 1);
+        return name.equals("config.xml") || name.equals("nextBuildNumber");
+    }
+
+    /**
+     *
+     * Wraps the given stream so at most the given number of bytes can be read from it
+     *
+     * @param in stream to read from, it will be closed together with the returned stream
+     * @param limit maximum number of bytes to read, negative for no limit
+     * @return limited stream
+     */
+    public static InputStream limitedInputStream(InputStream in, final long limit) {
+        if(limit < 0) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            private long remaining = limit;
+
+            @Override
+            public int read() throws IOException {
+                if(remaining <= 0) {
+                    return -1;
+                }
+                int b = super.read();
+                if(b >= 0) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if(remaining <= 0) {
+                    return -1;
+                }
+                int count = super.read(b, off, (int) Math.min(len, remaining));
+                if(count > 0) {
+                    remaining -= count;
+                }
+                return count;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(Math.min(n, remaining));
+                remaining -= skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.min(super.available(), remaining);
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     *
+     * Writes the content of the given stream to a file, the parent directories are created if needed
+     *
+     * @param in stream to read from, it will be closed
+     * @param destination file to write to
+     * @throws IOException if anything goes wrong with IO
+     */
+    public static void writeToFile(InputStream in, File destination) throws IOException {
+        try {
+            File parent = destination.getParentFile();
+            if(parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Could not create directory " + parent.getAbsolutePath());
+            }
+            OutputStream out = new FileOutputStream(destination);
+            try {
+                IOUtils.copy(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     *
+     * Copies the content of the file to the stream through the given buffer, the Storages reuse a single buffer
+     * for all the files of the archive
+     *
+     * @param file file to read
+     * @param out stream to write to, it is not closed
+     * @param buffer buffer to copy through
+     * @return number of the copied bytes
+     * @throws IOException if anything goes wrong with IO
+     */
+    public static long copyFile(File file, OutputStream out, byte[] buffer) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            long copied = 0;
+            int read;
+            while((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+                copied += read;
+            }
+            return copied;
+        } finally {
+            in.close();
+        }
+    }
+}
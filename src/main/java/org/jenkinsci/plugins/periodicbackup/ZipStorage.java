@@ -25,49 +25,77 @@
 package org.jenkinsci.plugins.periodicbackup;
 
 import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 import hudson.Extension;
 import hudson.model.Hudson;
 import net.sf.json.JSONObject;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
 import org.codehaus.plexus.archiver.ArchiverException;
-import org.codehaus.plexus.archiver.zip.ZipArchiver;
 import org.codehaus.plexus.archiver.zip.ZipUnArchiver;
 import org.codehaus.plexus.logging.console.ConsoleLogger;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 public class ZipStorage extends Storage {
 
     private final static int MAX_FILES_PER_ARCHIVE = 65534;                 // Max allowed amount of files in a zip archive is 65535
     private final static long MAX_SIZE_OF_FILES_PER_ARCHIVE = 3999999999l;  // Max allowed size of uncompressed/compressed files in a zip archive is 4GiB
+    private final static int MAX_STORED_FILE_SIZE = 1024 * 1024;            // Bigger incompressible files are deflated without compression, not read into memory
     private boolean multiVolume;                                            // Determines if the backup should be divided into few archives
     private long volumeSize;                                                // Determines maximum size of files inside single archive file
+    private int compressionLevel;                                           // 1 (fastest) to 9 (smallest), 0 for the default level
     private static final Logger LOGGER = Logger.getLogger(ZipStorage.class.getName());
-    private transient ZipArchiver archiver;                                 // Manages archiving process
+    private transient ZipOutputStream zipOut;                               // Archive being created, the entries are written as they are added
+    private transient File currentArchive;                                  // File of the archive being created
+    private transient byte[] copyBuffer;                                    // Reused for all the files of the backup
     private transient File tempDirectory;                                   // Directory where the archives will be created
     private transient String archiveFilePathBase;                           // Part of the archive filename determined by Util.generateFileNameBase
     private transient long currentArchiveTotalFilesSize;                    // Size of all the files inside currently processed archive
     private transient int currentArchiveFilesCount;                         // Number of the files inside currently processed archive
     private transient int archivesNumber;                                   // Number of the archives created so far by the ZipStorage
     private transient Set<File> archives;                                   // Set of created archive files
+    private final static int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private final static int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private final static int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private final static int LOCAL_HEADER_SIZE = 30;
+    private final static String ENCODING_DEFLATED = "deflated";
+    private final static String ENCODING_STORED = "stored";
 
-    @DataBoundConstructor
     public ZipStorage(boolean multiVolume, long volumeSize) {
+        this(multiVolume, volumeSize, 0);
+    }
+
+    @DataBoundConstructor
+    public ZipStorage(boolean multiVolume, long volumeSize, int compressionLevel) {
         super();
         this.multiVolume = multiVolume;
         this.volumeSize = volumeSize;
+        this.compressionLevel = compressionLevel;
     }
 
     public long getCurrentArchiveTotalFilesSize() {
         return currentArchiveTotalFilesSize;
     }
 
-    public ZipArchiver getArchiver() {
-        return archiver;
+    public File getCurrentArchive() {
+        return currentArchive;
     }
 
     public int getCurrentArchiveFilesCount() {
@@ -88,6 +116,11 @@ public class ZipStorage extends Storage {
         this.volumeSize = volumeSize;
     }
 
+    @SuppressWarnings("unused")
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
     @SuppressWarnings("unused")
     public boolean isMultiVolume() {
         return multiVolume;
@@ -99,131 +132,337 @@ public class ZipStorage extends Storage {
     }
 
     @Override
-    public void backupStart(String tempDirectoryPath, String archiveFilenameBase) {
-        archiver = new ZipArchiver();
+    public void backupStart(String tempDirectoryPath, String archiveFilenameBase) throws PeriodicBackupException {
         archives = Sets.newHashSet();
         archivesNumber = 1;
         currentArchiveFilesCount = 0;
         currentArchiveTotalFilesSize = 0;
+        copyBuffer = new byte[Util.COPY_BUFFER_SIZE];
         tempDirectory = new File(tempDirectoryPath);
         this.archiveFilePathBase = archiveFilenameBase;
-        String currentArchiveFilePath = archiveFilePathBase + "_" + archivesNumber; // Defining filename
-        currentArchiveFilePath = Util.createFileName(currentArchiveFilePath, getDescriptor().getArchiveFileExtension()); // Adding extension to the filename
-        archiver.setDestFile(new File(tempDirectory, currentArchiveFilePath));
         if(multiVolume && (volumeSize <= 0 || volumeSize > MAX_SIZE_OF_FILES_PER_ARCHIVE)) {
             LOGGER.warning("Volume size " + volumeSize + " bytes is incorrect, setting to single volume.");
             multiVolume = false;
         }
+        openArchive();
+    }
+
+    /**
+     *
+     * Creates the file of the current archive, the entries are streamed to it as they are added
+     *
+     * @throws PeriodicBackupException if the file cannot be created
+     */
+    private void openArchive() throws PeriodicBackupException {
+        String currentArchiveFilePath = archiveFilePathBase + "_" + archivesNumber; // Defining filename
+        currentArchiveFilePath = Util.createFileName(currentArchiveFilePath, getDescriptor().getArchiveFileExtension()); // Adding extension to the filename
+        currentArchive = new File(tempDirectory, currentArchiveFilePath);
+        try {
+            zipOut = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(currentArchive), Util.COPY_BUFFER_SIZE));
+            zipOut.setLevel(deflaterLevel(compressionLevel));
+        } catch (IOException e) {
+            throw new PeriodicBackupException("Could not create archive " + currentArchive.getAbsolutePath() + " " + e.getMessage());
+        }
+    }
+
+    /**
+     *
+     * Writes the central directory of the current archive, an archive without files is deleted
+     *
+     * @throws PeriodicBackupException if the archive cannot be written
+     */
+    private void closeArchive() throws PeriodicBackupException {
+        try {
+            zipOut.close();
+        } catch (IOException e) {
+            throw new PeriodicBackupException("Could not create archive " + currentArchive.getAbsolutePath() + " " + e.getMessage());
+        } finally {
+            zipOut = null;
+        }
+        if(currentArchiveFilesCount > 0) {
+            archives.add(currentArchive);
+        }
+        else if(!currentArchive.delete()) {
+            LOGGER.warning("Could not delete " + currentArchive.getAbsolutePath());
+        }
     }
 
     @Override
     public void backupAddFile(File fileToStore) throws PeriodicBackupException {
-        if(fileToStore.length() > MAX_SIZE_OF_FILES_PER_ARCHIVE) {
+        backupAddFile(FileEntry.of(fileToStore, Hudson.getInstance().getRootDir()));
+    }
+
+    @Override
+    public void backupAddFile(FileEntry entry) throws PeriodicBackupException {
+        File fileToStore = entry.getFile();
+        long size = entry.getSize();
+        if(size > MAX_SIZE_OF_FILES_PER_ARCHIVE) {
             throw new PeriodicBackupException("Size of file " + fileToStore.getAbsolutePath() + " is bigger then maximum allowed size (" + MAX_SIZE_OF_FILES_PER_ARCHIVE / (1024l) + "kB). Cannot create archive.");
         }
-        if ((currentArchiveFilesCount + 1) >= MAX_FILES_PER_ARCHIVE || (currentArchiveTotalFilesSize + fileToStore.length()) >= MAX_SIZE_OF_FILES_PER_ARCHIVE) {
-            LOGGER.info("Number of files in archive " + archiver.getDestFile().getAbsolutePath() + " exceeded " + MAX_FILES_PER_ARCHIVE + " or total size of files for this archive exceeded " + MAX_SIZE_OF_FILES_PER_ARCHIVE / (1024l) + " kB");
+        if ((currentArchiveFilesCount + 1) >= MAX_FILES_PER_ARCHIVE || (currentArchiveTotalFilesSize + size) >= MAX_SIZE_OF_FILES_PER_ARCHIVE) {
+            LOGGER.info("Number of files in archive " + currentArchive.getAbsolutePath() + " exceeded " + MAX_FILES_PER_ARCHIVE + " or total size of files for this archive exceeded " + MAX_SIZE_OF_FILES_PER_ARCHIVE / (1024l) + " kB");
             createNewArchive();
+            addFile(entry);
         } else {
             // fileToStore is bigger then the limit and there are no other files in archive yet (add and create new)
-            if (multiVolume && fileToStore.length() >= volumeSize && currentArchiveFilesCount == 0) {
-                addFile(fileToStore);
+            if (multiVolume && size >= volumeSize && currentArchiveFilesCount == 0) {
+                addFile(entry);
                 LOGGER.info("Total size of files for this archive exceeded single volume size " + volumeSize + " B");
                 createNewArchive();
             }
             // fileToStore is bigger the limit and there are already some files in the archive (create new, add, create new)
-            else if (multiVolume && fileToStore.length() >= volumeSize && currentArchiveFilesCount > 0) {
+            else if (multiVolume && size >= volumeSize && currentArchiveFilesCount > 0) {
                 LOGGER.info("Total size of files for this archive exceeded single volume size " + volumeSize + " B");
                 createNewArchive();
-                addFile(fileToStore);
+                addFile(entry);
                 LOGGER.info("Total size of files for this archive exceeded single volume size " + volumeSize + " B");
                 createNewArchive();
             }
             // fileToStore is smaller then the limit but together with the files that are already in the archive the limit will be exceeded (create new, add)
-            else if (multiVolume && fileToStore.length() < volumeSize && currentArchiveTotalFilesSize + fileToStore.length() >= volumeSize) {
+            else if (multiVolume && size < volumeSize && currentArchiveTotalFilesSize + size >= volumeSize) {
                 LOGGER.info("Total size of files for this archive exceeded single volume size " + volumeSize + " B");
                 createNewArchive();
-                addFile(fileToStore);
+                addFile(entry);
             }
             // Otherwise... (add)
             else {
-                addFile(fileToStore);
+                addFile(entry);
             }
         }
     }
 
     /**
      *
-     * This method creates archive file from current ZipArchiver object and then creates new instance of ZipArchiver
+     * This method finishes the current archive file and then starts a new one
+     *
+     * @throws PeriodicBackupException if the archive cannot be written or the backup has been cancelled
      */
-    private void createNewArchive() {
-        try {
-            archiver.createArchive();
-        } catch (IOException e) {
-            LOGGER.warning("Could not create archive " + archiver.getDestFile() + " " + e.getMessage());
-        } catch (ArchiverException e) {
-            LOGGER.warning("Could not create archive " + archiver.getDestFile() + " " + e.getMessage());
-        }
-        archives.add(archiver.getDestFile());
+    private void createNewArchive() throws PeriodicBackupException {
+        BackupProgress.checkCancelled();
+        closeArchive();
         archivesNumber++;
         currentArchiveFilesCount = 0;
         currentArchiveTotalFilesSize = 0;
         LOGGER.info("Creating new archive");
-        archiver = new ZipArchiver();
-        String currentArchiveFilePath = archiveFilePathBase + "_" + archivesNumber;
-        currentArchiveFilePath = Util.createFileName(currentArchiveFilePath, getDescriptor().getArchiveFileExtension());
-        archiver.setDestFile(new File(tempDirectory, currentArchiveFilePath));
+        openArchive();
     }
 
     /**
      *
-     * Adds a file to the archiver
+     * Writes a file to the archive right away, nothing but the central directory record is kept in memory.
+     * Small already compressed files are stored, the size and the CRC of a stored entry precede its data, so the file
+     * is read into memory once and all of them are computed from the same bytes even if the file is being written.
+     * The bigger ones are deflated without compression, the CRC is then computed while they are written.
      *
-     * @param fileToStore file that will be add to the archive
+     * @param entry file that will be add to the archive
+     * @throws PeriodicBackupException if the file cannot be written, the archive would be corrupted
      */
-    private void addFile(File fileToStore) {
+    private void addFile(FileEntry entry) throws PeriodicBackupException {
+        ZipEntry zipEntry = new ZipEntry(entry.getPath());
+        zipEntry.setTime(entry.getLastModified());
+        if(entry.getMode() != FileEntry.UNKNOWN_MODE) {
+            zipEntry.setUnixMode(entry.getMode() & 07777);
+        }
         try {
-            archiver.addFile(fileToStore, Util.getRelativePath(fileToStore, Hudson.getInstance().getRootDir()));
+            boolean incompressible = IncompressibleContent.isIncompressible(entry, copyBuffer);
+            if(incompressible && entry.getSize() <= MAX_STORED_FILE_SIZE) {
+                byte[] data = Files.toByteArray(entry.getFile());
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(data.length);
+                zipEntry.setCrc(crc.getValue());
+                zipOut.putNextEntry(zipEntry);
+                zipOut.write(data);
+            }
+            else {
+                zipOut.setLevel(incompressible ? Deflater.NO_COMPRESSION : deflaterLevel(compressionLevel));
+                zipOut.putNextEntry(zipEntry);
+                Util.copyFile(entry.getFile(), zipOut, copyBuffer);
+            }
+            zipOut.closeEntry();
             currentArchiveFilesCount++;
-            currentArchiveTotalFilesSize += fileToStore.length();
-        } catch (ArchiverException e) {
-            LOGGER.warning("Could not add file to the archive. " + e.getMessage());
+            currentArchiveTotalFilesSize += entry.getSize();
+        } catch (IOException e) {
+            throw new PeriodicBackupException("Could not add " + entry.getFile().getAbsolutePath() + " to the archive " + currentArchive.getAbsolutePath() + " " + e.getMessage());
+        }
+    }
+
+    @Override
+    public File backupCloseVolume() throws PeriodicBackupException {
+        if(currentArchiveFilesCount == 0) {
+            return null;
         }
+        File closedArchive = currentArchive;
+        createNewArchive();
+        return closedArchive;
     }
 
     @Override
     public Iterable<File> backupStop() throws PeriodicBackupException {
-        if(!archiver.getFiles().isEmpty()) {
+        closeArchive();
+        return archives;
+    }
+
+    @Override
+    public void backupAbort() {
+        if(zipOut != null) {
             try {
-                archiver.createArchive();
-            } catch (Exception e) {
-                throw new PeriodicBackupException("Could not create archive " + archiver.getDestFile().getAbsolutePath() + " " + e.getMessage());
+                zipOut.close();
+            } catch (IOException e) {
+                LOGGER.warning("Could not close archive " + currentArchive.getAbsolutePath() + " " + e.getMessage());
+            }
+            zipOut = null;
+            if(currentArchive.exists() && !currentArchive.delete()) {
+                LOGGER.warning("Could not delete " + currentArchive.getAbsolutePath());
             }
-            archives.add(archiver.getDestFile());
         }
-        return archives;
     }
 
     @Override
     public void unarchiveFiles(Iterable<File> archives, File tempDir) {
+        // Extracting each archive to the temporary directory
+        for(File archive : archives) {
+            unarchiveFile(archive, tempDir);
+        }
+    }
+
+    @Override
+    public void unarchiveFile(File archive, File tempDir) {
+        // Every archive gets its own unarchiver, so the archives can be extracted by separate threads
         ZipUnArchiver unarchiver = new ZipUnArchiver();
         unarchiver.setDestDirectory(tempDir);
         unarchiver.enableLogging(new ConsoleLogger(org.codehaus.plexus.logging.Logger.LEVEL_INFO, "UnArchiver"));
+        unarchiver.setSourceFile(archive);
+        LOGGER.info("Extracting files from " + archive.getAbsolutePath() + " to " + tempDir.getAbsolutePath());
+        try {
+            unarchiver.extract();
+        } catch (ArchiverException e) {
+            LOGGER.warning("Could not extract from " + archive.getAbsolutePath() + e.getMessage());
+        }
 
-        // Extracting each archive to the temporary directory
+        // Deleting the archive file
+        LOGGER.info("Deleting " + archive.getAbsolutePath());
+        if(!archive.delete()) {
+            LOGGER.warning("Could not delete " + archive.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public boolean isConcurrentExtractionSupported() {
+        // Every file is stored in exactly one volume
+        return true;
+    }
+
+    @Override
+    public boolean writeArchiveIndex(Iterable<File> archives, ArchiveIndex.Writer index) throws IOException {
         for(File archive : archives) {
-            unarchiver.setSourceFile(archive);
-            LOGGER.info("Extracting files from " + archive.getAbsolutePath() + " to " + tempDir.getAbsolutePath());
-            try {
-                unarchiver.extract();
-            } catch (ArchiverException e) {
-                LOGGER.warning("Could not extract from " + archive.getAbsolutePath() + e.getMessage());
+            indexArchive(archive, index);
+        }
+        return true;
+    }
+
+    /**
+     *
+     * Writes the position of the compressed data of every file in the given zip archive to the index.
+     * The entries are read from the central directory at the end of the archive, so only the directory
+     * and the local file headers are read, not the compressed data.
+     *
+     * @param archive zip archive
+     * @param index Writer of the archive index
+     * @throws IOException if the archive cannot be read or it is not a valid zip archive
+     */
+    static void indexArchive(File archive, ArchiveIndex.Writer index) throws IOException {
+        RandomAccessFile zip = new RandomAccessFile(archive, "r");
+        try {
+            long endOfCentralDirectory = findEndOfCentralDirectory(zip);
+            byte[] end = new byte[END_OF_CENTRAL_DIRECTORY_SIZE];
+            zip.seek(endOfCentralDirectory);
+            zip.readFully(end);
+            int entriesCount = readShort(end, 10);
+            long centralDirectorySize = readInt(end, 12);
+            long centralDirectoryOffset = readInt(end, 16);
+            if(entriesCount == 0xFFFF || centralDirectoryOffset == 0xFFFFFFFFL) {
+                throw new IOException("Zip64 archive " + archive.getAbsolutePath() + " is not supported");
+            }
+
+            byte[] centralDirectory = new byte[(int) centralDirectorySize];
+            zip.seek(centralDirectoryOffset);
+            zip.readFully(centralDirectory);
+            byte[] localHeader = new byte[LOCAL_HEADER_SIZE];
+            int position = 0;
+            for(int i = 0; i < entriesCount; i++) {
+                if(readInt(centralDirectory, position) != CENTRAL_HEADER_SIGNATURE) {
+                    throw new IOException("Corrupted central directory in " + archive.getAbsolutePath());
+                }
+                int flags = readShort(centralDirectory, position + 8);
+                int method = readShort(centralDirectory, position + 10);
+                long compressedSize = readInt(centralDirectory, position + 20);
+                long size = readInt(centralDirectory, position + 24);
+                int nameLength = readShort(centralDirectory, position + 28);
+                int extraLength = readShort(centralDirectory, position + 30);
+                int commentLength = readShort(centralDirectory, position + 32);
+                long localHeaderOffset = readInt(centralDirectory, position + 42);
+                // Bit 11 of the flags tells the name is encoded in UTF-8
+                String name = (flags & 0x800) != 0
+                        ? new String(centralDirectory, position + 46, nameLength, "UTF-8")
+                        : new String(centralDirectory, position + 46, nameLength);
+                position += 46 + nameLength + extraLength + commentLength;
+                if(name.endsWith("/")) {
+                    continue;
+                }
+
+                // The extra field of the local header may differ from the one in the central directory
+                zip.seek(localHeaderOffset);
+                zip.readFully(localHeader);
+                long dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + readShort(localHeader, 26) + readShort(localHeader, 28);
+                String encoding = method == 8 ? ENCODING_DEFLATED : method == 0 ? ENCODING_STORED : "method" + method;
+                index.add(new ArchiveIndex.Entry(name, archive.getName(), dataOffset, compressedSize, size, encoding));
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static long findEndOfCentralDirectory(RandomAccessFile zip) throws IOException {
+        // The end of central directory record is followed only by the archive comment (up to 64kB)
+        long searchStart = Math.max(0, zip.length() - END_OF_CENTRAL_DIRECTORY_SIZE - 0xFFFF);
+        byte[] tail = new byte[(int) (zip.length() - searchStart)];
+        zip.seek(searchStart);
+        zip.readFully(tail);
+        for(int i = tail.length - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if(readInt(tail, i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return searchStart + i;
             }
+        }
+        throw new IOException("Not a zip archive");
+    }
+
+    private static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8;
+    }
+
+    private static long readInt(byte[] b, int offset) {
+        return (readShort(b, offset) | (long) readShort(b, offset + 2) << 16) & 0xFFFFFFFFL;
+    }
 
-            // Deleting the archive file
-            LOGGER.info("Deleting " + archive.getAbsolutePath());
-            if(!archive.delete()) {
-                LOGGER.warning("Could not delete " + archive.getAbsolutePath());
+    @Override
+    public void extractEntries(Location location, BackupObject backup, List<ArchiveIndex.Entry> entries, File finalResultDir) throws IOException, PeriodicBackupException {
+        for(ArchiveIndex.Entry entry : entries) {
+            LOGGER.info("Extracting " + entry.getPath() + " from " + entry.getArchive());
+            if(!ENCODING_DEFLATED.equals(entry.getEncoding()) && !ENCODING_STORED.equals(entry.getEncoding())) {
+                throw new PeriodicBackupException("Unsupported compression of " + entry.getPath() + " in " + entry.getArchive());
+            }
+            InputStream data = location.openArchiveRange(backup, entry.getArchive(), entry.getOffset(), entry.getLength());
+            Inflater inflater = new Inflater(true);
+            try {
+                if(ENCODING_DEFLATED.equals(entry.getEncoding())) {
+                    // Raw deflate data needs an extra dummy byte at the end for the Inflater
+                    data = new InflaterInputStream(new SequenceInputStream(data, new ByteArrayInputStream(new byte[1])), inflater);
+                }
+                Util.writeToFile(data, new File(finalResultDir, entry.getPath()));
+            } finally {
+                inflater.end();
             }
         }
     }
@@ -251,12 +490,18 @@ public class ZipStorage extends Storage {
 
         @Override
         public Storage newInstance(StaplerRequest req, JSONObject formData) {
+            int compressionLevel = 0;
+            try {
+                compressionLevel = Integer.parseInt(req.getParameter("compressionLevel"));
+            } catch (NumberFormatException e) {
+                // The default level
+            }
             long size = MAX_SIZE_OF_FILES_PER_ARCHIVE;
             try {
                 size = Long.parseLong(req.getParameter("volumeSize"));
             }
             finally {
-                return new ZipStorage("on".equals(req.getParameter("multiVolume")), size);
+                return new ZipStorage("on".equals(req.getParameter("multiVolume")), size, compressionLevel);
             }
         }
 
@@ -0,0 +1,207 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010 - 2011, Tomasz Blaszczynski, Emanuele Zattin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Logger;
+
+/**
+ *
+ * ZstdDictionary is a Zstandard dictionary trained on the small files of the backup. Small files compressed
+ * one by one hardly get smaller, the dictionary gives every one of them what the others have in common
+ * (the XML of config.xml and build.xml, the tar headers). The dictionary is written at the beginning of every
+ * archive as a skippable frame (4 bytes of magic number, 4 bytes of length, both little endian, then the dictionary)
+ * so the restore finds it there. The frames of the small files cannot be decompressed without the dictionary:
+ * a plain <code>zstd -d</code> skips the dictionary frame and then fails, the dictionary has to be cut out
+ * of the archive and passed with <code>-D</code>, see help-dictionary.html of TarStorage.
+ */
+public class ZstdDictionary {
+
+    public final static int SMALL_FILE_SIZE = 16 * 1024;           // Bigger files are compressed without the dictionary
+    private final static int DICTIONARY_SIZE = 64 * 1024;
+    private final static int SAMPLE_BUDGET = 100 * DICTIONARY_SIZE;  // zstd recommends about 100 times the dictionary size
+    private final static int MIN_SAMPLES = 16;
+    private final static int SKIPPABLE_FRAME_MAGIC = 0x184D2A5D;   // One of the 16 skippable frame magic numbers of zstd
+    public final static int MAX_FRAME_SIZE = 8 + DICTIONARY_SIZE;
+
+    private static final Logger LOGGER = Logger.getLogger(ZstdDictionary.class.getName());
+
+    private final byte[] dictionary;
+    private ZstdDictCompress compressDictionary;
+    private int compressLevel;
+
+    public ZstdDictionary(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     *
+     * Trains a dictionary on the tar records of a sample of the small files, the sample is spread evenly over
+     * the paths so it covers all the kinds of files
+     *
+     * @param files files of the backup
+     * @param buffer buffer to read the files through
+     * @return the dictionary or null if there are too few small files or the training fails
+     */
+    public static ZstdDictionary train(Iterable<FileEntry> files, byte[] buffer) {
+        long smallFilesSize = 0;
+        for(FileEntry entry : files) {
+            if(entry.getSize() <= SMALL_FILE_SIZE) {
+                smallFilesSize += entry.getSize() + 512;
+            }
+        }
+        long stride = Math.max(1, (smallFilesSize + SAMPLE_BUDGET - 1) / SAMPLE_BUDGET);
+        ZstdDictTrainer trainer = new ZstdDictTrainer(SAMPLE_BUDGET, DICTIONARY_SIZE);
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        TarWriter tarWriter = new TarWriter(record);
+        int samples = 0;
+        long index = 0;
+        for(FileEntry entry : files) {
+            if(entry.getSize() > SMALL_FILE_SIZE || index++ % stride != 0) {
+                continue;
+            }
+            record.reset();
+            try {
+                tarWriter.writeHeader(entry);
+                tarWriter.writeData(entry, buffer);
+            } catch (IOException e) {
+                continue;   // The file cannot be read (e.g. deleted since the scan), the backup will tell
+            }
+            if(!trainer.addSample(record.toByteArray())) {
+                break;      // The sample budget is full
+            }
+            samples++;
+        }
+        if(samples < MIN_SAMPLES) {
+            LOGGER.info("Only " + samples + " small file(s), no dictionary is used");
+            return null;
+        }
+        try {
+            byte[] dictionary = trainer.trainSamples();
+            LOGGER.info("Dictionary of " + dictionary.length + " bytes trained on " + samples + " small files");
+            return new ZstdDictionary(dictionary);
+        } catch (RuntimeException e) {
+            LOGGER.warning("Could not train the dictionary, no dictionary is used " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the dictionary
+     */
+    public byte[] getBytes() {
+        return dictionary;
+    }
+
+    /**
+     *
+     * Compresses the data into a zstd frame of its own, it can be decompressed with the dictionary only
+     *
+     * @param data data to compress
+     * @param level Zstandard level
+     * @return the frame
+     */
+    public byte[] compress(byte[] data, int level) {
+        if(compressDictionary == null || compressLevel != level) {
+            // Digesting the dictionary takes longer than compressing a small file, it is done once
+            compressDictionary = new ZstdDictCompress(dictionary, level);
+            compressLevel = level;
+        }
+        return Zstd.compress(data, compressDictionary);
+    }
+
+    /**
+     * @param in zstd frames compressed with this dictionary
+     * @return the decompressed stream
+     * @throws IOException if the stream cannot be read
+     */
+    public InputStream decompress(InputStream in) throws IOException {
+        return new ZstdInputStream(in).setDict(dictionary);
+    }
+
+    /**
+     *
+     * Writes the dictionary as a skippable frame, zstd decompressors skip it and do not use it
+     *
+     * @param out stream of the archive
+     * @throws IOException if the frame cannot be written
+     */
+    public void write(OutputStream out) throws IOException {
+        writeIntLE(out, SKIPPABLE_FRAME_MAGIC);
+        writeIntLE(out, dictionary.length);
+        out.write(dictionary);
+    }
+
+    /**
+     *
+     * Reads the dictionary frame from the beginning of the archive
+     *
+     * @param in stream of the archive, it has to support mark
+     * @return the dictionary or null if the archive does not start with it, the stream is then left as it was
+     * @throws IOException if the stream cannot be read
+     */
+    public static ZstdDictionary read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        in.mark(8);
+        byte[] header = new byte[8];
+        int read = 0;
+        int count;
+        while(read < header.length && (count = in.read(header, read, header.length - read)) > 0) {
+            read += count;
+        }
+        if(read < header.length || readIntLE(header, 0) != SKIPPABLE_FRAME_MAGIC) {
+            in.reset();
+            return null;
+        }
+        int length = readIntLE(header, 4);
+        if(length < 0 || length > DICTIONARY_SIZE) {
+            throw new IOException("Corrupted dictionary frame of " + length + " bytes");
+        }
+        byte[] dictionary = new byte[length];
+        data.readFully(dictionary);
+        return new ZstdDictionary(dictionary);
+    }
+
+    private static void writeIntLE(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static int readIntLE(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) | (buffer[offset + 1] & 0xff) << 8
+                | (buffer[offset + 2] & 0xff) << 16 | (buffer[offset + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,43 @@
+Event.observe(window, 'load', function(event) {
+    if($('progress') != undefined) {
+        updateProgress();
+    }
+});
+
+function updateProgress() {
+    new Ajax.Request('progress', {
+        method: 'get',
+        onSuccess: function(rsp) {
+            var progress = eval('(' + rsp.responseText + ')');
+            if(!progress.running) {
+                // The backup or restore has finished, the page shows the new state
+                window.location.reload();
+                return;
+            }
+            var text = progress.operation + ': ' + progress.phase;
+            if(progress.target != '') {
+                text += ' (' + progress.target + ')';
+            }
+            text += ' - ' + progress.filesDone;
+            if(progress.filesTotal > 0) {
+                text += ' / ' + progress.filesTotal;
+            }
+            text += ' files, ' + formatMegabytes(progress.bytesDone);
+            if(progress.bytesTotal > 0) {
+                text += ' / ' + formatMegabytes(progress.bytesTotal) + ' (' + Math.floor(100 * progress.bytesDone / progress.bytesTotal) + '%)';
+            }
+            if(progress.etaMillis >= 0) {
+                text += ', ' + Math.ceil(progress.etaMillis / 1000) + ' s left';
+            }
+            if(progress.cancelRequested) {
+                text += ' - cancelling...';
+            }
+            $('progress').innerHTML = text.escapeHTML();
+            window.setTimeout(updateProgress, 2000);
+        }
+    });
+}
+
+function formatMegabytes(bytes) {
+    return (bytes / (1024 * 1024)).toFixed(1) + ' MB';
+}
@@ -0,0 +1,97 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ArchiveIndexTest extends TestCase {
+
+    private File tempDirectory;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        tempDirectory = Files.createTempDir();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDirectory);
+        super.tearDown();
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File indexFile = new File(tempDirectory, "backup.pbidx");
+        ArchiveIndex.Writer writer = new ArchiveIndex.Writer(indexFile);
+        writer.add(new ArchiveIndex.Entry("config.xml", "backup_1.zip", 30, 100, 200, "deflated"));
+        writer.add(new ArchiveIndex.Entry("jobs/job\twith tab/config.xml", "backup_2.zip", 0, 5, 5, "stored"));
+        writer.add(new ArchiveIndex.Entry("jobs/other/config.xml", "backup_2.zip", 60, 10, 20, "deflated"));
+        writer.close();
+        assertEquals(3, writer.getEntriesCount());
+
+        List<ArchiveIndex.Entry> all = ArchiveIndex.read(new FileInputStream(indexFile), Predicates.<String>alwaysTrue());
+        assertEquals(3, all.size());
+        assertEquals("jobs/job\twith tab/config.xml", all.get(1).getPath());
+        assertEquals("backup_2.zip", all.get(1).getArchive());
+        assertEquals(30, all.get(0).getOffset());
+        assertEquals(100, all.get(0).getLength());
+        assertEquals(200, all.get(0).getSize());
+        assertEquals("deflated", all.get(0).getEncoding());
+
+        List<ArchiveIndex.Entry> job = ArchiveIndex.read(new FileInputStream(indexFile),
+                ArchiveIndex.pathsFilter(Lists.newArrayList("jobs/other/", "config.xml")));
+        assertEquals(2, job.size());
+        assertEquals("config.xml", job.get(0).getPath());
+        assertEquals("jobs/other/config.xml", job.get(1).getPath());
+    }
+
+    @Test
+    public void testZipArchiveIndexAndExtraction() throws Exception {
+        byte[] deflated = "<project>deflated deflated deflated deflated</project>".getBytes("UTF-8");
+        byte[] stored = "stored".getBytes("UTF-8");
+        File archive = new File(tempDirectory, "backup_1.zip");
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive));
+        zip.putNextEntry(new ZipEntry("jobs/"));
+        zip.closeEntry();
+        zip.putNextEntry(new ZipEntry("jobs/a/config.xml"));
+        zip.write(deflated);
+        zip.closeEntry();
+        ZipEntry storedEntry = new ZipEntry("jobs/b/config.xml");
+        storedEntry.setMethod(ZipEntry.STORED);
+        storedEntry.setSize(stored.length);
+        CRC32 crc = new CRC32();
+        crc.update(stored);
+        storedEntry.setCrc(crc.getValue());
+        zip.putNextEntry(storedEntry);
+        zip.write(stored);
+        zip.closeEntry();
+        zip.close();
+
+        File indexFile = new File(tempDirectory, "backup.pbidx");
+        ArchiveIndex.Writer writer = new ArchiveIndex.Writer(indexFile);
+        ZipStorage.indexArchive(archive, writer);
+        writer.close();
+        List<ArchiveIndex.Entry> entries = ArchiveIndex.read(new FileInputStream(indexFile), Predicates.<String>alwaysTrue());
+        assertEquals(2, entries.size());
+        assertEquals(deflated.length, entries.get(0).getSize());
+        assertEquals("stored", entries.get(1).getEncoding());
+
+        File result = new File(tempDirectory, "result");
+        new ZipStorage(false, 0).extractEntries(new LocalDirectory(tempDirectory, true), null, entries, result);
+        assertTrue(Arrays.equals(deflated, FileUtils.readFileToByteArray(new File(result, "jobs/a/config.xml"))));
+        assertTrue(Arrays.equals(stored, FileUtils.readFileToByteArray(new File(result, "jobs/b/config.xml"))));
+    }
+}
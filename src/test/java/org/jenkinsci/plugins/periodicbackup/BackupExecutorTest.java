@@ -0,0 +1,72 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import hudson.model.Saveable;
+import hudson.util.DescribableList;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+public class BackupExecutorTest extends HudsonTestCase {
+
+    private File baseDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        baseDir = new File(new File(System.getProperty("java.io.tmpdir")), "BackupExecutorTest");
+        FileUtils.deleteDirectory(baseDir);
+        assertTrue(new File(baseDir, "temp").mkdirs());
+        assertTrue(new File(baseDir, "location1").mkdirs());
+        assertTrue(new File(baseDir, "location2").mkdirs());
+        hudson.save();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(baseDir);
+        super.tearDown();
+    }
+
+    @Test
+    public void testFailedLocationKeepsPreviousLocations() throws Exception {
+        File location1 = new File(baseDir, "location1");
+        File location2 = new File(baseDir, "location2");
+        DescribableList<Storage, StorageDescriptor> storages = new DescribableList<Storage, StorageDescriptor>(Saveable.NOOP);
+        storages.add(new ZipStorage(false, 0));
+        DescribableList<Location, LocationDescriptor> locations = new DescribableList<Location, LocationDescriptor>(Saveable.NOOP);
+        locations.add(new LocalDirectory(location1, true));
+        locations.add(new FailingDirectory(location2));
+
+        try {
+            new BackupExecutor().backup(new ConfigOnly(), storages, locations, new File(baseDir, "temp").getAbsolutePath(), 10, 10);
+            fail("The second location has failed");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // The first location keeps the whole backup, the partial backup of the second one is deleted
+        assertEquals(1, location1.listFiles(Util.extensionFileFilter(BackupObject.EXTENSION)).length);
+        assertEquals(1, location1.listFiles(Util.extensionFileFilter("zip")).length);
+        assertEquals(0, location2.listFiles().length);
+        assertEquals(0, new File(baseDir, "temp").listFiles().length);
+    }
+
+    /**
+     * Stores the backup and fails afterwards, like an upload which breaks before the end
+     */
+    private static class FailingDirectory extends LocalDirectory {
+
+        public FailingDirectory(File path) {
+            super(path, true);
+        }
+
+        @Override
+        public void storeBackupInLocation(Iterable<File> archives, File backupObjectFile) throws IOException {
+            super.storeBackupInLocation(archives, backupObjectFile);
+            throw new IOException("The upload has failed");
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+public class BackupHistoryFileTest extends TestCase {
+
+    @Test
+    public void testAppendAndRead() throws Exception {
+        File file = File.createTempFile("periodicBackup-history", ".txt");
+        assertTrue(file.delete());
+        try {
+            BackupHistoryFile history = new BackupHistoryFile(file);
+            assertTrue(history.read(10).isEmpty());
+
+            for(int i = 0; i < 4; i++) {
+                BackupStats stats = new BackupStats();
+                stats.startPhase(BackupStats.SCAN, "FullBackup").finish(10 + i, 1000);
+                stats.startPhase(BackupStats.ARCHIVE, "ZipStorage").finish(10 + i, 1000);
+                stats.addArchiveBytes(250);
+                stats.finish(i != 1);
+                history.append(stats);
+            }
+            // A damaged line is skipped
+            Files.append("not a record\n", file, Charsets.UTF_8);
+
+            List<BackupHistoryFile.Record> records = history.read(3);
+            assertEquals(3, records.size());
+            assertEquals(11, records.get(0).getInputFiles());
+            assertFalse(records.get(0).isSuccessful());
+            assertEquals(13, records.get(2).getInputFiles());
+            assertTrue(records.get(2).isSuccessful());
+            assertEquals(1000, records.get(2).getInputBytes());
+            assertEquals(250, records.get(2).getArchiveBytes());
+            assertEquals(0.25, records.get(2).getCompressionRatio(), 0.0001);
+            assertTrue(records.get(2).getPeakHeap() > 0);
+            assertEquals(4, history.read(10).size());
+        } finally {
+            file.delete();
+        }
+    }
+}
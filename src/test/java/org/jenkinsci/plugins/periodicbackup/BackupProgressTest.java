@@ -0,0 +1,74 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class BackupProgressTest extends TestCase {
+
+    @Test
+    public void testCounters() throws Exception {
+        BackupProgress progress = new BackupProgress();
+        assertFalse(progress.isRunning());
+        progress.start(BackupProgress.BACKUP);
+        try {
+            progress.startPhase(BackupStats.ARCHIVE, "Zip", 4, 1000);
+            assertEquals(-1, progress.getEta());
+            progress.add(1, 250);
+            progress.add(1, 250);
+            assertEquals(2, progress.getFilesDone());
+            assertEquals(500, progress.getBytesDone());
+            assertTrue(progress.getEta() >= 0);
+            assertEquals("archive", progress.toJSON().getString("phase"));
+
+            // A new phase starts from zero
+            progress.startPhase(BackupStats.STORE, "LocalDirectory", 1, 0);
+            assertEquals(0, progress.getFilesDone());
+        } finally {
+            progress.finish();
+        }
+        assertFalse(progress.isRunning());
+        assertFalse(progress.toJSON().getBoolean("running"));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final BackupProgress progress = new BackupProgress();
+        // Nothing to cancel
+        progress.cancel();
+        assertFalse(progress.isCancelRequested());
+
+        progress.start(BackupProgress.RESTORE);
+        try {
+            BackupProgress.checkCancelled();
+            progress.cancel();
+            assertTrue(BackupProgress.isCancelled());
+            try {
+                BackupProgress.checkCancelled();
+                fail("The restore has been cancelled");
+            } catch (BackupCancelledException e) {
+                // expected
+            }
+            // The threads started by the worker thread see the cancel too
+            final AtomicBoolean cancelledInChildThread = new AtomicBoolean();
+            Thread child = new Thread(new Runnable() {
+                public void run() {
+                    cancelledInChildThread.set(BackupProgress.isCancelled());
+                }
+            });
+            child.start();
+            child.join();
+            assertTrue(cancelledInChildThread.get());
+        } finally {
+            progress.finish();
+        }
+        // Other threads and finished runs are not affected
+        assertFalse(BackupProgress.isCancelled());
+        BackupProgress.checkCancelled();
+
+        progress.start(BackupProgress.BACKUP);
+        assertFalse(progress.isCancelRequested());
+        progress.finish();
+    }
+}
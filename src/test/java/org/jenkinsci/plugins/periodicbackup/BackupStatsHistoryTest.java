@@ -0,0 +1,49 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.List;
+
+public class BackupStatsHistoryTest extends TestCase {
+
+    @Test
+    public void testRingBuffer() throws Exception {
+        BackupStatsHistory history = new BackupStatsHistory(3);
+        assertNull(history.getLastRun());
+        assertEquals(-1, history.getLastBackupDuration());
+
+        BackupStats[] runs = new BackupStats[5];
+        for(int i = 0; i < runs.length; i++) {
+            runs[i] = new BackupStats();
+            runs[i].finish(i % 2 == 0);
+            history.add(runs[i]);
+        }
+        List<BackupStats> kept = history.getRuns();
+        assertEquals(3, kept.size());
+        assertEquals(3, history.getRunsCount());
+        assertSame(runs[2], kept.get(0));
+        assertSame(runs[3], kept.get(1));
+        assertSame(runs[4], kept.get(2));
+        assertSame(runs[4], history.getLastRun());
+        assertTrue(history.isLastBackupSuccessful());
+    }
+
+    @Test
+    public void testPhases() throws Exception {
+        BackupStats stats = new BackupStats();
+        stats.startPhase(BackupStats.SCAN, "FullBackup").finish(10, 1000);
+        stats.startPhase(BackupStats.STORE, "LocalDirectory: /backup").finish(2, 500);
+        stats.startPhase(BackupStats.STORE, "S3").finish(2, 500);
+        stats.finish(true);
+
+        BackupStatsHistory history = new BackupStatsHistory(2);
+        history.add(stats);
+        String[] phases = history.getLastBackupPhases();
+        assertEquals(3, phases.length);
+        assertTrue(phases[0].startsWith("scan FullBackup: "));
+        assertTrue(phases[0].contains("10 files, 1000 bytes"));
+        assertTrue(stats.getPhaseDuration(BackupStats.STORE) >= 0);
+        assertTrue(stats.getDuration() >= 0);
+    }
+}
@@ -0,0 +1,84 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+public class BlockGzipStreamTest extends TestCase {
+
+    private byte[] data;
+    private byte[] compressed;
+    private BlockGzipOutputStream blockOut;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        // Text compresses well, random bytes do not, so both kinds of blocks are created
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for(int i = 0; i < 20000; i++) {
+            content.write(("<line number=\"" + i + "\"/>\n").getBytes("UTF-8"));
+        }
+        byte[] random = new byte[200000];
+        new Random(42).nextBytes(random);
+        content.write(random);
+        data = content.toByteArray();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        blockOut = new BlockGzipOutputStream(out);
+        blockOut.write(data, 0, 1000);
+        blockOut.write(data[1000]);
+        blockOut.write(data, 1001, data.length - 1001);
+        blockOut.close();
+        compressed = out.toByteArray();
+    }
+
+    @Test
+    public void testIncompressibleBlocksStored() throws Exception {
+        // The random blocks are stored without deflating them, the text blocks are compressed
+        int blocks = blockOut.getBlock(data.length - 1) + 1;
+        assertTrue(blockOut.getStoredBlocksCount() >= 2);
+        assertTrue(blockOut.getStoredBlocksCount() < blocks);
+    }
+
+    @Test
+    public void testReadableAsGzip() throws Exception {
+        assertTrue(Arrays.equals(data, IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed)))));
+    }
+
+    @Test
+    public void testConcurrentDecompression() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            InputStream in = new BlockGzipInputStream(new ByteArrayInputStream(compressed), executor, 8);
+            assertTrue(Arrays.equals(data, IOUtils.toByteArray(in)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadFromBlock() throws Exception {
+        long position = 300000;
+        int length = 100000;
+        int firstBlock = blockOut.getBlock(position);
+        int lastBlock = blockOut.getBlock(position + length - 1);
+        int start = (int) blockOut.getBlockCompressedOffset(firstBlock);
+        int end = (int) blockOut.getBlockCompressedOffset(lastBlock + 1);
+
+        InputStream in = new BlockGzipInputStream(new ByteArrayInputStream(compressed, start, end - start));
+        assertEquals(position - blockOut.getBlockUncompressedOffset(firstBlock), in.skip(position - blockOut.getBlockUncompressedOffset(firstBlock)));
+        byte[] read = new byte[length];
+        new DataInputStream(in).readFully(read);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, (int) position, (int) position + length), read));
+    }
+}
@@ -0,0 +1,94 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Lists;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class CompactPathStoreTest extends TestCase {
+
+    private final File root = new File("/var/jenkins");
+
+    private FileEntry entry(String path, long size) {
+        return new FileEntry(new File(root, path), path, size, 1000, 0100644, false);
+    }
+
+    @Test
+    public void testOrderAndDuplicates() throws Exception {
+        CompactPathStore store = new CompactPathStore(root);
+        store.add(entry("jobs/b/config.xml", 1));
+        store.add(entry("config.xml", 2));
+        store.add(entry("jobs/a/config.xml", 3));
+        store.add(entry("jobs/b/config.xml", 4));
+        store.add(entry("jobs/été/config.xml", 5));
+        assertEquals(4, store.size());
+        assertEquals(11, store.getTotalSize());
+
+        List<String> paths = Lists.newArrayList();
+        List<Long> sizes = Lists.newArrayList();
+        for(FileEntry entry : store) {
+            paths.add(entry.getPath());
+            sizes.add(entry.getSize());
+            assertEquals(new File(root, entry.getPath()), entry.getFile());
+            assertEquals(0100644, entry.getMode());
+        }
+        assertEquals(Lists.newArrayList("config.xml", "jobs/a/config.xml", "jobs/b/config.xml", "jobs/été/config.xml"), paths);
+        // The first added duplicate is kept
+        assertEquals(Lists.newArrayList(2L, 3L, 1L, 5L), sizes);
+    }
+
+    @Test
+    public void testContains() throws Exception {
+        CompactPathStore store = new CompactPathStore(root);
+        List<String> expected = Lists.newArrayList();
+        Random random = new Random(42);
+        for(int job = 0; job < 50; job++) {
+            String name = "job" + random.nextInt(20);
+            for(int build = 0; build < 20; build++) {
+                String path = "jobs/" + name + "/builds/" + build + "/log";
+                store.add(entry(path, build));
+                if(!expected.contains(path)) {
+                    expected.add(path);
+                }
+            }
+        }
+        Collections.sort(expected);
+        assertEquals(expected.size(), store.size());
+        for(String path : expected) {
+            assertTrue(path, store.contains(path));
+            assertFalse(path, store.contains(path + "x"));
+        }
+        assertFalse(store.contains(""));
+        assertFalse(store.contains("a"));
+        assertFalse(store.contains("zzz"));
+        List<String> paths = Lists.newArrayList();
+        for(FileEntry entry : store) {
+            paths.add(entry.getPath());
+        }
+        assertEquals(expected, paths);
+        // The paths share their prefixes
+        long rawBytes = 0;
+        for(String path : expected) {
+            rawBytes += path.length();
+        }
+        assertTrue(store.getPathBytes() + " of " + rawBytes, store.getPathBytes() < rawBytes / 2);
+    }
+
+    @Test
+    public void testSealed() throws Exception {
+        CompactPathStore store = new CompactPathStore(root);
+        assertEquals(0, store.size());
+        assertFalse(store.iterator().hasNext());
+        assertFalse(store.contains("config.xml"));
+        try {
+            store.add(entry("config.xml", 1));
+            fail("Files cannot be added to a sealed store");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
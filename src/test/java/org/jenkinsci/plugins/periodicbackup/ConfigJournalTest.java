@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+public class ConfigJournalTest extends TestCase {
+
+    private File rootDirectory;
+    private File journalDirectory;
+    private File targetDirectory;
+    private ConfigJournal journal;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        rootDirectory = Files.createTempDir();
+        journalDirectory = Files.createTempDir();
+        targetDirectory = Files.createTempDir();
+        journal = new ConfigJournal(rootDirectory, journalDirectory);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(rootDirectory);
+        FileUtils.deleteDirectory(journalDirectory);
+        FileUtils.deleteDirectory(targetDirectory);
+        super.tearDown();
+    }
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        write(targetDirectory, "jobs/old/config.xml", "old");
+        write(targetDirectory, "jobs/gone/config.xml", "gone");
+
+        journal.recordSave(write(rootDirectory, "config.xml", "global"));
+        journal.recordSave(write(rootDirectory, "jobs/job/config.xml", "first"));
+        journal.recordSave(write(rootDirectory, "jobs/job/builds/1/build.xml", "build"));
+        journal.recordRename(new File(rootDirectory, "jobs/old"), new File(rootDirectory, "jobs/new"));
+        List<File> segments = journal.roll();
+        assertEquals(1, segments.size());
+        assertTrue(ConfigJournal.isSegment(segments.get(0).getName()));
+
+        journal.recordSave(write(rootDirectory, "jobs/job/config.xml", "second"));
+        journal.recordDelete(new File(rootDirectory, "jobs/gone"));
+        segments = journal.roll();
+        assertEquals(2, segments.size());
+        // The builds are not part of the configuration
+        assertEquals(3, ConfigJournal.read(segments.get(0)).size());
+
+        assertEquals(5, ConfigJournal.replay(segments, targetDirectory, 0, Long.MAX_VALUE));
+        assertEquals("global", read(targetDirectory, "config.xml"));
+        assertEquals("second", read(targetDirectory, "jobs/job/config.xml"));
+        assertEquals("old", read(targetDirectory, "jobs/new/config.xml"));
+        assertFalse(new File(targetDirectory, "jobs/old").exists());
+        assertFalse(new File(targetDirectory, "jobs/gone").exists());
+        assertFalse(new File(targetDirectory, "jobs/job/builds").exists());
+    }
+
+    @Test
+    public void testReplayUntil() throws Exception {
+        journal.recordSave(write(rootDirectory, "jobs/job/config.xml", "first"));
+        journal.recordSave(write(rootDirectory, "jobs/job/config.xml", "second"));
+        List<File> segments = journal.roll();
+        List<ConfigJournal.Entry> entries = ConfigJournal.read(segments.get(0));
+        assertTrue(entries.get(0).getTimestamp() < entries.get(1).getTimestamp());
+
+        assertEquals(1, ConfigJournal.replay(segments, targetDirectory, 0, entries.get(0).getTimestamp()));
+        assertEquals("first", read(targetDirectory, "jobs/job/config.xml"));
+        assertEquals(1, ConfigJournal.replay(segments, targetDirectory, entries.get(0).getTimestamp(), Long.MAX_VALUE));
+        assertEquals("second", read(targetDirectory, "jobs/job/config.xml"));
+    }
+
+    @Test
+    public void testIncompleteEntryIsIgnored() throws Exception {
+        journal.recordSave(write(rootDirectory, "config.xml", "global"));
+        File segment = journal.roll().get(0);
+        FileOutputStream out = new FileOutputStream(segment, true);
+        try {
+            out.write(new byte[] {0, 0, 1});
+        } finally {
+            out.close();
+        }
+        assertEquals(1, ConfigJournal.read(segment).size());
+    }
+
+    @Test
+    public void testRollAfterRestart() throws Exception {
+        journal.recordSave(write(rootDirectory, "config.xml", "global"));
+        List<File> segments = new ConfigJournal(rootDirectory, journalDirectory).roll();
+        assertEquals(1, segments.size());
+        assertEquals(1, ConfigJournal.read(segments.get(0)).size());
+        assertEquals(1, new ConfigJournal(rootDirectory, journalDirectory).roll().size());
+    }
+
+    @Test
+    public void testPathOutsideTargetIsRejected() throws Exception {
+        File outside = write(rootDirectory, "outside.xml", "outside");
+        String escape = "../" + rootDirectory.getName() + "/outside.xml";
+        List<ConfigJournal.Entry> entries = Lists.newArrayList(
+                new ConfigJournal.Entry(1, ConfigJournal.DELETE, escape, null, null),
+                new ConfigJournal.Entry(1, ConfigJournal.RENAME, "jobs/job", escape, null),
+                new ConfigJournal.Entry(1, ConfigJournal.DELETE, "jobs/../..", null, null),
+                new ConfigJournal.Entry(1, ConfigJournal.DELETE, "", null, null));
+        write(targetDirectory, "jobs/job/config.xml", "job");
+        for(ConfigJournal.Entry entry : entries) {
+            try {
+                entry.apply(targetDirectory);
+                fail(entry.getPath() + " " + entry.getNewPath() + " is outside of the target");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        assertEquals("outside", read(rootDirectory, "outside.xml"));
+        assertTrue(outside.exists());
+        assertEquals("job", read(targetDirectory, "jobs/job/config.xml"));
+    }
+
+    private File write(File directory, String path, String content) throws Exception {
+        File file = new File(directory, path);
+        Files.createParentDirs(file);
+        Files.write(content, file, Charsets.UTF_8);
+        return file;
+    }
+
+    private String read(File directory, String path) throws Exception {
+        return Files.toString(new File(directory, path), Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,53 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+public class ConfigTreeTest extends TestCase {
+
+    private File rootDirectory;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        rootDirectory = Files.createTempDir();
+        for(String path : new String[] {"config.xml", "secret.key", "queue.xml", "fingerprints/aa/bb.xml",
+                "users/admin/config.xml", "nodes/slave/config.xml", "secrets/master.key",
+                "jobs/job/config.xml", "jobs/job/nextBuildNumber", "jobs/job/builds/1/build.xml",
+                "jobs/job/workspace/pom.xml", "jobs/job/workspace@2/pom.xml",
+                "jobs/folder/config.xml", "jobs/folder/jobs/nested/config.xml", "jobs/folder/jobs/nested/builds/1/build.xml",
+                "jobs/matrix/config.xml", "jobs/matrix/configurations/axis-jdk/6/config.xml",
+                "jobs/matrix/configurations/axis-jdk/6/builds/1/build.xml"}) {
+            File file = new File(rootDirectory, path);
+            Files.createParentDirs(file);
+            Files.touch(file);
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(rootDirectory);
+        super.tearDown();
+    }
+
+    @Test
+    public void testGetFilesToBackup() throws Exception {
+        List<String> expected = Lists.newArrayList("config.xml", "jobs/folder/config.xml", "jobs/folder/jobs/nested/config.xml",
+                "jobs/job/config.xml", "jobs/job/nextBuildNumber", "jobs/matrix/config.xml",
+                "jobs/matrix/configurations/axis-jdk/6/config.xml", "nodes/slave/config.xml", "queue.xml",
+                "secret.key", "secrets/master.key", "users/admin/config.xml");
+        for(int threads : new int[] {1, 4}) {
+            List<String> paths = Lists.newArrayList();
+            for(File file : new ConfigTree().getFilesToBackup(rootDirectory, new DirectoryScanCache(rootDirectory, null), threads)) {
+                paths.add(Util.getRelativePath(file, rootDirectory));
+            }
+            assertEquals(expected, paths);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+
+public class CopyEngineTest extends TestCase {
+
+    private File sourceDir;
+    private File destinationDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        File base = new File(new File(System.getProperty("java.io.tmpdir")), "CopyEngineTest");
+        FileUtils.deleteDirectory(base);
+        sourceDir = new File(base, "source");
+        destinationDir = new File(base, "destination");
+        assertTrue(sourceDir.mkdirs());
+        assertTrue(destinationDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(sourceDir.getParentFile());
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        CopyEngine engine = new CopyEngine(4, false);
+        try {
+            for(int i = 0; i < 100; i++) {
+                File source = new File(sourceDir, "jobs/job" + (i % 10) + "/builds/" + i + "/log");
+                assertTrue(source.getParentFile().mkdirs());
+                Files.write("Started by timer " + i, source, Charsets.UTF_8);
+                assertTrue(source.setLastModified(1300000000000L + i * 1000L));
+                engine.copy(source, new File(destinationDir, "jobs/job" + (i % 10) + "/builds/" + i + "/log"), true);
+            }
+            assertEquals(0, engine.await());
+        } finally {
+            engine.close();
+        }
+        for(int i = 0; i < 100; i++) {
+            File copy = new File(destinationDir, "jobs/job" + (i % 10) + "/builds/" + i + "/log");
+            assertEquals("Started by timer " + i, Files.toString(copy, Charsets.UTF_8));
+            assertEquals(1300000000000L + i * 1000L, copy.lastModified());
+        }
+    }
+
+    @Test
+    public void testCopyDirectoryInParallel() throws Exception {
+        File source = new File(sourceDir, "backup.null");
+        for(int i = 0; i < 20; i++) {
+            File file = new File(source, "jobs/job" + (i % 4) + "/builds/" + i + "/log");
+            Files.createParentDirs(file);
+            Files.write("Started by timer " + i, file, Charsets.UTF_8);
+        }
+        assertTrue(new File(source, "userContent").mkdirs());
+
+        File destination = new File(destinationDir, "backup.null");
+        CopyEngine.copyDirectoryInParallel(source, destination);
+
+        for(int i = 0; i < 20; i++) {
+            File copy = new File(destination, "jobs/job" + (i % 4) + "/builds/" + i + "/log");
+            assertEquals("Started by timer " + i, Files.toString(copy, Charsets.UTF_8));
+        }
+        // The empty directories are copied too
+        assertTrue(new File(destination, "userContent").isDirectory());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        CopyEngine engine = new CopyEngine(2, false);
+        try {
+            engine.copy(new File(sourceDir, "missing"), new File(destinationDir, "missing"), true);
+            assertEquals(1, engine.await());
+            // The failures are counted since the previous call
+            assertEquals(0, engine.await());
+        } finally {
+            engine.close();
+        }
+    }
+
+    @Test
+    public void testHardLinks() throws Exception {
+        File source = new File(sourceDir, "config.xml");
+        Files.write("<hudson/>", source, Charsets.UTF_8);
+        // The file is linked, or copied where the links are not supported
+        CopyEngine engine = new CopyEngine(1, CopyEngine.isSameFileSystem(sourceDir, destinationDir));
+        try {
+            engine.copy(source, new File(destinationDir, "config.xml"), true);
+            assertEquals(0, engine.await());
+        } finally {
+            engine.close();
+        }
+        assertEquals("<hudson/>", Files.toString(new File(destinationDir, "config.xml"), Charsets.UTF_8));
+    }
+}
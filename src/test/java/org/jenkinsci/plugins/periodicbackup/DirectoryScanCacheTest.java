@@ -0,0 +1,163 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+
+public class DirectoryScanCacheTest extends TestCase {
+
+    private File rootDirectory;
+    private File jobDirectory;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        rootDirectory = Files.createTempDir();
+        jobDirectory = new File(rootDirectory, "jobs/job");
+        for(String path : new String[] {"config.xml", "jobs/job/config.xml", "jobs/job/builds/1/log"}) {
+            File file = new File(rootDirectory, path);
+            Files.createParentDirs(file);
+            Files.touch(file);
+        }
+        // Directories modified just before the scan are not cached
+        long past = System.currentTimeMillis() - 60000;
+        for(String path : new String[] {"", "jobs", "jobs/job", "jobs/job/builds", "jobs/job/builds/1"}) {
+            assertTrue(new File(rootDirectory, path).setLastModified(past));
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(rootDirectory);
+        super.tearDown();
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        DirectoryScanCache cache = DirectoryScanCache.load(rootDirectory);
+        assertEquals(Sets.newHashSet("config.xml", "jobs"), names(cache.list(rootDirectory)));
+        assertEquals(Sets.newHashSet("config.xml", "builds"), names(cache.list(jobDirectory)));
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        cache.save();
+        assertTrue(new File(rootDirectory, DirectoryScanCache.FILE_NAME).exists());
+
+        cache = DirectoryScanCache.load(rootDirectory);
+        List<DirectoryScanCache.Entry> entries = cache.list(rootDirectory);
+        // The cache file itself is not listed
+        assertEquals(Sets.newHashSet("config.xml", "jobs"), names(entries));
+        for(DirectoryScanCache.Entry entry : entries) {
+            assertEquals(entry.getName().equals("jobs"), entry.isDirectory());
+            assertEquals(new File(rootDirectory, entry.getName()), entry.getFile());
+        }
+        assertEquals(Sets.newHashSet("config.xml", "builds"), names(cache.list(jobDirectory)));
+        // Saving the cache file has modified the root directory
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testModifiedDirectoryIsListed() throws Exception {
+        DirectoryScanCache cache = DirectoryScanCache.load(rootDirectory);
+        cache.list(jobDirectory);
+        cache.save();
+
+        Files.touch(new File(jobDirectory, "nextBuildNumber"));
+        assertTrue(jobDirectory.setLastModified(System.currentTimeMillis() - 30000));
+        cache = DirectoryScanCache.load(rootDirectory);
+        assertEquals(Sets.newHashSet("config.xml", "builds", "nextBuildNumber"), names(cache.list(jobDirectory)));
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testOnlyListedDirectoriesAreSaved() throws Exception {
+        DirectoryScanCache cache = DirectoryScanCache.load(rootDirectory);
+        cache.list(rootDirectory);
+        cache.list(jobDirectory);
+        cache.save();
+
+        cache = DirectoryScanCache.load(rootDirectory);
+        cache.list(rootDirectory);
+        cache.save();
+
+        cache = DirectoryScanCache.load(rootDirectory);
+        cache.list(jobDirectory);
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testTrustedListing() throws Exception {
+        DirectoryScanCache cache = DirectoryScanCache.load(rootDirectory);
+        cache.list(jobDirectory);
+        cache.save();
+
+        Files.touch(new File(jobDirectory, "nextBuildNumber"));
+        assertTrue(jobDirectory.setLastModified(System.currentTimeMillis() - 30000));
+        DirtyDirectoryTracker tracker = new DirtyDirectoryTracker();
+        tracker.takeSnapshot();
+        cache = DirectoryScanCache.load(rootDirectory);
+        cache.trust(tracker.takeSnapshot());
+        // The change has not been reported, the cached listing is used without checking the directory
+        assertEquals(Sets.newHashSet("config.xml", "builds"), names(cache.list(jobDirectory)));
+
+        tracker.markFileDirty(new File(jobDirectory, "nextBuildNumber"));
+        cache = DirectoryScanCache.load(rootDirectory);
+        cache.trust(tracker.takeSnapshot());
+        assertEquals(Sets.newHashSet("config.xml", "builds", "nextBuildNumber"), names(cache.list(jobDirectory)));
+    }
+
+    @Test
+    public void testUntrackedDirectoryIsChecked() throws Exception {
+        File fingerprints = new File(rootDirectory, "fingerprints");
+        assertTrue(fingerprints.mkdir());
+        assertTrue(fingerprints.setLastModified(System.currentTimeMillis() - 60000));
+        DirectoryScanCache cache = DirectoryScanCache.load(rootDirectory);
+        cache.list(fingerprints);
+        cache.save();
+
+        // Jenkins writes the fingerprints without any event, the directory is checked even if it is clean
+        Files.touch(new File(fingerprints, "42.xml"));
+        assertTrue(fingerprints.setLastModified(System.currentTimeMillis() - 30000));
+        DirtyDirectoryTracker tracker = new DirtyDirectoryTracker();
+        tracker.takeSnapshot();
+        cache = DirectoryScanCache.load(rootDirectory);
+        cache.trust(tracker.takeSnapshot());
+        assertEquals(Sets.newHashSet("42.xml"), names(cache.list(fingerprints)));
+    }
+
+    @Test
+    public void testIsTrackedByJenkins() throws Exception {
+        assertTrue(DirectoryScanCache.isTrackedByJenkins("/jobs"));
+        assertTrue(DirectoryScanCache.isTrackedByJenkins("/jobs/job/builds/1"));
+        assertTrue(DirectoryScanCache.isTrackedByJenkins("/users/admin"));
+        assertFalse(DirectoryScanCache.isTrackedByJenkins(""));
+        assertFalse(DirectoryScanCache.isTrackedByJenkins("/fingerprints/00/11"));
+        assertFalse(DirectoryScanCache.isTrackedByJenkins("/plugins"));
+        assertFalse(DirectoryScanCache.isTrackedByJenkins("/userContent"));
+        assertFalse(DirectoryScanCache.isTrackedByJenkins("/jobs/job/workspace"));
+        assertFalse(DirectoryScanCache.isTrackedByJenkins("/jobs/job/workspace/src"));
+    }
+
+    @Test
+    public void testDamagedCacheIsIgnored() throws Exception {
+        Files.write("not a cache".getBytes(), new File(rootDirectory, DirectoryScanCache.FILE_NAME));
+        DirectoryScanCache cache = DirectoryScanCache.load(rootDirectory);
+        assertEquals(Sets.newHashSet("config.xml", "jobs"), names(cache.list(rootDirectory)));
+        assertEquals(1, cache.getMisses());
+    }
+
+    private Set<String> names(List<DirectoryScanCache.Entry> entries) {
+        Set<String> names = Sets.newHashSet();
+        for(DirectoryScanCache.Entry entry : entries) {
+            names.add(entry.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,51 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+
+public class DirtyDirectoryTrackerTest extends TestCase {
+
+    private final File root = new File("/var/jenkins");
+
+    @Test
+    public void testFirstSnapshotIsVerified() throws Exception {
+        DirtyDirectoryTracker tracker = new DirtyDirectoryTracker();
+        tracker.markDirty(new File(root, "jobs/job"), false);
+        DirtyDirectoryTracker.Snapshot snapshot = tracker.takeSnapshot();
+        assertTrue(snapshot.isVerify());
+        assertFalse(snapshot.isClean(new File(root, "users")));
+        assertFalse(tracker.takeSnapshot().isVerify());
+    }
+
+    @Test
+    public void testDirtyDirectories() throws Exception {
+        DirtyDirectoryTracker tracker = new DirtyDirectoryTracker();
+        tracker.takeSnapshot();
+        tracker.markFileDirty(new File(root, "jobs/job/config.xml"));
+        tracker.markDirty(new File(root, "jobs/job/builds/2"), true);
+        DirtyDirectoryTracker.Snapshot snapshot = tracker.takeSnapshot();
+        assertFalse(snapshot.isVerify());
+        assertFalse(snapshot.isClean(new File(root, "jobs/job")));
+        assertFalse(snapshot.isClean(new File(root, "jobs/job/builds/2")));
+        assertFalse(snapshot.isClean(new File(root, "jobs/job/builds/2/archive/target")));
+        assertTrue(snapshot.isClean(new File(root, "jobs/job/builds/1")));
+        assertTrue(snapshot.isClean(new File(root, "jobs")));
+        assertTrue(snapshot.isClean(root));
+        // The tracker starts over after the snapshot
+        assertTrue(tracker.takeSnapshot().isClean(new File(root, "jobs/job")));
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        DirtyDirectoryTracker tracker = new DirtyDirectoryTracker();
+        tracker.takeSnapshot();
+        for(int i = 0; i <= 10000; i++) {
+            tracker.markDirty(new File(root, "jobs/job" + i), true);
+        }
+        DirtyDirectoryTracker.Snapshot snapshot = tracker.takeSnapshot();
+        assertTrue(snapshot.isVerify());
+        assertFalse(snapshot.isClean(new File(root, "users")));
+    }
+}
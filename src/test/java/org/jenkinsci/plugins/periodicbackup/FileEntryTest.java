@@ -0,0 +1,49 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+
+public class FileEntryTest extends TestCase {
+
+    private File rootDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        rootDir = new File(new File(System.getProperty("java.io.tmpdir")), "FileEntryTest");
+        FileUtils.deleteDirectory(rootDir);
+        assertTrue(new File(rootDir, "jobs/job").mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(rootDir);
+    }
+
+    @Test
+    public void testAttributes() throws Exception {
+        File file = new File(rootDir, "jobs/job/config.xml");
+        Files.write("<project/>", file, Charsets.UTF_8);
+        FileEntry entry = FileEntry.of(file, rootDir);
+        assertEquals(file, entry.getFile());
+        assertEquals("jobs/job/config.xml", entry.getPath());
+        assertEquals(file.length(), entry.getSize());
+        // lstat has a resolution of a second
+        assertEquals(file.lastModified() / 1000, entry.getLastModified() / 1000);
+        assertFalse(entry.isSymlink());
+    }
+
+    @Test
+    public void testRelativePath() throws Exception {
+        assertEquals("config.xml", FileEntry.relativePath(new File(rootDir, "config.xml"), rootDir));
+        assertEquals("jobs/job/nextBuildNumber", FileEntry.relativePath(new File(rootDir, "jobs/job/nextBuildNumber"), rootDir));
+        // Not a prefix of the path of the file, the homedir is only a prefix of the name
+        File sibling = new File(rootDir.getParentFile(), rootDir.getName() + "-other");
+        assertEquals(Util.getRelativePath(new File(sibling, "config.xml"), rootDir),
+                FileEntry.relativePath(new File(sibling, "config.xml"), rootDir));
+    }
+}
@@ -0,0 +1,29 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class FileTypeTest extends TestCase {
+
+    @Test
+    public void testOf() {
+        assertEquals(FileType.XML, FileType.of("config.xml"));
+        assertEquals(FileType.XML, FileType.of("jobs/job/builds/1/build.xml"));
+        assertEquals(FileType.TEXT, FileType.of("jobs/job/builds/1/log"));
+        assertEquals(FileType.TEXT, FileType.of("jobs/job/nextBuildNumber"));
+        assertEquals(FileType.TEXT, FileType.of("jobs/job/builds/1/junitResult.txt"));
+        assertEquals(FileType.COMPRESSED, FileType.of("jobs/job/builds/1/log.gz"));
+        assertEquals(FileType.COMPRESSED, FileType.of("jobs/job/builds/1/archive/app.JAR"));
+        assertEquals(FileType.BINARY, FileType.of("jobs/job/builds/1/archive/app.so"));
+        // The dot of a directory does not make an extension
+        assertEquals(FileType.TEXT, FileType.of("jobs/job.xml/builds/1/log"));
+    }
+
+    @Test
+    public void testOrder() {
+        // The Storages get the files in the order of the constants
+        assertTrue(FileType.XML.compareTo(FileType.TEXT) < 0);
+        assertTrue(FileType.TEXT.compareTo(FileType.BINARY) < 0);
+        assertTrue(FileType.BINARY.compareTo(FileType.COMPRESSED) < 0);
+    }
+}
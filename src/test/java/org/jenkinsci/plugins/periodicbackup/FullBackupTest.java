@@ -0,0 +1,70 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.tools.ant.DirectoryScanner;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+
+public class FullBackupTest extends TestCase {
+
+    private File rootDirectory;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        rootDirectory = Files.createTempDir();
+        for(String path : new String[] {"config.xml", "config.xml~", "jobs/job/config.xml", "jobs/job/builds/1/log",
+                "userContent/.svn/entries", "userContent/readme.txt", "scm/.git/HEAD", "scm/.gitignore"}) {
+            File file = new File(rootDirectory, path);
+            Files.createParentDirs(file);
+            Files.touch(file);
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(rootDirectory);
+        super.tearDown();
+    }
+
+    @Test
+    public void testSameFilesAsDirectoryScanner() throws Exception {
+        DirectoryScanner directoryScanner = new DirectoryScanner();
+        directoryScanner.setBasedir(rootDirectory);
+        directoryScanner.scan();
+        Set<String> expected = Sets.newHashSet();
+        for(String s : directoryScanner.getIncludedFiles()) {
+            expected.add(s.replace(File.separatorChar, '/'));
+        }
+        Set<String> paths = Sets.newHashSet();
+        for(File file : new FullBackup().getFilesToBackup(rootDirectory, new DirectoryScanCache(rootDirectory, null))) {
+            paths.add(Util.getRelativePath(file, rootDirectory));
+        }
+        assertEquals(expected, paths);
+    }
+
+    @Test
+    public void testLazyScan() throws Exception {
+        Iterable<File> files = new FullBackup().getFilesToBackup(rootDirectory, new DirectoryScanCache(rootDirectory, null));
+        // Nothing has been walked yet, the file created now is found
+        assertFalse(files instanceof Collection);
+        File added = new File(rootDirectory, "jobs/job/builds/2/log");
+        Files.createParentDirs(added);
+        Files.touch(added);
+
+        Iterator<File> iterator = files.iterator();
+        Set<File> walked = Sets.newHashSet();
+        while(iterator.hasNext()) {
+            walked.add(iterator.next());
+        }
+        assertTrue(walked.contains(added));
+        assertEquals(9, walked.size());
+    }
+}
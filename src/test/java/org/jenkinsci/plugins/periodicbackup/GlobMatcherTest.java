@@ -0,0 +1,53 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class GlobMatcherTest extends TestCase {
+
+    @Test
+    public void testPatterns() throws Exception {
+        GlobMatcher matcher = GlobMatcher.parse("workspace/**\n**/builds/*/archive/**, caches/\n# comment\n*.log.gz\njobs/*/config.xml\nnodes/a?c/**/x.txt");
+        assertEquals(6, matcher.getPatterns().size());
+
+        assertTrue(matcher.matches("workspace"));
+        assertTrue(matcher.matches("workspace/job/file.txt"));
+        assertFalse(matcher.matches("workspaces"));
+        assertFalse(matcher.matches("jobs/job/workspace"));
+
+        assertTrue(matcher.matches("jobs/job/builds/12/archive"));
+        assertTrue(matcher.matches("jobs/job/builds/12/archive/target/app.jar"));
+        assertFalse(matcher.matches("jobs/job/builds/12/log"));
+
+        assertTrue(matcher.matches("caches"));
+        assertTrue(matcher.matches("caches/git/objects"));
+
+        assertTrue(matcher.matches("log.log.gz"));
+        assertTrue(matcher.matches("jobs/job/builds/12/log.log.gz"));
+        assertFalse(matcher.matches("jobs/job/builds/12/log.gz.txt"));
+
+        assertTrue(matcher.matches("jobs/job/config.xml"));
+        assertFalse(matcher.matches("jobs/folder/jobs/job/config.xml"));
+
+        assertTrue(matcher.matches("nodes/abc/x.txt"));
+        assertTrue(matcher.matches("nodes/abc/d/e/x.txt"));
+        assertFalse(matcher.matches("nodes/abbc/x.txt"));
+    }
+
+    @Test
+    public void testSpecialCharacters() throws Exception {
+        GlobMatcher matcher = GlobMatcher.parse("jobs/a+b (1)/**\n**/[x].txt");
+        assertTrue(matcher.matches("jobs/a+b (1)/config.xml"));
+        assertFalse(matcher.matches("jobs/aab (1)/config.xml"));
+        assertTrue(matcher.matches("dir/[x].txt"));
+        assertFalse(matcher.matches("dir/x.txt"));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        GlobMatcher matcher = GlobMatcher.parse(" \n# nothing\n");
+        assertTrue(matcher.isEmpty());
+        assertFalse(matcher.matches("config.xml"));
+        assertTrue(GlobMatcher.parse(null).isEmpty());
+    }
+}
@@ -0,0 +1,56 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+public class HotFileReportTest extends TestCase {
+
+    @Test
+    public void testTopK() throws Exception {
+        File root = new File("/jenkins");
+        HotFileReport report = new HotFileReport(3, root);
+        for(int i = 1; i <= 10; i++) {
+            // The size grows with i, the time falls with i
+            report.add("Zip", new File(root, "jobs/job" + i + "/config.xml"), i * 100, (11 - i) * 1000);
+        }
+        assertEquals(5500, report.getTotalBytes());
+        assertEquals(55000, report.getTotalNanos());
+
+        List<HotFileReport.FileCost> largest = report.getLargest();
+        assertEquals(3, largest.size());
+        assertEquals("jobs/job10/config.xml", largest.get(0).getPath());
+        assertEquals("jobs/job9/config.xml", largest.get(1).getPath());
+        assertEquals("jobs/job8/config.xml", largest.get(2).getPath());
+        assertEquals(1000.0 / 55, report.getBytesShare(largest.get(0)), 0.001);
+
+        List<HotFileReport.FileCost> slowest = report.getSlowest();
+        assertEquals(3, slowest.size());
+        assertEquals("jobs/job1/config.xml", slowest.get(0).getPath());
+        assertEquals("jobs/job3/config.xml", slowest.get(2).getPath());
+    }
+
+    @Test
+    public void testStoredBytes() throws Exception {
+        File root = new File("/jenkins");
+        HotFileReport report = new HotFileReport(2, root);
+        report.add("Zip", new File(root, "big.log"), 1000, 10);
+        report.add("Zip", new File(root, "small.xml"), 10, 1);
+        report.add("NullStorage", new File(root, "big.log"), 1000, 5);
+        report.setStoredBytes("Zip", "big.log", 250);
+        report.setStoredBytes("Zip", "unknown.xml", 1);
+
+        for(HotFileReport.FileCost cost : report.getLargest()) {
+            if(cost.getStorage().equals("Zip")) {
+                assertEquals(250, cost.getStoredBytes());
+                assertEquals(0.25, cost.getCompressionRatio(), 0.0001);
+            }
+            else {
+                assertEquals(-1, cost.getStoredBytes());
+                assertEquals(-1.0, cost.getCompressionRatio(), 0.0001);
+            }
+        }
+    }
+}
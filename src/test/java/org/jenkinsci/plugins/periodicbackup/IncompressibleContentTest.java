@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Random;
+
+public class IncompressibleContentTest extends TestCase {
+
+    @Test
+    public void testCompressedExtension() throws Exception {
+        assertTrue(IncompressibleContent.hasCompressedExtension("jobs/job/builds/1/log.gz"));
+        assertTrue(IncompressibleContent.hasCompressedExtension("jobs/job/builds/1/archive/target/app.JAR"));
+        assertTrue(IncompressibleContent.hasCompressedExtension("userContent/logo.png"));
+        assertFalse(IncompressibleContent.hasCompressedExtension("jobs/job/config.xml"));
+        assertFalse(IncompressibleContent.hasCompressedExtension("jobs/job.zip/nextBuildNumber"));
+        assertFalse(IncompressibleContent.hasCompressedExtension("secret.key"));
+    }
+
+    @Test
+    public void testEntropy() throws Exception {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        for(int i = 0; i < 500; i++) {
+            text.write(("<line number=\"" + i + "\"/>\n").getBytes("UTF-8"));
+        }
+        byte[] random = new byte[IncompressibleContent.SAMPLE_SIZE];
+        new Random(42).nextBytes(random);
+        assertFalse(IncompressibleContent.isIncompressible(text.toByteArray(), 0, text.size()));
+        assertTrue(IncompressibleContent.isIncompressible(random, 0, random.length));
+        // Too short to tell
+        assertFalse(IncompressibleContent.isIncompressible(random, 0, 100));
+    }
+
+    @Test
+    public void testSampledFile() throws Exception {
+        File directory = new File(new File(System.getProperty("java.io.tmpdir")), "IncompressibleContentTest");
+        FileUtils.deleteDirectory(directory);
+        assertTrue(directory.mkdirs());
+        try {
+            byte[] random = new byte[3 * IncompressibleContent.SAMPLE_SIZE];
+            new Random(42).nextBytes(random);
+            File file = new File(directory, "fingerprint");
+            FileUtils.writeByteArrayToFile(file, random);
+            byte[] buffer = new byte[IncompressibleContent.SAMPLE_SIZE];
+            assertTrue(IncompressibleContent.isIncompressible(new FileEntry(file, "fingerprint", random.length, 0, FileEntry.UNKNOWN_MODE, false), buffer));
+            // Small files are compressed without reading them
+            assertFalse(IncompressibleContent.isIncompressible(new FileEntry(file, "fingerprint", 100, 0, FileEntry.UNKNOWN_MODE, false), buffer));
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+}
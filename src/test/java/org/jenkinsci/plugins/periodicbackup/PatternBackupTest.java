@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Set;
+
+public class PatternBackupTest extends TestCase {
+
+    private File rootDirectory;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        rootDirectory = Files.createTempDir();
+        for(String path : new String[] {"config.xml", "hudson.tasks.Maven.xml", "workspace/job/pom.xml",
+                "jobs/job/config.xml", "jobs/job/builds/1/log", "jobs/job/builds/1/log.gz",
+                "jobs/job/builds/1/archive/app.jar", "caches/git/HEAD"}) {
+            File file = new File(rootDirectory, path);
+            Files.createParentDirs(file);
+            Files.touch(file);
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(rootDirectory);
+        super.tearDown();
+    }
+
+    @Test
+    public void testExcludes() throws Exception {
+        PatternBackup patternBackup = new PatternBackup("", "workspace/**\n**/builds/*/archive/**\ncaches/**\n*.gz");
+        assertEquals(Sets.newHashSet("config.xml", "hudson.tasks.Maven.xml", "jobs/job/config.xml", "jobs/job/builds/1/log"),
+                relativePaths(patternBackup));
+    }
+
+    @Test
+    public void testIncludesAndExcludes() throws Exception {
+        PatternBackup patternBackup = new PatternBackup("*.xml", "workspace/");
+        assertEquals(Sets.newHashSet("config.xml", "hudson.tasks.Maven.xml", "jobs/job/config.xml"), relativePaths(patternBackup));
+    }
+
+    private Set<String> relativePaths(PatternBackup patternBackup) throws Exception {
+        Set<String> paths = Sets.newHashSet();
+        for(File file : patternBackup.getFilesToBackup(rootDirectory, new DirectoryScanCache(rootDirectory, null))) {
+            paths.add(Util.getRelativePath(file, rootDirectory));
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,84 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Set;
+
+public class RecentBuildsBackupTest extends TestCase {
+
+    private final static long DAY = 24 * 60 * 60 * 1000L;
+    private final static long NOW = new GregorianCalendar(2011, Calendar.MARCH, 20).getTimeInMillis();
+
+    private File rootDirectory;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        rootDirectory = Files.createTempDir();
+        touch("config.xml", "jobs/job/config.xml", "jobs/job/nextBuildNumber", "jobs/job/builds/legacyIds",
+                "jobs/job/builds/1/log", "jobs/job/builds/2/log", "jobs/job/builds/10/log", "jobs/job/builds/10/archive/app.jar",
+                "jobs/folder/config.xml", "jobs/folder/jobs/nested/config.xml",
+                "jobs/folder/jobs/nested/builds/2011-03-01_10-00-00/log", "jobs/folder/jobs/nested/builds/2011-03-18_10-00-00/log",
+                "jobs/folder/jobs/nested/builds/2011-03-19_10-00-00/log", "jobs/folder/jobs/nested/builds/3/log");
+        new File(rootDirectory, "jobs/job/builds/lastSuccessfulBuild").mkdirs();
+        new File(rootDirectory, "jobs/job/builds/1").setLastModified(NOW - 30 * DAY);
+        new File(rootDirectory, "jobs/job/builds/2").setLastModified(NOW - 3 * DAY);
+        new File(rootDirectory, "jobs/job/builds/10").setLastModified(NOW - DAY);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(rootDirectory);
+        super.tearDown();
+    }
+
+    @Test
+    public void testBuildsToKeep() throws Exception {
+        assertEquals(Sets.newHashSet("config.xml", "jobs/job/config.xml", "jobs/job/nextBuildNumber", "jobs/job/builds/legacyIds",
+                "jobs/job/builds/10/log", "jobs/job/builds/10/archive/app.jar", "jobs/job/builds/2/log",
+                "jobs/folder/config.xml", "jobs/folder/jobs/nested/config.xml",
+                "jobs/folder/jobs/nested/builds/2011-03-19_10-00-00/log", "jobs/folder/jobs/nested/builds/2011-03-18_10-00-00/log"),
+                relativePaths(new RecentBuildsBackup(2, 0)));
+    }
+
+    @Test
+    public void testDaysToKeep() throws Exception {
+        assertEquals(Sets.newHashSet("config.xml", "jobs/job/config.xml", "jobs/job/nextBuildNumber", "jobs/job/builds/legacyIds",
+                "jobs/job/builds/10/log", "jobs/job/builds/10/archive/app.jar", "jobs/job/builds/2/log",
+                "jobs/folder/config.xml", "jobs/folder/jobs/nested/config.xml",
+                "jobs/folder/jobs/nested/builds/2011-03-19_10-00-00/log", "jobs/folder/jobs/nested/builds/2011-03-18_10-00-00/log"),
+                relativePaths(new RecentBuildsBackup(0, 7)));
+    }
+
+    @Test
+    public void testBothLimits() throws Exception {
+        assertEquals(Sets.newHashSet("config.xml", "jobs/job/config.xml", "jobs/job/nextBuildNumber", "jobs/job/builds/legacyIds",
+                "jobs/job/builds/10/log", "jobs/job/builds/10/archive/app.jar",
+                "jobs/folder/config.xml", "jobs/folder/jobs/nested/config.xml",
+                "jobs/folder/jobs/nested/builds/2011-03-19_10-00-00/log"),
+                relativePaths(new RecentBuildsBackup(1, 7)));
+    }
+
+    private void touch(String... paths) throws Exception {
+        for(String path : paths) {
+            File file = new File(rootDirectory, path);
+            Files.createParentDirs(file);
+            Files.touch(file);
+        }
+    }
+
+    private Set<String> relativePaths(RecentBuildsBackup recentBuildsBackup) throws Exception {
+        Set<String> paths = Sets.newHashSet();
+        for(File file : recentBuildsBackup.getFilesToBackup(rootDirectory, new DirectoryScanCache(rootDirectory, null), NOW)) {
+            paths.add(Util.getRelativePath(file, rootDirectory));
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,120 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+public class RestoreExecutorTest extends HudsonTestCase {
+
+    private final static String BACKUP_CONFIG = "<project><description>backup</description></project>";
+
+    private File baseDir;
+    private File locationDir;
+    private File tempDir;
+    private Date timestamp;
+    private String fileNameBase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        baseDir = new File(new File(System.getProperty("java.io.tmpdir")), "RestoreExecutorTest");
+        FileUtils.deleteDirectory(baseDir);
+        locationDir = new File(baseDir, "location");
+        tempDir = new File(baseDir, "temp");
+        assertTrue(locationDir.mkdirs());
+        assertTrue(tempDir.mkdirs());
+        timestamp = new Date();
+        fileNameBase = Util.generateFileNameBase(timestamp);
+        // A NullStorage backup of two volumes: the critical configuration and the build history
+        write(new File(locationDir, fileNameBase + ".null/jobs/job/config.xml"), BACKUP_CONFIG);
+        write(new File(locationDir, fileNameBase + "_2.null/jobs/job/builds/1/log"), "Started by timer");
+        write(new File(hudson.getRootDir(), "userContent/live.txt"), "not in the backup");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(baseDir);
+        super.tearDown();
+    }
+
+    @Test
+    public void testTieredRestore() throws Exception {
+        BackupObject backupObject = new BackupObject(new ConfigOnly(), new NullStorage(),
+                new LocalDirectory(locationDir, true), timestamp, Lists.newArrayList(fileNameBase + ".null"));
+        new RestoreExecutor(backupObject, tempDir.getAbsolutePath(), true).run();
+
+        assertEquals(BACKUP_CONFIG, read("jobs/job/config.xml"));
+        assertEquals("Started by timer", read("jobs/job/builds/1/log"));
+    }
+
+    @Test
+    public void testWithoutCriticalArchives() throws Exception {
+        // The whole backup is restored at once
+        BackupObject backupObject = new BackupObject(new ConfigOnly(), new NullStorage(),
+                new LocalDirectory(locationDir, true), timestamp, Collections.<String>emptyList());
+        new RestoreExecutor(backupObject, tempDir.getAbsolutePath(), true).run();
+
+        assertEquals(BACKUP_CONFIG, read("jobs/job/config.xml"));
+        assertEquals("Started by timer", read("jobs/job/builds/1/log"));
+    }
+
+    @Test
+    public void testFailedBuildHistoryKeepsHome() throws Exception {
+        // FullBackup would delete the files which are not in the backup, it must not run after a failure
+        BackupObject backupObject = new BackupObject(new FullBackup(), new FailingStorage(fileNameBase + "_2.null"),
+                new LocalDirectory(locationDir, true), timestamp, Lists.newArrayList(fileNameBase + ".null"));
+        new RestoreExecutor(backupObject, tempDir.getAbsolutePath(), true).run();
+
+        // Only the critical configuration has been restored, nothing has been deleted
+        assertEquals(BACKUP_CONFIG, read("jobs/job/config.xml"));
+        assertFalse(new File(hudson.getRootDir(), "jobs/job/builds/1/log").exists());
+        assertEquals("not in the backup", read("userContent/live.txt"));
+    }
+
+    @Test
+    public void testCriticalArchivesOfSeveralVolumes() throws Exception {
+        List<File> archives = Lists.newArrayList(new File("backup_10.zip"), new File("backup_2.zip"),
+                new File("backup_1.zip"), new File("backup_3.zip"));
+        assertEquals(Lists.newArrayList("backup_1.zip", "backup_2.zip"),
+                BackupExecutor.getCriticalArchives(archives, new File("backup_2.zip")));
+        assertTrue(BackupExecutor.getCriticalArchives(archives, null).isEmpty());
+    }
+
+    private String read(String path) throws IOException {
+        return Files.toString(new File(hudson.getRootDir(), path), Charsets.UTF_8);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.createParentDirs(file);
+        Files.write(content, file, Charsets.UTF_8);
+    }
+
+    /**
+     * Cannot extract the given volume, like a corrupted archive
+     */
+    private static class FailingStorage extends NullStorage {
+
+        private final String failing;
+
+        FailingStorage(String failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public void unarchiveFile(File archive, File finalResultDir) {
+            if(archive.getName().equals(failing)) {
+                throw new IllegalStateException("Corrupted archive " + archive.getName());
+            }
+            super.unarchiveFile(archive, finalResultDir);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RestorePipelineTest extends TestCase {
+
+    private File tempDir;
+    private File finalResultDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        File base = new File(new File(System.getProperty("java.io.tmpdir")), "RestorePipelineTest");
+        FileUtils.deleteDirectory(base);
+        tempDir = new File(base, "temp");
+        finalResultDir = new File(base, "finalResult");
+        assertTrue(tempDir.mkdirs());
+        assertTrue(finalResultDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir.getParentFile());
+    }
+
+    @Test
+    public void testPrefetchOrdering() throws Exception {
+        TestLocation location = new TestLocation(8);
+        TestStorage storage = new TestStorage(false);
+        storage.delay = 20;
+        BackupObject backupObject = new BackupObject(new ConfigOnly(), storage, location, new Date());
+
+        new RestorePipeline(backupObject, 2, 4).run(tempDir, finalResultDir);
+
+        // A single extracting thread keeps the order of the volumes
+        assertEquals(location.names, storage.extracted);
+        // The retrieval waits for the extraction: the archive being put, the queue, the archive taken from the queue
+        // and the one being extracted
+        assertTrue(location.maxAhead.get() <= 1 + 2 + 1 + 1);
+    }
+
+    @Test
+    public void testExtractionFailure() throws Exception {
+        TestLocation location = new TestLocation(8);
+        TestStorage storage = new TestStorage(true);
+        storage.failing = "archive_2";
+        BackupObject backupObject = new BackupObject(new ConfigOnly(), storage, location, new Date());
+
+        try {
+            new RestorePipeline(backupObject, 1, 2).run(tempDir, finalResultDir);
+            fail("The extraction of archive_2 has failed");
+        } catch (BackupCancelledException e) {
+            fail("A failed extraction is not a cancel");
+        } catch (PeriodicBackupException e) {
+            assertTrue(e.getMessage().contains("archive_2"));
+        }
+        // The rest of the backup is not retrieved once an extraction has failed
+        assertTrue(location.retrieved.get() < 8);
+    }
+
+    @Test
+    public void testCancelWhileRetrieverBlocked() throws Exception {
+        TestLocation location = new TestLocation(10);
+        final TestStorage storage = new TestStorage(false);
+        storage.blocked = new CountDownLatch(1);
+        final BackupProgress progress = new BackupProgress();
+        final BackupObject backupObject = new BackupObject(new ConfigOnly(), storage, location, new Date());
+        final AtomicReference<Exception> result = new AtomicReference<Exception>();
+
+        Thread restore = new Thread(new Runnable() {
+            public void run() {
+                progress.start(BackupProgress.RESTORE);
+                try {
+                    new RestorePipeline(backupObject, 1, 1, progress).run(tempDir, finalResultDir);
+                } catch (Exception e) {
+                    result.set(e);
+                } finally {
+                    progress.finish();
+                }
+            }
+        });
+        restore.start();
+        // The first archive is being extracted, the queue is full and the retriever is blocked on put
+        while(location.retrieved.get() < 4) {
+            Thread.sleep(10);
+        }
+        progress.cancel();
+        storage.blocked.countDown();
+        restore.join(TimeUnit.SECONDS.toMillis(30));
+
+        assertFalse("The cancelled restore hangs", restore.isAlive());
+        assertTrue(result.get() instanceof BackupCancelledException);
+        assertTrue(location.retrieved.get() < 10);
+        assertEquals(Lists.newArrayList("archive_1"), storage.extracted);
+        // The archives taken from the queue and left in it are deleted
+        assertFalse(new File(tempDir, "archive_2").exists());
+        assertFalse(new File(tempDir, "archive_3").exists());
+    }
+
+    /**
+     * Retrieves the given number of empty archives named archive_1, archive_2...
+     */
+    private static class TestLocation extends Location {
+
+        private final List<String> names = Lists.newArrayList();
+        private final AtomicInteger retrieved = new AtomicInteger();
+        private final AtomicInteger maxAhead = new AtomicInteger();
+        private volatile TestStorage storage;
+
+        TestLocation(int archives) {
+            super(true);
+            for(int i = 1; i <= archives; i++) {
+                names.add("archive_" + i);
+            }
+        }
+
+        @Override
+        public void retrieveBackupFromLocation(BackupObject backup, File tempDir, Predicate<String> archiveFilter,
+                                               BlockingQueue<File> queue) throws IOException, InterruptedException {
+            storage = (TestStorage) backup.getStorage();
+            for(String name : names) {
+                File archive = new File(tempDir, name);
+                if(!archive.createNewFile()) {
+                    throw new IOException("Could not create " + archive.getAbsolutePath());
+                }
+                int ahead = retrieved.incrementAndGet() - storage.extracted.size();
+                if(ahead > maxAhead.get()) {
+                    maxAhead.set(ahead);
+                }
+                queue.put(archive);
+            }
+        }
+
+        @Override
+        public Iterable<BackupObject> getAvailableBackups() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void storeBackupInLocation(Iterable<File> archives, File backupObjectFile) {
+        }
+
+        @Override
+        public Iterable<File> retrieveBackupFromLocation(BackupObject backup, File tempDir) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void deleteBackupFiles(BackupObject backupObject) {
+        }
+
+        public String getDisplayName() {
+            return "TestLocation";
+        }
+    }
+
+    /**
+     * Records the extracted archives, it can fail on an archive or wait before the first extraction
+     */
+    private static class TestStorage extends Storage {
+
+        private final List<String> extracted = Collections.synchronizedList(Lists.<String>newArrayList());
+        private final boolean concurrent;
+        private volatile long delay;
+        private volatile String failing;
+        private volatile CountDownLatch blocked;
+
+        TestStorage(boolean concurrent) {
+            this.concurrent = concurrent;
+        }
+
+        @Override
+        public void unarchiveFile(File archive, File finalResultDir) {
+            try {
+                if(blocked != null) {
+                    blocked.await();
+                }
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            if(archive.getName().equals(failing)) {
+                throw new IllegalStateException("Corrupted archive " + archive.getName());
+            }
+            extracted.add(archive.getName());
+        }
+
+        @Override
+        public boolean isConcurrentExtractionSupported() {
+            return concurrent;
+        }
+
+        @Override
+        public void backupStart(String tempDirectoryPath, String archiveFilenameBase) {
+        }
+
+        @Override
+        public void backupAddFile(File fileToStore) {
+        }
+
+        @Override
+        public Iterable<File> backupStop() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void unarchiveFiles(Iterable<File> archives, File finalResultDir) {
+        }
+
+        public String getDisplayName() {
+            return "TestStorage";
+        }
+    }
+}
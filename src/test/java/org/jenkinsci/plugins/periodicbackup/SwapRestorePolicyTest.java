@@ -0,0 +1,96 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+
+public class SwapRestorePolicyTest extends TestCase {
+
+    private File hudsonRoot;
+    private File finalResultDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        File base = new File(new File(System.getProperty("java.io.tmpdir")), "SwapRestorePolicyTest");
+        FileUtils.deleteDirectory(base);
+        hudsonRoot = new File(base, "home");
+        finalResultDir = new File(base, "finalResult");
+        write(hudsonRoot, "config.xml", "<hudson>live</hudson>");
+        write(hudsonRoot, "jobs/job/config.xml", "<project>live</project>");
+        write(hudsonRoot, "jobs/removed/config.xml", "<project/>");
+        write(hudsonRoot, "plugins/git.jpi", "plugin");
+        write(finalResultDir, "config.xml", "<hudson>backup</hudson>");
+        write(finalResultDir, "jobs/job/config.xml", "<project>backup</project>");
+        write(finalResultDir, "users/admin/config.xml", "<user/>");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(hudsonRoot.getParentFile());
+    }
+
+    @Test
+    public void testSwap() throws Exception {
+        new SwapRestorePolicy().restore(finalResultDir, hudsonRoot);
+
+        assertEquals("<hudson>backup</hudson>", read(hudsonRoot, "config.xml"));
+        assertEquals("<project>backup</project>", read(hudsonRoot, "jobs/job/config.xml"));
+        assertFalse(new File(hudsonRoot, "jobs/removed").exists());
+        assertTrue(new File(hudsonRoot, "users/admin/config.xml").exists());
+        // Not in the backup, not touched
+        assertEquals("plugin", read(hudsonRoot, "plugins/git.jpi"));
+
+        File[] swapDirs = new File(hudsonRoot, SwapRestorePolicy.SWAP_DIRECTORY).listFiles();
+        assertEquals("only the rollback directory is left", 1, swapDirs.length);
+        assertEquals("<project>live</project>", read(swapDirs[0], "jobs/job/config.xml"));
+        assertFalse(new File(swapDirs[0], "plugins").exists());
+    }
+
+    @Test
+    public void testRollback() throws Exception {
+        SwapRestorePolicy policy = new SwapRestorePolicy() {
+            @Override
+            boolean rename(File from, File to) {
+                // The restored users cannot be moved in, the swap fails after config.xml and jobs
+                return !(from.getName().equals("users") && to.getParentFile().equals(hudsonRoot)) && super.rename(from, to);
+            }
+        };
+        try {
+            policy.restore(finalResultDir, hudsonRoot);
+            fail("The swap should have failed");
+        } catch (PeriodicBackupException e) {
+            // expected
+        }
+
+        assertEquals("<hudson>live</hudson>", read(hudsonRoot, "config.xml"));
+        assertEquals("<project>live</project>", read(hudsonRoot, "jobs/job/config.xml"));
+        assertTrue(new File(hudsonRoot, "jobs/removed/config.xml").exists());
+        assertFalse(new File(hudsonRoot, "users").exists());
+        assertEquals("plugin", read(hudsonRoot, "plugins/git.jpi"));
+    }
+
+    @Test
+    public void testPruneRollbacks() throws Exception {
+        for(int i = 0; i < 3; i++) {
+            write(finalResultDir, "config.xml", "<hudson>backup " + i + "</hudson>");
+            new SwapRestorePolicy().restore(finalResultDir, hudsonRoot);
+            // The timestamps of the directories have a resolution of a millisecond
+            Thread.sleep(5);
+        }
+        assertEquals(2, new File(hudsonRoot, SwapRestorePolicy.SWAP_DIRECTORY).list().length);
+    }
+
+    private static void write(File dir, String path, String content) throws Exception {
+        File file = new File(dir, path);
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        Files.write(content, file, Charsets.UTF_8);
+    }
+
+    private static String read(File dir, String path) throws Exception {
+        return Files.toString(new File(dir, path), Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,68 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.io.File;
+import java.util.List;
+
+public class TarStorageTest extends HudsonTestCase {
+
+    private String baseFileName;
+    private File tempDirectory;
+    private File archive1;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        baseFileName = "baseFileName";
+        tempDirectory = new File(Resources.getResource("data/temp/").getFile());
+        if(tempDirectory.exists()) {
+            FileUtils.deleteDirectory(tempDirectory);
+        }
+        assertTrue(tempDirectory.mkdir());
+        archive1 = new File(Resources.getResource("data/archive1").getFile());
+    }
+
+    @Test
+    public void testBackupAndUnarchive() throws Exception {
+        for(TarCodec codec : TarCodec.values()) {
+            TarStorage tarStorage = new TarStorage(codec, 0);
+            tarStorage.backupStart(tempDirectory.getAbsolutePath(), baseFileName);
+            tarStorage.backupAddFile(archive1);
+            Iterable<File> files = tarStorage.backupStop();
+            File archive = files.iterator().next();
+            assertEquals(new File(tempDirectory, baseFileName + ".tar." + codec.getExtension()), archive);
+
+            File extracted = new File(tempDirectory, codec.name());
+            tarStorage.unarchiveFile(archive, extracted);
+            assertFalse(archive.exists());
+            assertEquals(1, extracted.listFiles().length);
+        }
+    }
+
+    @Test
+    public void testDictionary() throws Exception {
+        TarStorage tarStorage = new TarStorage(TarCodec.ZSTD, 0, true);
+        List<FileEntry> files = Lists.newArrayList();
+        for(File file : archive1.getParentFile().listFiles()) {
+            if(file.isFile()) {
+                files.add(FileEntry.of(file, archive1.getParentFile()));
+            }
+        }
+        tarStorage.backupPrepare(files);
+        tarStorage.backupStart(tempDirectory.getAbsolutePath(), baseFileName);
+        for(FileEntry file : files) {
+            tarStorage.backupAddFile(file);
+        }
+        File archive = tarStorage.backupStop().iterator().next();
+
+        File extracted = new File(tempDirectory, "extracted");
+        tarStorage.unarchiveFile(archive, extracted);
+        assertEquals(files.size(), extracted.listFiles().length);
+    }
+}
@@ -0,0 +1,91 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class TarWriterTest extends TestCase {
+
+    private File rootDir;
+    private File tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        File base = new File(new File(System.getProperty("java.io.tmpdir")), "TarWriterTest");
+        FileUtils.deleteDirectory(base);
+        rootDir = new File(base, "root");
+        tempDir = new File(base, "temp");
+        assertTrue(new File(rootDir, "jobs/job").mkdirs());
+        assertTrue(tempDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(rootDir.getParentFile());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        String longName = "jobs/job/" + Strings.repeat("long-directory-name/", 8) + "log";
+        File config = write("jobs/job/config.xml", "<project/>");
+        File log = write(longName, Strings.repeat("Started by timer\n", 1000));
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        OutputStream out = TarCodec.GZIP.compress(archive, 1, 1);
+        TarWriter tarWriter = new TarWriter(out);
+        byte[] buffer = new byte[Util.COPY_BUFFER_SIZE];
+        for(File file : new File[] { config, log }) {
+            FileEntry entry = FileEntry.of(file, rootDir);
+            tarWriter.writeHeader(entry);
+            tarWriter.writeData(entry, buffer);
+        }
+        tarWriter.finish();
+        out.close();
+
+        TarGzStorage.extractTar(TarCodec.GZIP.decompress(new ByteArrayInputStream(archive.toByteArray())), tempDir);
+        assertEquals("<project/>", Files.toString(new File(tempDir, "jobs/job/config.xml"), Charsets.UTF_8));
+        assertEquals(log.length(), new File(tempDir, longName).length());
+    }
+
+    @Test
+    public void testChangedFile() throws Exception {
+        File grown = write("jobs/job/nextBuildNumber", "42");
+        File shrunk = write("jobs/job/config.xml", "<project/>");
+        FileEntry grownEntry = FileEntry.of(grown, rootDir);
+        FileEntry shrunkEntry = FileEntry.of(shrunk, rootDir);
+        Files.write("142", grown, Charsets.UTF_8);
+        Files.write("<p/>", shrunk, Charsets.UTF_8);
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        TarWriter tarWriter = new TarWriter(archive);
+        byte[] buffer = new byte[Util.COPY_BUFFER_SIZE];
+        for(FileEntry entry : new FileEntry[] { grownEntry, shrunkEntry }) {
+            tarWriter.writeHeader(entry);
+            tarWriter.writeData(entry, buffer);
+        }
+        tarWriter.finish();
+
+        // The sizes of the headers are kept, the archive stays readable
+        TarGzStorage.extractTar(new ByteArrayInputStream(archive.toByteArray()), tempDir);
+        assertEquals("14", Files.toString(new File(tempDir, "jobs/job/nextBuildNumber"), Charsets.UTF_8));
+        File extracted = new File(tempDir, "jobs/job/config.xml");
+        assertEquals(10, extracted.length());
+        assertTrue(Files.toString(extracted, Charsets.UTF_8).startsWith("<p/>"));
+    }
+
+    private File write(String path, String content) throws IOException {
+        File file = new File(rootDir, path);
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        Files.write(content, file, Charsets.UTF_8);
+        return file;
+    }
+}
@@ -1,5 +1,6 @@
 package org.jenkinsci.plugins.periodicbackup;
 
+import com.google.common.collect.Lists;
 import com.google.common.io.Resources;
 import junit.framework.TestCase;
 import org.junit.Test;
@@ -61,5 +62,34 @@ public class UtilTest extends TestCase {
         assertTrue(Util.isValidBackupObjectFile(backupObjectFile));
     }
 
+    @Test
+    public void testArchiveVolumeOrder() throws Exception {
+        List<File> archives = Lists.newArrayList(
+                new File("backup_2011_01_01_00_00_00_000_10.zip"),
+                new File("backup_2011_01_01_00_00_00_000_2.zip"),
+                new File("backup_2011_01_01_00_00_00_000_1.zip"));
+        Collections.sort(archives, Util.archiveVolumeOrder());
+
+        assertEquals(archives.get(0).getName(), "backup_2011_01_01_00_00_00_000_1.zip");
+        assertEquals(archives.get(1).getName(), "backup_2011_01_01_00_00_00_000_2.zip");
+        assertEquals(archives.get(2).getName(), "backup_2011_01_01_00_00_00_000_10.zip");
+    }
+
+    @Test
+    public void testIsCriticalFile() throws Exception {
+        assertTrue(Util.isCriticalFile("config.xml"));
+        assertTrue(Util.isCriticalFile("hudson.tasks.Maven.xml"));
+        assertTrue(Util.isCriticalFile("jobs/job1/config.xml"));
+        assertTrue(Util.isCriticalFile("jobs/job1/nextBuildNumber"));
+        assertTrue(Util.isCriticalFile("users/admin/config.xml"));
+        assertTrue(Util.isCriticalFile("nodes/slave1/config.xml"));
+        assertTrue(Util.isCriticalFile("secrets/master.key"));
+
+        assertFalse(Util.isCriticalFile("secret.key"));
+        assertFalse(Util.isCriticalFile("jobs/job1/builds/1/build.xml"));
+        assertFalse(Util.isCriticalFile("jobs/job1/builds/config.xml"));
+        assertFalse(Util.isCriticalFile("plugins/plugin1/config.xml"));
+    }
+
 }
 
@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.periodicbackup;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+public class ZstdDictionaryTest extends TestCase {
+
+    private File rootDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        rootDir = new File(new File(System.getProperty("java.io.tmpdir")), "ZstdDictionaryTest");
+        FileUtils.deleteDirectory(rootDir);
+        assertTrue(rootDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(rootDir);
+    }
+
+    @Test
+    public void testFrameRoundTrip() throws Exception {
+        byte[] bytes = "<?xml version='1.0' encoding='UTF-8'?><project>".getBytes(Charsets.UTF_8);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        new ZstdDictionary(bytes).write(archive);
+        archive.write(42);
+
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(archive.toByteArray()));
+        ZstdDictionary dictionary = ZstdDictionary.read(in);
+        assertNotNull(dictionary);
+        assertTrue(Arrays.equals(bytes, dictionary.getBytes()));
+        // The frames follow the dictionary
+        assertEquals(42, in.read());
+    }
+
+    @Test
+    public void testNoFrame() throws Exception {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(new byte[] { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd, 0, 0, 0, 0, 1 }));
+        assertNull(ZstdDictionary.read(in));
+        // The stream is left at the beginning of the first frame
+        assertEquals(0x28, in.read());
+    }
+
+    @Test
+    public void testTrain() throws Exception {
+        List<FileEntry> files = Lists.newArrayList();
+        for(int i = 0; i < 10; i++) {
+            files.add(write("jobs/job" + i + "/config.xml", "<project><description>job " + i + "</description></project>"));
+        }
+        byte[] buffer = new byte[Util.COPY_BUFFER_SIZE];
+        // Too few small files to train on
+        assertNull(ZstdDictionary.train(files, buffer));
+
+        for(int i = 10; i < 100; i++) {
+            files.add(write("jobs/job" + i + "/config.xml", "<project><description>job " + i + "</description></project>"));
+        }
+        files.add(write("jobs/job0/builds/1/log", new String(new char[ZstdDictionary.SMALL_FILE_SIZE + 1]).replace('\0', 'x')));
+        ZstdDictionary dictionary = ZstdDictionary.train(files, buffer);
+        assertNotNull(dictionary);
+        assertTrue(dictionary.getBytes().length > 0);
+    }
+
+    private FileEntry write(String path, String content) throws Exception {
+        File file = new File(rootDir, path);
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        Files.write(content, file, Charsets.UTF_8);
+        return FileEntry.of(file, rootDir);
+    }
+}